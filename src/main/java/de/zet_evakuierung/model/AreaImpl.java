@@ -66,6 +66,17 @@ abstract class AreaImpl extends PlanPolygon<PlanEdge> implements Area {
 		return associatedRoom;
 	}
 
+	/**
+	 * {@inheritDoc} The stamp is passed on to the associated room.
+	 * @param stamp the new stamp
+	 */
+	@Override
+	void modified( long stamp ) {
+		super.modified( stamp );
+		if( associatedRoom != null )
+			associatedRoom.modified( stamp );
+	}
+
 	/**
 	 * This operation takes care of setting the room that is associated to this
 	 * area. It also conserves the consistence with the area lists in the rooms.
@@ -0,0 +1,365 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package de.zet_evakuierung.model;
+
+import event.EventListener;
+import event.EventServer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>A cache for data derived from the model, such as triangulations, grids or
+ * graphs. Each artifact records the rooms and floors it depends on while it is
+ * computed. It stays valid as long as none of them is modified, which is checked
+ * by comparing the modification stamps when the artifact is requested.</p>
+ * <p>The cache is bounded by the estimated size of the artifacts. If the
+ * bound is exceeded, the least recently used artifacts are removed. If the
+ * cache is registered at the {@link EventServer}, artifacts depending on rooms
+ * reported by a {@link ZModelRoomEvent} or {@link ZModelAreaEvent} are removed
+ * immediately, together with the artifacts depending on the floors of the
+ * rooms.</p>
+ * <p>All methods are thread safe. Artifacts are computed without holding the
+ * lock of the cache, thus an artifact requested by several threads at the same
+ * time may be computed more than once.</p>
+ * @author Jan-Philipp Kappmeier
+ */
+public class ArtifactCache implements EventListener<ZModelRoomEvent> {
+	/** The default bound of the size of the cache in bytes. */
+	public static final long DEFAULT_CAPACITY = 64L * 1024 * 1024;
+	/** The maximal total size of all artifacts. */
+	private final long capacity;
+	/** The artifacts in the order of their last access. */
+	private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<>( 16, 0.75f, true );
+	/** The artifacts depending on a room or floor. */
+	private final IdentityHashMap<Object, Set<Entry>> dependents = new IdentityHashMap<>();
+	/** The total size of all artifacts. */
+	private long size;
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * Computes an artifact.
+	 * @param <T> the type of the artifact
+	 */
+	public interface Computation<T> {
+		/**
+		 * Computes the artifact. All rooms and floors used in the computation have
+		 * to be registered at the dependencies.
+		 * @param dependencies the dependencies of the artifact
+		 * @return the artifact
+		 */
+		T compute( Dependencies dependencies );
+
+		/**
+		 * Estimates the memory used by an artifact.
+		 * @param artifact the artifact
+		 * @return the estimated size in bytes
+		 */
+		long size( T artifact );
+	}
+
+	/**
+	 * The rooms and floors an artifact depends on, together with their
+	 * modification stamps at the time of the computation.
+	 */
+	public static final class Dependencies {
+		private final List<Object> objects = new ArrayList<>();
+		private final List<Long> stamps = new ArrayList<>();
+
+		private Dependencies() {
+		}
+
+		/**
+		 * Registers a room. The artifact is invalid if the room or one of its areas
+		 * is modified.
+		 * @param room the room
+		 */
+		public void add( Room room ) {
+			if( !contains( room ) ) {
+				objects.add( room );
+				stamps.add( stamp( room ) );
+			}
+		}
+
+		/**
+		 * Registers a floor. The artifact is invalid if a room is added to or removed
+		 * from the floor, or if any room of the floor is modified.
+		 * @param floor the floor
+		 */
+		public void add( FloorInterface floor ) {
+			if( !contains( floor ) ) {
+				objects.add( floor );
+				stamps.add( stamp( floor ) );
+			}
+		}
+
+		private boolean contains( Object o ) {
+			for( Object e : objects )
+				if( e == o )
+					return true;
+			return false;
+		}
+
+		private boolean isValid() {
+			for( int i = 0; i < objects.size(); ++i )
+				if( stamp( objects.get( i ) ) != stamps.get( i ) )
+					return false;
+			return true;
+		}
+
+		private static long stamp( Object o ) {
+			if( o instanceof Room )
+				return ((Room)o).getPolygon().getModificationStamp();
+			return o instanceof Floor ? ((Floor)o).getModificationStamp() : 0;
+		}
+	}
+
+	/** A cached artifact. */
+	private static class Entry {
+		final Object key;
+		final Object artifact;
+		final long size;
+		final Dependencies dependencies;
+
+		Entry( Object key, Object artifact, long size, Dependencies dependencies ) {
+			this.key = key;
+			this.artifact = artifact;
+			this.size = size;
+			this.dependencies = dependencies;
+		}
+	}
+
+	/**
+	 * Creates a new cache with the default capacity.
+	 */
+	public ArtifactCache() {
+		this( DEFAULT_CAPACITY );
+	}
+
+	/**
+	 * Creates a new cache.
+	 * @param capacity the maximal total size of all artifacts in bytes
+	 * @throws IllegalArgumentException if the capacity is negative
+	 */
+	public ArtifactCache( long capacity ) throws IllegalArgumentException {
+		if( capacity < 0 )
+			throw new IllegalArgumentException( "Capacity must be non-negative: " + capacity );
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Registers the cache at the {@link EventServer} such that artifacts are
+	 * removed as soon as their rooms are reported to be changed.
+	 */
+	public void register() {
+		EventServer.getInstance().registerListener( this, ZModelRoomEvent.class );
+	}
+
+	/**
+	 * Removes the cache from the {@link EventServer}.
+	 */
+	public void unregister() {
+		EventServer.getInstance().unregisterListener( this );
+	}
+
+	/**
+	 * Returns an artifact. A cached artifact is returned if it exists and none of
+	 * its dependencies has been modified, otherwise the artifact is computed and
+	 * cached. Artifacts that are larger than the capacity are not cached.
+	 * @param <T> the type of the artifact
+	 * @param key the key identifying the artifact, compared by {@code equals}
+	 * @param computation computes the artifact
+	 * @return the artifact
+	 */
+	@SuppressWarnings( "unchecked" )
+	public <T> T get( Object key, Computation<T> computation ) {
+		synchronized( this ) {
+			final Entry entry = entries.get( key );
+			if( entry != null ) {
+				if( entry.dependencies.isValid() ) {
+					hits++;
+					return (T)entry.artifact;
+				}
+				remove( entry );
+			}
+			misses++;
+		}
+		final Dependencies dependencies = new Dependencies();
+		final T artifact = computation.compute( dependencies );
+		final long artifactSize = computation.size( artifact );
+		if( artifactSize <= capacity )
+			synchronized( this ) {
+				final Entry old = entries.get( key );
+				if( old != null )
+					remove( old );
+				put( new Entry( key, artifact, artifactSize, dependencies ) );
+			}
+		return artifact;
+	}
+
+	/**
+	 * Removes all artifacts depending on a room or its floor.
+	 * @param room the room
+	 * @return the number of removed artifacts
+	 */
+	public synchronized int invalidate( Room room ) {
+		int removed = invalidateDependents( room );
+		if( room.getAssociatedFloor() != null )
+			removed += invalidateDependents( room.getAssociatedFloor() );
+		return removed;
+	}
+
+	/**
+	 * Removes all artifacts depending on a floor.
+	 * @param floor the floor
+	 * @return the number of removed artifacts
+	 */
+	public synchronized int invalidate( FloorInterface floor ) {
+		return invalidateDependents( floor );
+	}
+
+	/**
+	 * Removes all artifacts.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		dependents.clear();
+		size = 0;
+	}
+
+	/**
+	 * Removes the artifacts depending on the rooms of the event.
+	 * @param event the event
+	 */
+	@Override
+	public void handleEvent( ZModelRoomEvent event ) {
+		for( Room room : event.getAffectedRooms() )
+			if( room != null )
+				invalidate( room );
+	}
+
+	/**
+	 * Returns the number of cached artifacts.
+	 * @return the number of cached artifacts
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns the estimated total size of the cached artifacts.
+	 * @return the size in bytes
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the maximal total size of the cached artifacts.
+	 * @return the capacity in bytes
+	 */
+	public long getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns the number of requests that have been answered from the cache.
+	 * @return the number of hits
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of requests for which the artifact was computed.
+	 * @return the number of misses
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Returns the number of artifacts removed to keep the size below the
+	 * capacity.
+	 * @return the number of evictions
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	private int invalidateDependents( Object dependency ) {
+		final Set<Entry> affected = dependents.get( dependency );
+		if( affected == null )
+			return 0;
+		final List<Entry> copy = new ArrayList<>( affected );
+		for( Entry entry : copy )
+			remove( entry );
+		return copy.size();
+	}
+
+	private void put( Entry entry ) {
+		entries.put( entry.key, entry );
+		size += entry.size;
+		for( Object dependency : entry.dependencies.objects ) {
+			Set<Entry> set = dependents.get( dependency );
+			if( set == null ) {
+				set = Collections.newSetFromMap( new IdentityHashMap<Entry, Boolean>() );
+				dependents.put( dependency, set );
+			}
+			set.add( entry );
+		}
+		// Evict the least recently used artifacts
+		final Iterator<Map.Entry<Object, Entry>> it = entries.entrySet().iterator();
+		while( size > capacity && it.hasNext() ) {
+			final Entry eldest = it.next().getValue();
+			if( eldest == entry )
+				continue;
+			it.remove();
+			unlink( eldest );
+			evictions++;
+		}
+	}
+
+	private void remove( Entry entry ) {
+		if( entries.get( entry.key ) == entry ) {
+			entries.remove( entry.key );
+			unlink( entry );
+		}
+	}
+
+	/**
+	 * Removes an artifact from the size and the dependency index.
+	 */
+	private void unlink( Entry entry ) {
+		size -= entry.size;
+		for( Object dependency : entry.dependencies.objects ) {
+			final Set<Entry> set = dependents.get( dependency );
+			if( set != null ) {
+				set.remove( entry );
+				if( set.isEmpty() )
+					dependents.remove( dependency );
+			}
+		}
+	}
+}
@@ -0,0 +1,204 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package de.zet_evakuierung.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.regex.Pattern;
+
+/**
+ * <p>Stores derived artifacts in a directory on disk. The artifacts are keyed
+ * by a kind and a {@link ContentHash content hash} of the model objects they
+ * are computed from. Thus, results for floors or rooms that are unchanged in a
+ * revised project can be reused, even across runs of the program.</p>
+ * <p>Each artifact is stored in the file {@code <directory>/<kind>/<hash>}. The
+ * files are written to a temporary file first and moved atomically, thus
+ * concurrent readers never see partially written artifacts. Unreadable
+ * artifacts are treated as absent.</p>
+ * @author Jan-Philipp Kappmeier
+ */
+public class ArtifactStore {
+	/**
+	 * The allowed names of kinds. Dots only separate non-empty parts, thus
+	 * {@code .}, {@code ..} and hidden names cannot be used.
+	 */
+	private static final Pattern KIND = Pattern.compile( "[A-Za-z0-9_-]+(\\.[A-Za-z0-9_-]+)*" );
+	/** The directory containing the artifacts. */
+	private final Path directory;
+
+	/**
+	 * Produces an artifact that is not stored.
+	 * @param <T> the type of the artifact
+	 */
+	public interface Producer<T extends Serializable> {
+		/**
+		 * Computes the artifact.
+		 * @return the artifact
+		 */
+		T produce();
+	}
+
+	/**
+	 * Creates a new store in a directory. The directory is created when the first
+	 * artifact is written.
+	 * @param directory the directory
+	 */
+	public ArtifactStore( File directory ) {
+		this.directory = directory.toPath();
+	}
+
+	/**
+	 * Returns the directory containing the artifacts.
+	 * @return the directory
+	 */
+	public File getDirectory() {
+		return directory.toFile();
+	}
+
+	/**
+	 * Reads the data of an artifact.
+	 * @param kind the kind of the artifact
+	 * @param hash the content hash of the objects the artifact is computed from
+	 * @return the data, {@code null} if no artifact is stored
+	 * @throws IOException if the artifact exists but cannot be read
+	 * @throws IllegalArgumentException if the kind is not a valid name
+	 */
+	public byte[] read( String kind, long hash ) throws IOException, IllegalArgumentException {
+		try {
+			return Files.readAllBytes( file( kind, hash ) );
+		} catch( NoSuchFileException ex ) {
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the data of an artifact, replacing any stored data.
+	 * @param kind the kind of the artifact
+	 * @param hash the content hash of the objects the artifact is computed from
+	 * @param data the data
+	 * @throws IOException if the artifact cannot be written
+	 * @throws IllegalArgumentException if the kind is not a valid name
+	 */
+	public void write( String kind, long hash, byte[] data ) throws IOException, IllegalArgumentException {
+		final Path target = file( kind, hash );
+		Files.createDirectories( target.getParent() );
+		final Path temp = Files.createTempFile( target.getParent(), target.getFileName().toString(), ".tmp" );
+		try {
+			Files.write( temp, data );
+			try {
+				Files.move( temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+			} catch( AtomicMoveNotSupportedException ex ) {
+				Files.move( temp, target, StandardCopyOption.REPLACE_EXISTING );
+			}
+		} finally {
+			Files.deleteIfExists( temp );
+		}
+	}
+
+	/**
+	 * Deletes an artifact.
+	 * @param kind the kind of the artifact
+	 * @param hash the content hash of the objects the artifact is computed from
+	 * @return {@code true} if the artifact existed
+	 * @throws IOException if the artifact cannot be deleted
+	 * @throws IllegalArgumentException if the kind is not a valid name
+	 */
+	public boolean delete( String kind, long hash ) throws IOException, IllegalArgumentException {
+		return Files.deleteIfExists( file( kind, hash ) );
+	}
+
+	/**
+	 * Loads a serialized artifact.
+	 * @param <T> the type of the artifact
+	 * @param kind the kind of the artifact
+	 * @param hash the content hash of the objects the artifact is computed from
+	 * @param type the class of the artifact
+	 * @return the artifact, {@code null} if no artifact of the type is stored or
+	 * it cannot be read
+	 * @throws IllegalArgumentException if the kind is not a valid name
+	 */
+	public <T extends Serializable> T load( String kind, long hash, Class<T> type ) throws IllegalArgumentException {
+		try {
+			final byte[] data = read( kind, hash );
+			if( data == null )
+				return null;
+			try( ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( data ) ) ) {
+				final Object artifact = in.readObject();
+				return type.isInstance( artifact ) ? type.cast( artifact ) : null;
+			}
+		} catch( IOException | ClassNotFoundException ex ) {
+			return null;
+		}
+	}
+
+	/**
+	 * Stores a serialized artifact.
+	 * @param kind the kind of the artifact
+	 * @param hash the content hash of the objects the artifact is computed from
+	 * @param artifact the artifact
+	 * @throws IOException if the artifact cannot be written
+	 * @throws IllegalArgumentException if the kind is not a valid name
+	 */
+	public void save( String kind, long hash, Serializable artifact ) throws IOException, IllegalArgumentException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try( ObjectOutputStream out = new ObjectOutputStream( bytes ) ) {
+			out.writeObject( artifact );
+		}
+		write( kind, hash, bytes.toByteArray() );
+	}
+
+	/**
+	 * Returns a stored artifact or produces and stores it, if it is not stored.
+	 * Failures to write the artifact are ignored, the artifact is recomputed the
+	 * next time.
+	 * @param <T> the type of the artifact
+	 * @param kind the kind of the artifact
+	 * @param hash the content hash of the objects the artifact is computed from
+	 * @param type the class of the artifact
+	 * @param producer computes the artifact
+	 * @return the artifact
+	 * @throws IllegalArgumentException if the kind is not a valid name
+	 */
+	public <T extends Serializable> T get( String kind, long hash, Class<T> type, Producer<T> producer ) throws IllegalArgumentException {
+		T artifact = load( kind, hash, type );
+		if( artifact == null ) {
+			artifact = producer.produce();
+			try {
+				save( kind, hash, artifact );
+			} catch( IOException ex ) {
+				// the artifact is recomputed the next time
+			}
+		}
+		return artifact;
+	}
+
+	private Path file( String kind, long hash ) throws IllegalArgumentException {
+		if( kind == null || !KIND.matcher( kind ).matches() )
+			throw new IllegalArgumentException( "Invalid kind of artifact: " + kind );
+		return directory.resolve( kind ).resolve( String.format( "%016x", hash ) );
+	}
+}
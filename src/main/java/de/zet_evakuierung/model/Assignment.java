@@ -17,6 +17,7 @@ package de.zet_evakuierung.model;
 
 import com.thoughtworks.xstream.annotations.XStreamAlias;
 import com.thoughtworks.xstream.annotations.XStreamAsAttribute;
+import com.thoughtworks.xstream.annotations.XStreamOmitField;
 import org.zetool.common.localization.Localization;
 import org.zetool.common.localization.LocalizationManager;
 import de.zet_evakuierung.io.z.AssignmentConverter;
@@ -40,6 +41,9 @@ public class Assignment implements Serializable {
 	private String name;
 	/** The List of assignmentTypes, which belong to this assignment. */
 	private ArrayList<AssignmentType> assignmentTypes;
+	/** The positions of the assignment types in the list, compared by identity. Rebuilt from the list after loading. */
+	@XStreamOmitField
+	private transient IdentityIndex<AssignmentType> typeIndex;
 	/** Static variable that stores the default-value for the area, that a person needs. Its unit is square millimeter. */
 	public static int spacePerPerson = 160000;
 	final static Localization loc = LocalizationManager.getManager().getLocalization( ZLocalization.ZET_LOCALIZATION );
@@ -74,10 +78,13 @@ public class Assignment implements Serializable {
 	}
 
 	/**
-	 * Returns all assignmentTypes of this assignment.
+	 * Returns all assignmentTypes of this assignment in the order in which they
+	 * have been added.
 	 * @return All assignmentTypes of this assignment.
 	 */
 	public List<AssignmentType> getAssignmentTypes() {
+		if( typeIndex != null )
+			typeIndex.compact();
 		return Collections.unmodifiableList( assignmentTypes );
 	}
 
@@ -87,24 +94,20 @@ public class Assignment implements Serializable {
 	 * @throws java.lang.IllegalArgumentException If the new assignmentType already is an assignmentType of this assignment.
 	 */
 	public void addAssignmentType( AssignmentType val ) throws IllegalArgumentException {
-		if( assignmentTypes.contains( val ) )
+		if( !typeIndex().add( val ) )
 			throw new IllegalArgumentException( loc.getString( "ds.z.Assignment.DoubleAssignmentTypeException" ) );
-		else {
-			assignmentTypes.add( val );
-		}
 	}
 
 	/**
-	 * Removes an assignmentType from the list of assignmentTypes of this assignment.
+	 * Removes an assignmentType from the list of assignmentTypes of this
+	 * assignment in amortized constant time.
 	 * @param val The assignmentType to be removed.
 	 * @throws java.lang.IllegalArgumentException If the assignmentType is not in the list of assignmentTypes of this assignment.
 	 */
 	public void deleteAssignmentType( AssignmentType val ) throws IllegalArgumentException {
-		if( !assignmentTypes.contains( val ) )
+		if( !typeIndex().remove( val ) )
 			throw new IllegalArgumentException( loc.getString( "ds.z.Assignment.AssignmentTypeNotNotFoundException" ) );
 		else {
-			assignmentTypes.remove( val );
-
 			// Delete corresponding assignment areas
 			// The areas deregister themselves out of the getAssignmentAreas() list, so
 			// this list has to be copied before deleting
@@ -120,13 +123,34 @@ public class Assignment implements Serializable {
 	 */
 	public void delete() {
 		// Delete all assignment areas
-		for( AssignmentType t : assignmentTypes )
-			// Don't use for loop here - will throw a concurrent modification exception - TIMON
-			//for( AssignmentArea a : t.getAssignmentAreas() )
-			while(!t.getAssignmentAreas().isEmpty())
-				t.getAssignmentAreas().get( 0 ).delete();
+		for( AssignmentType t : getAssignmentTypes() )
+			// The areas deregister themselves, so the list has to be copied before deleting
+			for( AssignmentArea a : t.getAssignmentAreas().toArray( new AssignmentArea[t.getAssignmentAreas().size()] ) )
+				a.delete();
 		assignmentTypes.clear();
 		assignmentTypes = null;
+		typeIndex = null;
+	}
+
+	/**
+	 * Returns the positions of the assignment types in the list. Types are
+	 * compared by identity.
+	 * @return the positions of the assignment types
+	 */
+	private IdentityIndex<AssignmentType> typeIndex() {
+		if( typeIndex == null )
+			typeIndex = new IdentityIndex<>( assignmentTypes );
+		return typeIndex;
+	}
+
+	/**
+	 * Removes the entries of deleted types from the list before it is written.
+	 * @return this assignment
+	 */
+	private Object writeReplace() {
+		if( typeIndex != null )
+			typeIndex.compact();
+		return this;
 	}
 
 	/**
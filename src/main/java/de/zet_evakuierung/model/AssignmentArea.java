@@ -18,6 +18,7 @@ package de.zet_evakuierung.model;
 
 import com.thoughtworks.xstream.annotations.XStreamAlias;
 import com.thoughtworks.xstream.annotations.XStreamAsAttribute;
+import com.thoughtworks.xstream.annotations.XStreamOmitField;
 import org.zetool.common.localization.Localization;
 import org.zetool.common.localization.LocalizationManager;
 import de.zet_evakuierung.model.exception.PolygonNotClosedException;
@@ -37,6 +38,18 @@ public class AssignmentArea extends AreaImpl {
 	private AssignmentType assignmentType;
 	/** The evacuation area representing the exit that the persons this rooms should use. */
 	private EvacuationArea exit;
+	/** The cached free area in square millimeters. */
+	@XStreamOmitField
+	private transient long netArea;
+	/** The room the free area was computed for. */
+	@XStreamOmitField
+	private transient Room netAreaRoom;
+	/** The modification stamp of the room, or of the area if it is not in a room, at computation time. */
+	@XStreamOmitField
+	private transient long netAreaStamp;
+	/** Whether the free area has been computed. */
+	@XStreamOmitField
+	private transient boolean netAreaValid;
 	final static Localization loc = LocalizationManager.getManager().getLocalization( ZLocalization.ZET_LOCALIZATION );
 
 	/**
@@ -118,6 +131,35 @@ public class AssignmentArea extends AreaImpl {
 		return new AssignmentArea (getAssociatedRoom (), getAssignmentType ());
 	}
 
+	/**
+	 * Returns the free area of this area, that is the area that is not covered
+	 * by inaccessible areas of the room. The value is cached and only recomputed
+	 * if the geometry of the area or of the obstacles in the room changes. The
+	 * modifications of the area are also stamped on its room.
+	 * @return the free area in square millimeters
+	 */
+	public long getNetArea() {
+		final Room room = getAssociatedRoom();
+		final long stamp = room != null ? room.getPolygon().getModificationStamp() : getModificationStamp();
+		if( !netAreaValid || room != netAreaRoom || stamp != netAreaStamp ) {
+			netArea = CapacityCalculator.netArea( this, room );
+			netAreaRoom = room;
+			netAreaStamp = stamp;
+			netAreaValid = true;
+		}
+		return netArea;
+	}
+
+	/**
+	 * Returns the maximal number of persons for this area. Only the free area
+	 * that is not covered by inaccessible areas is taken into account.
+	 * @return the maximal number of persons for this area
+	 */
+	@Override
+	public int getMaxEvacuees() {
+		return CapacityCalculator.maxEvacuees( getNetArea() );
+	}
+
 	/**
 	 * Returns the currently set value for the number of evacuees.
 	 * @return Number of evacuees in this area.
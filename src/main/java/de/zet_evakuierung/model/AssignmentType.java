@@ -18,6 +18,7 @@ package de.zet_evakuierung.model;
 
 import com.thoughtworks.xstream.annotations.XStreamAlias;
 import com.thoughtworks.xstream.annotations.XStreamAsAttribute;
+import com.thoughtworks.xstream.annotations.XStreamOmitField;
 import org.zetool.common.localization.Localization;
 import org.zetool.common.localization.LocalizationManager;
 import org.zetool.rndutils.distribution.Distribution;
@@ -57,6 +58,9 @@ public class AssignmentType implements Serializable, Named {
 	private int standardEvacuees;
 	/** The list of the assignmentAreas, which belong to this assignmentType. */
 	private ArrayList<AssignmentArea> assignmentAreas;
+	/** The positions of the assignment areas in the list, compared by identity. Rebuilt from the list after loading. */
+	@XStreamOmitField
+	private transient IdentityIndex<AssignmentArea> areaIndex;
 	/** Unique ID of this AssignmentType */
 	private UUID uid;
 	final static Localization loc = LocalizationManager.getManager().getLocalization( ZLocalization.ZET_LOCALIZATION );
@@ -237,10 +241,13 @@ public class AssignmentType implements Serializable, Named {
 	}
 
 	/**
-	 * Returns the list assignmentAreas of this assignmentType.
+	 * Returns the list assignmentAreas of this assignmentType in the order in
+	 * which they have been added.
 	 * @return The list assignmentAreas of this assignmentType.
 	 */
 	public List<AssignmentArea> getAssignmentAreas() {
+		if( areaIndex != null )
+			areaIndex.compact();
 		return Collections.unmodifiableList( assignmentAreas );
 	}
 
@@ -250,20 +257,40 @@ public class AssignmentType implements Serializable, Named {
 	 * @throws java.lang.IllegalArgumentException If the area already is in the list.
 	 */
 	void addAssignmentArea( AssignmentArea val ) throws IllegalArgumentException {
-		if( assignmentAreas.contains( val ) )
+		if( !areaIndex().add( val ) )
 			throw new IllegalArgumentException( loc.getString( "ds.z.AssignmentType.DoubleAssignmentAreaException" ) );
-		assignmentAreas.add( val );
 	}
 
 	/**
-	 * Removes an assignmentArea from the list of assignmentAreas of this assignmentType.
+	 * Removes an assignmentArea from the list of assignmentAreas of this
+	 * assignmentType in amortized constant time.
 	 * @param familiarity The assignmentArea to be removed.
 	 * @throws java.lang.IllegalArgumentException If the area is not in the list.
 	 */
 	void deleteAssignmentArea( AssignmentArea val ) throws IllegalArgumentException {
-		if( !assignmentAreas.contains( val ) )
+		if( !areaIndex().remove( val ) )
 			throw new IllegalArgumentException( loc.getString( "ds.z.AssignmentType.AssignmentAreaNotFound" ) );
-		assignmentAreas.remove( val );
+	}
+
+	/**
+	 * Returns the positions of the assignment areas in the list. Areas are
+	 * compared by identity, as the equality of polygons compares all edges.
+	 * @return the positions of the assignment areas
+	 */
+	private IdentityIndex<AssignmentArea> areaIndex() {
+		if( areaIndex == null )
+			areaIndex = new IdentityIndex<>( assignmentAreas );
+		return areaIndex;
+	}
+
+	/**
+	 * Removes the entries of deleted areas from the list before it is written.
+	 * @return this assignment type
+	 */
+	private Object writeReplace() {
+		if( areaIndex != null )
+			areaIndex.compact();
+		return this;
 	}
 
 	/**
@@ -271,7 +298,8 @@ public class AssignmentType implements Serializable, Named {
 	 * (Calls assignmentArea.delete() for all its assignmentAreas).
 	 */
 	public void delete() {
-		for( AssignmentArea assignmentArea : assignmentAreas )
+		// The areas deregister themselves, so the list has to be copied before deleting
+		for( AssignmentArea assignmentArea : getAssignmentAreas().toArray( new AssignmentArea[assignmentAreas.size()] ) )
 			assignmentArea.delete();
 	}
 
@@ -280,7 +308,7 @@ public class AssignmentType implements Serializable, Named {
 	 * to its standard number of evacuees.
 	 */
 	public void setEvacueesOfAllAreasToStandardEvacuees() {
-		for( AssignmentArea assignmentArea : assignmentAreas )
+		for( AssignmentArea assignmentArea : getAssignmentAreas() )
 			assignmentArea.setEvacuees( standardEvacuees );
 	}
 
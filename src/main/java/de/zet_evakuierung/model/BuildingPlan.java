@@ -18,6 +18,7 @@ package de.zet_evakuierung.model;
 
 import com.thoughtworks.xstream.annotations.XStreamAlias;
 import com.thoughtworks.xstream.annotations.XStreamImplicit;
+import com.thoughtworks.xstream.annotations.XStreamOmitField;
 import org.zetool.common.datastructure.Tuple;
 import de.zet_evakuierung.model.exception.AreaNotInsideException;
 import de.zet_evakuierung.model.exception.PolygonNotClosedException;
@@ -49,6 +50,9 @@ public class BuildingPlan implements Serializable, Iterable<Floor> {
 	private ArrayList<Floor> floors;
 	/** Indicates, if the BuildingPlan is rastered, or at least should be. */
 	private boolean rasterized;
+	/** The stamp of the last change of the list of floors. */
+	@XStreamOmitField
+	private transient volatile long modificationStamp;
 	/** Static variable that stores the default-value for the raster size in meter. */
 	public static double rasterSize = 0.4;
   /** Transformation matrix that flips vertically (mirrors at the {@code x}-axis. */
@@ -91,6 +95,7 @@ public class BuildingPlan implements Serializable, Iterable<Floor> {
 	public final boolean addFloor( Floor f ) {
 		if( !floors.contains( f ) ) {
 			floors.add( f );
+			modificationStamp = PlanPolygon.nextStamp();
 			return true;
 		}
 		return false;
@@ -128,6 +133,7 @@ public class BuildingPlan implements Serializable, Iterable<Floor> {
       final Floor f = floors.get( level );
       floors.set( level, floors.get( level + 1 ) );
       floors.set( level + 1, f );
+      modificationStamp = PlanPolygon.nextStamp();
     } else {
       throw new IllegalArgumentException( "The given floor is not on the list." );
     }
@@ -150,6 +156,7 @@ public class BuildingPlan implements Serializable, Iterable<Floor> {
 			final Floor f = floors.get( level );
 			floors.set( level, floors.get( level - 1 ) );
 			floors.set( level - 1, f );
+			modificationStamp = PlanPolygon.nextStamp();
     } else {
       throw new IllegalArgumentException( "The given floor is not on the list." );      
     }
@@ -225,6 +232,58 @@ public class BuildingPlan implements Serializable, Iterable<Floor> {
 			}
 		} else if( floors.remove( f ) )
 			f.delete();
+		modificationStamp = PlanPolygon.nextStamp();
+	}
+
+	/**
+	 * Inserts a floor at a given position of the floor list. Used to restore a
+	 * detached floor.
+	 * @param index the position of the floor
+	 * @param f the floor
+	 */
+	void insertFloor( int index, Floor f ) {
+		floors.add( index, f );
+		modificationStamp = PlanPolygon.nextStamp();
+	}
+
+	/**
+	 * Removes a floor from the floor list without deleting its rooms, such that
+	 * it can be inserted again using {@link #insertFloor(int, Floor)}.
+	 * @param f the floor
+	 * @return the former position of the floor
+	 * @throws IllegalArgumentException if the floor is not in the list
+	 */
+	int detachFloor( Floor f ) throws IllegalArgumentException {
+		final int index = floors.indexOf( f );
+		if( index < 0 )
+			throw new IllegalArgumentException( "The given floor is not on the list." );
+		floors.remove( index );
+		modificationStamp = PlanPolygon.nextStamp();
+		return index;
+	}
+
+	/**
+	 * Returns the stamp of the last modification. The stamp increases whenever a
+	 * floor is added, removed or moved, or one of the floors is modified. The
+	 * stamps of all floors are read.
+	 * @return the stamp of the last modification
+	 * @see PlanPolygon#getModificationStamp()
+	 */
+	public long getModificationStamp() {
+		long stamp = modificationStamp;
+		for( Floor f : floors )
+			stamp = Math.max( stamp, f.getModificationStamp() );
+		return stamp;
+	}
+
+	/**
+	 * Creates an immutable snapshot of the building plan that can be shared by
+	 * any number of threads. The plan must not be changed by another thread while
+	 * the snapshot is created.
+	 * @return the snapshot
+	 */
+	public FrozenBuildingPlan freeze() {
+		return new FrozenBuildingPlan( this );
 	}
 
 	/**
@@ -315,51 +374,33 @@ public class BuildingPlan implements Serializable, Iterable<Floor> {
 	/** A convenience method that automatically distributes the given number of evcauees
 	 * among all assignment areas that were created in the building. Each area gets a
 	 * share of the total number of evacuees which is proportional to it's share of the
-	 * total surface area of all assignment areas. All preexisting evacuee numbers
-	 * are overwritten.
+	 * total capacity of all assignment areas. All preexisting evacuee numbers
+	 * are overwritten. The rounding is not reproducible, use
+	 * {@link #distributeEvacuees(int, long)} to get repeatable results.
 	 *
 	 * @param nrOfEvacuees
 	 * @throws TooManyPeopleException If you specify a number of evacuees that
 	 * exceeds the total space in all assignment areas.
 	 */
 	public void distributeEvacuees( int nrOfEvacuees ) throws TooManyPeopleException {
-		// Get the total assignment area size
-		int max_persons = 0;
-		int nr_of_assignment_areas = 0;
-		for( Floor f : floors )
-			for( Room r : f.getRooms() )
-				for( AssignmentArea a : r.getAssignmentAreas() ) {
-					max_persons += a.getMaxEvacuees();
-					nr_of_assignment_areas++;
-				}
-
-		if( max_persons < nrOfEvacuees )
-			throw new TooManyPeopleException( null, ZLocalization.loc.getString( "ds.TooManyEvacuees" ) );
-
-		// Try to distribute the persons and gather all ass. areas
-		int already_distributed = 0;
-		int index = 0;
-		AssignmentArea[] aareas = new AssignmentArea[nr_of_assignment_areas];
-		for( Floor f : floors )
-			for( Room r : f.getRooms() )
-				for( AssignmentArea a : r.getAssignmentAreas() ) {
-					int evacs_for_a = (int)(((double)a.getMaxEvacuees() / (double)max_persons) * nrOfEvacuees);
-					a.setEvacuees( evacs_for_a );
-					already_distributed += evacs_for_a;
-
-					aareas[index++] = a;
-				}
+		// We don't use the Random Utils here, because this is not a simulation feature
+		// but an editor feature and thus it mustn't forcedly be reproducable
+		distributeEvacuees( nrOfEvacuees, new Random().nextLong() );
+	}
 
-		// Distribute the rest of the eacs (we round down, so possibly there are some
-		// of them left) randomly among all ass. areas
-		while( already_distributed < nrOfEvacuees ) {
-			// We don't use the Random Utils here, because this is not a simulation feature
-			// but an editor feature and thus it mustn't forcedly be reproducable
-			Random rand = new Random();
-			index = rand.nextInt( aareas.length - 1 );
-			aareas[index].setEvacuees( aareas[index].getEvacuees() + 1 );
-			already_distributed++;
-		}
+	/** Distributes the given number of evacuees among all assignment areas
+	 * proportional to their capacity. The remaining evacuees after rounding down
+	 * are assigned by the largest remainder method, ties are broken using the
+	 * seed. All preexisting evacuee numbers are overwritten.
+	 *
+	 * @param nrOfEvacuees the number of evacuees
+	 * @param seed the seed for breaking ties
+	 * @throws TooManyPeopleException If you specify a number of evacuees that
+	 * exceeds the total space in all assignment areas.
+	 * @see EvacueeDistributor
+	 */
+	public void distributeEvacuees( int nrOfEvacuees, long seed ) throws TooManyPeopleException {
+		new EvacueeDistributor( seed ).distribute( this, nrOfEvacuees );
 	}
 
 	/**
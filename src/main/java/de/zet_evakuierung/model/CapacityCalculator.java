@@ -0,0 +1,89 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package de.zet_evakuierung.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Computes the capacity of areas. The capacity is based on the net free area
+ * of an area, that is the area of the polygon without the parts covered by the
+ * {@link InaccessibleArea}s of its room. The free area is computed exactly
+ * using the {@link PolygonClipper}. Barriers have no area and thus do not
+ * reduce the capacity.
+ * @author Jan-Philipp Kappmeier
+ */
+public final class CapacityCalculator {
+	/** The space needed by one person in square meters. */
+	public static final double PERSON_AREA = 0.4 * 0.4;
+
+	/** Utility class. */
+	private CapacityCalculator() {
+	}
+
+	/**
+	 * Computes the maximal number of persons that fit into a free area.
+	 * @param netArea the free area in square millimeters
+	 * @return the maximal number of persons
+	 */
+	public static int maxEvacuees( long netArea ) {
+		final double area = Math.round( netArea / 10000.0 ) / 100.0;	// round to square decimeters, that is 0.01 m²
+		return (int)Math.round( area / PERSON_AREA );
+	}
+
+	/**
+	 * Computes the free area of an area, that is the part of the area which is
+	 * not covered by an inaccessible area of the room. Only obstacles whose
+	 * bounding box intersects the bounding box of the area are considered.
+	 * @param area the area
+	 * @param room the room containing the area, may be {@code null}
+	 * @return the free area in square millimeters
+	 */
+	public static long netArea( PlanPolygon<?> area, Room room ) {
+		if( !area.isClosed() )
+			return 0;
+		final List<PlanPolygon<?>> subject = new ArrayList<>( 1 );
+		subject.add( area );
+		final long[] box = boundingBox( area );
+		final List<PlanPolygon<?>> obstacles = new ArrayList<>();
+		if( room != null )
+			for( InaccessibleArea obstacle : room.getInaccessibleAreas() ) {
+				final long[] other = boundingBox( obstacle );
+				if( other[0] < box[2] && box[0] < other[2] && other[1] < box[3] && box[1] < other[3] )
+					obstacles.add( obstacle );
+			}
+		final List<List<PlanPoint>> rings = PolygonClipper.rings( subject );
+		if( obstacles.isEmpty() )
+			return PolygonClipper.area( rings );
+		return PolygonClipper.area( PolygonClipper.clip( rings, PolygonClipper.rings( obstacles ), PolygonClipper.Operation.DIFFERENCE ) );
+	}
+
+	/**
+	 * Computes the bounding box of the current point coordinates.
+	 * @return the minimal x and y and the maximal x and y coordinates
+	 */
+	private static long[] boundingBox( PlanPolygon<?> polygon ) {
+		final long[] box = {Long.MAX_VALUE, Long.MAX_VALUE, Long.MIN_VALUE, Long.MIN_VALUE};
+		for( PlanPoint p : polygon.getPolygonPoints() ) {
+			box[0] = Math.min( box[0], p.getXInt() );
+			box[1] = Math.min( box[1], p.getYInt() );
+			box[2] = Math.max( box[2], p.getXInt() );
+			box[3] = Math.max( box[3], p.getYInt() );
+		}
+		return box;
+	}
+}
@@ -49,4 +49,30 @@ public class ConcreteAssignment {
   public List<Person> getPersons() {
     return Collections.unmodifiableList( persons );
   }
+
+  /**
+   * Creates a spatial index over the persons on a floor.
+   * @param floor the floor
+   * @return the index, containing the persons in the order of {@link #getPersons()}
+   */
+  public PersonIndex createIndex( FloorInterface floor ) {
+    final ArrayList<Person> selected = new ArrayList<>();
+    for( Person p : persons )
+      if( p.getRoom().getAssociatedFloor() == floor )
+        selected.add( p );
+    return new PersonIndex( selected );
+  }
+
+  /**
+   * Creates a spatial index over the persons in a room.
+   * @param room the room
+   * @return the index, containing the persons in the order of {@link #getPersons()}
+   */
+  public PersonIndex createIndex( Room room ) {
+    final ArrayList<Person> selected = new ArrayList<>();
+    for( Person p : persons )
+      if( p.getRoom() == room )
+        selected.add( p );
+    return new PersonIndex( selected );
+  }
 }
\ No newline at end of file
@@ -0,0 +1,196 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package de.zet_evakuierung.model;
+
+import java.util.List;
+
+/**
+ * <p>Computes deterministic content hashes of the building model. The hash of
+ * a polygon depends only on its shape, not on the point at which its boundary
+ * starts or on its orientation. The hash of a room combines its name, its
+ * polygon, its areas and its doors, the hash of a floor the hashes of its
+ * rooms and the hash of a building plan the hashes of its floors in their
+ * order. Rooms and areas are combined independently of their order.</p>
+ * <p>Equal content results in equal hashes on every machine and in every run,
+ * thus the hashes can be used as keys for stored results, see
+ * {@link ArtifactStore}. The hashes of polygons are cached until the polygon is
+ * modified.</p>
+ * @author Jan-Philipp Kappmeier
+ */
+public final class ContentHash {
+	private static final long SEED = 0x5a45545a45545a45L;
+
+	/** Utility class. */
+	private ContentHash() {
+	}
+
+	/**
+	 * Computes the hash of the shape of a polygon.
+	 * @param polygon the polygon
+	 * @return the hash value
+	 */
+	public static long hash( PlanPolygon<?> polygon ) {
+		final long stamp = polygon.getModificationStamp();
+		final long[] cached = polygon.contentHash;
+		if( cached != null && cached[0] == stamp )
+			return cached[1];
+		final long h = computeHash( polygon );
+		polygon.contentHash = new long[]{stamp, h};
+		return h;
+	}
+
+	/**
+	 * Computes the hash of a room including its areas and doors.
+	 * @param room the room
+	 * @return the hash value
+	 */
+	public static long hash( Room room ) {
+		long h = mix( mix( SEED, room.getName() ), hash( room.getPolygon() ) );
+		long areas = 0;
+		for( Area area : room.getAreas() )
+			areas += hash( area );
+		long doors = 0;
+		for( RoomEdge e : room.getPolygon().getEdges() )
+			if( e.isPassable() ) {
+				long d = mix( segment( e ), e instanceof TeleportEdge ? 1 : 0 );
+				final Room target = e.getLinkTarget().getRoom();
+				if( target != null ) {
+					d = mix( d, target.getName() );
+					if( target.getAssociatedFloor() != null )
+						d = mix( d, target.getAssociatedFloor().getName() );
+				}
+				doors += finish( d );
+			}
+		return finish( mix( mix( h, areas ), doors ) );
+	}
+
+	/**
+	 * Computes the hash of a floor including all rooms.
+	 * @param floor the floor
+	 * @return the hash value
+	 */
+	public static long hash( FloorInterface floor ) {
+		long rooms = 0;
+		for( Room room : floor.getRooms() )
+			rooms += hash( room );
+		return finish( mix( mix( SEED, floor.getName() ), rooms ) );
+	}
+
+	/**
+	 * Computes the hash of a building plan including all floors in their order.
+	 * As {@link BuildingPlan#equals(java.lang.Object)}, the hash only depends on
+	 * the floors. Thus, equal plans always have equal hashes.
+	 * @param plan the building plan
+	 * @return the hash value
+	 */
+	public static long hash( BuildingPlan plan ) {
+		long h = mix( SEED, plan.getFloors().size() );
+		for( Floor floor : plan.getFloors() )
+			h = mix( h, hash( floor ) );
+		return finish( h );
+	}
+
+	/**
+	 * Computes the hash of an area including the properties of its type.
+	 */
+	private static long hash( Area area ) {
+		long h = mix( mix( SEED, area.getAreaType().ordinal() ), hash( area.getPolygon() ) );
+		if( area instanceof AssignmentArea ) {
+			final AssignmentArea a = (AssignmentArea)area;
+			h = mix( mix( h, a.getEvacuees() ), a.getAssignmentType() == null ? "" : a.getAssignmentType().getName() );
+			h = mix( h, a.getExitArea() == null ? "" : a.getExitArea().getName() );
+		} else if( area instanceof EvacuationArea ) {
+			h = mix( mix( h, ((EvacuationArea)area).getName() ), ((EvacuationArea)area).getAttractivity() );
+		} else if( area instanceof DelayArea ) {
+			final DelayArea a = (DelayArea)area;
+			h = mix( mix( h, Double.doubleToLongBits( a.getSpeedFactor() ) ), a.getDelayType() == null ? "" : a.getDelayType().name() );
+		} else if( area instanceof StairArea ) {
+			final StairArea a = (StairArea)area;
+			h = mix( mix( h, Double.doubleToLongBits( a.getSpeedFactorUp() ) ), Double.doubleToLongBits( a.getSpeedFactorDown() ) );
+			for( PlanPoint p : new PlanPoint[]{a.getLowerLevelStart(), a.getLowerLevelEnd(), a.getUpperLevelStart(), a.getUpperLevelEnd()} )
+				h = p == null ? mix( h, -1 ) : mix( mix( h, p.getXInt() ), p.getYInt() );
+		} else if( area instanceof TeleportArea ) {
+			final TeleportArea a = (TeleportArea)area;
+			h = mix( h, a.getName() == null ? "" : a.getName() );
+			h = mix( h, a.getTargetArea() == null || a.getTargetArea().getName() == null ? "" : a.getTargetArea().getName() );
+		}
+		return finish( h );
+	}
+
+	/**
+	 * Computes the hash of the points of a polygon. The boundary of closed
+	 * polygons is traversed starting at the smallest point in the direction of
+	 * its smaller neighbour.
+	 */
+	private static long computeHash( PlanPolygon<?> polygon ) {
+		final List<PlanPoint> points = polygon.getPolygonPoints();
+		final int n = points.size();
+		long h = mix( mix( SEED, polygon.isClosed() ? 1 : 0 ), n );
+		if( n == 0 )
+			return finish( h );
+		int start = 0;
+		int step = 1;
+		if( polygon.isClosed() ) {
+			for( int i = 1; i < n; ++i )
+				if( compare( points.get( i ), points.get( start ) ) < 0 )
+					start = i;
+			if( compare( points.get( (start + n - 1) % n ), points.get( (start + 1) % n ) ) < 0 )
+				step = n - 1;
+		} else if( compare( points.get( n - 1 ), points.get( 0 ) ) < 0 ) {
+			start = n - 1;
+			step = n - 1;
+		}
+		for( int i = 0, k = start; i < n; ++i, k = (k + step) % n )
+			h = mix( mix( h, points.get( k ).getXInt() ), points.get( k ).getYInt() );
+		return finish( h );
+	}
+
+	/**
+	 * Computes an orientation independent hash of the end points of an edge.
+	 */
+	private static long segment( PlanEdge e ) {
+		final boolean ordered = compare( e.getSource(), e.getTarget() ) <= 0;
+		final PlanPoint a = ordered ? e.getSource() : e.getTarget();
+		final PlanPoint b = ordered ? e.getTarget() : e.getSource();
+		return mix( mix( mix( mix( SEED, a.getXInt() ), a.getYInt() ), b.getXInt() ), b.getYInt() );
+	}
+
+	private static int compare( PlanPoint a, PlanPoint b ) {
+		final int c = Integer.compare( a.getXInt(), b.getXInt() );
+		return c != 0 ? c : Integer.compare( a.getYInt(), b.getYInt() );
+	}
+
+	private static long mix( long h, long v ) {
+		return finish( h ^ finish( v + 0x9e3779b97f4a7c15L ) );
+	}
+
+	private static long mix( long h, String s ) {
+		long v = 0xcbf29ce484222325L;
+		for( int i = 0; i < s.length(); ++i )
+			v = (v ^ s.charAt( i )) * 0x100000001b3L;
+		return mix( mix( h, s.length() ), v );
+	}
+
+	/**
+	 * The finalizer of the SplitMix64 generator.
+	 */
+	private static long finish( long z ) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
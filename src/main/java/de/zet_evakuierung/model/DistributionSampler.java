@@ -0,0 +1,194 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package de.zet_evakuierung.model;
+
+import java.util.SplittableRandom;
+import org.zetool.rndutils.distribution.Distribution;
+import org.zetool.rndutils.distribution.continuous.ErlangDistribution;
+import org.zetool.rndutils.distribution.continuous.ExponentialDistribution;
+import org.zetool.rndutils.distribution.continuous.HyperExponentialDistribution;
+import org.zetool.rndutils.distribution.continuous.NormalDistribution;
+import org.zetool.rndutils.distribution.continuous.UniformDistribution;
+
+/**
+ * <p>Samples the distributions of an {@link AssignmentType} in bulk. Instead of
+ * calling {@link Distribution#getNextRandom()} for each person, which boxes
+ * every value, a range of an array is filled at once. The array is first filled
+ * with uniform random numbers, which are then transformed in place.</p>
+ * <p>The distributions are truncated to their interval [min,max]. Uniform and
+ * exponential distributions are sampled by inversion of the truncated
+ * distribution function. Normal, Erlang and hyper exponential distributions are
+ * sampled by rejection. Values that are rejected {@value #MAX_ATTEMPTS} times are
+ * clamped to the interval. Unknown distributions are sampled using
+ * {@link Distribution#getNextRandom()}.</p>
+ * @author Jan-Philipp Kappmeier
+ */
+public final class DistributionSampler {
+	/** The number of attempts for rejection sampling before a value is clamped. */
+	public static final int MAX_ATTEMPTS = 1000;
+
+	/** Utility class. */
+	private DistributionSampler() {
+	}
+
+	/**
+	 * Creates a random source based on a {@link SplittableRandom}.
+	 * @param seed the seed
+	 * @return the random source
+	 */
+	public static RandomSource randomSource( long seed ) {
+		final SplittableRandom random = new SplittableRandom( seed );
+		return new RandomSource() {
+			@Override
+			public double nextDouble() {
+				return random.nextDouble();
+			}
+		};
+	}
+
+	/**
+	 * Fills a range of an array with random values of a distribution.
+	 * @param distribution the distribution
+	 * @param out the array
+	 * @param from the first index that is filled, inclusive
+	 * @param to the last index that is filled, exclusive
+	 * @param source the source of uniform random numbers
+	 * @throws IllegalArgumentException if the range is not valid
+	 */
+	public static void fill( Distribution<Double> distribution, double[] out, int from, int to, RandomSource source ) throws IllegalArgumentException {
+		if( from < 0 || to > out.length || from > to )
+			throw new IllegalArgumentException( "Invalid range [" + from + "," + to + ") for array of length " + out.length );
+		if( distribution instanceof UniformDistribution )
+			fillUniform( out, from, to, distribution.getMin(), distribution.getMax(), source );
+		else if( distribution instanceof NormalDistribution ) {
+			final NormalDistribution normal = (NormalDistribution)distribution;
+			fillNormal( out, from, to, normal.getExpectedValue(), Math.sqrt( normal.getVariance() ), normal.getMin(), normal.getMax(), source );
+		} else if( distribution instanceof ExponentialDistribution ) {
+			final ExponentialDistribution exponential = (ExponentialDistribution)distribution;
+			fillExponential( out, from, to, exponential.getLambda(), exponential.getMin(), exponential.getMax(), source );
+		} else if( distribution instanceof ErlangDistribution ) {
+			final ErlangDistribution erlang = (ErlangDistribution)distribution;
+			fillErlang( out, from, to, erlang.getLambda(), erlang.getK(), erlang.getMin(), erlang.getMax(), source );
+		} else if( distribution instanceof HyperExponentialDistribution ) {
+			final HyperExponentialDistribution hyper = (HyperExponentialDistribution)distribution;
+			fillHyperExponential( out, from, to, hyper.getLambda1(), hyper.getLambda2(), hyper.getP(), hyper.getMin(), hyper.getMax(), source );
+		} else
+			for( int i = from; i < to; ++i )
+				out[i] = distribution.getNextRandom();
+	}
+
+	/**
+	 * Fills a range with uniformly distributed values in [min,max).
+	 */
+	public static void fillUniform( double[] out, int from, int to, double min, double max, RandomSource source ) {
+		uniforms( out, from, to, source );
+		final double width = max - min;
+		for( int i = from; i < to; ++i )
+			out[i] = min + width * out[i];
+	}
+
+	/**
+	 * Fills a range with normally distributed values truncated to [min,max]. The
+	 * values are generated in pairs using the Box-Muller transform.
+	 */
+	public static void fillNormal( double[] out, int from, int to, double mean, double deviation, double min, double max, RandomSource source ) {
+		int i = from;
+		int rejected = 0;
+		while( i < to ) {
+			final double r = deviation * Math.sqrt( -2 * Math.log1p( -source.nextDouble() ) );
+			final double phi = 2 * Math.PI * source.nextDouble();
+			final double x = mean + r * Math.cos( phi );
+			final double y = mean + r * Math.sin( phi );
+			rejected += 2;
+			if( x >= min && x <= max ) {
+				out[i++] = x;
+				rejected = 0;
+			}
+			if( i < to && y >= min && y <= max ) {
+				out[i++] = y;
+				rejected = 0;
+			}
+			if( rejected >= MAX_ATTEMPTS ) {
+				out[i++] = Math.max( min, Math.min( max, x ) );
+				rejected = 0;
+			}
+		}
+	}
+
+	/**
+	 * Fills a range with exponentially distributed values truncated to [min,max].
+	 * The truncated distribution is inverted directly.
+	 */
+	public static void fillExponential( double[] out, int from, int to, double lambda, double min, double max, RandomSource source ) {
+		uniforms( out, from, to, source );
+		final double lower = -Math.expm1( -lambda * Math.max( min, 0 ) );
+		final double upper = -Math.expm1( -lambda * max );
+		final double width = upper - lower;
+		for( int i = from; i < to; ++i )
+			out[i] = -Math.log1p( -(lower + width * out[i]) ) / lambda;
+		clamp( out, from, to, min, max );
+	}
+
+	/**
+	 * Fills a range with Erlang distributed values truncated to [min,max]. An
+	 * Erlang value is the sum of {@code k} exponentially distributed values.
+	 */
+	public static void fillErlang( double[] out, int from, int to, double lambda, int k, double min, double max, RandomSource source ) {
+		for( int i = from; i < to; ++i ) {
+			double x = 0;
+			for( int attempt = 0; attempt < MAX_ATTEMPTS; ++attempt ) {
+				double product = 1;
+				for( int j = 0; j < k; ++j )
+					product *= 1 - source.nextDouble();
+				x = -Math.log( product ) / lambda;
+				if( x >= min && x <= max )
+					break;
+			}
+			out[i] = x;
+		}
+		clamp( out, from, to, min, max );
+	}
+
+	/**
+	 * Fills a range with hyper exponentially distributed values truncated to
+	 * [min,max]. A value is exponentially distributed with rate {@code lambda1}
+	 * with probability {@code p} and with rate {@code lambda2} otherwise.
+	 */
+	public static void fillHyperExponential( double[] out, int from, int to, double lambda1, double lambda2, double p, double min, double max, RandomSource source ) {
+		for( int i = from; i < to; ++i ) {
+			double x = 0;
+			for( int attempt = 0; attempt < MAX_ATTEMPTS; ++attempt ) {
+				final double lambda = source.nextDouble() < p ? lambda1 : lambda2;
+				x = -Math.log1p( -source.nextDouble() ) / lambda;
+				if( x >= min && x <= max )
+					break;
+			}
+			out[i] = x;
+		}
+		clamp( out, from, to, min, max );
+	}
+
+	private static void uniforms( double[] out, int from, int to, RandomSource source ) {
+		for( int i = from; i < to; ++i )
+			out[i] = source.nextDouble();
+	}
+
+	private static void clamp( double[] out, int from, int to, double min, double max ) {
+		for( int i = from; i < to; ++i )
+			out[i] = Math.max( min, Math.min( max, out[i] ) );
+	}
+}
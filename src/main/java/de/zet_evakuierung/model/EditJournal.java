@@ -0,0 +1,774 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package de.zet_evakuierung.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * <p>An append-only journal of the modifications of a building plan since the
+ * last full save. The journal is stored in a sidecar file next to the project
+ * file, see {@link #getJournalFile(File)}. Saving a project appends the
+ * modifications since the previous save, thus the cost is proportional to the
+ * number of modifications instead of the size of the project.
+ * {@link ProjectLoader#load(File)} replays the journal onto the saved
+ * project.</p>
+ * <p>The journal records the same modifications as the {@link EditLog}. Points,
+ * polygons, rooms and floors are referred to by their indices, which are stored
+ * before the modification is applied. A record is only kept if the
+ * modification succeeds, see {@link #commit()}. Modifications that clear the history,
+ * creating and deleting polygons and floors, as well as undo and redo cannot be
+ * recorded. After such modifications, and
+ * if the journal contains more records than the compaction threshold, the next
+ * save writes the whole project and starts a new journal. Modifications of the
+ * project that are not performed by {@link ZControl} are not recorded.</p>
+ * <p>The file starts with a header containing the content hash of the saved
+ * plan. Each save appends a batch of records together with the content hash of
+ * the plan after the batch and a checksum. An incomplete batch at the end of
+ * the file, for example after a crash, is ignored and overwritten by the next
+ * save.</p>
+ * @see ZControl#setJournaling(boolean)
+ * @author Jan-Philipp Kappmeier
+ */
+public class EditJournal {
+	/** The default number of records after which the project is saved completely. */
+	public static final int DEFAULT_COMPACTION_THRESHOLD = 10000;
+	/** The suffix of the journal file. */
+	public static final String SUFFIX = ".journal";
+	private static final int MAGIC = 0x5A45544A;
+	private static final int VERSION = 1;
+	private static final int HEADER_LENGTH = 16;
+	private static final byte MOVE = 1;
+	private static final byte REPLACE = 2;
+	private static final byte COMBINE = 3;
+	private static final byte LINK = 4;
+	private static final byte ROOM_NAME = 5;
+	private static final byte FLOOR_NAME = 6;
+	private static final byte AREA_ROOM = 7;
+	private static final byte SPEED_FACTOR = 8;
+	private static final byte DELAY_TYPE = 9;
+	/** The recorded building plan. */
+	private final BuildingPlan plan;
+	/** The project file to which the journal belongs, {@code null} before the first save. */
+	private File file;
+	/** The length of the valid part of the journal file. */
+	private long length;
+	/** The number of records in the journal file. */
+	private int records;
+	/** The records that have not been saved yet. */
+	private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+	/** The record of the current modification, added to the buffer when the modification succeeded. */
+	private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+	private final DataOutputStream out = new DataOutputStream( record );
+	/** Whether a record of the current modification is waiting for {@link #commit()}. */
+	private boolean staged;
+	/** The number of records that have not been saved yet. */
+	private int pending;
+	/** Whether the next save has to write the whole project. */
+	private boolean checkpointRequired = true;
+	/** The number of records after which the project is saved completely. */
+	private int compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+
+	/**
+	 * Creates a new journal for a building plan. The first save writes the whole
+	 * project.
+	 * @param plan the building plan
+	 */
+	EditJournal( BuildingPlan plan ) {
+		this.plan = plan;
+	}
+
+	/**
+	 * Returns the journal file belonging to a project file.
+	 * @param projectFile the project file
+	 * @return the journal file
+	 */
+	public static File getJournalFile( File projectFile ) {
+		return new File( projectFile.getPath() + SUFFIX );
+	}
+
+	/**
+	 * Returns the number of records after which the project is saved completely.
+	 * @return the compaction threshold
+	 */
+	public int getCompactionThreshold() {
+		return compactionThreshold;
+	}
+
+	/**
+	 * Sets the number of records after which the next save writes the whole
+	 * project and starts a new journal.
+	 * @param compactionThreshold the compaction threshold
+	 * @throws IllegalArgumentException if the threshold is not positive
+	 */
+	public void setCompactionThreshold( int compactionThreshold ) throws IllegalArgumentException {
+		if( compactionThreshold <= 0 )
+			throw new IllegalArgumentException( "Compaction threshold must be positive: " + compactionThreshold );
+		this.compactionThreshold = compactionThreshold;
+	}
+
+	/**
+	 * Returns the number of records since the last full save, including the
+	 * records that have not been saved yet.
+	 * @return the number of records
+	 */
+	public int getRecordCount() {
+		return records + pending;
+	}
+
+	/**
+	 * Decides whether the next save writes the whole project.
+	 * @return {@code true} if the next save writes the whole project
+	 */
+	public boolean isCheckpointRequired() {
+		return checkpointRequired;
+	}
+
+	/**
+	 * Saves the project. Only the records since the previous save are appended
+	 * to the journal, unless a full save is required.
+	 * @param project the project containing the recorded plan
+	 * @param projectFile the project file
+	 * @throws IOException if the project or the journal cannot be written
+	 */
+	void save( Project project, File projectFile ) throws IOException {
+		if( checkpointRequired || !projectFile.equals( file ) || records + pending >= compactionThreshold )
+			checkpoint( project, projectFile );
+		else if( pending > 0 )
+			try {
+				append();
+			} catch( NoSuchFileException ex ) {
+				checkpoint( project, projectFile );
+			}
+	}
+
+	/**
+	 * Saves the whole project and starts a new journal.
+	 * @param project the project containing the recorded plan
+	 * @param projectFile the project file
+	 * @throws IOException if the project or the journal cannot be written
+	 */
+	void checkpoint( Project project, File projectFile ) throws IOException {
+		ProjectLoader.save( project, projectFile );
+		try( DataOutputStream header = new DataOutputStream( new FileOutputStream( getJournalFile( projectFile ) ) ) ) {
+			header.writeInt( MAGIC );
+			header.writeInt( VERSION );
+			header.writeLong( ContentHash.hash( plan ) );
+		}
+		file = projectFile;
+		length = HEADER_LENGTH;
+		records = 0;
+		buffer.reset();
+		pending = 0;
+		checkpointRequired = false;
+	}
+
+	/**
+	 * Appends the pending records as one batch. An incomplete batch at the end of
+	 * the file is overwritten. The records are kept if writing fails.
+	 */
+	private void append() throws IOException {
+		final byte[] payload = buffer.toByteArray();
+		final ByteBuffer batch = ByteBuffer.allocate( 16 + payload.length + 8 );
+		batch.putInt( pending ).putInt( payload.length ).put( payload ).putLong( ContentHash.hash( plan ) );
+		final CRC32 crc = new CRC32();
+		crc.update( batch.array(), 0, batch.position() );
+		batch.putLong( crc.getValue() );
+		batch.flip();
+		try( FileChannel channel = FileChannel.open( getJournalFile( file ).toPath(), StandardOpenOption.WRITE ) ) {
+			channel.truncate( length );
+			long position = length;
+			while( batch.hasRemaining() )
+				position += channel.write( batch, position );
+			channel.force( false );
+		}
+		length += batch.limit();
+		records += pending;
+		buffer.reset();
+		pending = 0;
+	}
+
+	/**
+	 * Continues the journal of a project file. The plan has to be loaded from the
+	 * file including the journal. If the journal is missing or does not match the
+	 * plan or cannot be read, the next save writes the whole project.
+	 * @param projectFile the project file
+	 */
+	void attach( File projectFile ) {
+		Batches batches;
+		try {
+			batches = read( getJournalFile( projectFile ), plan, false );
+		} catch( IOException ex ) {
+			batches = null;
+		}
+		buffer.reset();
+		pending = 0;
+		if( batches == null || batches.hash != ContentHash.hash( plan ) ) {
+			checkpointRequired = true;
+			return;
+		}
+		file = projectFile;
+		length = batches.length;
+		records = batches.records;
+		checkpointRequired = false;
+	}
+
+	/**
+	 * Applies the journal of a project file to the project loaded from the file.
+	 * Journals of other versions of the project file are ignored.
+	 * @param project the project
+	 * @param projectFile the project file
+	 * @return the number of applied records
+	 * @throws IOException if the journal is corrupt or does not match the project
+	 */
+	static int replay( Project project, File projectFile ) throws IOException {
+		final Batches batches = read( getJournalFile( projectFile ), project.getBuildingPlan(), true );
+		return batches == null ? 0 : batches.records;
+	}
+
+	/** The valid part of a journal file. */
+	private static final class Batches {
+		long length = HEADER_LENGTH;
+		int records;
+		long hash;
+	}
+
+	/**
+	 * Reads the complete batches of a journal file.
+	 * @param journal the journal file
+	 * @param plan the plan
+	 * @param apply whether the records are applied to the plan, the plan then has
+	 * to be in the state of the header
+	 * @return the valid part of the file, {@code null} if there is no journal or
+	 * it does not belong to the plan
+	 */
+	private static Batches read( File journal, BuildingPlan plan, boolean apply ) throws IOException {
+		if( !journal.isFile() )
+			return null;
+		final ByteBuffer data = ByteBuffer.wrap( Files.readAllBytes( journal.toPath() ) );
+		if( data.remaining() < HEADER_LENGTH || data.getInt() != MAGIC )
+			return null;
+		if( data.getInt() != VERSION )
+			throw new IOException( "Unsupported journal version: " + journal );
+		final Batches batches = new Batches();
+		batches.hash = data.getLong();
+		if( apply && batches.hash != ContentHash.hash( plan ) )
+			return null;
+		while( data.remaining() >= 16 ) {
+			final int start = data.position();
+			final int count = data.getInt();
+			final int size = data.getInt();
+			if( size < 0 || data.remaining() < size + 16 )
+				break;
+			final CRC32 crc = new CRC32();
+			crc.update( data.array(), start, 8 + size + 8 );
+			data.position( start + 8 + size );
+			final long hash = data.getLong();
+			if( data.getLong() != crc.getValue() )
+				break;
+			if( apply ) {
+				try {
+					apply( plan, new DataInputStream( new ByteArrayInputStream( data.array(), start + 8, size ) ), count );
+				} catch( RuntimeException ex ) {
+					throw new IOException( "Corrupt journal: " + journal, ex );
+				}
+				if( ContentHash.hash( plan ) != hash )
+					throw new IOException( "The journal does not match the project. Remove " + journal + " to load the last full save." );
+			}
+			batches.length = data.position();
+			batches.records += count;
+			batches.hash = hash;
+		}
+		return batches;
+	}
+
+	/**
+	 * Marks the journal as incomplete. The next save writes the whole project.
+	 */
+	void invalidate() {
+		checkpointRequired = true;
+		buffer.reset();
+		pending = 0;
+		discard();
+	}
+
+	/**
+	 * Adds the record of the current modification to the records that are
+	 * written by the next save. Called after the modification succeeded.
+	 */
+	void commit() {
+		if( staged ) {
+			buffer.write( record.toByteArray(), 0, record.size() );
+			pending++;
+		}
+		discard();
+	}
+
+	/**
+	 * Drops the record of the current modification, for example because the
+	 * modification was rejected.
+	 */
+	void discard() {
+		record.reset();
+		staged = false;
+	}
+
+	/**
+	 * Records the translation of points. Called after the translation, which does
+	 * not change the indices.
+	 * @param points the points
+	 * @param dx the translations in x-direction
+	 * @param dy the translations in y-direction
+	 */
+	void moved( PlanPoint[] points, int[] dx, int[] dy ) {
+		discard();
+		if( checkpointRequired )
+			return;
+		final Map<PlanPolygon<?>, List<Integer>> byPolygon = new IdentityHashMap<>();
+		final Map<PlanPolygon<?>, Map<PlanPoint, Integer>> indices = new IdentityHashMap<>();
+		for( int i = 0; i < points.length; ++i ) {
+			final PlanPolygon<?> polygon = polygonOf( points[i] );
+			if( polygon == null ) {
+				invalidate();
+				return;
+			}
+			List<Integer> list = byPolygon.get( polygon );
+			if( list == null ) {
+				list = new ArrayList<>();
+				byPolygon.put( polygon, list );
+				indices.put( polygon, indices( polygon ) );
+			}
+			list.add( i );
+		}
+		final List<int[]> addresses = new ArrayList<>( byPolygon.size() );
+		for( PlanPolygon<?> polygon : byPolygon.keySet() ) {
+			final int[] address = address( polygon );
+			if( address == null ) {
+				invalidate();
+				return;
+			}
+			addresses.add( address );
+		}
+		try {
+			out.writeByte( MOVE );
+			out.writeInt( byPolygon.size() );
+			int k = 0;
+			for( Map.Entry<PlanPolygon<?>, List<Integer>> entry : byPolygon.entrySet() ) {
+				write( addresses.get( k++ ) );
+				final Map<PlanPoint, Integer> index = indices.get( entry.getKey() );
+				out.writeInt( entry.getValue().size() );
+				for( int i : entry.getValue() ) {
+					out.writeInt( index.get( points[i] ) );
+					out.writeInt( dx[i] );
+					out.writeInt( dy[i] );
+				}
+			}
+		} catch( IOException ex ) {
+			throw new AssertionError( ex );
+		}
+		staged = true;
+		commit();
+	}
+
+	/**
+	 * Records that an edge is replaced by a chain of edges. Called before the
+	 * replacement.
+	 * @param polygon the polygon
+	 * @param points the points of the chain, starting and ending with the end points of the edge
+	 */
+	void replaceEdge( PlanPolygon<?> polygon, List<PlanPoint> points ) {
+		discard();
+		if( checkpointRequired )
+			return;
+		final int[] address = address( polygon );
+		final int first = indexOf( polygon, points.get( 0 ) );
+		final int last = indexOf( polygon, points.get( points.size() - 1 ) );
+		if( address == null || first < 0 || last < 0 ) {
+			invalidate();
+			return;
+		}
+		try {
+			out.writeByte( REPLACE );
+			write( address );
+			out.writeInt( first );
+			out.writeInt( last );
+			out.writeInt( points.size() - 2 );
+			for( int i = 1; i < points.size() - 1; ++i ) {
+				out.writeInt( points.get( i ).getXInt() );
+				out.writeInt( points.get( i ).getYInt() );
+			}
+		} catch( IOException ex ) {
+			throw new AssertionError( ex );
+		}
+		staged = true;
+	}
+
+	/**
+	 * Records that a point is removed by combining its edges. Called before the
+	 * edges are combined.
+	 * @param polygon the polygon
+	 * @param point the point
+	 * @param keepMinSize if {@code true}, polygons with three edges are not changed
+	 */
+	void combineEdges( PlanPolygon<?> polygon, PlanPoint point, boolean keepMinSize ) {
+		discard();
+		if( checkpointRequired )
+			return;
+		final int[] address = address( polygon );
+		final int index = indexOf( polygon, point );
+		if( address == null || index < 0 ) {
+			invalidate();
+			return;
+		}
+		try {
+			out.writeByte( COMBINE );
+			write( address );
+			out.writeInt( index );
+			out.writeBoolean( keepMinSize );
+		} catch( IOException ex ) {
+			throw new AssertionError( ex );
+		}
+		staged = true;
+	}
+
+	/**
+	 * Records a new link target of an edge.
+	 * @param edge the edge
+	 * @param target the new link target, may be {@code null}
+	 */
+	void setLinkTarget( RoomEdge edge, RoomEdge target ) {
+		discard();
+		if( checkpointRequired )
+			return;
+		final int[] address = edgeAddress( edge );
+		final int[] targetAddress = target == null ? null : edgeAddress( target );
+		if( address == null || target != null && targetAddress == null ) {
+			invalidate();
+			return;
+		}
+		try {
+			out.writeByte( LINK );
+			write( address );
+			out.writeBoolean( target != null );
+			if( target != null )
+				write( targetAddress );
+		} catch( IOException ex ) {
+			throw new AssertionError( ex );
+		}
+		staged = true;
+	}
+
+	/**
+	 * Records a new name of a room.
+	 * @param room the room
+	 * @param name the new name
+	 */
+	void setName( RoomImpl room, String name ) {
+		discard();
+		if( checkpointRequired )
+			return;
+		final int[] address = address( room );
+		if( address == null || name == null ) {
+			invalidate();
+			return;
+		}
+		try {
+			out.writeByte( ROOM_NAME );
+			write( address );
+			out.writeUTF( name );
+		} catch( IOException ex ) {
+			throw new AssertionError( ex );
+		}
+		staged = true;
+	}
+
+	/**
+	 * Records a new name of a floor.
+	 * @param floor the floor
+	 * @param name the new name
+	 */
+	void setName( Floor floor, String name ) {
+		discard();
+		if( checkpointRequired )
+			return;
+		final int index = identityIndex( plan.getFloors(), floor );
+		if( index < 0 || name == null ) {
+			invalidate();
+			return;
+		}
+		try {
+			out.writeByte( FLOOR_NAME );
+			out.writeInt( index );
+			out.writeUTF( name );
+		} catch( IOException ex ) {
+			throw new AssertionError( ex );
+		}
+		staged = true;
+	}
+
+	/**
+	 * Records that an area is moved to another room. Called before the area is
+	 * moved.
+	 * @param area the area
+	 * @param room the new room of the area
+	 */
+	void setAssociatedRoom( AreaImpl area, RoomImpl room ) {
+		discard();
+		if( checkpointRequired )
+			return;
+		final int[] address = address( area );
+		final int[] roomAddress = address( room );
+		if( address == null || roomAddress == null ) {
+			invalidate();
+			return;
+		}
+		try {
+			out.writeByte( AREA_ROOM );
+			write( address );
+			write( roomAddress );
+		} catch( IOException ex ) {
+			throw new AssertionError( ex );
+		}
+		staged = true;
+	}
+
+	/**
+	 * Records a new speed factor of a delay area.
+	 * @param area the delay area
+	 * @param speedFactor the new speed factor
+	 */
+	void setSpeedFactor( DelayArea area, double speedFactor ) {
+		discard();
+		if( checkpointRequired )
+			return;
+		final int[] address = address( area );
+		if( address == null ) {
+			invalidate();
+			return;
+		}
+		try {
+			out.writeByte( SPEED_FACTOR );
+			write( address );
+			out.writeDouble( speedFactor );
+		} catch( IOException ex ) {
+			throw new AssertionError( ex );
+		}
+		staged = true;
+	}
+
+	/**
+	 * Records a new type of a delay area.
+	 * @param area the delay area
+	 * @param type the new type
+	 */
+	void setDelayType( DelayArea area, DelayArea.DelayType type ) {
+		discard();
+		if( checkpointRequired )
+			return;
+		final int[] address = address( area );
+		if( address == null || type == null ) {
+			invalidate();
+			return;
+		}
+		try {
+			out.writeByte( DELAY_TYPE );
+			write( address );
+			out.writeUTF( type.name() );
+		} catch( IOException ex ) {
+			throw new AssertionError( ex );
+		}
+		staged = true;
+	}
+
+	/**
+	 * Applies the records of a batch to a plan.
+	 */
+	@SuppressWarnings( "unchecked" )
+	private static void apply( BuildingPlan plan, DataInputStream in, int count ) throws IOException {
+		for( int r = 0; r < count; ++r ) {
+			final byte type = in.readByte();
+			switch( type ) {
+				case MOVE:
+					final int polygons = in.readInt();
+					for( int k = 0; k < polygons; ++k ) {
+						final PlanPolygon<?> polygon = polygon( plan, in );
+						final List<PlanPoint> points = polygon.getPolygonPoints();
+						final int n = in.readInt();
+						for( int i = 0; i < n; ++i )
+							points.get( in.readInt() ).translate( in.readInt(), in.readInt() );
+						polygon.recomputeBounds();
+					}
+					break;
+				case REPLACE: {
+					final PlanPolygon<PlanEdge> polygon = (PlanPolygon<PlanEdge>)polygon( plan, in );
+					final List<PlanPoint> points = polygon.getPolygonPoints();
+					final PlanPoint first = points.get( in.readInt() );
+					final PlanPoint last = points.get( in.readInt() );
+					final int inner = in.readInt();
+					final List<PlanPoint> chain = new ArrayList<>( inner + 2 );
+					chain.add( first );
+					for( int i = 0; i < inner; ++i )
+						chain.add( new PlanPoint( in.readInt(), in.readInt() ) );
+					chain.add( last );
+					polygon.replaceEdge( polygon.getEdge( first, last ), chain );
+					polygon.recomputeBounds();
+					break;
+				}
+				case COMBINE: {
+					final PlanPolygon<PlanEdge> polygon = (PlanPolygon<PlanEdge>)polygon( plan, in );
+					final PlanPoint point = polygon.getPolygonPoints().get( in.readInt() );
+					polygon.combineEdges( point.getNextEdge(), point.getPreviousEdge(), in.readBoolean() );
+					polygon.recomputeBounds();
+					break;
+				}
+				case LINK: {
+					final RoomEdge edge = edge( plan, in );
+					edge.setLinkTarget( in.readBoolean() ? edge( plan, in ) : null );
+					break;
+				}
+				case ROOM_NAME:
+					((RoomImpl)polygon( plan, in )).setName( in.readUTF() );
+					break;
+				case FLOOR_NAME:
+					plan.getFloors().get( in.readInt() ).setName( in.readUTF() );
+					break;
+				case AREA_ROOM: {
+					final AreaImpl area = (AreaImpl)polygon( plan, in );
+					area.setAssociatedRoom( (RoomImpl)polygon( plan, in ) );
+					break;
+				}
+				case SPEED_FACTOR:
+					((DelayArea)polygon( plan, in )).setSpeedFactor( in.readDouble() );
+					break;
+				case DELAY_TYPE:
+					((DelayArea)polygon( plan, in )).setDelayType( DelayArea.DelayType.valueOf( in.readUTF() ) );
+					break;
+				default:
+					throw new IOException( "Unknown record type: " + type );
+			}
+		}
+	}
+
+	/**
+	 * Returns the polygon containing a point.
+	 */
+	private static PlanPolygon<?> polygonOf( PlanPoint point ) {
+		final PlanEdge e = point.getNextEdge() != null ? point.getNextEdge() : point.getPreviousEdge();
+		return e == null ? null : e.getAssociatedPolygon();
+	}
+
+	/**
+	 * Computes the indices of the floor, the room and the area of a polygon. The
+	 * area index is -1 for rooms.
+	 * @return the indices, {@code null} if the polygon is not part of the plan
+	 */
+	private int[] address( PlanPolygon<?> polygon ) {
+		final RoomImpl room;
+		int area = -1;
+		if( polygon instanceof RoomImpl )
+			room = (RoomImpl)polygon;
+		else if( polygon instanceof AreaImpl ) {
+			room = ((AreaImpl)polygon).getAssociatedRoom();
+			if( room == null )
+				return null;
+			area = identityIndex( room.getAreas(), polygon );
+			if( area < 0 )
+				return null;
+		} else
+			return null;
+		if( room.getAssociatedFloor() == null )
+			return null;
+		final int floor = identityIndex( plan.getFloors(), room.getAssociatedFloor() );
+		final int index = floor < 0 ? -1 : identityIndex( room.getAssociatedFloor().getRooms(), room );
+		return index < 0 ? null : new int[]{floor, index, area};
+	}
+
+	/**
+	 * Computes the address of a polygon and the indices of the end points of an
+	 * edge.
+	 */
+	private int[] edgeAddress( RoomEdge edge ) {
+		final PlanPolygon<?> polygon = edge.getAssociatedPolygon();
+		final int[] address = polygon == null ? null : address( polygon );
+		if( address == null )
+			return null;
+		final int source = indexOf( polygon, edge.getSource() );
+		final int target = indexOf( polygon, edge.getTarget() );
+		return source < 0 || target < 0 ? null : new int[]{address[0], address[1], address[2], source, target};
+	}
+
+	private void write( int[] address ) throws IOException {
+		for( int i : address )
+			out.writeInt( i );
+	}
+
+	private static PlanPolygon<?> polygon( BuildingPlan plan, DataInputStream in ) throws IOException {
+		final RoomImpl room = (RoomImpl)plan.getFloors().get( in.readInt() ).getRooms().get( in.readInt() );
+		final int area = in.readInt();
+		return area < 0 ? room : (AreaImpl)room.getAreas().get( area );
+	}
+
+	private static RoomEdge edge( BuildingPlan plan, DataInputStream in ) throws IOException {
+		final PlanPolygon<?> polygon = polygon( plan, in );
+		final List<PlanPoint> points = polygon.getPolygonPoints();
+		return (RoomEdge)polygon.getEdge( points.get( in.readInt() ), points.get( in.readInt() ) );
+	}
+
+	private static Map<PlanPoint, Integer> indices( PlanPolygon<?> polygon ) {
+		final Map<PlanPoint, Integer> indices = new IdentityHashMap<>();
+		int i = 0;
+		for( PlanPoint p : polygon.getPolygonPoints() )
+			indices.put( p, i++ );
+		return indices;
+	}
+
+	private static int indexOf( PlanPolygon<?> polygon, PlanPoint point ) {
+		int i = 0;
+		for( PlanPoint p : polygon.getPolygonPoints() ) {
+			if( p == point )
+				return i;
+			i++;
+		}
+		return -1;
+	}
+
+	private static int identityIndex( Collection<?> list, Object element ) {
+		int i = 0;
+		for( Object o : list ) {
+			if( o == element )
+				return i;
+			i++;
+		}
+		return -1;
+	}
+}
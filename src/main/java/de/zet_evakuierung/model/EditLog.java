@@ -0,0 +1,936 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package de.zet_evakuierung.model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>The history of the modifications performed by {@link ZControl}. For each
+ * modification a compact delta is recorded that can be reverted and applied
+ * again: the moved points and the translation, the points of edges that are
+ * split or combined, the old and new link targets of edges and the old and new
+ * values of names and other properties. Thus, undo and redo run in time
+ * proportional to the size of the change and the memory grows with the number
+ * of modifications, but not with the size of the building.</p>
+ * <p>The deltas refer to points by identity. Edges are referred to by their
+ * polygon and end points, because splitting and combining edges creates new
+ * edge instances. Deleted rooms, areas and floors are detached from the
+ * building plan, but not destroyed, such that they can be attached again.
+ * Modifications that cannot be recorded, such as splitting and combining
+ * passable edges, which also changes the linked room, clear the history.</p>
+ * <p>All modifications of a call to {@code ZControl} are combined to one step,
+ * see {@link #begin()}. At most {@link #getCapacity()} steps are kept, older
+ * ones are dropped.</p>
+ * <p>If a {@link EditJournal} is set, the edits are also written to it.</p>
+ * @author Jan-Philipp Kappmeier
+ */
+public class EditLog {
+	/** The default number of steps that can be undone. */
+	public static final int DEFAULT_CAPACITY = 1000;
+	/** The steps that can be undone, the latest first. */
+	private final ArrayDeque<Edit> undoSteps = new ArrayDeque<>();
+	/** The steps that can be redone, the latest undone first. */
+	private final ArrayDeque<Edit> redoSteps = new ArrayDeque<>();
+	/** The edits of the currently recorded step. */
+	private final List<Edit> step = new ArrayList<>();
+	/** The number of edits of the current step when the nested steps were started, the innermost first. */
+	private final ArrayDeque<Integer> starts = new ArrayDeque<>();
+	/** Whether the history has been cleared during the current step. */
+	private boolean discarded;
+	/** The maximal number of steps. */
+	private int capacity = DEFAULT_CAPACITY;
+	/** The journal to which the edits are written, may be {@code null}. */
+	private EditJournal journal;
+
+	/**
+	 * A recorded modification.
+	 */
+	abstract static class Edit {
+		/**
+		 * Reverts the modification.
+		 * @param affectedRooms the set to which the changed rooms are added
+		 */
+		abstract void undo( Set<Room> affectedRooms );
+
+		/**
+		 * Performs the modification again.
+		 * @param affectedRooms the set to which the changed rooms are added
+		 */
+		abstract void redo( Set<Room> affectedRooms );
+	}
+
+	/**
+	 * Returns the maximal number of steps that can be undone.
+	 * @return the maximal number of steps
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Sets the maximal number of steps that can be undone. The oldest steps are
+	 * dropped if there are more.
+	 * @param capacity the maximal number of steps
+	 * @throws IllegalArgumentException if the capacity is negative
+	 */
+	public void setCapacity( int capacity ) throws IllegalArgumentException {
+		if( capacity < 0 )
+			throw new IllegalArgumentException( "Capacity must be non-negative: " + capacity );
+		this.capacity = capacity;
+		while( undoSteps.size() > capacity )
+			undoSteps.removeLast();
+		while( redoSteps.size() > capacity )
+			redoSteps.removeLast();
+	}
+
+	/**
+	 * Returns the number of steps that can be undone.
+	 * @return the number of steps that can be undone
+	 */
+	public int getUndoCount() {
+		return undoSteps.size();
+	}
+
+	/**
+	 * Returns the number of steps that can be redone.
+	 * @return the number of steps that can be redone
+	 */
+	public int getRedoCount() {
+		return redoSteps.size();
+	}
+
+	/**
+	 * Decides whether a step can be undone.
+	 * @return {@code true} if a step can be undone
+	 */
+	public boolean canUndo() {
+		return !undoSteps.isEmpty();
+	}
+
+	/**
+	 * Decides whether a step can be redone.
+	 * @return {@code true} if a step can be redone
+	 */
+	public boolean canRedo() {
+		return !redoSteps.isEmpty();
+	}
+
+	/**
+	 * Sets the journal to which the edits are written. Undo and redo, creating
+	 * and deleting elements as well as clearing the history invalidate the
+	 * journal.
+	 * @param journal the journal, {@code null} if no journal is written
+	 */
+	void setJournal( EditJournal journal ) {
+		this.journal = journal;
+	}
+
+	/**
+	 * Removes all steps. If a step is currently recorded, it is discarded as a
+	 * whole, including the edits recorded after the call.
+	 */
+	public void clear() {
+		invalidateJournal();
+		undoSteps.clear();
+		redoSteps.clear();
+		step.clear();
+		discarded = !starts.isEmpty();
+	}
+
+	/**
+	 * Starts a step. All edits recorded until the matching call of
+	 * {@link #end()} are undone together. Calls may be nested, only the outermost
+	 * call starts a new step.
+	 */
+	void begin() {
+		starts.push( step.size() );
+	}
+
+	/**
+	 * Ends a step started by {@link #begin()}. Steps without edits are ignored.
+	 * @throws IllegalStateException if no step is started
+	 */
+	void end() throws IllegalStateException {
+		if( starts.isEmpty() )
+			throw new IllegalStateException( "No step started." );
+		starts.pop();
+		if( !starts.isEmpty() )
+			return;
+		if( discarded || step.isEmpty() ) {
+			step.clear();
+			discarded = false;
+			return;
+		}
+		final Edit edit;
+		if( step.size() == 1 )
+			edit = step.get( 0 );
+		else {
+			final Edit[] edits = step.toArray( new Edit[step.size()] );
+			edit = new Edit() {
+				@Override
+				void undo( Set<Room> affectedRooms ) {
+					for( int i = edits.length - 1; i >= 0; --i )
+						edits[i].undo( affectedRooms );
+				}
+
+				@Override
+				void redo( Set<Room> affectedRooms ) {
+					for( Edit e : edits )
+						e.redo( affectedRooms );
+				}
+			};
+		}
+		step.clear();
+		redoSteps.clear();
+		undoSteps.addFirst( edit );
+		if( undoSteps.size() > capacity )
+			undoSteps.removeLast();
+	}
+
+	/**
+	 * Ends a step and reverts its edits. The edits are not kept for redo. If the
+	 * step is nested, the enclosing step continues with the edits recorded before
+	 * the nested step started.
+	 * @return the rooms that have been changed
+	 * @throws IllegalStateException if no step is started, or if the step contains
+	 * modifications that cannot be reverted
+	 */
+	Set<Room> rollback() throws IllegalStateException {
+		if( starts.isEmpty() )
+			throw new IllegalStateException( "No step started." );
+		final int start = starts.pop();
+		invalidateJournal();
+		if( discarded ) {
+			if( starts.isEmpty() ) {
+				step.clear();
+				discarded = false;
+			}
+			throw new IllegalStateException( "The step contains modifications that cannot be reverted." );
+		}
+		final Set<Room> affectedRooms = new HashSet<>();
+		for( int i = step.size() - 1; i >= start; --i )
+			step.remove( i ).undo( affectedRooms );
+		return affectedRooms;
+	}
+
+	/**
+	 * Reverts the latest step.
+	 * @return the rooms that have been changed
+	 * @throws IllegalStateException if there is no step to undo or a step is started
+	 */
+	Set<Room> undo() throws IllegalStateException {
+		if( !starts.isEmpty() || undoSteps.isEmpty() )
+			throw new IllegalStateException( "Nothing to undo." );
+		invalidateJournal();
+		final Edit edit = undoSteps.removeFirst();
+		final Set<Room> affectedRooms = new HashSet<>();
+		edit.undo( affectedRooms );
+		redoSteps.addFirst( edit );
+		return affectedRooms;
+	}
+
+	/**
+	 * Performs the latest undone step again.
+	 * @return the rooms that have been changed
+	 * @throws IllegalStateException if there is no step to redo or a step is started
+	 */
+	Set<Room> redo() throws IllegalStateException {
+		if( !starts.isEmpty() || redoSteps.isEmpty() )
+			throw new IllegalStateException( "Nothing to redo." );
+		invalidateJournal();
+		final Edit edit = redoSteps.removeFirst();
+		final Set<Room> affectedRooms = new HashSet<>();
+		edit.redo( affectedRooms );
+		undoSteps.addFirst( edit );
+		return affectedRooms;
+	}
+
+	/**
+	 * Adds an edit to the current step. If no step is started, the edit forms a
+	 * step of its own.
+	 */
+	private void record( Edit edit ) {
+		begin();
+		if( !discarded )
+			step.add( edit );
+		end();
+	}
+
+	/**
+	 * Records that points have been translated by the same distance.
+	 * @param points the translated points
+	 * @param x the translation in x-direction
+	 * @param y the translation in y-direction
+	 */
+	void moved( Collection<PlanPoint> points, int x, int y ) {
+		final int[] dx = new int[points.size()];
+		final int[] dy = new int[points.size()];
+		Arrays.fill( dx, x );
+		Arrays.fill( dy, y );
+		moved( points.toArray( new PlanPoint[points.size()] ), dx, dy );
+	}
+
+	/**
+	 * Records that points have been translated.
+	 * @param points the translated points
+	 * @param dx the translations in x-direction
+	 * @param dy the translations in y-direction
+	 */
+	void moved( final PlanPoint[] points, final int[] dx, final int[] dy ) {
+		if( points.length > 0 && journal != null )
+			journal.moved( points, dx, dy );
+		if( points.length > 0 )
+			record( new Edit() {
+				@Override
+				void undo( Set<Room> affectedRooms ) {
+					translate( -1, affectedRooms );
+				}
+
+				@Override
+				void redo( Set<Room> affectedRooms ) {
+					translate( 1, affectedRooms );
+				}
+
+				private void translate( int sign, Set<Room> affectedRooms ) {
+					final Set<PlanPolygon<?>> polygons = new HashSet<>();
+					for( int i = 0; i < points.length; ++i ) {
+						points[i].translate( sign * dx[i], sign * dy[i] );
+						final PlanEdge e = points[i].getNextEdge() != null ? points[i].getNextEdge() : points[i].getPreviousEdge();
+						if( e != null && e.getAssociatedPolygon() != null )
+							polygons.add( e.getAssociatedPolygon() );
+					}
+					for( PlanPolygon<?> polygon : polygons )
+						touch( polygon, affectedRooms );
+				}
+			} );
+	}
+
+	/**
+	 * Replaces an edge of a polygon by a chain of edges and records the change.
+	 * @param <T> the type of the edges
+	 * @param polygon the polygon containing the edge
+	 * @param edge the edge
+	 * @param points the points of the chain, starting with the source and ending
+	 * with the target of the edge
+	 * @return the new edges
+	 * @see PlanPolygon#replaceEdge(PlanEdge, List)
+	 */
+	<T extends PlanEdge> ArrayList<T> replaceEdge( PlanPolygon<T> polygon, T edge, List<PlanPoint> points ) {
+		if( isPassable( edge ) ) {
+			clear();
+			return polygon.replaceEdge( edge, points );
+		}
+		if( journal != null )
+			journal.replaceEdge( polygon, points );
+		final PlanPoint[] oldChain = {edge.getSource(), edge.getTarget()};
+		final ArrayList<T> result;
+		try {
+			result = polygon.replaceEdge( edge, points );
+		} catch( RuntimeException ex ) {
+			if( journal != null )
+				journal.discard();
+			throw ex;
+		}
+		commitJournal();
+		final PlanPoint[] newChain = new PlanPoint[result.size() + 1];
+		newChain[0] = result.get( 0 ).getSource();
+		for( int i = 0; i < result.size(); ++i )
+			newChain[i + 1] = result.get( i ).getTarget();
+		record( new Replacement( polygon, oldChain, newChain ) );
+		return result;
+	}
+
+	/**
+	 * Removes a point from a polygon by combining its two edges and records the
+	 * change. If one of the edges is passable or the neighbours of the point
+	 * coincide, the history is cleared.
+	 * @param <T> the type of the edges
+	 * @param polygon the polygon containing the point
+	 * @param point the point
+	 * @param keepMinSize if {@code true}, polygons with three edges are not changed
+	 * @return the combined edge
+	 * @see PlanPolygon#combineEdges(PlanEdge, PlanEdge, boolean)
+	 */
+	<T extends PlanEdge> T combineEdges( PlanPolygon<T> polygon, PlanPoint point, boolean keepMinSize ) {
+		final T previous = polygon.edgeOf( point.getPreviousEdge() );
+		final T next = polygon.edgeOf( point.getNextEdge() );
+		final PlanPoint[] oldChain = {previous.getOther( point ), point, next.getOther( point )};
+		if( isPassable( previous ) || isPassable( next ) || oldChain[0] == oldChain[2] ) {
+			clear();
+			return polygon.combineEdges( next, previous, keepMinSize );
+		}
+		if( journal != null )
+			journal.combineEdges( polygon, point, keepMinSize );
+		final T result;
+		try {
+			result = polygon.combineEdges( next, previous, keepMinSize );
+		} catch( RuntimeException ex ) {
+			if( journal != null )
+				journal.discard();
+			throw ex;
+		}
+		commitJournal();
+		record( new Replacement( polygon, oldChain, new PlanPoint[]{oldChain[0], oldChain[2]} ) );
+		return result;
+	}
+
+	/**
+	 * Sets the link target of an edge and records the change.
+	 * @param edge the edge
+	 * @param target the new link target, may be {@code null}
+	 */
+	void setLinkTarget( RoomEdge edge, RoomEdge target ) {
+		final EdgeRef ref = new EdgeRef( edge );
+		final EdgeRef oldTarget = EdgeRef.linkOf( edge );
+		final EdgeRef newTarget = target == null ? null : new EdgeRef( target );
+		if( journal != null )
+			journal.setLinkTarget( edge, target );
+		edge.setLinkTarget( target );
+		commitJournal();
+		record( new Edit() {
+			@Override
+			void undo( Set<Room> affectedRooms ) {
+				link( oldTarget, affectedRooms );
+			}
+
+			@Override
+			void redo( Set<Room> affectedRooms ) {
+				link( newTarget, affectedRooms );
+			}
+
+			private void link( EdgeRef target, Set<Room> affectedRooms ) {
+				final RoomEdge e = ref.resolve();
+				e.setLinkTarget( target == null ? null : target.resolve() );
+				affectedRooms.add( e.getRoom() );
+			}
+		} );
+	}
+
+	/**
+	 * Renames a room and records the change.
+	 * @param room the room
+	 * @param name the new name
+	 */
+	void setName( final RoomImpl room, String name ) {
+		final String old = room.getName();
+		if( journal != null )
+			journal.setName( room, name );
+		room.setName( name );
+		commitJournal();
+		record( new Change<String>( old, name ) {
+			@Override
+			void apply( String value, Set<Room> affectedRooms ) {
+				room.setName( value );
+				affectedRooms.add( room );
+			}
+		} );
+	}
+
+	/**
+	 * Renames a floor and records the change.
+	 * @param floor the floor
+	 * @param name the new name
+	 */
+	void setName( final Floor floor, String name ) {
+		final String old = floor.getName();
+		if( journal != null )
+			journal.setName( floor, name );
+		floor.setName( name );
+		commitJournal();
+		record( new Change<String>( old, name ) {
+			@Override
+			void apply( String value, Set<Room> affectedRooms ) {
+				floor.setName( value );
+			}
+		} );
+	}
+
+	/**
+	 * Moves an area to another room and records the change.
+	 * @param area the area
+	 * @param room the new room of the area
+	 */
+	void setAssociatedRoom( final AreaImpl area, RoomImpl room ) {
+		final RoomImpl old = area.getAssociatedRoom();
+		if( journal != null )
+			journal.setAssociatedRoom( area, room );
+		area.setAssociatedRoom( room );
+		commitJournal();
+		record( new Change<RoomImpl>( old, room ) {
+			@Override
+			void apply( RoomImpl value, Set<Room> affectedRooms ) {
+				affectedRooms.add( area.getAssociatedRoom() );
+				area.setAssociatedRoom( value );
+				affectedRooms.add( value );
+			}
+		} );
+	}
+
+	/**
+	 * Sets the speed factor of a delay area and records the change.
+	 * @param area the delay area
+	 * @param speedFactor the new speed factor
+	 */
+	void setSpeedFactor( final DelayArea area, double speedFactor ) {
+		final double old = area.getSpeedFactor();
+		if( journal != null )
+			journal.setSpeedFactor( area, speedFactor );
+		area.setSpeedFactor( speedFactor );
+		commitJournal();
+		record( new Change<Double>( old, speedFactor ) {
+			@Override
+			void apply( Double value, Set<Room> affectedRooms ) {
+				area.setSpeedFactor( value );
+				affectedRooms.add( area.getAssociatedRoom() );
+			}
+		} );
+	}
+
+	/**
+	 * Sets the type of a delay area and records the change.
+	 * @param area the delay area
+	 * @param type the new type
+	 */
+	void setDelayType( final DelayArea area, DelayArea.DelayType type ) {
+		final DelayArea.DelayType old = area.getDelayType();
+		if( journal != null )
+			journal.setDelayType( area, type );
+		area.setDelayType( type );
+		commitJournal();
+		record( new Change<DelayArea.DelayType>( old, type ) {
+			@Override
+			void apply( DelayArea.DelayType value, Set<Room> affectedRooms ) {
+				area.setDelayType( value );
+				affectedRooms.add( area.getAssociatedRoom() );
+			}
+		} );
+	}
+
+	/**
+	 * Records that a room, an area or a floor has been created and added to the
+	 * building plan. Undoing the creation detaches the element, see
+	 * {@link #delete(Project, Object)}.
+	 * @param project the project containing the element
+	 * @param element the room, area or floor
+	 */
+	void created( Project project, Object element ) {
+		invalidateJournal();
+		record( new Presence( project, element, true ) );
+	}
+
+	/**
+	 * Removes a room, an area or a floor from the building plan and records the
+	 * change. The element is detached, but not destroyed: edges of other rooms
+	 * linked to it are unlinked, its assignment areas are removed from their
+	 * assignment types and references to its evacuation areas are removed.
+	 * Undoing the change restores all of them.
+	 * @param project the project containing the element
+	 * @param element the room, area or floor
+	 */
+	void delete( Project project, Object element ) {
+		invalidateJournal();
+		final Presence presence = new Presence( project, element, false );
+		presence.detach( new HashSet<Room>() );
+		record( presence );
+	}
+
+	/**
+	 * Moves a floor one position towards the end or the beginning of the list of
+	 * floors and records the change.
+	 * @param plan the building plan
+	 * @param floor the floor
+	 * @param up {@code true} if the floor is moved towards the end
+	 * @see BuildingPlan#moveFloorUp(FloorInterface)
+	 */
+	void moveFloor( final BuildingPlan plan, final FloorInterface floor, final boolean up ) {
+		invalidateJournal();
+		move( plan, floor, up );
+		record( new Edit() {
+			@Override
+			void undo( Set<Room> affectedRooms ) {
+				move( plan, floor, !up );
+			}
+
+			@Override
+			void redo( Set<Room> affectedRooms ) {
+				move( plan, floor, up );
+			}
+		} );
+	}
+
+	private static void move( BuildingPlan plan, FloorInterface floor, boolean up ) {
+		if( up )
+			plan.moveFloorUp( floor );
+		else
+			plan.moveFloorDown( floor );
+	}
+
+	/**
+	 * Replaces two edges of rooms on different floors by linked teleport edges
+	 * and records the change.
+	 * @param source the edge of the first room
+	 * @param target the edge of the second room
+	 * @see RoomImpl#connectToWithTeleportEdge(RoomEdgeInterface, RoomEdge)
+	 */
+	void connectToWithTeleportEdge( RoomEdge source, RoomEdge target ) {
+		final Room room = source.getRoom();
+		final PlanPoint p1 = source.getSource();
+		final PlanPoint p2 = source.getTarget();
+		invalidateJournal();
+		RoomImpl.connectToWithTeleportEdge( source, target );
+		teleported( room.getPolygon().getEdge( p1, p2 ) );
+	}
+
+	/**
+	 * Connects an edge to a new room with an evacuation area on the default
+	 * evacuation floor and records the change.
+	 * @param project the project
+	 * @param edge the edge
+	 * @see DefaultEvacuationFloor#addEvacuationRoom(RoomEdgeInterface)
+	 */
+	void addEvacuationRoom( Project project, RoomEdge edge ) {
+		final Room room = edge.getRoom();
+		final PlanPoint p1 = edge.getSource();
+		final PlanPoint p2 = edge.getTarget();
+		invalidateJournal();
+		project.getBuildingPlan().getDefaultFloor().addEvacuationRoom( edge );
+		final RoomEdge teleport = room.getPolygon().getEdge( p1, p2 );
+		begin();
+		try {
+			created( project, teleport.getLinkTarget().getRoom() );
+			teleported( teleport );
+		} finally {
+			end();
+		}
+	}
+
+	/**
+	 * Records that an edge and its link target have been replaced by teleport
+	 * edges. Undoing the change replaces them by unlinked edges.
+	 */
+	private void teleported( RoomEdge edge ) {
+		final EdgeRef first = new EdgeRef( edge );
+		final EdgeRef second = new EdgeRef( edge.getLinkTarget() );
+		record( new Edit() {
+			@Override
+			void undo( Set<Room> affectedRooms ) {
+				final RoomEdge e1 = first.resolve();
+				final RoomEdge e2 = second.resolve();
+				e1.setLinkTarget( null );
+				e2.setLinkTarget( null );
+				for( RoomEdge e : new RoomEdge[]{e1, e2} ) {
+					final Room room = e.getRoom();
+					final PlanPoint p1 = e.getSource();
+					final PlanPoint p2 = e.getTarget();
+					e.delete();
+					new RoomEdge( p1, p2, room );
+					affectedRooms.add( room );
+				}
+			}
+
+			@Override
+			void redo( Set<Room> affectedRooms ) {
+				final RoomEdge e1 = first.resolve();
+				final RoomEdge e2 = second.resolve();
+				RoomImpl.connectToWithTeleportEdge( e1, e2 );
+				affectedRooms.add( e1.getRoom() );
+				affectedRooms.add( e2.getRoom() );
+			}
+		} );
+	}
+
+	/**
+	 * Writes the record of a modification to the journal. Called after the
+	 * modification succeeded, the record of a rejected modification is dropped
+	 * by the next record.
+	 */
+	private void commitJournal() {
+		if( journal != null )
+			journal.commit();
+	}
+
+	private void invalidateJournal() {
+		if( journal != null )
+			journal.invalidate();
+	}
+
+	private static boolean isPassable( PlanEdge edge ) {
+		return edge instanceof RoomEdge && ((RoomEdge)edge).isPassable();
+	}
+
+	/**
+	 * Recomputes the bounds of a changed polygon and adds its room.
+	 */
+	private static void touch( PlanPolygon<?> polygon, Set<Room> affectedRooms ) {
+		polygon.recomputeBounds();
+		if( polygon instanceof Room )
+			affectedRooms.add( (Room)polygon );
+		else if( polygon instanceof AreaImpl && ((AreaImpl)polygon).getAssociatedRoom() != null )
+			affectedRooms.add( ((AreaImpl)polygon).getAssociatedRoom() );
+	}
+
+	/**
+	 * The change of a property from an old to a new value.
+	 * @param <V> the type of the value
+	 */
+	private abstract static class Change<V> extends Edit {
+		private final V oldValue;
+		private final V newValue;
+
+		Change( V oldValue, V newValue ) {
+			this.oldValue = oldValue;
+			this.newValue = newValue;
+		}
+
+		abstract void apply( V value, Set<Room> affectedRooms );
+
+		@Override
+		void undo( Set<Room> affectedRooms ) {
+			apply( oldValue, affectedRooms );
+		}
+
+		@Override
+		void redo( Set<Room> affectedRooms ) {
+			apply( newValue, affectedRooms );
+		}
+	}
+
+	/**
+	 * The presence of a room, an area or a floor in the building plan. The
+	 * element is attached to or detached from its container, its links to other
+	 * rooms, the assignment types of its assignment areas and the references to
+	 * its evacuation areas. These are collected when the element is detached and
+	 * restored when it is attached again.
+	 */
+	private static final class Presence extends Edit {
+		private final Project project;
+		private final Object element;
+		/** Whether the element has been created, otherwise it has been deleted. */
+		private final boolean created;
+		/** The position of the floor, set when it is detached. */
+		private int index;
+		/** Pairs of edges of the element and the linked edges of other rooms. */
+		private final List<EdgeRef> links = new ArrayList<>();
+		/** The assignment areas that have been removed from their types. */
+		private final List<AssignmentArea> typed = new ArrayList<>();
+		/** The assignment areas whose exit has been removed. */
+		private final List<AssignmentArea> exitAreas = new ArrayList<>();
+		/** The removed exits. */
+		private final List<EvacuationArea> exits = new ArrayList<>();
+
+		Presence( Project project, Object element, boolean created ) {
+			if( !(element instanceof RoomImpl || element instanceof AreaImpl || element instanceof Floor) )
+				throw new IllegalArgumentException( "Neither room, area nor floor: " + element );
+			this.project = project;
+			this.element = element;
+			this.created = created;
+		}
+
+		@Override
+		void undo( Set<Room> affectedRooms ) {
+			if( created )
+				detach( affectedRooms );
+			else
+				attach( affectedRooms );
+		}
+
+		@Override
+		void redo( Set<Room> affectedRooms ) {
+			if( created )
+				attach( affectedRooms );
+			else
+				detach( affectedRooms );
+		}
+
+		void detach( Set<Room> affectedRooms ) {
+			final Set<Room> rooms = Collections.newSetFromMap( new IdentityHashMap<Room, Boolean>() );
+			final List<AreaImpl> areas = new ArrayList<>();
+			if( element instanceof Floor )
+				rooms.addAll( ((Floor)element).getRooms() );
+			else if( element instanceof RoomImpl )
+				rooms.add( (RoomImpl)element );
+			else
+				areas.add( (AreaImpl)element );
+			for( Room room : rooms )
+				for( Area area : ((RoomImpl)room).getAreas() )
+					areas.add( (AreaImpl)area );
+
+			links.clear();
+			for( Room room : rooms )
+				for( RoomEdge edge : room.getPolygon().getEdges() )
+					if( edge.getLinkTarget() != null && !rooms.contains( edge.getLinkTarget().getRoom() ) ) {
+						links.add( new EdgeRef( edge ) );
+						links.add( new EdgeRef( edge.getLinkTarget() ) );
+						edge.getLinkTarget().setLinkTarget( null );
+						affectedRooms.add( edge.getLinkTarget().getRoom() );
+					}
+
+			typed.clear();
+			final Set<EvacuationArea> evacuationAreas = Collections.newSetFromMap( new IdentityHashMap<EvacuationArea, Boolean>() );
+			for( AreaImpl area : areas )
+				if( area instanceof AssignmentArea && ((AssignmentArea)area).getAssignmentType() != null ) {
+					((AssignmentArea)area).getAssignmentType().deleteAssignmentArea( (AssignmentArea)area );
+					typed.add( (AssignmentArea)area );
+				} else if( area instanceof EvacuationArea )
+					evacuationAreas.add( (EvacuationArea)area );
+
+			exitAreas.clear();
+			exits.clear();
+			if( !evacuationAreas.isEmpty() )
+				for( Assignment assignment : project.getAssignments() )
+					for( AssignmentType type : assignment.getAssignmentTypes() )
+						for( AssignmentArea area : type.getAssignmentAreas() )
+							if( evacuationAreas.contains( area.getExitArea() ) ) {
+								exitAreas.add( area );
+								exits.add( area.getExitArea() );
+								area.setExitArea( null );
+							}
+
+			if( element instanceof Floor )
+				index = project.getBuildingPlan().detachFloor( (Floor)element );
+			else if( element instanceof RoomImpl )
+				((RoomImpl)element).getAssociatedFloor().deleteRoom( (RoomImpl)element );
+			else {
+				((AreaImpl)element).getAssociatedRoom().deleteArea( (AreaImpl)element );
+				affectedRooms.add( ((AreaImpl)element).getAssociatedRoom() );
+			}
+		}
+
+		private void attach( Set<Room> affectedRooms ) {
+			if( element instanceof Floor )
+				project.getBuildingPlan().insertFloor( index, (Floor)element );
+			else if( element instanceof RoomImpl ) {
+				((RoomImpl)element).getAssociatedFloor().addRoom( (RoomImpl)element );
+				affectedRooms.add( (RoomImpl)element );
+			} else {
+				((AreaImpl)element).getAssociatedRoom().addArea( (AreaImpl)element );
+				affectedRooms.add( ((AreaImpl)element).getAssociatedRoom() );
+			}
+
+			for( int i = 0; i < exitAreas.size(); ++i )
+				exitAreas.get( i ).setExitArea( exits.get( i ) );
+			for( AssignmentArea area : typed )
+				area.getAssignmentType().addAssignmentArea( area );
+			for( int i = 0; i < links.size(); i += 2 ) {
+				final RoomEdge linked = links.get( i + 1 ).resolve();
+				linked.setLinkTarget( links.get( i ).resolve() );
+				affectedRooms.add( linked.getRoom() );
+			}
+		}
+	}
+
+	/**
+	 * Refers to an edge by its polygon and end points. Edges that are not part of
+	 * a polygon are referred to directly.
+	 */
+	static final class EdgeRef {
+		private final PlanPolygon<?> polygon;
+		private final PlanPoint source;
+		private final PlanPoint target;
+		private RoomEdge edge;
+
+		EdgeRef( RoomEdge edge ) {
+			this.edge = edge;
+			this.polygon = edge.getAssociatedPolygon();
+			this.source = edge.getSource();
+			this.target = edge.getTarget();
+		}
+
+		static EdgeRef linkOf( RoomEdge edge ) {
+			return edge.getLinkTarget() == null ? null : new EdgeRef( edge.getLinkTarget() );
+		}
+
+		/**
+		 * Returns the edge that currently connects the end points in the polygon.
+		 * @return the edge
+		 * @throws IllegalArgumentException if the polygon does not contain such an edge
+		 */
+		RoomEdge resolve() throws IllegalArgumentException {
+			if( polygon != null && !isCurrent() )
+				edge = (RoomEdge)polygon.getEdge( source, target );
+			return edge;
+		}
+
+		/**
+		 * Checks whether the referred edge is still part of the polygon. Combined
+		 * edges are not always removed from the polygon, thus the points have to
+		 * refer to the edge.
+		 */
+		private boolean isCurrent() {
+			final PlanPoint s = edge.getSource();
+			final PlanPoint t = edge.getTarget();
+			return edge.getAssociatedPolygon() == polygon && s != null && s.getNextEdge() == edge
+							&& (s == source && t == target || s == target && t == source);
+		}
+	}
+
+	/**
+	 * Replaces a chain of consecutive edges of a polygon by another chain with
+	 * the same end points. Splitting and combining edges are both replacements.
+	 * The edges of the chains are not passable when the replacement is applied,
+	 * links are recorded separately.
+	 */
+	private static final class Replacement extends Edit {
+		private final PlanPolygon<?> polygon;
+		private final PlanPoint[] oldChain;
+		private final PlanPoint[] newChain;
+
+		Replacement( PlanPolygon<?> polygon, PlanPoint[] oldChain, PlanPoint[] newChain ) {
+			this.polygon = polygon;
+			this.oldChain = oldChain;
+			this.newChain = newChain;
+		}
+
+		@Override
+		void undo( Set<Room> affectedRooms ) {
+			replace( newChain, oldChain, affectedRooms );
+		}
+
+		@Override
+		void redo( Set<Room> affectedRooms ) {
+			replace( oldChain, newChain, affectedRooms );
+		}
+
+		@SuppressWarnings( "unchecked" )
+		private void replace( PlanPoint[] from, PlanPoint[] to, Set<Room> affectedRooms ) {
+			final PlanPolygon<PlanEdge> p = (PlanPolygon<PlanEdge>)polygon;
+			PlanEdge e = p.getEdge( from[0], from[1] );
+			for( int i = 2; i < from.length; ++i )
+				e = p.combineEdges( e, p.getEdge( from[i - 1], from[i] ), false );
+			if( to.length > 2 ) {
+				final List<PlanPoint> chain = new ArrayList<>( Arrays.asList( to ) );
+				if( e.getSource() != chain.get( 0 ) )
+					Collections.reverse( chain );
+				final List<PlanEdge> edges = p.replaceEdge( e, chain );
+				// The polygon creates copies of the inner points, the recorded instances are restored
+				for( int i = 1; i < chain.size() - 1; ++i ) {
+					edges.get( i - 1 ).setTarget( chain.get( i ), true );
+					edges.get( i ).setSource( chain.get( i ), true );
+				}
+			}
+			touch( polygon, affectedRooms );
+		}
+	}
+}
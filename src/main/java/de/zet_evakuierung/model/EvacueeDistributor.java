@@ -0,0 +1,258 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package de.zet_evakuierung.model;
+
+import de.zet_evakuierung.model.exception.TooManyPeopleException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * <p>Distributes a number of evacuees among assignment areas. Each area gets a
+ * share proportional to its capacity times the weight of its
+ * {@link AssignmentType}. Shares that exceed the capacity of an area are cut
+ * and the surplus is distributed among the other areas. The shares are rounded
+ * by the largest remainder method, ties are broken randomly based on the seed.
+ * Thus, the result is reproducible for a given seed.</p>
+ * <p>The default weight of all types is 1, which distributes the evacuees
+ * proportional to the capacities. Areas of types with weight 0 do not get any
+ * evacuees. The running time is linear in the number of areas, apart from
+ * sorting the assignment types by weight.</p>
+ * @author Jan-Philipp Kappmeier
+ */
+public class EvacueeDistributor {
+	/** The seed used to break ties. */
+	private final long seed;
+	/** The weights of assignment types that have a weight different from 1. */
+	private final IdentityHashMap<AssignmentType, Double> weights = new IdentityHashMap<>();
+
+	/**
+	 * Creates a new distributor.
+	 * @param seed the seed used to break ties between areas with equal remainders
+	 */
+	public EvacueeDistributor( long seed ) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Returns the seed used to break ties.
+	 * @return the seed
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Sets the weight of an assignment type. The share of an area is proportional
+	 * to the weight of its type.
+	 * @param type the assignment type
+	 * @param weight the non-negative weight
+	 * @throws IllegalArgumentException if the weight is negative or not finite
+	 */
+	public void setWeight( AssignmentType type, double weight ) throws IllegalArgumentException {
+		if( !(weight >= 0) || Double.isInfinite( weight ) )
+			throw new IllegalArgumentException( "Weight must be non-negative: " + weight );
+		weights.put( type, weight );
+	}
+
+	/**
+	 * Returns the weight of an assignment type.
+	 * @param type the assignment type
+	 * @return the weight, 1 if no weight has been set
+	 */
+	public double getWeight( AssignmentType type ) {
+		final Double weight = weights.get( type );
+		return weight == null ? 1 : weight;
+	}
+
+	/**
+	 * Distributes evacuees among all assignment areas of a building plan and sets
+	 * the number of evacuees of the areas. All preexisting evacuee numbers are
+	 * overwritten.
+	 * @param plan the building plan
+	 * @param nrOfEvacuees the number of evacuees
+	 * @throws TooManyPeopleException if the number of evacuees exceeds the capacity of
+	 * the areas with positive weight
+	 */
+	public void distribute( BuildingPlan plan, int nrOfEvacuees ) throws TooManyPeopleException {
+		final ArrayList<AssignmentArea> areas = new ArrayList<>();
+		for( Floor f : plan.getFloors() )
+			for( Room r : f.getRooms() )
+				areas.addAll( r.getAssignmentAreas() );
+		final int[] evacuees = distribute( areas, nrOfEvacuees );
+		for( int i = 0; i < evacuees.length; ++i )
+			areas.get( i ).setEvacuees( evacuees[i] );
+	}
+
+	/**
+	 * Computes the number of evacuees for each area without changing the areas.
+	 * @param areas the assignment areas
+	 * @param nrOfEvacuees the number of evacuees
+	 * @return the number of evacuees for each area, in the order of the list
+	 * @throws TooManyPeopleException if the number of evacuees exceeds the capacity of
+	 * the areas with positive weight
+	 * @throws IllegalArgumentException if the number of evacuees is negative
+	 */
+	public int[] distribute( List<AssignmentArea> areas, int nrOfEvacuees ) throws TooManyPeopleException, IllegalArgumentException {
+		if( nrOfEvacuees < 0 )
+			throw new IllegalArgumentException( "Number of evacuees must be non-negative: " + nrOfEvacuees );
+		final int n = areas.size();
+		final int[] capacity = new int[n];
+		final int[] typeIndex = new int[n];
+
+		// Collect the capacities per type
+		final IdentityHashMap<AssignmentType, Integer> typeIndices = new IdentityHashMap<>();
+		final ArrayList<Double> typeWeights = new ArrayList<>();
+		final ArrayList<Long> typeCapacities = new ArrayList<>();
+		for( int i = 0; i < n; ++i ) {
+			final AssignmentArea area = areas.get( i );
+			capacity[i] = area.getMaxEvacuees();
+			Integer t = typeIndices.get( area.getAssignmentType() );
+			if( t == null ) {
+				t = typeWeights.size();
+				typeIndices.put( area.getAssignmentType(), t );
+				typeWeights.add( getWeight( area.getAssignmentType() ) );
+				typeCapacities.add( 0L );
+			}
+			typeIndex[i] = t;
+			typeCapacities.set( t, typeCapacities.get( t ) + capacity[i] );
+		}
+
+		final double[] fill = fillRatios( typeWeights, typeCapacities, nrOfEvacuees );
+
+		// Round down and remember the remainders
+		final int[] evacuees = new int[n];
+		final double[] remainder = new double[n];
+		long assigned = 0;
+		for( int i = 0; i < n; ++i ) {
+			final double share = Math.min( capacity[i], capacity[i] * fill[typeIndex[i]] );
+			evacuees[i] = (int)Math.floor( share );
+			remainder[i] = evacuees[i] < capacity[i] ? share - evacuees[i] : -1;
+			assigned += evacuees[i];
+		}
+
+		// Assign the rest to the areas with the largest remainders
+		int rest = (int)(nrOfEvacuees - assigned);
+		if( rest > 0 ) {
+			final Random random = new Random( seed );
+			final long[] tie = new long[n];
+			final Integer[] order = new Integer[n];
+			for( int i = 0; i < n; ++i ) {
+				tie[i] = random.nextLong();
+				order[i] = i;
+			}
+			select( order, rest, new Comparator<Integer>() {
+				@Override
+				public int compare( Integer a, Integer b ) {
+					final int c = Double.compare( remainder[b], remainder[a] );
+					return c != 0 ? c : Long.compare( tie[a], tie[b] );
+				}
+			}, random );
+			// Areas filled due to rounding errors pass their evacuee to the next ones
+			for( int i = 0; i < n && rest > 0; ++i )
+				if( evacuees[order[i]] < capacity[order[i]] ) {
+					evacuees[order[i]]++;
+					rest--;
+				}
+		}
+		return evacuees;
+	}
+
+	/**
+	 * Computes for each type the ratio of the capacity that is filled. The ratio
+	 * is proportional to the weight of the type, but at most 1.
+	 * @param weights the weights of the types
+	 * @param capacities the total capacities of the areas of the types
+	 * @param nrOfEvacuees the number of evacuees
+	 * @return the ratio for each type
+	 * @throws TooManyPeopleException if the capacity of the types with positive weight is too small
+	 */
+	private static double[] fillRatios( final List<Double> weights, List<Long> capacities, int nrOfEvacuees ) throws TooManyPeopleException {
+		final int types = weights.size();
+		final Integer[] byWeight = new Integer[types];
+		long total = 0;
+		double weighted = 0;
+		for( int t = 0; t < types; ++t ) {
+			byWeight[t] = t;
+			if( weights.get( t ) > 0 ) {
+				total += capacities.get( t );
+				weighted += weights.get( t ) * capacities.get( t );
+			}
+		}
+		if( total < nrOfEvacuees )
+			throw new TooManyPeopleException( null, ZLocalization.loc.getString( "ds.TooManyEvacuees" ) );
+		Arrays.sort( byWeight, new Comparator<Integer>() {
+			@Override
+			public int compare( Integer a, Integer b ) {
+				return Double.compare( weights.get( b ), weights.get( a ) );
+			}
+		} );
+
+		// Saturate the types with the highest weights until the others fit
+		final double[] fill = new double[types];
+		double remaining = nrOfEvacuees;
+		int saturated = 0;
+		while( saturated < types && weights.get( byWeight[saturated] ) > 0 ) {
+			final int t = byWeight[saturated];
+			final double lambda = weighted > 0 ? remaining / weighted : 0;
+			if( lambda * weights.get( t ) <= 1 ) {
+				for( int s = saturated; s < types; ++s )
+					fill[byWeight[s]] = lambda * weights.get( byWeight[s] );
+				break;
+			}
+			fill[t] = 1;
+			remaining -= capacities.get( t );
+			weighted -= weights.get( t ) * capacities.get( t );
+			saturated++;
+		}
+		return fill;
+	}
+
+	/**
+	 * Partially sorts an array such that the first {@code k} elements are the
+	 * smallest ones with respect to a comparator. Runs in expected linear time.
+	 */
+	private static <E> void select( E[] a, int k, Comparator<? super E> comparator, Random random ) {
+		int lo = 0;
+		int hi = a.length - 1;
+		while( lo < hi ) {
+			final E pivot = a[lo + random.nextInt( hi - lo + 1 )];
+			int i = lo;
+			int j = hi;
+			while( i <= j ) {
+				while( comparator.compare( a[i], pivot ) < 0 )
+					i++;
+				while( comparator.compare( a[j], pivot ) > 0 )
+					j--;
+				if( i <= j ) {
+					final E t = a[i];
+					a[i++] = a[j];
+					a[j--] = t;
+				}
+			}
+			if( k - 1 <= j )
+				hi = j;
+			else if( k - 1 >= i )
+				lo = i;
+			else
+				return;
+		}
+	}
+}
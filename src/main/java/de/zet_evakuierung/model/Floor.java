@@ -86,6 +86,9 @@ public class Floor implements Serializable, Cloneable, FloorInterface, Named {
 	/** The Room that has the maximum y value (yOffset + width). */
 	@XStreamOmitField
 	private RoomImpl maxY_DefiningRoom;
+	/** The stamp of the last modification of the floor or one of its rooms. */
+	@XStreamOmitField
+	private transient volatile long modificationStamp;
 
 	/**
 	 * Creates a new empty instance of {@code Floor} with the name "NewFloor".
@@ -122,6 +125,7 @@ public class Floor implements Serializable, Cloneable, FloorInterface, Named {
 				throw new IllegalArgumentException( ZLocalization.loc.getString( "ds.z.RoomAlreadyExistsException" ) + ": " + room.getName() );
 			rooms.add( room );
 			Collections.sort( rooms );
+			modified( PlanPolygon.nextStamp() );
 		} catch( IllegalArgumentException ex ) {
 			throw ex;
 		}
@@ -146,9 +150,28 @@ public class Floor implements Serializable, Cloneable, FloorInterface, Named {
 		else {
 			rooms.remove( room );
 			roomDeleteHandler (room);
+			modified( PlanPolygon.nextStamp() );
 		}
 	}
 
+	/**
+	 * Returns the stamp of the last modification. The stamp increases whenever a
+	 * room is added or removed, or one of the rooms is modified.
+	 * @return the stamp of the last modification
+	 * @see PlanPolygon#getModificationStamp()
+	 */
+	public long getModificationStamp() {
+		return modificationStamp;
+	}
+
+	/**
+	 * Sets the modification stamp, called by the rooms if they are modified.
+	 * @param stamp the new stamp
+	 */
+	void modified( long stamp ) {
+		modificationStamp = stamp;
+	}
+
 	/**
 	 * Checks, whether a floor is a valid floor. It is, if all his associated rooms are valid and none of
 	 * his rooms intersects.
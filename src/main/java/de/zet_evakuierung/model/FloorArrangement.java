@@ -0,0 +1,613 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package de.zet_evakuierung.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>A doubly connected edge list of the rooms of a floor. The rooms are the
+ * faces of the arrangement, the part of the floor not covered by rooms is the
+ * outer face, represented by {@code null}. Walls that are shared by two rooms
+ * are split such that each common part is one pair of twin {@link HalfEdge}s,
+ * thus the room on the other side of a wall is found in constant time.</p>
+ * <p>The half edges of a room run counter clockwise around the room, such that
+ * the room is on the left side. The outgoing half edges of each {@link Vertex}
+ * are sorted counter clockwise. Vertices are the corners of the rooms and the
+ * end points of shared walls. Rooms that touch in a single point only are not
+ * connected.</p>
+ * <p>The arrangement does not listen to changes of the floor. After rooms have
+ * been edited, {@link #update(Collection)} rebuilds only the edited rooms and
+ * their neighbours on both the old and the new position. {@link #refresh()}
+ * detects the changed rooms itself. Rooms are expected not to overlap.</p>
+ * @author Jan-Philipp Kappmeier
+ */
+public class FloorArrangement {
+	/** The floor. */
+	private final FloorInterface floor;
+	/** The vertices by their coordinates. */
+	private final HashMap<Long, Vertex> vertices = new HashMap<>();
+	/** The faces of the rooms. */
+	private final IdentityHashMap<Room, Face> faces = new IdentityHashMap<>();
+	/** The edges of the rooms by the hash of their supporting line. */
+	private final HashMap<Long, List<Wall>> lines = new HashMap<>();
+
+	/**
+	 * Creates the arrangement of all rooms of a floor.
+	 * @param floor the floor
+	 */
+	public FloorArrangement( FloorInterface floor ) {
+		this.floor = floor;
+		update( new ArrayList<>( floor.getRooms() ) );
+	}
+
+	/**
+	 * A corner of the arrangement.
+	 */
+	public static class Vertex {
+		private final int x;
+		private final int y;
+		/** The outgoing half edges, sorted counter clockwise. */
+		private final ArrayList<HalfEdge> star = new ArrayList<>( 4 );
+
+		private Vertex( int x, int y ) {
+			this.x = x;
+			this.y = y;
+		}
+
+		public int getX() {
+			return x;
+		}
+
+		public int getY() {
+			return y;
+		}
+
+		/**
+		 * Returns the outgoing half edges sorted counter clockwise by their direction.
+		 * @return the outgoing half edges
+		 */
+		public List<HalfEdge> getStar() {
+			return Collections.unmodifiableList( star );
+		}
+
+		/**
+		 * Returns the rooms having this vertex on their boundary.
+		 * @return the rooms, each room once
+		 */
+		public List<Room> getRooms() {
+			final List<Room> rooms = new ArrayList<>( star.size() );
+			for( HalfEdge h : star )
+				if( h.face != null && !containsIdentical( rooms, h.face ) )
+					rooms.add( h.face );
+			return rooms;
+		}
+
+		private static boolean containsIdentical( List<Room> rooms, Room room ) {
+			for( Room r : rooms )
+				if( r == room )
+					return true;
+			return false;
+		}
+
+		private void add( HalfEdge h ) {
+			int i = Collections.binarySearch( star, h, ANGLE );
+			star.add( i < 0 ? -i - 1 : i, h );
+		}
+
+		@Override
+		public String toString() {
+			return "(" + x + "," + y + ")";
+		}
+	}
+
+	/**
+	 * A directed part of a wall. The face is on the left side of the half edge.
+	 */
+	public static class HalfEdge {
+		private final Vertex origin;
+		private final Vertex target;
+		/** The room on the left, {@code null} for the outer face. */
+		private final Room face;
+		/** The edge of the room containing the half edge, {@code null} for the outer face. */
+		private final RoomEdge edge;
+		private HalfEdge twin;
+		private HalfEdge next;
+		private HalfEdge prev;
+
+		private HalfEdge( Vertex origin, Vertex target, Room face, RoomEdge edge ) {
+			this.origin = origin;
+			this.target = target;
+			this.face = face;
+			this.edge = edge;
+		}
+
+		public Vertex getOrigin() {
+			return origin;
+		}
+
+		public Vertex getTarget() {
+			return target;
+		}
+
+		/**
+		 * Returns the room on the left side.
+		 * @return the room, {@code null} if the half edge belongs to the outer face
+		 */
+		public Room getFace() {
+			return face;
+		}
+
+		/**
+		 * Returns the room edge containing this half edge. The room edge may be
+		 * longer if the wall is shared only partially.
+		 * @return the room edge, {@code null} if the half edge belongs to the outer face
+		 */
+		public RoomEdge getEdge() {
+			return edge;
+		}
+
+		/**
+		 * Returns the half edge in opposite direction, belonging to the neighbouring
+		 * room or to the outer face.
+		 * @return the twin half edge
+		 */
+		public HalfEdge getTwin() {
+			return twin;
+		}
+
+		/**
+		 * Returns the next half edge on the boundary of the face.
+		 * @return the next half edge
+		 */
+		public HalfEdge getNext() {
+			if( face != null )
+				return next;
+			// The next half edge of the outer face is the one clockwise next to the twin
+			final List<HalfEdge> star = target.star;
+			final int i = star.indexOf( twin );
+			return star.get( (i + star.size() - 1) % star.size() );
+		}
+
+		/**
+		 * Returns the previous half edge on the boundary of the face.
+		 * @return the previous half edge
+		 */
+		public HalfEdge getPrev() {
+			if( face != null )
+				return prev;
+			final List<HalfEdge> star = origin.star;
+			final int i = star.indexOf( this );
+			return star.get( (i + 1) % star.size() ).twin;
+		}
+
+		/**
+		 * Returns whether the half edge separates two rooms.
+		 * @return whether the half edge separates two rooms
+		 */
+		public boolean isShared() {
+			return face != null && twin.face != null;
+		}
+
+		/**
+		 * Returns whether the half edge is part of a door between the two rooms,
+		 * that is the room edges on both sides are linked.
+		 * @return whether the half edge is part of a door
+		 */
+		public boolean isDoor() {
+			return isShared() && edge.getLinkTarget() == twin.edge;
+		}
+
+		@Override
+		public String toString() {
+			return origin + " - " + target;
+		}
+	}
+
+	/** Compares half edges with common origin by the angle of their direction. */
+	private static final Comparator<HalfEdge> ANGLE = new Comparator<HalfEdge>() {
+		@Override
+		public int compare( HalfEdge a, HalfEdge b ) {
+			return Double.compare( angle( a ), angle( b ) );
+		}
+
+		private double angle( HalfEdge h ) {
+			return Math.atan2( h.target.y - (double)h.origin.y, h.target.x - (double)h.origin.x );
+		}
+	};
+
+	/** The boundary of a room. */
+	private static class Face {
+		final List<HalfEdge> halfEdges = new ArrayList<>();
+		final List<Wall> walls = new ArrayList<>();
+		/** The modification stamp of the room when the face was inserted. */
+		long modificationStamp;
+	}
+
+	/** An edge of a room on its supporting line. */
+	private static class Wall {
+		final SharedWall.Line line;
+		final Room room;
+
+		Wall( SharedWall.Line line, Room room ) {
+			this.line = line;
+			this.room = room;
+		}
+
+		boolean overlaps( SharedWall.Line other ) {
+			return line.sameLine( other ) && line.from < other.to && other.from < line.to;
+		}
+	}
+
+	/**
+	 * Returns the floor.
+	 * @return the floor
+	 */
+	public FloorInterface getFloor() {
+		return floor;
+	}
+
+	/**
+	 * Returns the vertex at a given position.
+	 * @param x the x-coordinate
+	 * @param y the y-coordinate
+	 * @return the vertex, {@code null} if there is no vertex at the position
+	 */
+	public Vertex getVertex( int x, int y ) {
+		return vertices.get( key( x, y ) );
+	}
+
+	/**
+	 * Returns all vertices in no particular order.
+	 * @return all vertices
+	 */
+	public Collection<Vertex> getVertices() {
+		return Collections.unmodifiableCollection( vertices.values() );
+	}
+
+	/**
+	 * Returns the rooms contained in the arrangement.
+	 * @return the rooms
+	 */
+	public Set<Room> getRooms() {
+		return Collections.unmodifiableSet( faces.keySet() );
+	}
+
+	/**
+	 * Returns the half edges of the boundary of a room, counter clockwise.
+	 * @param room the room
+	 * @return the half edges
+	 * @throws IllegalArgumentException if the room is not contained in the arrangement
+	 */
+	public List<HalfEdge> getHalfEdges( Room room ) throws IllegalArgumentException {
+		return Collections.unmodifiableList( face( room ).halfEdges );
+	}
+
+	/**
+	 * Returns the rooms sharing a wall with a room.
+	 * @param room the room
+	 * @return the neighbouring rooms, each room once
+	 * @throws IllegalArgumentException if the room is not contained in the arrangement
+	 */
+	public List<Room> getAdjacentRooms( Room room ) throws IllegalArgumentException {
+		final List<Room> rooms = new ArrayList<>();
+		final Set<Room> seen = Collections.newSetFromMap( new IdentityHashMap<Room, Boolean>() );
+		for( HalfEdge h : face( room ).halfEdges )
+			if( h.twin.face != null && seen.add( h.twin.face ) )
+				rooms.add( h.twin.face );
+		return rooms;
+	}
+
+	/**
+	 * Returns the walls that are shared by two rooms but are not doors. Only one
+	 * half edge of each pair of twins is returned.
+	 * @return the shared walls that are not passable
+	 */
+	public List<HalfEdge> getWallsToConvert() {
+		final List<HalfEdge> walls = new ArrayList<>();
+		final Set<HalfEdge> seen = Collections.newSetFromMap( new IdentityHashMap<HalfEdge, Boolean>() );
+		for( Face f : faces.values() )
+			for( HalfEdge h : f.halfEdges )
+				if( h.isShared() && !h.isDoor() && !seen.contains( h.twin ) ) {
+					seen.add( h );
+					walls.add( h );
+				}
+		return walls;
+	}
+
+	/**
+	 * Updates the arrangement for all rooms that have been added, removed or
+	 * changed since the last update. Changes are detected by the modification
+	 * stamps of the rooms.
+	 * @return the number of changed rooms
+	 */
+	public int refresh() {
+		final List<Room> changed = new ArrayList<>();
+		final Set<Room> current = Collections.newSetFromMap( new IdentityHashMap<Room, Boolean>() );
+		for( Room room : floor.getRooms() ) {
+			current.add( room );
+			final Face face = faces.get( room );
+			if( face == null || face.modificationStamp != room.getPolygon().getModificationStamp() )
+				changed.add( room );
+		}
+		for( Room room : faces.keySet() )
+			if( !current.contains( room ) )
+				changed.add( room );
+		if( !changed.isEmpty() )
+			update( changed );
+		return changed.size();
+	}
+
+	/**
+	 * Updates the arrangement for rooms that have been added, removed or
+	 * changed. Rooms that are not on the floor anymore are removed. The
+	 * neighbours of the rooms are updated, too.
+	 * @param rooms the changed rooms
+	 */
+	public final void update( Collection<? extends Room> rooms ) {
+		final Set<Room> onFloor = Collections.newSetFromMap( new IdentityHashMap<Room, Boolean>() );
+		onFloor.addAll( floor.getRooms() );
+
+		// Collect the changed rooms and the rooms sharing walls at the old or new position
+		final Set<Room> affected = Collections.newSetFromMap( new IdentityHashMap<Room, Boolean>() );
+		final IdentityHashMap<Room, List<Wall>> newWalls = new IdentityHashMap<>();
+		for( Room room : rooms ) {
+			affected.add( room );
+			final Face face = faces.get( room );
+			if( face != null )
+				for( Wall wall : face.walls )
+					addOverlapping( wall.line, affected );
+			if( onFloor.contains( room ) && room.getPolygon().isClosed() ) {
+				final List<Wall> walls = walls( room );
+				newWalls.put( room, walls );
+				for( Wall wall : walls )
+					addOverlapping( wall.line, affected );
+			}
+		}
+
+		for( Room room : affected )
+			remove( room );
+		final List<Room> inserted = new ArrayList<>();
+		for( Room room : affected ) {
+			if( !onFloor.contains( room ) || !room.getPolygon().isClosed() )
+				continue;
+			List<Wall> walls = newWalls.get( room );
+			if( walls == null )
+				walls = walls( room );
+			final Face face = new Face();
+			face.walls.addAll( walls );
+			face.modificationStamp = room.getPolygon().getModificationStamp();
+			faces.put( room, face );
+			for( Wall wall : walls )
+				addToIndex( wall );
+			inserted.add( room );
+		}
+		for( Room room : inserted )
+			insert( room );
+	}
+
+	private Face face( Room room ) throws IllegalArgumentException {
+		final Face face = faces.get( room );
+		if( face == null )
+			throw new IllegalArgumentException( "Room is not contained in the arrangement: " + room.getName() );
+		return face;
+	}
+
+	/**
+	 * Adds the rooms having edges overlapping a given line to a set.
+	 */
+	private void addOverlapping( SharedWall.Line line, Set<Room> rooms ) {
+		final List<Wall> candidates = lines.get( line.lineHash() );
+		if( candidates != null )
+			for( Wall wall : candidates )
+				if( wall.overlaps( line ) )
+					rooms.add( wall.room );
+	}
+
+	/**
+	 * Returns the edges of a room with positive length in counter clockwise order.
+	 */
+	private static List<Wall> walls( Room room ) {
+		final List<? extends RoomEdge> edges = room.getPolygon().getEdges();
+		final List<Wall> walls = new ArrayList<>( edges.size() );
+		for( RoomEdge e : edges )
+			if( !e.getSource().matches( e.getTarget() ) )
+				walls.add( new Wall( new SharedWall.Line( e ), room ) );
+		if( !counterClockwise( walls ) )
+			Collections.reverse( walls );
+		return walls;
+	}
+
+	/**
+	 * Checks whether the edges, given in the order along the boundary, run
+	 * counter clockwise.
+	 */
+	private static boolean counterClockwise( List<Wall> walls ) {
+		long area = 0;
+		for( int i = 0; i < walls.size(); ++i ) {
+			final PlanPoint[] points = traversal( walls, i );
+			area += (long)points[0].getXInt() * points[1].getYInt() - (long)points[1].getXInt() * points[0].getYInt();
+		}
+		return area >= 0;
+	}
+
+	/**
+	 * Returns the start and end point of an edge in the order of the list. The
+	 * start point is the point shared with the previous edge in the list.
+	 */
+	private static PlanPoint[] traversal( List<Wall> walls, int i ) {
+		final RoomEdge e = walls.get( i ).line.edge;
+		final RoomEdge prev = walls.get( (i + walls.size() - 1) % walls.size() ).line.edge;
+		final boolean sourceFirst = !e.getTarget().matches( prev.getSource() ) && !e.getTarget().matches( prev.getTarget() );
+		return sourceFirst ? new PlanPoint[]{e.getSource(), e.getTarget()} : new PlanPoint[]{e.getTarget(), e.getSource()};
+	}
+
+	private void addToIndex( Wall wall ) {
+		List<Wall> list = lines.get( wall.line.lineHash() );
+		if( list == null ) {
+			list = new ArrayList<>( 2 );
+			lines.put( wall.line.lineHash(), list );
+		}
+		list.add( wall );
+	}
+
+	private void removeFromIndex( Wall wall ) {
+		final List<Wall> list = lines.get( wall.line.lineHash() );
+		for( int i = list.size() - 1; i >= 0; --i )
+			if( list.get( i ) == wall ) {
+				list.remove( i );
+				break;
+			}
+		if( list.isEmpty() )
+			lines.remove( wall.line.lineHash() );
+	}
+
+	/**
+	 * Creates the half edges of a room whose walls are in the index already.
+	 */
+	private void insert( Room room ) {
+		final Face face = faces.get( room );
+		final List<Wall> walls = face.walls;
+		for( int i = 0; i < walls.size(); ++i ) {
+			final Wall wall = walls.get( i );
+			final PlanPoint[] ends = traversal( walls, i );
+			Vertex from = vertex( ends[0].getXInt(), ends[0].getYInt() );
+			for( long t : splits( wall, ends[0] ) ) {
+				final Vertex to = vertex( wall.line, t );
+				link( face, new HalfEdge( from, to, room, wall.line.edge ) );
+				from = to;
+			}
+			link( face, new HalfEdge( from, vertex( ends[1].getXInt(), ends[1].getYInt() ), room, wall.line.edge ) );
+		}
+		final List<HalfEdge> boundary = face.halfEdges;
+		for( int i = 0; i < boundary.size(); ++i ) {
+			boundary.get( i ).next = boundary.get( (i + 1) % boundary.size() );
+			boundary.get( (i + 1) % boundary.size() ).prev = boundary.get( i );
+		}
+	}
+
+	/**
+	 * Returns the positions on the line of the inner points of an edge at which
+	 * edges of other rooms on the same line end, ordered from a given end point.
+	 */
+	private long[] splits( Wall wall, PlanPoint start ) {
+		final SharedWall.Line line = wall.line;
+		final List<Long> positions = new ArrayList<>();
+		for( Wall other : lines.get( line.lineHash() ) )
+			if( other.room != wall.room && other.overlaps( line ) ) {
+				if( line.from < other.line.from && other.line.from < line.to && !positions.contains( other.line.from ) )
+					positions.add( other.line.from );
+				if( line.from < other.line.to && other.line.to < line.to && !positions.contains( other.line.to ) )
+					positions.add( other.line.to );
+			}
+		Collections.sort( positions );
+		if( !line.point( line.from ).matches( start ) )
+			Collections.reverse( positions );
+		final long[] result = new long[positions.size()];
+		for( int i = 0; i < result.length; ++i )
+			result[i] = positions.get( i );
+		return result;
+	}
+
+	/**
+	 * Adds a half edge to a face and connects it to its twin. A half edge of the
+	 * outer face is created as twin if the wall is not shared.
+	 */
+	private void link( Face face, HalfEdge h ) {
+		face.halfEdges.add( h );
+		HalfEdge twin = null;
+		for( HalfEdge candidate : h.target.star )
+			if( candidate.target == h.origin ) {
+				twin = candidate;
+				break;
+			}
+		if( twin != null && twin.face != null && twin.twin.face == null ) {
+			// Replace the outer half edge on the other side
+			final HalfEdge outer = twin.twin;
+			h.origin.star.remove( outer );
+			twin.twin = h;
+			h.twin = twin;
+		} else {
+			final HalfEdge outer = new HalfEdge( h.target, h.origin, null, null );
+			h.target.add( outer );
+			outer.twin = h;
+			h.twin = outer;
+		}
+		h.origin.add( h );
+	}
+
+	/**
+	 * Removes the half edges and walls of a room.
+	 */
+	private void remove( Room room ) {
+		final Face face = faces.remove( room );
+		if( face == null )
+			return;
+		for( Wall wall : face.walls )
+			removeFromIndex( wall );
+		for( HalfEdge h : face.halfEdges ) {
+			h.origin.star.remove( h );
+			if( h.twin.face == null ) {
+				h.target.star.remove( h.twin );
+			} else {
+				// The other room now borders the outer face
+				final HalfEdge outer = new HalfEdge( h.origin, h.target, null, null );
+				outer.twin = h.twin;
+				h.twin.twin = outer;
+				h.origin.add( outer );
+			}
+		}
+		for( HalfEdge h : face.halfEdges ) {
+			removeIfIsolated( h.origin );
+			removeIfIsolated( h.target );
+		}
+	}
+
+	private void removeIfIsolated( Vertex v ) {
+		if( v.star.isEmpty() )
+			vertices.remove( key( v.x, v.y ) );
+	}
+
+	private Vertex vertex( int x, int y ) {
+		final long key = key( x, y );
+		Vertex v = vertices.get( key );
+		if( v == null ) {
+			v = new Vertex( x, y );
+			vertices.put( key, v );
+		}
+		return v;
+	}
+
+	/**
+	 * Returns the vertex at the point of a line with a given projection.
+	 */
+	private Vertex vertex( SharedWall.Line line, long t ) {
+		final long norm = line.dx * line.dx + line.dy * line.dy;
+		return vertex( (int)((line.dx * t - line.dy * line.offset) / norm), (int)((line.dy * t + line.dx * line.offset) / norm) );
+	}
+
+	private static long key( int x, int y ) {
+		return ((long)x << 32) | (y & 0xffffffffL);
+	}
+}
@@ -0,0 +1,560 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package de.zet_evakuierung.model;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * <p>An immutable snapshot of a {@link BuildingPlan}. The floors, rooms, room
+ * edges and areas are numbered consecutively and stored in arrays, such that
+ * the snapshot can be shared by any number of threads without copying or
+ * locking. Changes to the building plan after the creation are not reflected.</p>
+ * <p>The rooms of a floor have the indices {@code firstRoom(f)} up to (but not
+ * including) {@code lastRoom(f)}, the edges and areas of a room are stored in
+ * the same way. The edges of a room run along its boundary, the end point of an
+ * edge is the start point of the next edge of the room. Passable edges are
+ * linked to the edge on the other side of the door, which may be on another
+ * floor for teleport edges. Rooms and areas whose polygon is not closed are
+ * not contained.</p>
+ * @author Jan-Philipp Kappmeier
+ * @see BuildingPlan#freeze()
+ */
+public final class FrozenBuildingPlan {
+	/** The area types in the order of their ordinal. */
+	private static final AreaType[] AREA_TYPES = AreaType.values();
+	/** The names of the floors. */
+	private final String[] floorNames;
+	/** The first room of each floor, contains one additional sentinel entry. */
+	private final int[] firstRoom;
+	/** The names of the rooms. */
+	private final String[] roomNames;
+	/** The floor of each room. */
+	private final int[] roomFloor;
+	/** The bounding box of each room, four entries per room. */
+	private final int[] roomBounds;
+	/** The first edge of each room, contains one additional sentinel entry. */
+	private final int[] firstEdge;
+	/** The first area of each room, contains one additional sentinel entry. */
+	private final int[] firstArea;
+	/** The coordinates of the start points of the edges. */
+	private final int[] edgeX, edgeY;
+	/** The room of each edge. */
+	private final int[] edgeRoom;
+	/** The linked edge of each edge, -1 if the edge is not passable. */
+	private final int[] edgeLink;
+	/** The edges that are teleport edges. */
+	private final BitSet teleport;
+	/** The ordinal of the type of each area. */
+	private final byte[] areaType;
+	/** The room of each area. */
+	private final int[] areaRoom;
+	/** The first point of each area, contains one additional sentinel entry. */
+	private final int[] firstAreaPoint;
+	/** The coordinates of the points of the areas. */
+	private final int[] areaX, areaY;
+	/** The number of evacuees of assignment areas, the attractivity of evacuation areas and 0 otherwise. */
+	private final int[] areaValue;
+	/** The speed factor of delay areas, the upwards speed factor of stairs and 1 otherwise. */
+	private final double[] speedFactor;
+	/** The downwards speed factor of stairs and 1 otherwise. */
+	private final double[] speedFactorDown;
+	/** The target area of teleport areas, -1 otherwise. */
+	private final int[] areaLink;
+	/** The index of the level points of stair areas in {@link #stairLevels}, -1 otherwise. */
+	private final int[] stairIndex;
+	/** The lower and upper level of stairs, eight coordinates per stair. */
+	private final int[] stairLevels;
+
+	/**
+	 * Creates a snapshot of a building plan. The plan must not be changed while
+	 * the snapshot is created.
+	 * @param plan the building plan
+	 */
+	FrozenBuildingPlan( BuildingPlan plan ) {
+		final List<Floor> floors = plan.getFloors();
+		final List<Room> rooms = new ArrayList<>();
+		floorNames = new String[floors.size()];
+		firstRoom = new int[floors.size() + 1];
+		for( int f = 0; f < floors.size(); ++f ) {
+			floorNames[f] = floors.get( f ).getName();
+			for( Room room : floors.get( f ).getRooms() )
+				if( room.getPolygon().isClosed() )
+					rooms.add( room );
+			firstRoom[f + 1] = rooms.size();
+		}
+
+		// Count the edges and areas
+		final int n = rooms.size();
+		firstEdge = new int[n + 1];
+		firstArea = new int[n + 1];
+		final List<Area> areas = new ArrayList<>();
+		int points = 0;
+		for( int r = 0; r < n; ++r ) {
+			firstEdge[r + 1] = firstEdge[r] + rooms.get( r ).getPolygon().getNumberOfEdges();
+			for( Area area : rooms.get( r ).getAreas() )
+				if( area.getPolygon().isClosed() ) {
+					areas.add( area );
+					points += area.getPolygon().getNumberOfEdges();
+				}
+			firstArea[r + 1] = areas.size();
+		}
+
+		// Rooms and edges
+		roomNames = new String[n];
+		roomFloor = new int[n];
+		roomBounds = new int[4 * n];
+		final int m = firstEdge[n];
+		edgeX = new int[m];
+		edgeY = new int[m];
+		edgeRoom = new int[m];
+		edgeLink = new int[m];
+		teleport = new BitSet( m );
+		final IdentityHashMap<RoomEdge, Integer> edgeIndex = new IdentityHashMap<>( m );
+		final RoomEdge[] edges = new RoomEdge[m];
+		for( int f = 0; f < floors.size(); ++f )
+			for( int r = firstRoom[f]; r < firstRoom[f + 1]; ++r ) {
+				final Room room = rooms.get( r );
+				roomNames[r] = room.getName();
+				roomFloor[r] = f;
+				int e = firstEdge[r];
+				for( PlanPoint p : room.getPolygon().getPolygonPoints() ) {
+					edgeX[e] = p.getXInt();
+					edgeY[e] = p.getYInt();
+					edgeRoom[e] = r;
+					edges[e] = (RoomEdge)p.getNextEdge();
+					edgeIndex.put( edges[e], e );
+					e++;
+				}
+				bounds( edgeX, edgeY, firstEdge[r], firstEdge[r + 1], roomBounds, 4 * r );
+			}
+		for( int e = 0; e < m; ++e ) {
+			final Integer link = edges[e].isPassable() ? edgeIndex.get( edges[e].getLinkTarget() ) : null;
+			edgeLink[e] = link == null ? -1 : link;
+			if( edges[e] instanceof TeleportEdge )
+				teleport.set( e );
+		}
+
+		// Areas
+		final int k = areas.size();
+		areaType = new byte[k];
+		areaRoom = new int[k];
+		firstAreaPoint = new int[k + 1];
+		areaX = new int[points];
+		areaY = new int[points];
+		areaValue = new int[k];
+		speedFactor = new double[k];
+		speedFactorDown = new double[k];
+		areaLink = new int[k];
+		stairIndex = new int[k];
+		final IdentityHashMap<Area, Integer> areaIndex = new IdentityHashMap<>( k );
+		final List<PlanPoint> levels = new ArrayList<>();
+		for( int r = 0; r < n; ++r )
+			for( int a = firstArea[r]; a < firstArea[r + 1]; ++a ) {
+				final Area area = areas.get( a );
+				areaIndex.put( area, a );
+				areaType[a] = (byte)area.getAreaType().ordinal();
+				areaRoom[a] = r;
+				int p = firstAreaPoint[a];
+				for( PlanPoint point : area.getPolygon().getPolygonPoints() ) {
+					areaX[p] = point.getXInt();
+					areaY[p] = point.getYInt();
+					p++;
+				}
+				firstAreaPoint[a + 1] = p;
+				speedFactor[a] = 1;
+				speedFactorDown[a] = 1;
+				stairIndex[a] = -1;
+				if( area instanceof AssignmentArea )
+					areaValue[a] = ((AssignmentArea)area).getEvacuees();
+				else if( area instanceof EvacuationArea )
+					areaValue[a] = ((EvacuationArea)area).getAttractivity();
+				else if( area instanceof DelayArea )
+					speedFactor[a] = ((DelayArea)area).getSpeedFactor();
+				else if( area instanceof StairArea ) {
+					final StairArea stair = (StairArea)area;
+					speedFactor[a] = stair.getSpeedFactorUp();
+					speedFactorDown[a] = stair.getSpeedFactorDown();
+					if( stair.getLowerLevelStart() != null && stair.getUpperLevelStart() != null ) {
+						stairIndex[a] = 2 * levels.size();
+						levels.add( stair.getLowerLevelStart() );
+						levels.add( stair.getLowerLevelEnd() );
+						levels.add( stair.getUpperLevelStart() );
+						levels.add( stair.getUpperLevelEnd() );
+					}
+				}
+			}
+		stairLevels = new int[2 * levels.size()];
+		for( int i = 0; i < levels.size(); ++i ) {
+			stairLevels[2 * i] = levels.get( i ).getXInt();
+			stairLevels[2 * i + 1] = levels.get( i ).getYInt();
+		}
+		for( int a = 0; a < k; ++a ) {
+			final Integer target = areas.get( a ) instanceof TeleportArea ? areaIndex.get( ((TeleportArea)areas.get( a )).getTargetArea() ) : null;
+			areaLink[a] = target == null ? -1 : target;
+		}
+	}
+
+	private static void bounds( int[] x, int[] y, int from, int to, int[] bounds, int offset ) {
+		bounds[offset] = Integer.MAX_VALUE;
+		bounds[offset + 1] = Integer.MAX_VALUE;
+		bounds[offset + 2] = Integer.MIN_VALUE;
+		bounds[offset + 3] = Integer.MIN_VALUE;
+		for( int i = from; i < to; ++i ) {
+			bounds[offset] = Math.min( bounds[offset], x[i] );
+			bounds[offset + 1] = Math.min( bounds[offset + 1], y[i] );
+			bounds[offset + 2] = Math.max( bounds[offset + 2], x[i] );
+			bounds[offset + 3] = Math.max( bounds[offset + 3], y[i] );
+		}
+	}
+
+	/**
+	 * Returns the number of floors, including the default evacuation floor.
+	 * @return the number of floors
+	 */
+	public int floorCount() {
+		return floorNames.length;
+	}
+
+	/**
+	 * Returns the name of a floor.
+	 * @param f the floor
+	 * @return the name of the floor
+	 */
+	public String getFloorName( int f ) {
+		return floorNames[f];
+	}
+
+	/**
+	 * Returns the index of the first room of a floor.
+	 * @param f the floor
+	 * @return the index of the first room
+	 */
+	public int firstRoom( int f ) {
+		return firstRoom[f];
+	}
+
+	/**
+	 * Returns the index after the last room of a floor.
+	 * @param f the floor
+	 * @return the index after the last room
+	 */
+	public int lastRoom( int f ) {
+		return firstRoom[f + 1];
+	}
+
+	/**
+	 * Returns the number of rooms on all floors.
+	 * @return the number of rooms
+	 */
+	public int roomCount() {
+		return roomNames.length;
+	}
+
+	/**
+	 * Returns the name of a room.
+	 * @param r the room
+	 * @return the name of the room
+	 */
+	public String getRoomName( int r ) {
+		return roomNames[r];
+	}
+
+	/**
+	 * Returns the floor of a room.
+	 * @param r the room
+	 * @return the floor
+	 */
+	public int getFloor( int r ) {
+		return roomFloor[r];
+	}
+
+	/**
+	 * Returns the index of the first edge of a room.
+	 * @param r the room
+	 * @return the index of the first edge
+	 */
+	public int firstEdge( int r ) {
+		return firstEdge[r];
+	}
+
+	/**
+	 * Returns the index after the last edge of a room.
+	 * @param r the room
+	 * @return the index after the last edge
+	 */
+	public int lastEdge( int r ) {
+		return firstEdge[r + 1];
+	}
+
+	/**
+	 * Returns the number of edges of all rooms.
+	 * @return the number of edges
+	 */
+	public int edgeCount() {
+		return edgeRoom.length;
+	}
+
+	/**
+	 * Returns the x-coordinate of the start point of an edge.
+	 * @param e the edge
+	 * @return the x-coordinate in millimeters
+	 */
+	public int getX( int e ) {
+		return edgeX[e];
+	}
+
+	/**
+	 * Returns the y-coordinate of the start point of an edge.
+	 * @param e the edge
+	 * @return the y-coordinate in millimeters
+	 */
+	public int getY( int e ) {
+		return edgeY[e];
+	}
+
+	/**
+	 * Returns the next edge on the boundary of the room. The start point of the
+	 * next edge is the end point of the edge.
+	 * @param e the edge
+	 * @return the next edge
+	 */
+	public int nextEdge( int e ) {
+		final int r = edgeRoom[e];
+		return e + 1 < firstEdge[r + 1] ? e + 1 : firstEdge[r];
+	}
+
+	/**
+	 * Returns the room of an edge.
+	 * @param e the edge
+	 * @return the room
+	 */
+	public int getRoom( int e ) {
+		return edgeRoom[e];
+	}
+
+	/**
+	 * Returns whether an edge is passable.
+	 * @param e the edge
+	 * @return whether the edge is passable
+	 */
+	public boolean isPassable( int e ) {
+		return edgeLink[e] >= 0;
+	}
+
+	/**
+	 * Returns whether an edge is a teleport edge.
+	 * @param e the edge
+	 * @return whether the edge is a teleport edge
+	 */
+	public boolean isTeleport( int e ) {
+		return teleport.get( e );
+	}
+
+	/**
+	 * Returns the edge on the other side of a passable edge.
+	 * @param e the edge
+	 * @return the linked edge, -1 if the edge is not passable
+	 */
+	public int getLinkTarget( int e ) {
+		return edgeLink[e];
+	}
+
+	/**
+	 * Returns the index of the first area of a room.
+	 * @param r the room
+	 * @return the index of the first area
+	 */
+	public int firstArea( int r ) {
+		return firstArea[r];
+	}
+
+	/**
+	 * Returns the index after the last area of a room.
+	 * @param r the room
+	 * @return the index after the last area
+	 */
+	public int lastArea( int r ) {
+		return firstArea[r + 1];
+	}
+
+	/**
+	 * Returns the number of areas of all rooms.
+	 * @return the number of areas
+	 */
+	public int areaCount() {
+		return areaRoom.length;
+	}
+
+	/**
+	 * Returns the type of an area.
+	 * @param a the area
+	 * @return the type
+	 */
+	public AreaType getAreaType( int a ) {
+		return AREA_TYPES[areaType[a]];
+	}
+
+	/**
+	 * Returns the room of an area.
+	 * @param a the area
+	 * @return the room
+	 */
+	public int getAreaRoom( int a ) {
+		return areaRoom[a];
+	}
+
+	/**
+	 * Returns the number of points of an area.
+	 * @param a the area
+	 * @return the number of points
+	 */
+	public int pointCount( int a ) {
+		return firstAreaPoint[a + 1] - firstAreaPoint[a];
+	}
+
+	/**
+	 * Returns the x-coordinate of a point of an area.
+	 * @param a the area
+	 * @param i the index of the point
+	 * @return the x-coordinate in millimeters
+	 */
+	public int getAreaX( int a, int i ) {
+		return areaX[firstAreaPoint[a] + i];
+	}
+
+	/**
+	 * Returns the y-coordinate of a point of an area.
+	 * @param a the area
+	 * @param i the index of the point
+	 * @return the y-coordinate in millimeters
+	 */
+	public int getAreaY( int a, int i ) {
+		return areaY[firstAreaPoint[a] + i];
+	}
+
+	/**
+	 * Returns the number of evacuees of an assignment area.
+	 * @param a the area
+	 * @return the number of evacuees, 0 for other areas
+	 */
+	public int getEvacuees( int a ) {
+		return getAreaType( a ) == AreaType.Assignment ? areaValue[a] : 0;
+	}
+
+	/**
+	 * Returns the attractivity of an evacuation area.
+	 * @param a the area
+	 * @return the attractivity, 0 for other areas
+	 */
+	public int getAttractivity( int a ) {
+		return getAreaType( a ) == AreaType.Evacuation ? areaValue[a] : 0;
+	}
+
+	/**
+	 * Returns the speed factor of a delay area or the upwards speed factor of a
+	 * stair area.
+	 * @param a the area
+	 * @return the speed factor, 1 for other areas
+	 */
+	public double getSpeedFactor( int a ) {
+		return speedFactor[a];
+	}
+
+	/**
+	 * Returns the downwards speed factor of a stair area.
+	 * @param a the area
+	 * @return the speed factor, 1 for other areas
+	 */
+	public double getSpeedFactorDown( int a ) {
+		return speedFactorDown[a];
+	}
+
+	/**
+	 * Returns the target area of a teleport area.
+	 * @param a the area
+	 * @return the target area, -1 if the area is no teleport area or has no target
+	 */
+	public int getTeleportTarget( int a ) {
+		return areaLink[a];
+	}
+
+	/**
+	 * Returns whether the levels of a stair area are set.
+	 * @param a the area
+	 * @return whether the area is a stair area with lower and upper level
+	 */
+	public boolean hasStairLevels( int a ) {
+		return stairIndex[a] >= 0;
+	}
+
+	/**
+	 * Returns the lower and upper level of a stair area. The levels are given as
+	 * the coordinates of the start and end points of the lower level, followed by
+	 * the start and end points of the upper level.
+	 * @param a the area
+	 * @return a new array containing the eight coordinates
+	 * @throws IllegalArgumentException if the area has no stair levels
+	 */
+	public int[] getStairLevels( int a ) throws IllegalArgumentException {
+		if( stairIndex[a] < 0 )
+			throw new IllegalArgumentException( "Area has no stair levels: " + a );
+		final int[] result = new int[8];
+		System.arraycopy( stairLevels, stairIndex[a], result, 0, 8 );
+		return result;
+	}
+
+	/**
+	 * Checks whether a point is inside a room. Points on the boundary are
+	 * considered inside.
+	 * @param r the room
+	 * @param x the x-coordinate
+	 * @param y the y-coordinate
+	 * @return whether the point is inside the room
+	 */
+	public boolean contains( int r, int x, int y ) {
+		if( x < roomBounds[4 * r] || y < roomBounds[4 * r + 1] || x > roomBounds[4 * r + 2] || y > roomBounds[4 * r + 3] )
+			return false;
+		boolean inside = false;
+		for( int e = firstEdge[r]; e < firstEdge[r + 1]; ++e ) {
+			final int n = nextEdge( e );
+			final long x1 = edgeX[e], y1 = edgeY[e], x2 = edgeX[n], y2 = edgeY[n];
+			final long cross = (x2 - x1) * (y - y1) - (y2 - y1) * (x - x1);
+			if( cross == 0 && Math.min( x1, x2 ) <= x && x <= Math.max( x1, x2 ) && Math.min( y1, y2 ) <= y && y <= Math.max( y1, y2 ) )
+				return true;
+			if( (y1 > y) != (y2 > y) && (cross > 0) == (y2 > y1) )
+				inside = !inside;
+		}
+		return inside;
+	}
+
+	/**
+	 * Finds the room on a floor containing a point.
+	 * @param f the floor
+	 * @param x the x-coordinate
+	 * @param y the y-coordinate
+	 * @return the room containing the point, -1 if there is none
+	 */
+	public int findRoom( int f, int x, int y ) {
+		for( int r = firstRoom[f]; r < firstRoom[f + 1]; ++r )
+			if( contains( r, x, y ) )
+				return r;
+		return -1;
+	}
+}
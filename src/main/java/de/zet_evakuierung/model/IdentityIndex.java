@@ -0,0 +1,96 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package de.zet_evakuierung.model;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+/**
+ * The positions of the elements of a list, which allows removing elements in
+ * amortized constant time while keeping the order of the other elements.
+ * Removed elements are replaced by {@code null} in the list. The list is
+ * compacted once half of its entries are removed, or by {@link #compact()}
+ * before it is read. Elements are compared by identity.
+ * @param <E> the type of the elements
+ * @author Jan-Philipp Kappmeier
+ */
+final class IdentityIndex<E> {
+	/** The indexed list, may contain {@code null} for removed elements. */
+	private final ArrayList<E> list;
+	/** The position of each element in the list. */
+	private final IdentityHashMap<E, Integer> positions;
+	/** The number of removed elements that are still contained in the list. */
+	private int removed;
+
+	/**
+	 * Creates the index of a list that does not contain removed elements.
+	 * @param list the list
+	 */
+	IdentityIndex( ArrayList<E> list ) {
+		this.list = list;
+		positions = new IdentityHashMap<>( 2 * list.size() );
+		for( int i = 0; i < list.size(); ++i )
+			positions.put( list.get( i ), i );
+	}
+
+	/**
+	 * Appends an element to the list.
+	 * @param element the element, not {@code null}
+	 * @return {@code false} if the element is already contained in the list
+	 */
+	boolean add( E element ) {
+		if( element == null )
+			throw new NullPointerException( "Element must not be null." );
+		if( positions.containsKey( element ) )
+			return false;
+		positions.put( element, list.size() );
+		list.add( element );
+		return true;
+	}
+
+	/**
+	 * Removes an element from the list.
+	 * @param element the element
+	 * @return {@code false} if the element is not contained in the list
+	 */
+	boolean remove( E element ) {
+		final Integer position = positions.remove( element );
+		if( position == null )
+			return false;
+		list.set( position, null );
+		if( 2 * ++removed > list.size() )
+			compact();
+		return true;
+	}
+
+	/**
+	 * Removes the entries of removed elements from the list.
+	 */
+	void compact() {
+		if( removed == 0 )
+			return;
+		int count = 0;
+		for( int i = 0; i < list.size(); ++i ) {
+			final E element = list.get( i );
+			if( element != null ) {
+				list.set( count, element );
+				positions.put( element, count++ );
+			}
+		}
+		list.subList( count, list.size() ).clear();
+		removed = 0;
+	}
+}
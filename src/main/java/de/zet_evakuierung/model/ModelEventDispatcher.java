@@ -0,0 +1,273 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package de.zet_evakuierung.model;
+
+import event.EventServer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>Delivers model events asynchronously. The events posted during a short
+ * window are combined: the affected rooms of all {@link ZModelRoomEvent}s are
+ * merged into one event and other {@link ZModelChangedEvent}s into one generic
+ * event. {@link ZModelAreaEvent}s are not merged, as they refer to a single
+ * area, only the latest event for each area is kept. The combined events and
+ * the area events are sent to the {@link EventServer} on a
+ * dedicated thread, thus listeners do not delay the edits. Listeners have to
+ * read the model using the {@link ModelLock} of the {@link ZControl}.</p>
+ * <p>The backlog is bounded. While the listeners process a batch, new events
+ * are merged into a single pending batch. If the pending batch contains more
+ * rooms and areas than the capacity, it is replaced by a generic event. Posting never
+ * blocks, because events are posted while the model is locked for writing and
+ * listeners may wait for the lock. Callers that have to wait for the
+ * listeners use {@link #awaitDelivery(long, TimeUnit)}.</p>
+ * @see ZControl#setEventDispatcher(ModelEventDispatcher)
+ * @author Jan-Philipp Kappmeier
+ */
+public class ModelEventDispatcher {
+	/** The default time in milliseconds during which events are combined. */
+	public static final long DEFAULT_WINDOW = 50;
+	/** The default maximal number of rooms and areas in a batch. */
+	public static final int DEFAULT_CAPACITY = 10000;
+	/** The time in milliseconds during which events are combined. */
+	private final long window;
+	/** The maximal number of rooms and areas in a batch. */
+	private final int capacity;
+	/** The thread delivering the events. */
+	private final ScheduledExecutorService executor;
+	/** The affected rooms of the pending batch, {@code null} if the capacity is exceeded. */
+	private Set<Room> rooms = newRoomSet();
+	/** The area events of the pending batch in the order of their areas' first events. */
+	private List<ZModelAreaEvent> areaEvents = new ArrayList<>();
+	/** The positions of the areas' events in {@link #areaEvents}. */
+	private IdentityHashMap<Area, Integer> areaPositions = new IdentityHashMap<>();
+	/** Whether the pending batch contains a generic event. */
+	private boolean changed;
+	/** Whether the delivery of the pending batch is scheduled. */
+	private boolean scheduled;
+	/** Whether a batch is delivered currently. */
+	private boolean delivering;
+	/** Whether the dispatcher has been shut down. */
+	private boolean shutdown;
+	/** The number of posted events. */
+	private long posted;
+	/** The number of delivered events. */
+	private long delivered;
+
+	/**
+	 * Creates a new dispatcher with the default window and capacity.
+	 */
+	public ModelEventDispatcher() {
+		this( DEFAULT_WINDOW, DEFAULT_CAPACITY );
+	}
+
+	/**
+	 * Creates a new dispatcher.
+	 * @param window the time in milliseconds during which events are combined
+	 * @param capacity the maximal number of rooms and areas in a batch
+	 * @throws IllegalArgumentException if the window is negative or the capacity is not positive
+	 */
+	public ModelEventDispatcher( long window, int capacity ) throws IllegalArgumentException {
+		if( window < 0 )
+			throw new IllegalArgumentException( "Window must be non-negative: " + window );
+		if( capacity <= 0 )
+			throw new IllegalArgumentException( "Capacity must be positive: " + capacity );
+		this.window = window;
+		this.capacity = capacity;
+		this.executor = Executors.newSingleThreadScheduledExecutor( new ThreadFactory() {
+			@Override
+			public Thread newThread( Runnable r ) {
+				final Thread thread = new Thread( r, "Model events" );
+				thread.setDaemon( true );
+				return thread;
+			}
+		} );
+	}
+
+	/**
+	 * Adds an event to the pending batch. The batch is delivered at the end of
+	 * the window.
+	 * @param event the event
+	 * @throws IllegalStateException if the dispatcher has been shut down
+	 */
+	public synchronized void post( ZModelChangedEvent event ) throws IllegalStateException {
+		if( shutdown )
+			throw new IllegalStateException( "Dispatcher has been shut down." );
+		posted++;
+		if( event instanceof ZModelAreaEvent ) {
+			if( rooms != null ) {
+				final ZModelAreaEvent areaEvent = (ZModelAreaEvent)event;
+				final Integer position = areaPositions.get( areaEvent.getAffectedArea() );
+				if( position == null ) {
+					areaPositions.put( areaEvent.getAffectedArea(), areaEvents.size() );
+					areaEvents.add( areaEvent );
+				} else
+					areaEvents.set( position, areaEvent );
+				checkCapacity();
+			}
+		} else if( event instanceof ZModelRoomEvent ) {
+			if( rooms != null ) {
+				rooms.addAll( ((ZModelRoomEvent)event).getAffectedRooms() );
+				checkCapacity();
+			}
+		} else
+			changed = true;
+		if( !scheduled ) {
+			scheduled = true;
+			executor.schedule( new Runnable() {
+				@Override
+				public void run() {
+					deliver();
+				}
+			}, window, TimeUnit.MILLISECONDS );
+		}
+	}
+
+	/**
+	 * Replaces the pending rooms and areas by a generic event if there are more
+	 * than the capacity.
+	 */
+	private void checkCapacity() {
+		if( rooms.size() + areaEvents.size() > capacity ) {
+			rooms = null;
+			areaEvents = new ArrayList<>();
+			areaPositions = new IdentityHashMap<>();
+			changed = true;
+		}
+	}
+
+	/**
+	 * Delivers the pending batch without waiting for the end of the window.
+	 */
+	public synchronized void flush() {
+		if( scheduled && !shutdown )
+			executor.execute( new Runnable() {
+				@Override
+				public void run() {
+					deliver();
+				}
+			} );
+	}
+
+	/**
+	 * Waits until all posted events have been delivered. Must not be called while
+	 * holding the write lock of the model or by a listener.
+	 * @param timeout the maximal time to wait
+	 * @param unit the unit of the timeout
+	 * @return {@code true} if all events have been delivered, {@code false} if the
+	 * timeout elapsed
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public synchronized boolean awaitDelivery( long timeout, TimeUnit unit ) throws InterruptedException {
+		final long end = System.nanoTime() + unit.toNanos( timeout );
+		flush();
+		while( scheduled || delivering ) {
+			final long remaining = end - System.nanoTime();
+			if( remaining <= 0 )
+				return false;
+			TimeUnit.NANOSECONDS.timedWait( this, remaining );
+		}
+		return true;
+	}
+
+	/**
+	 * Delivers the pending events and stops the thread. Events posted afterwards
+	 * are rejected.
+	 */
+	public synchronized void shutdown() {
+		if( shutdown )
+			return;
+		flush();
+		shutdown = true;
+		executor.shutdown();
+	}
+
+	/**
+	 * Returns the number of posted events.
+	 * @return the number of posted events
+	 */
+	public synchronized long getPostedCount() {
+		return posted;
+	}
+
+	/**
+	 * Returns the number of delivered events. It is at most the number of posted
+	 * events, as events are combined.
+	 * @return the number of delivered events
+	 */
+	public synchronized long getDeliveredCount() {
+		return delivered;
+	}
+
+	/**
+	 * Sends the pending batch to the event server. Called on the delivery thread.
+	 */
+	private void deliver() {
+		final Set<Room> batchRooms;
+		final List<ZModelAreaEvent> batchAreaEvents;
+		final boolean batchChanged;
+		synchronized( this ) {
+			if( !scheduled )
+				return;
+			batchRooms = rooms;
+			batchAreaEvents = areaEvents;
+			batchChanged = changed;
+			rooms = newRoomSet();
+			areaEvents = new ArrayList<>();
+			areaPositions = new IdentityHashMap<>();
+			changed = false;
+			scheduled = false;
+			delivering = true;
+		}
+		int count = 0;
+		try {
+			if( batchRooms != null && !batchRooms.isEmpty() ) {
+				count++;
+				EventServer.getInstance().dispatchEvent( new ZModelRoomEvent( new ArrayList<>( batchRooms ) ) );
+			}
+			for( ZModelAreaEvent event : batchAreaEvents ) {
+				count++;
+				EventServer.getInstance().dispatchEvent( event );
+			}
+			if( batchChanged ) {
+				count++;
+				EventServer.getInstance().dispatchEvent( new ZModelChangedEvent() {} );
+			}
+		} catch( RuntimeException ex ) {
+			Logger.getGlobal().log( Level.WARNING, "Model event listener failed", ex );
+		} finally {
+			synchronized( this ) {
+				delivered += count;
+				delivering = false;
+				notifyAll();
+			}
+		}
+	}
+
+	private static Set<Room> newRoomSet() {
+		return Collections.newSetFromMap( new IdentityHashMap<Room, Boolean>() );
+	}
+}
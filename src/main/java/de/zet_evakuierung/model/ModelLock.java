@@ -0,0 +1,170 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package de.zet_evakuierung.model;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * <p>Guards the model controlled by a {@link ZControl} against concurrent
+ * access. All modifications by the {@code ZControl} are performed while the
+ * write lock is held. Other threads, for example analyses running in the
+ * background, read the model inside of {@link #read(Reader)} and thus never
+ * see a partially modified polygon.</p>
+ * <p>The write lock is reentrant for the thread holding it, such that the
+ * operations of the control may call each other. Read sections should be short,
+ * as they block the editing thread. Longer analyses should work on a snapshot
+ * created by {@link ZControl#freeze()}. Short reads that tolerate to be
+ * repeated can use {@link #readOptimistic(Reader)}, which does not block writers
+ * at all in the common case.</p>
+ * @author Jan-Philipp Kappmeier
+ */
+public final class ModelLock {
+	/** The lock. */
+	private final StampedLock lock = new StampedLock();
+	/** The thread holding the write lock. Only the owner itself compares with this. */
+	private Thread writer;
+	/** The number of times the writer has acquired the write lock. */
+	private int holds;
+	/** The stamp of the write lock. */
+	private long writeStamp;
+
+	/**
+	 * A read access to the model.
+	 * @param <T> the type of the result
+	 */
+	public interface Reader<T> {
+		/**
+		 * Reads from the model.
+		 * @return the result
+		 */
+		T read();
+	}
+
+	/**
+	 * Acquires the write lock, blocking until all readers have finished. The
+	 * lock has to be released by {@link #unlockWrite()} in a {@code finally}
+	 * block.
+	 */
+	public void lockWrite() {
+		if( writer == Thread.currentThread() ) {
+			holds++;
+			return;
+		}
+		writeStamp = lock.writeLock();
+		writer = Thread.currentThread();
+		holds = 1;
+	}
+
+	/**
+	 * Releases the write lock once.
+	 * @throws IllegalStateException if the current thread does not hold the write lock
+	 */
+	public void unlockWrite() throws IllegalStateException {
+		if( writer != Thread.currentThread() )
+			throw new IllegalStateException( "Write lock not held by the current thread." );
+		if( --holds == 0 ) {
+			writer = null;
+			lock.unlockWrite( writeStamp );
+		}
+	}
+
+	/**
+	 * Checks whether the current thread holds the write lock.
+	 * @return whether the current thread holds the write lock
+	 */
+	public boolean isWriteLockedByCurrentThread() {
+		return writer == Thread.currentThread();
+	}
+
+	/**
+	 * Reads from the model while no modification is in progress. Modifications
+	 * wait until the reader has finished. If the current thread holds the write
+	 * lock, the reader is executed immediately.
+	 * @param <T> the type of the result
+	 * @param reader the reader
+	 * @return the result of the reader
+	 */
+	public <T> T read( Reader<T> reader ) {
+		if( writer == Thread.currentThread() )
+			return reader.read();
+		final long stamp = lock.readLock();
+		try {
+			return reader.read();
+		} finally {
+			lock.unlockRead( stamp );
+		}
+	}
+
+	/**
+	 * Reads from the model without blocking writers. If the model has been
+	 * modified during the read, or the reader failed due to a concurrent
+	 * modification, the reader is executed again while holding the read lock.
+	 * Thus, the reader must not have side effects and must not rely on the
+	 * consistency of the model for termination. It should only read a few
+	 * values, such as the coordinates of some points.
+	 * @param <T> the type of the result
+	 * @param reader the reader
+	 * @return the result of a read that has not been overlapped by a modification
+	 */
+	public <T> T readOptimistic( Reader<T> reader ) {
+		final long stamp = lock.tryOptimisticRead();
+		if( stamp != 0 )
+			try {
+				final T result = reader.read();
+				if( lock.validate( stamp ) )
+					return result;
+			} catch( RuntimeException ex ) {
+				// Inconsistent state seen, retry with the read lock below
+				if( lock.validate( stamp ) )
+					throw ex;
+			}
+		return read( reader );
+	}
+
+	/**
+	 * Reads from the model without blocking writers, repeating the read if the
+	 * model has been modified meanwhile. If a modification is in progress, the
+	 * attempt waits until it has finished, but does not block later
+	 * modifications. After the given number of failed attempts, the reader is
+	 * executed while holding the read lock. Thus, long readers that can be
+	 * repeated, such as saving the model, block writers only if the model is
+	 * modified during each attempt. As for {@link #readOptimistic(Reader)}, the
+	 * reader must not rely on the consistency of the model for termination.
+	 * @param <T> the type of the result
+	 * @param reader the reader
+	 * @param attempts the number of attempts without the read lock
+	 * @return the result of a read that has not been overlapped by a modification
+	 */
+	public <T> T readOptimistic( Reader<T> reader, int attempts ) {
+		if( writer == Thread.currentThread() )
+			return reader.read();
+		for( int i = 0; i < attempts; ++i ) {
+			long stamp = lock.tryOptimisticRead();
+			if( stamp == 0 )
+				stamp = lock.tryConvertToOptimisticRead( lock.readLock() );
+			try {
+				final T result = reader.read();
+				if( lock.validate( stamp ) )
+					return result;
+			} catch( RuntimeException ex ) {
+				if( lock.validate( stamp ) )
+					throw ex;
+			}
+		}
+		return read( reader );
+	}
+}
@@ -0,0 +1,283 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package de.zet_evakuierung.model;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>A uniform grid over the positions of persons, answering radius and
+ * nearest neighbor queries. The index is built in linear time by sorting the
+ * persons into the cells with a counting sort. The coordinates are stored in
+ * primitive arrays in the order of the cells, queries return indices into the
+ * list of persons the index has been created for.</p>
+ * <p>The positions are copied when the index is built. If persons move, a new
+ * index has to be created. Persons on different floors should not be indexed
+ * together, use {@link ConcreteAssignment#createIndex(FloorInterface)}.</p>
+ * @author Jan-Philipp Kappmeier
+ */
+public class PersonIndex {
+	/** The default side length of the cells in millimeters. */
+	public static final int DEFAULT_CELL_SIZE = 2000;
+	/** The indexed persons. */
+	private final List<Person> persons;
+	/** The x coordinates in the order of the cells. */
+	private final int[] x;
+	/** The y coordinates in the order of the cells. */
+	private final int[] y;
+	/** The index of the person for each position. */
+	private final int[] ids;
+	/** The first position of each cell, and the number of persons at the end. */
+	private final int[] cellStart;
+	/** The lower left corner of the grid. */
+	private final int minX, minY;
+	/** The number of cells in x and y direction. */
+	private final int columns, rows;
+	/** The side length of the cells. */
+	private final int cellSize;
+
+	/**
+	 * Creates an index with the default cell size.
+	 * @param persons the persons
+	 */
+	public PersonIndex( List<Person> persons ) {
+		this( persons, DEFAULT_CELL_SIZE );
+	}
+
+	/**
+	 * Creates an index. The cell size should be about the radius of the typical
+	 * queries. It is increased if the grid would have much more cells than persons.
+	 * @param persons the persons
+	 * @param cellSize the side length of the cells in millimeters
+	 * @throws IllegalArgumentException if the cell size is not positive
+	 */
+	public PersonIndex( List<Person> persons, int cellSize ) throws IllegalArgumentException {
+		if( cellSize <= 0 )
+			throw new IllegalArgumentException( "Cell size must be positive: " + cellSize );
+		this.persons = persons;
+		final int n = persons.size();
+		final int[] px = new int[n];
+		final int[] py = new int[n];
+		int x1 = Integer.MAX_VALUE, y1 = Integer.MAX_VALUE, x2 = Integer.MIN_VALUE, y2 = Integer.MIN_VALUE;
+		for( int i = 0; i < n; ++i ) {
+			final PlanPoint p = persons.get( i ).getPosition();
+			px[i] = p.getXInt();
+			py[i] = p.getYInt();
+			x1 = Math.min( x1, px[i] );
+			y1 = Math.min( y1, py[i] );
+			x2 = Math.max( x2, px[i] );
+			y2 = Math.max( y2, py[i] );
+		}
+		if( n == 0 )
+			x1 = y1 = x2 = y2 = 0;
+		long size = cellSize;
+		while( ((x2 - (long)x1) / size + 1) * ((y2 - (long)y1) / size + 1) > 4L * n + 16 )
+			size *= 2;
+		this.cellSize = (int)Math.min( size, Integer.MAX_VALUE );
+		minX = x1;
+		minY = y1;
+		columns = (int)((x2 - (long)x1) / this.cellSize + 1);
+		rows = (int)((y2 - (long)y1) / this.cellSize + 1);
+
+		// Counting sort of the persons into the cells
+		final int[] cell = new int[n];
+		cellStart = new int[columns * rows + 1];
+		for( int i = 0; i < n; ++i ) {
+			cell[i] = cellOf( px[i], py[i] );
+			cellStart[cell[i] + 1]++;
+		}
+		for( int c = 0; c < columns * rows; ++c )
+			cellStart[c + 1] += cellStart[c];
+		final int[] next = Arrays.copyOf( cellStart, cellStart.length - 1 );
+		x = new int[n];
+		y = new int[n];
+		ids = new int[n];
+		for( int i = 0; i < n; ++i ) {
+			final int slot = next[cell[i]]++;
+			x[slot] = px[i];
+			y[slot] = py[i];
+			ids[slot] = i;
+		}
+	}
+
+	private int cellOf( int px, int py ) {
+		return (int)((py - (long)minY) / cellSize) * columns + (int)((px - (long)minX) / cellSize);
+	}
+
+	/**
+	 * Returns the number of indexed persons.
+	 * @return the number of persons
+	 */
+	public int size() {
+		return persons.size();
+	}
+
+	/**
+	 * Returns an indexed person.
+	 * @param index the index of the person, as returned by the queries
+	 * @return the person
+	 */
+	public Person getPerson( int index ) {
+		return persons.get( index );
+	}
+
+	/**
+	 * Counts the persons whose distance to a point is at most a radius.
+	 * @param px the x coordinate of the point
+	 * @param py the y coordinate of the point
+	 * @param radius the radius in millimeters
+	 * @return the number of persons within the radius
+	 */
+	public int count( int px, int py, double radius ) {
+		return query( px, py, radius, null );
+	}
+
+	/**
+	 * Returns the persons whose distance to a point is at most a radius.
+	 * @param px the x coordinate of the point
+	 * @param py the y coordinate of the point
+	 * @param radius the radius in millimeters
+	 * @return the indices of the persons within the radius, in no particular order
+	 */
+	public int[] within( int px, int py, double radius ) {
+		final int[] result = new int[query( px, py, radius, null )];
+		query( px, py, radius, result );
+		return result;
+	}
+
+	/**
+	 * Counts the persons within a radius and stores their indices, if an array is given.
+	 */
+	private int query( int px, int py, double radius, int[] result ) {
+		if( persons.isEmpty() || radius < 0 )
+			return 0;
+		final double squared = radius * radius;
+		final int col1 = clamp( Math.floor( (px - radius - minX) / cellSize ), columns );
+		final int col2 = clamp( Math.floor( (px + radius - minX) / cellSize ), columns );
+		final int row1 = clamp( Math.floor( (py - radius - minY) / cellSize ), rows );
+		final int row2 = clamp( Math.floor( (py + radius - minY) / cellSize ), rows );
+		int count = 0;
+		for( int row = row1; row <= row2; ++row )
+			for( int i = cellStart[row * columns + col1]; i < cellStart[row * columns + col2 + 1]; ++i ) {
+				final double dx = x[i] - (double)px;
+				final double dy = y[i] - (double)py;
+				if( dx * dx + dy * dy <= squared ) {
+					if( result != null )
+						result[count] = ids[i];
+					count++;
+				}
+			}
+		return count;
+	}
+
+	private static int clamp( double cell, int cells ) {
+		return (int)Math.max( 0, Math.min( cells - 1, cell ) );
+	}
+
+	/**
+	 * Returns the persons nearest to a point. The grid is searched in growing
+	 * rings of cells around the point until no unvisited cell can contain a
+	 * closer person.
+	 * @param px the x coordinate of the point
+	 * @param py the y coordinate of the point
+	 * @param k the number of persons
+	 * @return the indices of the at most {@code k} nearest persons, ordered by distance
+	 */
+	public int[] nearest( int px, int py, int k ) {
+		k = Math.min( k, persons.size() );
+		if( k <= 0 )
+			return new int[0];
+		// a max heap of the k nearest persons found so far
+		final double[] dist = new double[k];
+		final int[] heap = new int[k];
+		int found = 0;
+		final int cx = clamp( Math.floor( (px - (double)minX) / cellSize ), columns );
+		final int cy = clamp( Math.floor( (py - (double)minY) / cellSize ), rows );
+		final int maxRing = Math.max( Math.max( cx, columns - 1 - cx ), Math.max( cy, rows - 1 - cy ) );
+		for( int ring = 0; ring <= maxRing; ++ring ) {
+			for( int row = Math.max( 0, cy - ring ); row <= Math.min( rows - 1, cy + ring ); ++row ) {
+				// inner rows only contain the leftmost and rightmost cell of the ring
+				final int step = row == cy - ring || row == cy + ring ? 1 : 2 * ring;
+				for( int col = cx - ring; col <= cx + ring; col += step ) {
+					if( col < 0 || col >= columns )
+						continue;
+					final int c = row * columns + col;
+					for( int i = cellStart[c]; i < cellStart[c + 1]; ++i ) {
+						final double dx = x[i] - (double)px;
+						final double dy = y[i] - (double)py;
+						final double d = dx * dx + dy * dy;
+						if( found < k )
+							siftUp( dist, heap, found++, d, ids[i] );
+						else if( d < dist[0] )
+							siftDown( dist, heap, k, d, ids[i] );
+					}
+				}
+			}
+			if( found == k ) {
+				// distance from the point to the border of the searched block of cells
+				final double left = px - (minX + (double)(cx - ring) * cellSize);
+				final double right = minX + (double)(cx + ring + 1) * cellSize - px;
+				final double bottom = py - (minY + (double)(cy - ring) * cellSize);
+				final double top = minY + (double)(cy + ring + 1) * cellSize - py;
+				final double bound = Math.min( Math.min( left, right ), Math.min( bottom, top ) );
+				if( bound > 0 && bound * bound >= dist[0] )
+					break;
+			}
+		}
+		// Extract the persons by decreasing distance
+		final int[] result = new int[found];
+		for( int n = found; n > 0; --n ) {
+			result[n - 1] = heap[0];
+			siftDown( dist, heap, n - 1, dist[n - 1], heap[n - 1] );
+		}
+		return result;
+	}
+
+	/**
+	 * Inserts an element at the end of a heap and restores the heap property.
+	 */
+	private static void siftUp( double[] dist, int[] heap, int i, double d, int id ) {
+		while( i > 0 && dist[(i - 1) / 2] < d ) {
+			dist[i] = dist[(i - 1) / 2];
+			heap[i] = heap[(i - 1) / 2];
+			i = (i - 1) / 2;
+		}
+		dist[i] = d;
+		heap[i] = id;
+	}
+
+	/**
+	 * Replaces the root of a heap of the given size and restores the heap property.
+	 */
+	private static void siftDown( double[] dist, int[] heap, int size, double d, int id ) {
+		if( size == 0 )
+			return;
+		int i = 0;
+		while( 2 * i + 1 < size ) {
+			int child = 2 * i + 1;
+			if( child + 1 < size && dist[child + 1] > dist[child] )
+				child++;
+			if( dist[child] <= d )
+				break;
+			dist[i] = dist[child];
+			heap[i] = heap[child];
+			i = child;
+		}
+		dist[i] = d;
+		heap[i] = id;
+	}
+}
@@ -506,6 +506,8 @@ public class PlanEdge implements Serializable {
 		}
 		source = newSource;
 		newSource.setNextEdge( this );
+		if( associatedPolygon != null )
+			associatedPolygon.edgesChanged();
 	}
 
 	/**
@@ -534,6 +536,8 @@ public class PlanEdge implements Serializable {
 		}
 		target = newTarget;
 		newTarget.setPreviousEdge( this );
+		if( associatedPolygon != null )
+			associatedPolygon.edgesChanged();
 	}
 
 	/**
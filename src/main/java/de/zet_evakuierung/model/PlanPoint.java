@@ -257,9 +257,27 @@ public class PlanPoint extends Point implements org.zetool.math.geom.Point {
 			// Values are already rounded in superimplementation of setLocation
 			// -> No need to round them here
 			super.setLocation( x, y );
+			if( nextEdge != null || previousEdge != null ) {
+				final PlanPolygon<?> polygon = nextEdge != null ? nextEdge.getAssociatedPolygon() : null;
+				if( polygon != null )
+					polygon.edgesChanged();
+				if( previousEdge != null && previousEdge.getAssociatedPolygon() != null && previousEdge.getAssociatedPolygon() != polygon )
+					previousEdge.getAssociatedPolygon().edgesChanged();
+			}
 		}
 	}
 
+	/**
+	 * Moves the point. Overridden to make sure all changes of the coordinates pass
+	 * {@link #setLocation(double, double)}.
+	 * @param dx the distance in {@code x}-direction
+	 * @param dy the distance in {@code y}-direction
+	 */
+	@Override
+	public void translate( int dx, int dy ) {
+		setLocation( x + dx, y + dy );
+	}
+
 	/**
 	 * Sets the new location of this point. The coordinates are (even if they are double values)
 	 * assumed to be integers refering to millimeter positions. Thus the real parts of the
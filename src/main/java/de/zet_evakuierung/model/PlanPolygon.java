@@ -33,6 +33,7 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The generic {@literal PlanPolygon} class implements a polygonal area
@@ -79,6 +80,13 @@ public class PlanPolygon<T extends PlanEdge> /*implements Iterable<T>*/ {
 	/** Determines if the polygon has been changed after a validity test. */
 	@XStreamOmitField()
 	private boolean changed = true;
+	/**
+	 * Whether points have been moved since the bounds were computed. The flag is
+	 * only set and cleared by the thread holding the write lock. Readers compute
+	 * the bounds of a polygon with outdated bounds without storing them.
+	 */
+	@XStreamOmitField
+	private transient volatile boolean boundsDirty;
 	@XStreamOmitField
 	int minx = Integer.MAX_VALUE;
 	@XStreamOmitField
@@ -97,6 +105,20 @@ public class PlanPolygon<T extends PlanEdge> /*implements Iterable<T>*/ {
 	private T minY_DefiningEdge;
 	@XStreamOmitField
 	private T minX_DefiningEdge;
+	/** The number of changes of the edges and their points, used to validate the {@link #edgeIndex}. */
+	@XStreamOmitField
+	private transient int edgeChanges;
+	/** The index of the edges. Created on demand and updated when edges are added. */
+	@XStreamOmitField
+	private transient volatile PolygonEdgeIndex<T> edgeIndex;
+	/** The source of modification stamps, shared by all parts of the model. */
+	private static final AtomicLong STAMPS = new AtomicLong();
+	/** The stamp of the last modification of the polygon. */
+	@XStreamOmitField
+	private transient volatile long modificationStamp;
+	/** The modification stamp and the content hash computed at that stamp. */
+	@XStreamOmitField
+	transient volatile long[] contentHash;
 
 	/**
 	 * three matrix matrixes for flip vertically, horizontally and at the main
@@ -253,6 +275,8 @@ public class PlanPolygon<T extends PlanEdge> /*implements Iterable<T>*/ {
 	// TODO Perform intersection-test
 	//final void addEdge( T e ) throws IllegalStateException, IllegalArgumentException {
   public final void addEdge( T e ) throws IllegalStateException, IllegalArgumentException {
+		final PolygonEdgeIndex<T> index = edgeIndex;
+		final boolean indexed = index != null && index.isValid( edgeChanges );
 		if( start == null ) {
 			// The instance is empty
 
@@ -272,6 +296,7 @@ public class PlanPolygon<T extends PlanEdge> /*implements Iterable<T>*/ {
 		} else {
 			if( isClosed() )
 				throw new IllegalStateException( ZLocalization.loc.getString( "ds.z.PlanPolygon.AddEdgeToClosedPolygonException" ) );
+			validateBounds();
 
 			if( fitsTogether( e, this ) ) {
 				// --> "e" is the closing edge
@@ -303,6 +328,9 @@ public class PlanPolygon<T extends PlanEdge> /*implements Iterable<T>*/ {
 
 		changed = true;
 		size++;
+		edgesChanged();
+		if( indexed )
+			index.add( e, edgeChanges );
 	}
 
 	/**
@@ -376,6 +404,10 @@ public class PlanPolygon<T extends PlanEdge> /*implements Iterable<T>*/ {
 	 * @return a rectangle that defines the bounds
 	 */
 	public Rectangle bounds() {
+		if( boundsDirty ) {
+			final int[] b = computeBounds();
+			return new Rectangle( b[0], b[2], b[1] - b[0], b[3] - b[2] );
+		}
 		return new Rectangle( xOffset, yOffset, width, height );
 	}
 
@@ -731,8 +763,10 @@ public class PlanPolygon<T extends PlanEdge> /*implements Iterable<T>*/ {
 	public boolean contains( PlanPoint p ) {
 		// it is not defined what happens if the point is _on_ one line
 		boolean inside = false;
-		if( p.getXInt() < xOffset || p.getYInt() < yOffset ||
-						p.getXInt() > xOffset + width || p.getYInt() > yOffset + height )
+		final Rectangle bounds = bounds();
+		final int width = bounds.width;
+		if( p.getXInt() < bounds.x || p.getYInt() < bounds.y ||
+						p.getXInt() > bounds.x + width || p.getYInt() > bounds.y + bounds.height )
 			return false;
 		else {
 			// Test all edges, if they are inside
@@ -790,8 +824,10 @@ public class PlanPolygon<T extends PlanEdge> /*implements Iterable<T>*/ {
 	public boolean containsStrict( PlanPoint p ) {
 		// it is not defined what happens if the point is _on_ one line
 		boolean inside = false;
-		if( p.getXInt() < xOffset || p.getYInt() < yOffset ||
-						p.getXInt() > xOffset + width || p.getYInt() > yOffset + height )
+		final Rectangle bounds = bounds();
+		final int width = bounds.width;
+		if( p.getXInt() < bounds.x || p.getYInt() < bounds.y ||
+						p.getXInt() > bounds.x + width || p.getYInt() > bounds.y + bounds.height )
 			return false;
 		else {
 			// Test all edges, if they are inside
@@ -963,11 +999,72 @@ public class PlanPolygon<T extends PlanEdge> /*implements Iterable<T>*/ {
 
 		closed = false;
 		changed = true;
+		modified();
 
 		start = null;
 		end = null;
 	}
 
+	/**
+	 * Returns the index of the edges. The index is rebuilt, if it is not valid
+	 * any more. Concurrent readers may build an index each, the index is fully
+	 * built before it is published.
+	 * @return the index of the edges
+	 */
+	private PolygonEdgeIndex<T> edgeIndex() {
+		PolygonEdgeIndex<T> index = edgeIndex;
+		if( index == null || !index.isValid( edgeChanges ) ) {
+			index = new PolygonEdgeIndex<>( getEdges(), edgeChanges );
+			edgeIndex = index;
+		}
+		return index;
+	}
+
+	/**
+	 * Notifies the polygon that its edges have changed. Called if an edge of the
+	 * polygon gets new end points or one of its points is moved.
+	 */
+	void edgesChanged() {
+		edgeChanges++;
+		modified();
+	}
+
+	/**
+	 * Returns the stamp of the last modification. The stamp increases whenever
+	 * an edge is added, removed or replaced, a point is moved or a door is linked.
+	 * Derived data that stored the stamp at the time of its computation is still
+	 * valid if the stamp has not changed.
+	 * @return the stamp of the last modification
+	 */
+	public long getModificationStamp() {
+		return modificationStamp;
+	}
+
+	/**
+	 * Returns a new modification stamp, which is larger than all stamps returned
+	 * before.
+	 * @return a new modification stamp
+	 */
+	static long nextStamp() {
+		return STAMPS.incrementAndGet();
+	}
+
+	/**
+	 * Marks the polygon as modified with a new stamp.
+	 */
+	final void modified() {
+		modified( nextStamp() );
+	}
+
+	/**
+	 * Sets the modification stamp. Subclasses pass the stamp on to the objects
+	 * containing them.
+	 * @param stamp the new stamp
+	 */
+	void modified( long stamp ) {
+		modificationStamp = stamp;
+	}
+
 	/**
 	 * Returns the {@link java.awt.Dimension} of this polygon. The with of the
 	 * dimension is of the distance between the right- and leftmost, the height
@@ -975,7 +1072,7 @@ public class PlanPolygon<T extends PlanEdge> /*implements Iterable<T>*/ {
 	 * @return the dimension of the polygon
 	 */
 	public Dimension dimension() {
-		return new Dimension( width, height );
+		return new Dimension( getWidth(), getHeight() );
 	}
 
 	/**
@@ -1175,11 +1272,23 @@ public class PlanPolygon<T extends PlanEdge> /*implements Iterable<T>*/ {
 		return (e.getAssociatedPolygon() == this) ? e : getEdge( e.getSource(), e.getTarget() );
 	}
 
+	/**
+	 * Returns an edge with the type of the edges of this polygon, e.g. one of
+	 * the edges of a point of the polygon.
+	 * @param edge the edge
+	 * @return the edge
+	 * @throws ClassCastException if the edge does not have the type of the edges
+	 */
+	T edgeOf( PlanEdge edge ) throws ClassCastException {
+		return edgeClassType.cast( edge );
+	}
+
 	/**
 	 * Get an edge that is in the polygon. The edge is specified by the two end
 	 * points.
-	 * <p>The runtime of this operation is O(n), where {@literal n} is the
-	 * number of edges.</p>
+	 * <p>The edge is found in expected constant time using the edge index. The
+	 * index is rebuilt in O(n), where {@literal n} is the number of edges, if
+	 * edges have been removed or points have been moved.</p>
 	 * @param p1 one point
 	 * @param p2 the other point
 	 * @throws java.lang.IllegalArgumentException if the points do not form an
@@ -1190,43 +1299,36 @@ public class PlanPolygon<T extends PlanEdge> /*implements Iterable<T>*/ {
             if (p1.equals(p2)) {
                 throw new IllegalArgumentException(ZLocalization.loc.getString("ds.z.PlanPolygon.EqualPointsException"));
             }
-            for (T e : in(this.edgeIterator())) {
-                if (e.fits(p1) && e.fits(p2)) {
-                    return e;
-                }
-            }
-            throw new IllegalArgumentException( ZLocalization.loc.getString( "ds.z.PlanPolygon.EdgeNotFoundException" ) );
+            final T e = edgeIndex().get( p1, p2 );
+            if( e == null )
+                throw new IllegalArgumentException( ZLocalization.loc.getString( "ds.z.PlanPolygon.EdgeNotFoundException" ) );
+            return e;
 	}
         
+        /**
+         * Checks whether the polygon contains an edge with the coordinates of the
+         * given edge. Runs in expected constant time, see {@link #getEdge(PlanPoint, PlanPoint)}.
+         * @param edge the edge
+         * @return {@code true} if an edge with the same end points is contained
+         */
         public boolean isContained( T edge ) {
-            PlanPoint p1 = edge.getSource();
-            PlanPoint p2 = edge.getTarget();
-            for (T e : in(this.edgeIterator())) {
-                if (e.fits(p1) && e.fits(p2)) {
-                    return true;
-                }
-            }
-            return false;
+            return edgeIndex().get( edge.getSource(), edge.getTarget() ) != null;
         }
 
 	/**
-	 * Tries to find an edge of the room, that contains the given point.
+	 * Tries to find an edge of the room, that contains the given point. Only
+	 * the edges in the cell of the point in the grid of the edge index are tested.
 	 * @param p the point
 	 * @return an edge containing the point, or {@literal null} otherwise
 	 */
 	public T getEdge( PlanPoint p ) {
 		double eps = 0.01;
-
-		for( T e : in(this.edgeIterator()) )  {
-			if( isOnEdge( e, p, eps ) )
-				return e;
-		}
-		return null;
+		return edgeIndex().getOnEdge( p, this, eps );
 	}
 
 	public boolean isOnEdge( PlanEdge e, PlanPoint p, double eps ) {
 		double det = PlanPoint.orientationE( e.getTarget(), e.getSource(), p );
-		if( det <= eps ) {
+		if( Math.abs( det ) <= eps ) {
 			if( PlanEdge.length( e.getTarget(), p ) < e.length() && PlanEdge.length( e.getSource(), p ) < e.length() )
 				return true;
 		}
@@ -1263,6 +1365,10 @@ public class PlanPolygon<T extends PlanEdge> /*implements Iterable<T>*/ {
 	 * @return the height
 	 */
 	public int getHeight() {
+		if( boundsDirty ) {
+			final int[] b = computeBounds();
+			return b[3] - b[2];
+		}
 		return height;
 	}
 
@@ -1325,6 +1431,10 @@ public class PlanPolygon<T extends PlanEdge> /*implements Iterable<T>*/ {
 	 * @return the width
 	 */
 	public int getWidth() {
+		if( boundsDirty ) {
+			final int[] b = computeBounds();
+			return b[1] - b[0];
+		}
 		return width;
 	}
 
@@ -1333,7 +1443,7 @@ public class PlanPolygon<T extends PlanEdge> /*implements Iterable<T>*/ {
 	 * @return the leftmost coordinate
 	 */
 	public int getxOffset() {
-		return this.xOffset;
+		return boundLeft();
 	}
 
 	/**
@@ -1341,7 +1451,7 @@ public class PlanPolygon<T extends PlanEdge> /*implements Iterable<T>*/ {
 	 * @return the uppermost coordinate
 	 */
 	public int getyOffset() {
-		return this.yOffset;
+		return boundUpper();
 	}
 
 	/**
@@ -1349,7 +1459,7 @@ public class PlanPolygon<T extends PlanEdge> /*implements Iterable<T>*/ {
 	 * @return the leftmost {@literal x}-coordinate of the polygon
 	 */
 	public int boundLeft() {
-		return xOffset;
+		return boundsDirty ? computeBounds()[0] : xOffset;
 	}
 
 	/**
@@ -1357,7 +1467,7 @@ public class PlanPolygon<T extends PlanEdge> /*implements Iterable<T>*/ {
 	 * @return the rightmost {@literal x}-coordinate of the polygon
 	 */
 	public int boundRight() {
-		return xOffset + width;
+		return boundsDirty ? computeBounds()[1] : xOffset + width;
 	}
 
 	/**
@@ -1365,7 +1475,7 @@ public class PlanPolygon<T extends PlanEdge> /*implements Iterable<T>*/ {
 	 * @return the biggest {@literal y}-coordinate of the polygon
 	 */
 	public int boundLower() {
-		return yOffset + height;
+		return boundsDirty ? computeBounds()[3] : yOffset + height;
 	}
 
 	/**
@@ -1373,7 +1483,7 @@ public class PlanPolygon<T extends PlanEdge> /*implements Iterable<T>*/ {
 	 * @return the smallest {@literal y}-coordinate of the polygon
 	 */
 	public int boundUpper() {
-		return yOffset;
+		return boundsDirty ? computeBounds()[2] : yOffset;
 	}
 
 	private PlanPoint intersectionPoint = null;
@@ -1435,6 +1545,36 @@ public class PlanPolygon<T extends PlanEdge> /*implements Iterable<T>*/ {
 		return intersectionPoint;
 	}
 
+	/**
+	 * Computes the union of this polygon and another polygon. Both polygons have
+	 * to be closed.
+	 * @param poly the other polygon
+	 * @return the rings of the union as described in {@link PolygonClipper}
+	 */
+	public List<List<PlanPoint>> union( PlanPolygon<?> poly ) {
+		return PolygonClipper.clip( this, poly, PolygonClipper.Operation.UNION );
+	}
+
+	/**
+	 * Computes the part of this polygon that is not covered by another polygon.
+	 * Both polygons have to be closed.
+	 * @param poly the other polygon
+	 * @return the rings of the difference as described in {@link PolygonClipper}
+	 */
+	public List<List<PlanPoint>> difference( PlanPolygon<?> poly ) {
+		return PolygonClipper.clip( this, poly, PolygonClipper.Operation.DIFFERENCE );
+	}
+
+	/**
+	 * Computes the part of this polygon that is covered by another polygon. Both
+	 * polygons have to be closed.
+	 * @param poly the other polygon
+	 * @return the rings of the intersection as described in {@link PolygonClipper}
+	 */
+	public List<List<PlanPoint>> intersect( PlanPolygon<?> poly ) {
+		return PolygonClipper.clip( this, poly, PolygonClipper.Operation.INTERSECTION );
+	}
+
 	/**
 	 * Determines if the topology of this polygon has been changed since the last
 	 * call of a geometric function like {@link #contains(PlanPolygon)},
@@ -1612,6 +1752,7 @@ public class PlanPolygon<T extends PlanEdge> /*implements Iterable<T>*/ {
 
 		changed = true;
 		size--;
+		edgesChanged();
 	}
 
 	/**
@@ -1627,6 +1768,7 @@ public class PlanPolygon<T extends PlanEdge> /*implements Iterable<T>*/ {
 		end = null;
 		size = 0;
 		closed = false;
+		edgesChanged();
 
 		// ChangeEvent is thrown within the defineByPoints-Method (indirectly)
 		defineByPoints( points );
@@ -1908,14 +2050,53 @@ public class PlanPolygon<T extends PlanEdge> /*implements Iterable<T>*/ {
 		return new PlanPolygon<>( edgeClassType );
 	}
 
+	/**
+	 * Marks the bounds as outdated after points have been moved. Until the
+	 * bounds are recomputed by {@link #recomputeBounds()}, they are computed
+	 * from the edges each time they are read. Must be called by the thread
+	 * holding the write lock.
+	 */
+	void invalidateBounds() {
+		boundsDirty = true;
+	}
+
+	/**
+	 * Recomputes the outdated bounds before the polygon is modified. Must be
+	 * called by the thread holding the write lock.
+	 */
+	private void validateBounds() {
+		if( boundsDirty )
+			recomputeBounds();
+	}
+
+	/**
+	 * Recomputes and stores the bounds. Must be called by the thread holding the
+	 * write lock. The bounds are stored before they are marked as valid, such
+	 * that readers never see valid but outdated bounds.
+	 */
 	public void recomputeBounds() {
-		minx = Integer.MAX_VALUE;
-		maxx = Integer.MIN_VALUE;
-		miny = Integer.MAX_VALUE;
-		maxy = Integer.MIN_VALUE;
-		for( T e : in(this.edgeIterator() ) )
-			recomputeBoundsCheckEdge( e );
+		final int[] b = computeBounds();
+		minx = b[0];
+		maxx = b[1];
+		miny = b[2];
+		maxy = b[3];
 		recomputeBoundsUpdate();
+		boundsDirty = false;
+	}
+
+	/**
+	 * Computes the bounds from the edges without storing them.
+	 * @return the smallest and largest x- and y-coordinates, in this order
+	 */
+	private int[] computeBounds() {
+		final int[] b = {Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE};
+		for( T e : in( this.edgeIterator() ) ) {
+			b[0] = Math.min( b[0], e.boundLeft() );
+			b[1] = Math.max( b[1], e.boundRight() );
+			b[2] = Math.min( b[2], e.boundUpper() );
+			b[3] = Math.max( b[3], e.boundLower() );
+		}
+		return b;
 	}
 
 	private void recomputeBoundsCheckEdge( T e ) {
@@ -0,0 +1,573 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package de.zet_evakuierung.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * <p>Boolean operations on polygons with integer coordinates. The input and
+ * the output of the operations are lists of rings. A ring is a list of points,
+ * the last point is connected to the first point. Rings with positive signed
+ * area (counter clockwise in a coordinate system with the y-axis pointing
+ * upwards) add to the area, rings with negative signed area are holes. A point
+ * is contained in a set of rings if the winding number of the rings around the
+ * point is not zero.</p>
+ * <p>The computation follows the approach of Martinez et al. All edges are
+ * split at their intersection points. Afterwards a plane sweep assigns the
+ * winding numbers of both inputs to the regions below and above each edge,
+ * which decides whether an edge is part of the boundary of the result. The
+ * edges of the result are finally linked to rings. Intersection points are
+ * rounded to full millimeters. The classification sweep runs in
+ * O((n + k) log n) for {@code n} edges and {@code k} intersections, candidate
+ * pairs for the intersections are found by a sweep over the x-extents of the
+ * edges.</p>
+ * <p>Outer boundaries of the output have positive signed area and holes have
+ * negative signed area. Rings do not cross, but may touch in single points.</p>
+ * @author Jan-Philipp Kappmeier
+ */
+public final class PolygonClipper {
+
+	/** The supported boolean operations. */
+	public enum Operation {
+		/** Points contained in the subject or the clip. */
+		UNION,
+		/** Points contained in the subject and the clip. */
+		INTERSECTION,
+		/** Points contained in the subject but not in the clip. */
+		DIFFERENCE,
+		/** Points contained in exactly one of subject and clip. */
+		XOR;
+
+		/**
+		 * Decides whether a point is in the result of the operation.
+		 * @param subject whether the point is contained in the subject
+		 * @param clip whether the point is contained in the clip
+		 * @return {@code true} if the point is part of the result
+		 */
+		boolean contains( boolean subject, boolean clip ) {
+			switch( this ) {
+				case UNION:
+					return subject || clip;
+				case INTERSECTION:
+					return subject && clip;
+				case DIFFERENCE:
+					return subject && !clip;
+				default:
+					return subject != clip;
+			}
+		}
+	}
+
+	/** Utility class. */
+	private PolygonClipper() {
+	}
+
+	/**
+	 * Converts closed polygons to counter clockwise rings. Polygons that are not
+	 * closed are ignored.
+	 * @param polygons the polygons
+	 * @return the rings of the polygons
+	 */
+	public static List<List<PlanPoint>> rings( Collection<? extends PlanPolygon<?>> polygons ) {
+		final ArrayList<List<PlanPoint>> rings = new ArrayList<>( polygons.size() );
+		for( PlanPolygon<?> polygon : polygons ) {
+			if( !polygon.isClosed() )
+				continue;
+			final List<PlanPoint> points = polygon.getPolygonPoints();
+			if( signedArea( points ) < 0 )
+				Collections.reverse( points );
+			rings.add( points );
+		}
+		return rings;
+	}
+
+	/**
+	 * Computes the signed area of rings.
+	 * @param rings the rings
+	 * @return the signed area in square millimeters
+	 */
+	public static long area( List<List<PlanPoint>> rings ) {
+		long area = 0;
+		for( List<PlanPoint> ring : rings )
+			area += signedArea( ring );
+		return area;
+	}
+
+	/**
+	 * Computes the signed area of a ring.
+	 * @param ring the ring
+	 * @return the signed area in square millimeters, positive for counter clockwise rings
+	 */
+	public static long signedArea( List<PlanPoint> ring ) {
+		long area = 0;
+		for( int i = 0; i < ring.size(); ++i ) {
+			final PlanPoint p = ring.get( i );
+			final PlanPoint q = ring.get( (i + 1) % ring.size() );
+			area += (long)p.getXInt() * q.getYInt() - (long)q.getXInt() * p.getYInt();
+		}
+		return area / 2;
+	}
+
+	/**
+	 * Computes a boolean operation of two polygons.
+	 * @param subject the subject polygon
+	 * @param clip the clip polygon
+	 * @param operation the operation
+	 * @return the rings of the result
+	 */
+	public static List<List<PlanPoint>> clip( PlanPolygon<?> subject, PlanPolygon<?> clip, Operation operation ) {
+		return clip( rings( Collections.singletonList( subject ) ), rings( Collections.singletonList( clip ) ), operation );
+	}
+
+	/**
+	 * Computes a boolean operation of two sets of rings.
+	 * @param subject the rings of the subject
+	 * @param clip the rings of the clip
+	 * @param operation the operation
+	 * @return the rings of the result
+	 */
+	public static List<List<PlanPoint>> clip( List<List<PlanPoint>> subject, List<List<PlanPoint>> clip, Operation operation ) {
+		final ArrayList<Segment> segments = new ArrayList<>();
+		addSegments( subject, 0, segments );
+		addSegments( clip, 1, segments );
+		final List<Edge> edges = split( segments );
+		final List<Edge> result = sweep( edges, operation );
+		return link( result );
+	}
+
+	/** An input segment, stored with its direction and the input it belongs to. */
+	private static class Segment {
+		final long x1;
+		final long y1;
+		final long x2;
+		final long y2;
+		final int input;
+		/** The points splitting the segment, including the end points. */
+		final ArrayList<long[]> splits = new ArrayList<>( 2 );
+
+		Segment( long x1, long y1, long x2, long y2, int input ) {
+			this.x1 = x1;
+			this.y1 = y1;
+			this.x2 = x2;
+			this.y2 = y2;
+			this.input = input;
+			splits.add( new long[]{x1, y1} );
+			splits.add( new long[]{x2, y2} );
+		}
+
+		long minX() {
+			return Math.min( x1, x2 );
+		}
+
+		long maxX() {
+			return Math.max( x1, x2 );
+		}
+
+		long minY() {
+			return Math.min( y1, y2 );
+		}
+
+		long maxY() {
+			return Math.max( y1, y2 );
+		}
+	}
+
+	/**
+	 * An edge of the arrangement. The left end point is the smaller point in
+	 * lexicographic order. The winding deltas describe the change of the winding
+	 * number of each input when the edge is crossed from below to above, or from
+	 * left to right for vertical edges.
+	 */
+	private static class Edge {
+		final long lx;
+		final long ly;
+		final long rx;
+		final long ry;
+		final int id;
+		final int[] delta = new int[2];
+		/** The winding numbers above the edge. */
+		final int[] above = new int[2];
+		/** Whether the edge has been added to a ring. */
+		boolean linked;
+
+		Edge( long lx, long ly, long rx, long ry, int id ) {
+			this.lx = lx;
+			this.ly = ly;
+			this.rx = rx;
+			this.ry = ry;
+			this.id = id;
+		}
+
+		boolean isVertical() {
+			return lx == rx;
+		}
+	}
+
+	/**
+	 * Adds the edges of rings as segments. All coordinates are doubled, such that
+	 * the centers of edges have integral coordinates.
+	 */
+	private static void addSegments( List<List<PlanPoint>> rings, int input, List<Segment> segments ) {
+		for( List<PlanPoint> ring : rings )
+			for( int i = 0; i < ring.size(); ++i ) {
+				final PlanPoint p = ring.get( i );
+				final PlanPoint q = ring.get( (i + 1) % ring.size() );
+				if( p.getXInt() != q.getXInt() || p.getYInt() != q.getYInt() )
+					segments.add( new Segment( 2L * p.getXInt(), 2L * p.getYInt(), 2L * q.getXInt(), 2L * q.getYInt(), input ) );
+			}
+	}
+
+	private static long cross( long ax, long ay, long bx, long by, long cx, long cy ) {
+		return (bx - ax) * (cy - ay) - (by - ay) * (cx - ax);
+	}
+
+	/**
+	 * Decides whether a point collinear to a segment lies strictly between its end points.
+	 */
+	private static boolean inInterior( Segment s, long px, long py ) {
+		if( (px == s.x1 && py == s.y1) || (px == s.x2 && py == s.y2) )
+			return false;
+		return px >= s.minX() && px <= s.maxX() && py >= s.minY() && py <= s.maxY();
+	}
+
+	/**
+	 * Splits all segments at their intersection points and merges overlapping
+	 * parts. As rounded intersection points may introduce new crossings, the
+	 * splitting is repeated until no further splits occur.
+	 * @param segments the segments
+	 * @return the edges of the arrangement
+	 */
+	private static List<Edge> split( List<Segment> segments ) {
+		List<Segment> current = segments;
+		boolean changed = true;
+		while( changed ) {
+			findIntersections( current );
+			changed = false;
+			final ArrayList<Segment> parts = new ArrayList<>( current.size() );
+			for( final Segment s : current ) {
+				final long dx = s.x2 - s.x1;
+				final long dy = s.y2 - s.y1;
+				Collections.sort( s.splits, new Comparator<long[]>() {
+					@Override
+					public int compare( long[] p, long[] q ) {
+						return Long.compare( (p[0] - s.x1) * dx + (p[1] - s.y1) * dy, (q[0] - s.x1) * dx + (q[1] - s.y1) * dy );
+					}
+				} );
+				final int size = parts.size();
+				for( int i = 0; i + 1 < s.splits.size(); ++i ) {
+					final long[] p = s.splits.get( i );
+					final long[] q = s.splits.get( i + 1 );
+					if( p[0] != q[0] || p[1] != q[1] )
+						parts.add( new Segment( p[0], p[1], q[0], q[1], s.input ) );
+				}
+				changed |= parts.size() - size > 1;
+			}
+			current = parts;
+		}
+
+		final HashMap<EdgeKey, Edge> edges = new HashMap<>();
+		for( Segment s : current ) {
+			final boolean forward = s.x1 < s.x2 || (s.x1 == s.x2 && s.y1 < s.y2);
+			final EdgeKey key = forward ? new EdgeKey( s.x1, s.y1, s.x2, s.y2 ) : new EdgeKey( s.x2, s.y2, s.x1, s.y1 );
+			Edge e = edges.get( key );
+			if( e == null ) {
+				e = new Edge( key.x1, key.y1, key.x2, key.y2, edges.size() );
+				edges.put( key, e );
+			}
+			// Counter clockwise rings have their interior left of the direction
+			if( s.x1 == s.x2 )
+				e.delta[s.input] += forward ? -1 : 1;
+			else
+				e.delta[s.input] += forward ? 1 : -1;
+		}
+		final ArrayList<Edge> result = new ArrayList<>( edges.size() );
+		for( Edge e : edges.values() )
+			if( e.delta[0] != 0 || e.delta[1] != 0 )
+				result.add( e );
+		return result;
+	}
+
+	/**
+	 * Finds the intersection points of segments. Candidate pairs are found by a
+	 * sweep over the x-extents of the segments.
+	 * @param segments the segments
+	 */
+	private static void findIntersections( List<Segment> segments ) {
+		Collections.sort( segments, new Comparator<Segment>() {
+			@Override
+			public int compare( Segment s, Segment t ) {
+				return Long.compare( s.minX(), t.minX() );
+			}
+		} );
+		final ArrayList<Segment> active = new ArrayList<>();
+		for( Segment s : segments ) {
+			int keep = 0;
+			for( Segment t : active )
+				if( t.maxX() >= s.minX() )
+					active.set( keep++, t );
+			active.subList( keep, active.size() ).clear();
+			for( Segment t : active )
+				if( t.maxY() >= s.minY() && t.minY() <= s.maxY() )
+					intersect( s, t );
+			active.add( s );
+		}
+	}
+
+	/**
+	 * Computes the intersection of two segments and stores the split points.
+	 */
+	private static void intersect( Segment s, Segment t ) {
+		final long d1 = cross( t.x1, t.y1, t.x2, t.y2, s.x1, s.y1 );
+		final long d2 = cross( t.x1, t.y1, t.x2, t.y2, s.x2, s.y2 );
+		final long d3 = cross( s.x1, s.y1, s.x2, s.y2, t.x1, t.y1 );
+		final long d4 = cross( s.x1, s.y1, s.x2, s.y2, t.x2, t.y2 );
+		if( ((d1 > 0 && d2 < 0) || (d1 < 0 && d2 > 0)) && ((d3 > 0 && d4 < 0) || (d3 < 0 && d4 > 0)) ) {
+			// proper crossing, round to an even (original integral) coordinate
+			final double f = (double)d3 / (d3 - d4);
+			final long x = 2 * Math.round( (t.x1 + f * (t.x2 - t.x1)) / 2 );
+			final long y = 2 * Math.round( (t.y1 + f * (t.y2 - t.y1)) / 2 );
+			s.splits.add( new long[]{x, y} );
+			t.splits.add( new long[]{x, y} );
+			return;
+		}
+		// touching end points and collinear overlaps
+		if( d1 == 0 && inInterior( t, s.x1, s.y1 ) )
+			t.splits.add( new long[]{s.x1, s.y1} );
+		if( d2 == 0 && inInterior( t, s.x2, s.y2 ) )
+			t.splits.add( new long[]{s.x2, s.y2} );
+		if( d3 == 0 && inInterior( s, t.x1, t.y1 ) )
+			s.splits.add( new long[]{t.x1, t.y1} );
+		if( d4 == 0 && inInterior( s, t.x2, t.y2 ) )
+			s.splits.add( new long[]{t.x2, t.y2} );
+	}
+
+	/** The order of non-vertical edges from bottom to top in the sweep line. */
+	private static final Comparator<Edge> STATUS_ORDER = new Comparator<Edge>() {
+		@Override
+		public int compare( Edge a, Edge b ) {
+			if( a == b )
+				return 0;
+			if( a.lx == b.lx && a.ly == b.ly )
+				return orientation( a, b.rx, b.ry, a.id, b.id );
+			if( a.lx == b.lx )
+				return Long.compare( a.ly, b.ly );
+			if( a.lx < b.lx ) {
+				final int c = orientation( a, b.lx, b.ly, 0, 0 );
+				return c != 0 ? c : orientation( a, b.rx, b.ry, a.id, b.id );
+			}
+			return -compare( b, a );
+		}
+
+		/** Returns -1 if the point is above the edge, 1 if it is below. */
+		private int orientation( Edge a, long x, long y, int idA, int idB ) {
+			final long c = cross( a.lx, a.ly, a.rx, a.ry, x, y );
+			return c > 0 ? -1 : c < 0 ? 1 : Integer.compare( idA, idB );
+		}
+	};
+
+	/**
+	 * Computes the winding numbers of the regions next to the edges and selects
+	 * the edges of the result. The edges of the result are directed such that
+	 * the result lies to their left.
+	 * @param edges the edges of the arrangement
+	 * @param operation the operation
+	 * @return the directed edges of the result, from {@code (lx, ly)} to {@code (rx, ry)}
+	 */
+	private static List<Edge> sweep( List<Edge> edges, Operation operation ) {
+		final ArrayList<Edge> inserts = new ArrayList<>();
+		final ArrayList<Edge> verticals = new ArrayList<>();
+		for( Edge e : edges )
+			(e.isVertical() ? verticals : inserts).add( e );
+		final ArrayList<Edge> removals = new ArrayList<>( inserts );
+		Collections.sort( inserts, new Comparator<Edge>() {
+			@Override
+			public int compare( Edge a, Edge b ) {
+				return a.lx != b.lx ? Long.compare( a.lx, b.lx ) : STATUS_ORDER.compare( a, b );
+			}
+		} );
+		Collections.sort( removals, new Comparator<Edge>() {
+			@Override
+			public int compare( Edge a, Edge b ) {
+				return Long.compare( a.rx, b.rx );
+			}
+		} );
+		Collections.sort( verticals, new Comparator<Edge>() {
+			@Override
+			public int compare( Edge a, Edge b ) {
+				return Long.compare( a.lx, b.lx );
+			}
+		} );
+
+		final TreeSet<Edge> status = new TreeSet<>( STATUS_ORDER );
+		final ArrayList<Edge> result = new ArrayList<>();
+		int i = 0;
+		int j = 0;
+		int k = 0;
+		while( i < inserts.size() || k < verticals.size() ) {
+			long x = Long.MAX_VALUE;
+			if( i < inserts.size() )
+				x = inserts.get( i ).lx;
+			if( k < verticals.size() )
+				x = Math.min( x, verticals.get( k ).lx );
+			while( j < removals.size() && removals.get( j ).rx <= x )
+				status.remove( removals.get( j++ ) );
+			for( ; i < inserts.size() && inserts.get( i ).lx == x; ++i ) {
+				final Edge e = inserts.get( i );
+				final Edge below = status.lower( e );
+				final boolean insideBelow = below == null ? operation.contains( false, false ) : operation.contains( below.above[0] != 0, below.above[1] != 0 );
+				for( int input = 0; input < 2; ++input )
+					e.above[input] = (below == null ? 0 : below.above[input]) + e.delta[input];
+				status.add( e );
+				final boolean insideAbove = operation.contains( e.above[0] != 0, e.above[1] != 0 );
+				if( insideBelow != insideAbove )
+					result.add( insideAbove ? e : reverse( e ) );
+			}
+			for( ; k < verticals.size() && verticals.get( k ).lx == x; ++k ) {
+				final Edge e = verticals.get( k );
+				final long y = (e.ly + e.ry) / 2;
+				final Edge below = status.lower( new Edge( x, y, x + 1, y, -1 ) );
+				final int right0 = below == null ? 0 : below.above[0];
+				final int right1 = below == null ? 0 : below.above[1];
+				final boolean insideRight = operation.contains( right0 != 0, right1 != 0 );
+				final boolean insideLeft = operation.contains( right0 - e.delta[0] != 0, right1 - e.delta[1] != 0 );
+				if( insideLeft != insideRight )
+					result.add( insideLeft ? e : reverse( e ) );
+			}
+		}
+		return result;
+	}
+
+	private static Edge reverse( Edge e ) {
+		return new Edge( e.rx, e.ry, e.lx, e.ly, e.id );
+	}
+
+	/**
+	 * Links directed edges to rings. At points with several outgoing edges the
+	 * edge turning most to the left is chosen, which separates touching rings.
+	 * @param edges the directed edges, from {@code (lx, ly)} to {@code (rx, ry)}
+	 * @return the rings
+	 */
+	private static List<List<PlanPoint>> link( List<Edge> edges ) {
+		final HashMap<EdgeKey, List<Edge>> outgoing = new HashMap<>();
+		for( Edge e : edges ) {
+			final EdgeKey key = new EdgeKey( e.lx, e.ly, 0, 0 );
+			List<Edge> list = outgoing.get( key );
+			if( list == null ) {
+				list = new ArrayList<>( 1 );
+				outgoing.put( key, list );
+			}
+			list.add( e );
+		}
+		final ArrayList<List<PlanPoint>> rings = new ArrayList<>();
+		for( Edge first : edges ) {
+			if( first.linked )
+				continue;
+			final ArrayList<long[]> ring = new ArrayList<>();
+			Edge e = first;
+			while( e != null && !e.linked ) {
+				e.linked = true;
+				ring.add( new long[]{e.lx, e.ly} );
+				e = next( e, outgoing.get( new EdgeKey( e.rx, e.ry, 0, 0 ) ) );
+			}
+			final List<PlanPoint> points = simplify( ring );
+			if( points.size() >= 3 )
+				rings.add( points );
+		}
+		return rings;
+	}
+
+	/**
+	 * Chooses the unused outgoing edge following an edge, that is the first edge
+	 * clockwise from the reversed edge.
+	 */
+	private static Edge next( Edge e, List<Edge> candidates ) {
+		if( candidates == null )
+			return null;
+		final double back = Math.atan2( e.ly - e.ry, e.lx - e.rx );
+		Edge best = null;
+		double bestAngle = Double.POSITIVE_INFINITY;
+		for( Edge c : candidates ) {
+			if( c.linked )
+				continue;
+			double angle = back - Math.atan2( c.ry - c.ly, c.rx - c.lx );
+			while( angle <= 0 )
+				angle += 2 * Math.PI;
+			while( angle > 2 * Math.PI )
+				angle -= 2 * Math.PI;
+			if( angle < bestAngle ) {
+				bestAngle = angle;
+				best = c;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Converts a ring in doubled coordinates to points and removes points in the
+	 * middle of straight lines.
+	 */
+	private static List<PlanPoint> simplify( List<long[]> ring ) {
+		final ArrayList<PlanPoint> points = new ArrayList<>( ring.size() );
+		final int n = ring.size();
+		for( int i = 0; i < n; ++i ) {
+			final long[] p = ring.get( (i + n - 1) % n );
+			final long[] q = ring.get( i );
+			final long[] r = ring.get( (i + 1) % n );
+			if( cross( p[0], p[1], q[0], q[1], r[0], r[1] ) != 0 )
+				points.add( new PlanPoint( (int)(q[0] / 2), (int)(q[1] / 2) ) );
+		}
+		return points;
+	}
+
+	/** A hashable key of two points. */
+	private static class EdgeKey {
+		final long x1;
+		final long y1;
+		final long x2;
+		final long y2;
+
+		EdgeKey( long x1, long y1, long x2, long y2 ) {
+			this.x1 = x1;
+			this.y1 = y1;
+			this.x2 = x2;
+			this.y2 = y2;
+		}
+
+		@Override
+		public boolean equals( Object obj ) {
+			if( !(obj instanceof EdgeKey) )
+				return false;
+			final EdgeKey k = (EdgeKey)obj;
+			return x1 == k.x1 && y1 == k.y1 && x2 == k.x2 && y2 == k.y2;
+		}
+
+		@Override
+		public int hashCode() {
+			long h = x1;
+			h = 31 * h + y1;
+			h = 31 * h + x2;
+			h = 31 * h + y2;
+			return (int)(h ^ (h >>> 32));
+		}
+	}
+}
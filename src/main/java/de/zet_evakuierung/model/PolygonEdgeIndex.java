@@ -0,0 +1,192 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package de.zet_evakuierung.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * An index of the edges of a {@link PlanPolygon}. Edges are found by the
+ * coordinates of their end points in a hash map, and by points on the edge
+ * using a uniform grid over the polygon. The grid is only built when needed.
+ * <p>The index is a snapshot. It is valid as long as neither the edges of the
+ * polygon nor the coordinates of any point in an edge have changed, see
+ * {@link #isValid(int)}. Edges are only added by the thread modifying the
+ * polygon. The grid is immutable and published when it is completely built,
+ * thus concurrent readers can query the index.</p>
+ * @param <T> the type of the edges
+ * @author Jan-Philipp Kappmeier
+ */
+final class PolygonEdgeIndex<T extends PlanEdge> {
+	/** The number of changes of the polygon when the index was updated. */
+	private volatile int edgeChanges;
+	/** The edges in the order of the polygon. */
+	private final ArrayList<T> edges;
+	/** The edges incident to a point, by the coordinates of the point. */
+	private final HashMap<Long, ArrayList<T>> byPoint;
+	/** The grid over the edges, {@code null} if it is not built. */
+	private volatile Grid grid;
+
+	/**
+	 * Creates an index of the current edges of a polygon.
+	 * @param edges the edges in the order of the polygon
+	 * @param edgeChanges the number of changes of the polygon
+	 */
+	PolygonEdgeIndex( List<T> edges, int edgeChanges ) {
+		this.edges = new ArrayList<>( edges );
+		byPoint = new HashMap<>( 4 * edges.size() );
+		for( T e : edges )
+			putPoints( e );
+		this.edgeChanges = edgeChanges;
+	}
+
+	/**
+	 * Checks whether the index is up to date.
+	 * @param edgeChanges the current number of changes of the polygon
+	 * @return {@code true} if the index reflects the current edges
+	 */
+	boolean isValid( int edgeChanges ) {
+		return this.edgeChanges == edgeChanges;
+	}
+
+	/**
+	 * Adds an edge that has been inserted into the polygon. The grid is dropped
+	 * and rebuilt on the next point query.
+	 * @param e the new edge
+	 * @param edgeChanges the number of changes of the polygon after the insertion
+	 */
+	void add( T e, int edgeChanges ) {
+		edges.add( e );
+		putPoints( e );
+		grid = null;
+		this.edgeChanges = edgeChanges;
+	}
+	private void putPoints( T e ) {
+		put( key( e.getSource() ), e );
+		if( !e.getTarget().matches( e.getSource() ) )
+			put( key( e.getTarget() ), e );
+	}
+
+	private void put( Long key, T e ) {
+		ArrayList<T> incident = byPoint.get( key );
+		if( incident == null ) {
+			incident = new ArrayList<>( 2 );
+			byPoint.put( key, incident );
+		}
+		incident.add( e );
+	}
+
+	private static Long key( PlanPoint p ) {
+		return ((long)p.getXInt() << 32) | (p.getYInt() & 0xffffffffL);
+	}
+
+	/**
+	 * Returns an edge whose end points have the coordinates of two points.
+	 * @param p1 one point
+	 * @param p2 the other point
+	 * @return the edge, or {@code null} if the polygon contains no such edge
+	 */
+	T get( PlanPoint p1, PlanPoint p2 ) {
+		final ArrayList<T> incident = byPoint.get( key( p1 ) );
+		if( incident != null )
+			for( T e : incident )
+				if( e.fits( p1 ) && e.fits( p2 ) )
+					return e;
+		return null;
+	}
+
+	/**
+	 * Returns the first edge in the order of the polygon that contains a point.
+	 * @param p the point
+	 * @param polygon the polygon, deciding whether the point is on an edge
+	 * @param eps the tolerance
+	 * @return the edge, or {@code null} if the point is on no edge
+	 */
+	T getOnEdge( PlanPoint p, PlanPolygon<T> polygon, double eps ) {
+		Grid g = grid;
+		if( g == null ) {
+			g = new Grid( edges );
+			grid = g;
+		}
+		if( edges.isEmpty() || p.getXInt() < g.minX || p.getXInt() > g.maxX || p.getYInt() < g.minY || p.getYInt() > g.maxY )
+			return null;
+		final int cell = g.cell( p.getYInt(), g.minY, g.rows ) * g.columns + g.cell( p.getXInt(), g.minX, g.columns );
+		for( int i = g.cellStart[cell]; i < g.cellStart[cell + 1]; ++i ) {
+			final T e = edges.get( g.cellEdges[i] );
+			if( polygon.isOnEdge( e, p, eps ) )
+				return e;
+		}
+		return null;
+	}
+
+	/**
+	 * A uniform grid over the edges. Each edge is stored in all cells overlapping
+	 * its bounding box. The number of cells is about the number of edges.
+	 */
+	private static final class Grid {
+		/** The bounding box of the edges. */
+		private final int minX, minY, maxX, maxY;
+		/** The side length of the grid cells. */
+		private final long cellSize;
+		/** The number of cells in x and y direction. */
+		private final int columns, rows;
+		/** The first entry of each cell. */
+		private final int[] cellStart;
+		/** The indices of the edges in each cell, in the order of the polygon. */
+		private final int[] cellEdges;
+
+		private Grid( List<? extends PlanEdge> edges ) {
+			int x1 = Integer.MAX_VALUE, y1 = Integer.MAX_VALUE, x2 = Integer.MIN_VALUE, y2 = Integer.MIN_VALUE;
+			for( PlanEdge e : edges ) {
+				x1 = Math.min( x1, e.getMinX() );
+				y1 = Math.min( y1, e.getMinY() );
+				x2 = Math.max( x2, e.getMaxX() );
+				y2 = Math.max( y2, e.getMaxY() );
+			}
+			minX = x1;
+			minY = y1;
+			maxX = x2;
+			maxY = y2;
+			final long extent = Math.max( 1, Math.max( maxX - (long)minX, maxY - (long)minY ) + 1 );
+			final int perSide = (int)Math.ceil( Math.sqrt( Math.max( 1, edges.size() ) ) );
+			cellSize = (extent + perSide - 1) / perSide;
+			columns = edges.isEmpty() ? 1 : (int)((maxX - (long)minX) / cellSize + 1);
+			rows = edges.isEmpty() ? 1 : (int)((maxY - (long)minY) / cellSize + 1);
+			cellStart = new int[columns * rows + 1];
+			// count the entries of each cell, then fill them in the order of the edges
+			for( PlanEdge e : edges )
+				for( int r = cell( e.getMinY(), minY, rows ); r <= cell( e.getMaxY(), minY, rows ); ++r )
+					for( int c = cell( e.getMinX(), minX, columns ); c <= cell( e.getMaxX(), minX, columns ); ++c )
+						cellStart[r * columns + c + 1]++;
+			for( int c = 0; c < columns * rows; ++c )
+				cellStart[c + 1] += cellStart[c];
+			cellEdges = new int[cellStart[columns * rows]];
+			final int[] next = cellStart.clone();
+			for( int i = 0; i < edges.size(); ++i ) {
+				final PlanEdge e = edges.get( i );
+				for( int r = cell( e.getMinY(), minY, rows ); r <= cell( e.getMaxY(), minY, rows ); ++r )
+					for( int c = cell( e.getMinX(), minX, columns ); c <= cell( e.getMaxX(), minX, columns ); ++c )
+						cellEdges[next[r * columns + c]++] = i;
+			}
+		}
+
+		private int cell( int coordinate, int min, int cells ) {
+			return (int)Math.min( cells - 1, (coordinate - (long)min) / cellSize );
+		}
+	}
+}
@@ -23,8 +23,10 @@ import java.io.File;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 /**
  * The central project class for the Z format. All information about the evacuation scenario is linked together in this
@@ -47,6 +49,9 @@ public class Project implements Serializable {
     private Assignment currentAssignment;
     /** The list of possible assignments for the project. */
     private final ArrayList<Assignment> assignments;
+    /** The assignments whose areas are registered at the rooms, either as current or as inactive areas. */
+    @XStreamOmitField()
+    private transient Set<Assignment> registeredAssignments;
     /** The list of possible evacuation plans for the project. */
     private final ArrayList<EvacuationPlan> evacuationPlans;
     /** Additionally stored visualization parameters for the project. */
@@ -151,6 +156,13 @@ public class Project implements Serializable {
             return;
         }
         val.delete();
+        if (registeredAssignments != null && registeredAssignments.remove(val)) {
+            for (Floor floor : plan) {
+                for (Room room : floor) {
+                    ((RoomImpl) room).removeInactiveAssignment(val);
+                }
+            }
+        }
 
         if (val == currentAssignment) {
             if (assignments.size() > 0) {
@@ -175,8 +187,9 @@ public class Project implements Serializable {
     }
 
     /**
-     * Sets the Assignment that is to be used. Gives notice to the previous and the new currentAssignment that it is not
-     * any more respectively now the current assignment.
+     * Sets the Assignment that is to be used. The rooms keep the assignment areas of each assignment in a separate
+     * list, so switching only exchanges the lists of the rooms. The areas of an assignment are registered at the rooms
+     * when the assignment is activated the first time.
      *
      * @param val
      * @throws IllegalArgumentException if {@code val} is not in the list of Assignments that is maintained by the
@@ -186,10 +199,29 @@ public class Project implements Serializable {
         if (!assignments.contains(val)) {
             throw new IllegalArgumentException(ZLocalization.loc.getString("ds.AssignmentNotInProjectException"));
         }
-
-        this.currentAssignment.setInactive();
+        final Assignment previous = getCurrentAssignment();
+        if (val == previous) {
+            return;
+        }
+        if (registeredAssignments == null) {
+            registeredAssignments = Collections.newSetFromMap(new IdentityHashMap<Assignment, Boolean>());
+        }
+        if (previous != null) {
+            registeredAssignments.add(previous);
+        }
+        if (registeredAssignments.add(val)) {
+            for (AssignmentType type : val.getAssignmentTypes()) {
+                for (AssignmentArea area : type.getAssignmentAreas()) {
+                    area.getAssociatedRoom().addInactiveAssignmentArea(val, area);
+                }
+            }
+        }
+        for (Floor floor : plan) {
+            for (Room room : floor) {
+                ((RoomImpl) room).switchAssignment(previous, val);
+            }
+        }
         this.currentAssignment = val;
-        this.currentAssignment.setActive();
     }
 
     public BuildingPlan getBuildingPlan() {
@@ -35,6 +35,7 @@ import de.zet_evakuierung.io.z.UniformDistributionConverter;
 import de.zet_evakuierung.io.z.XMLConverter;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -44,6 +45,9 @@ import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.Set;
@@ -236,11 +240,68 @@ public class ProjectLoader {
 		}
 		output.flush();
 		output.close();
+		// The journal refers to the previous version of the file
+		EditJournal.getJournalFile( file ).delete();
 	}
 
 	/**
+	 * Converts a project to its XML representation in memory. Errors of the
+	 * conversion are not caught.
+	 * @param p the project
+	 * @return the XML representation of the project
+	 */
+	static byte[] toXML( Project p ) {
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		xmlConvert.toXML( p, output );
+		return output.toByteArray();
+	}
+
+	/**
+	 * Writes the XML representation of a project to an output file. The output is
+	 * compressed if the project file is a {@code .gzet} file. The output is
+	 * synchronized to the disk before the method returns.
+	 * @param xml the XML representation of the project, see {@link #toXML(Project)}
+	 * @param file the project file
+	 * @param outputFile the file that is written, for example a temporary file
+	 * @throws IOException if the output cannot be written
+	 */
+	static void write( byte[] xml, File file, File outputFile ) throws IOException {
+		final FileOutputStream fileOutput = new FileOutputStream( outputFile );
+		try {
+			OutputStream output = new BufferedOutputStream( fileOutput );
+			if( file.getAbsolutePath().endsWith( ".gzet" ) )
+				output = new GZIPOutputStream( output );
+			output.write( xml );
+			if( output instanceof GZIPOutputStream )
+				((GZIPOutputStream)output).finish();
+			output.flush();
+			fileOutput.getFD().sync();
+		} finally {
+			fileOutput.close();
+		}
+	}
+
+	/**
+	 * Replaces a project file atomically by a completely written file, if the
+	 * file system supports it. The journal of the previous version is removed.
+	 * @param outputFile the written file
+	 * @param file the project file
+	 * @throws IOException if the file cannot be replaced
+	 */
+	static void replace( File outputFile, File file ) throws IOException {
+		try {
+			Files.move( outputFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+		} catch( AtomicMoveNotSupportedException ex ) {
+			Files.move( outputFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+		}
+		EditJournal.getJournalFile( file ).delete();
+	}
+
+	/**
+	 * Loads a project. If the file has an {@link EditJournal}, the journal is
+	 * applied to the loaded project.
 	 * @param projectFile
-	 * @exception IOException - Is thrown when the I/O-Operation fails.
+	 * @exception IOException - Is thrown when the I/O-Operation fails or the journal is corrupt.
 	 * @return The Project that was stored in the denoted file.
 	 */
 	public static Project load( File projectFile ) throws IOException {
@@ -253,6 +314,7 @@ public class ProjectLoader {
 		}
 		Project p = (Project)xmlConvert.fromXML( input );
 		input.close();
+		EditJournal.replay( p, projectFile );
 		return p;
 	}
 
@@ -170,6 +170,8 @@ public class RoomEdge extends PlanEdge implements RoomEdgeInterface {
 		if( ensureMatchWithLinkTarget && target != null && super.equals( target ) )
 			throw new IllegalArgumentException( ZLocalization.loc.getString( "ds.z.RoomEdge.InequalLinkTarget" ) );
 		this.linkTarget = target;
+		if( getAssociatedPolygon() != null )
+			getAssociatedPolygon().modified();
 	}
 
 	/**
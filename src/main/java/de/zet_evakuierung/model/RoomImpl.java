@@ -26,6 +26,8 @@ import de.zet_evakuierung.model.exception.TeleportEdgeInvalidTargetException;
 import de.zet_evakuierung.model.exception.TeleportEdgeNotConnected;
 import de.zet_evakuierung.model.exception.TeleportEdgeTargetLengthException;
 import de.zet_evakuierung.model.exception.TooManyPeopleException;
+import de.zet_evakuierung.model.graph.NavigationMesh;
+import de.zet_evakuierung.model.graph.RoomVisibilityGraph;
 import de.zet_evakuierung.io.z.RoomConverter;
 import de.zet_evakuierung.io.z.XMLConverter;
 import java.awt.Point;
@@ -34,6 +36,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
@@ -71,6 +74,15 @@ public class RoomImpl extends PlanPolygon<RoomEdge> implements Cloneable, Compar
 	private ArrayList<TeleportArea> teleportAreas;
 	@XStreamOmitField	// This field is accessed manually during loading of a file
 	private ArrayList<AreaImpl>[] areas;
+	/** The cached visibility graph, replaced if the geometry of the room changes. */
+	@XStreamOmitField
+	private transient volatile RoomVisibilityGraph visibilityGraph;
+	/** The cached navigation mesh of the room. */
+	@XStreamOmitField
+	private transient volatile NavigationMesh navigationMesh;
+	/** The assignment areas of inactive assignments, the areas of the current assignment are {@link #assignmentAreas}. */
+	@XStreamOmitField
+	private transient IdentityHashMap<Assignment, ArrayList<AssignmentArea>> inactiveAssignmentAreas;
 
 	/**
 	 * Creates a new {@code Room} with a default name "Room x", where x
@@ -195,6 +207,39 @@ public class RoomImpl extends PlanPolygon<RoomEdge> implements Cloneable, Compar
     return doorEdges;
   }
 
+	/**
+	 * Returns the visibility graph of the room including the distances between
+	 * doors and exits. The graph is cached and only recomputed if the geometry of
+	 * the room, its obstacles or its exits has changed since the last call.
+	 * @return the visibility graph of the room
+	 */
+	public RoomVisibilityGraph getVisibilityGraph() {
+		RoomVisibilityGraph graph = visibilityGraph;
+		if( graph == null || graph.getModificationStamp() != getModificationStamp() ) {
+			graph = new RoomVisibilityGraph( this );
+			visibilityGraph = graph;
+		}
+		return graph;
+	}
+
+	/**
+	 * Returns the navigation mesh of the walkable area of the room. The mesh is
+	 * cached and only recomputed if the geometry of the room or its obstacles has
+	 * changed since the last call, or if it was created with a different setting
+	 * for the stair areas.
+	 * @param excludeStairs whether stair areas are excluded from the walkable area
+	 * @return the navigation mesh of the room
+	 * @throws IllegalStateException if obstacles overlap each other or the walls
+	 */
+	public NavigationMesh getNavigationMesh( boolean excludeStairs ) throws IllegalStateException {
+		NavigationMesh mesh = navigationMesh;
+		if( mesh == null || mesh.isExcludeStairs() != excludeStairs || mesh.getModificationStamp() != getModificationStamp() ) {
+			mesh = new NavigationMesh( this, excludeStairs );
+			navigationMesh = mesh;
+		}
+		return mesh;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 * The Areas that are contained within this Room are assigned to the new room that contains them.
@@ -304,7 +349,7 @@ public class RoomImpl extends PlanPolygon<RoomEdge> implements Cloneable, Compar
      */
     void addArea(Area area) throws IllegalArgumentException {
         if (area instanceof AssignmentArea) {
-            if (assignmentAreas.contains((AssignmentArea) area)) {
+            if (containsIdentical(assignmentAreas, area)) {
                 throw new IllegalArgumentException(ZLocalization.loc.getString("ds.z.Room.AlreadyContainsAreaException"));
             } else {
                 assignmentAreas.add((AssignmentArea) area);
@@ -357,8 +402,23 @@ public class RoomImpl extends PlanPolygon<RoomEdge> implements Cloneable, Compar
                 teleportAreas.add((TeleportArea) area);
             }
         }
+        modified();
     }
 
+	/**
+	 * Checks whether a list contains an object, compared by identity. Avoids the
+	 * comparison of polygons when many areas are added.
+	 * @param list the list
+	 * @param o the object
+	 * @return {@code true} if the object itself is contained in the list
+	 */
+	private static boolean containsIdentical( List<?> list, Object o ) {
+		for( Object e : list )
+			if( e == o )
+				return true;
+		return false;
+	}
+
 	/**
 	 * Checks, whether this is a valid room. This is true, if all his edges define a closed area
 	 * and if all his associated areas lie inside the room and if this room contains not too many people.
@@ -746,6 +806,54 @@ public class RoomImpl extends PlanPolygon<RoomEdge> implements Cloneable, Compar
 		t2.setLinkTarget( t1 );
 	}
 
+	/**
+	 * Replaces the assignment areas of the room by the areas of another
+	 * assignment. The current list of assignment areas is kept as the list of the
+	 * previously active assignment, thus switching between assignments only
+	 * exchanges the lists.
+	 * @param inactive the previously active assignment, may be {@code null}
+	 * @param active the new active assignment
+	 */
+	@SuppressWarnings( "unchecked" )
+	void switchAssignment( Assignment inactive, Assignment active ) {
+		if( inactive == active )
+			return;
+		if( inactiveAssignmentAreas == null )
+			inactiveAssignmentAreas = new IdentityHashMap<>();
+		if( inactive != null )
+			inactiveAssignmentAreas.put( inactive, assignmentAreas );
+		final ArrayList<AssignmentArea> next = inactiveAssignmentAreas.remove( active );
+		assignmentAreas = next == null ? new ArrayList<AssignmentArea>() : next;
+		areas[0] = (ArrayList<AreaImpl>)(ArrayList<?>)assignmentAreas;
+	}
+
+	/**
+	 * Adds an area of an assignment that is not the current assignment. The area
+	 * becomes visible when the assignment is activated using
+	 * {@link #switchAssignment(de.zet_evakuierung.model.Assignment, de.zet_evakuierung.model.Assignment) }.
+	 * @param assignment the inactive assignment
+	 * @param area the area
+	 */
+	void addInactiveAssignmentArea( Assignment assignment, AssignmentArea area ) {
+		if( inactiveAssignmentAreas == null )
+			inactiveAssignmentAreas = new IdentityHashMap<>();
+		ArrayList<AssignmentArea> list = inactiveAssignmentAreas.get( assignment );
+		if( list == null ) {
+			list = new ArrayList<>();
+			inactiveAssignmentAreas.put( assignment, list );
+		}
+		list.add( area );
+	}
+
+	/**
+	 * Removes the stored areas of an inactive assignment.
+	 * @param assignment the assignment
+	 */
+	void removeInactiveAssignment( Assignment assignment ) {
+		if( inactiveAssignmentAreas != null )
+			inactiveAssignmentAreas.remove( assignment );
+	}
+
 	/**
 	 * Removes the specified area from the applicable area list.
 	 * @param area the area to be removed
@@ -756,6 +864,12 @@ public class RoomImpl extends PlanPolygon<RoomEdge> implements Cloneable, Compar
 		boolean result = true;
 		if( area instanceof AssignmentArea ) {
 			result = assignmentAreas.remove( (AssignmentArea) area );
+			if( !result && inactiveAssignmentAreas != null )
+				for( ArrayList<AssignmentArea> inactive : inactiveAssignmentAreas.values() )
+					if( inactive.remove( (AssignmentArea) area ) ) {
+						result = true;
+						break;
+					}
 		}
 		if( area instanceof Barrier ) {	// needs to be before inaccessible area, do not delete twice.
 			result = barriers.remove( (Barrier) area );						// must be contained!
@@ -781,6 +895,19 @@ public class RoomImpl extends PlanPolygon<RoomEdge> implements Cloneable, Compar
 		if( !result ) {
 			throw new IllegalArgumentException( ZLocalization.loc.getString( "ds.z.Room.NoAreaException" ) );
 		}
+		modified();
+	}
+
+	/**
+	 * {@inheritDoc} The modification stamp of a room also changes if one of its
+	 * areas is added, removed or modified. The stamp is passed on to the floor.
+	 * @param stamp the new stamp
+	 */
+	@Override
+	void modified( long stamp ) {
+		super.modified( stamp );
+		if( associatedFloor != null )
+			associatedFloor.modified( stamp );
 	}
 
 	/**
@@ -0,0 +1,287 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package de.zet_evakuierung.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>A part of a wall that is shared by two rooms, that is the overlap of two
+ * collinear {@link RoomEdge}s of different rooms.</p>
+ * <p>All shared walls of a floor are found in O(E log E) time, where E is the
+ * number of edges on the floor. The edges are sorted by their supporting line
+ * and the position along the line, then the overlapping edges on each line are
+ * found by a sweep.</p>
+ * @author Jan-Philipp Kappmeier
+ */
+public class SharedWall {
+	/** The edge of the first room. */
+	private final RoomEdge first;
+	/** The edge of the second room. */
+	private final RoomEdge second;
+	/** The end points of the common part of the edges. */
+	private final PlanPoint start, end;
+
+	SharedWall( RoomEdge first, RoomEdge second, PlanPoint start, PlanPoint end ) {
+		this.first = first;
+		this.second = second;
+		this.start = start;
+		this.end = end;
+	}
+
+	/**
+	 * Returns the edge of the first room.
+	 * @return the edge of the first room
+	 */
+	public RoomEdge getFirst() {
+		return first;
+	}
+
+	/**
+	 * Returns the edge of the second room.
+	 * @return the edge of the second room
+	 */
+	public RoomEdge getSecond() {
+		return second;
+	}
+
+	/**
+	 * Returns one end point of the shared part. The point is a new instance.
+	 * @return one end point of the shared part
+	 */
+	public PlanPoint getStart() {
+		return new PlanPoint( start );
+	}
+
+	/**
+	 * Returns the other end point of the shared part. The point is a new instance.
+	 * @return the other end point of the shared part
+	 */
+	public PlanPoint getEnd() {
+		return new PlanPoint( end );
+	}
+
+	/**
+	 * Returns the length of the shared part.
+	 * @return the length in millimeters
+	 */
+	public double length() {
+		return start.distance( end );
+	}
+
+	@Override
+	public String toString() {
+		return first.getRoom().getName() + " - " + second.getRoom().getName() + ": " + start + " - " + end;
+	}
+
+	/**
+	 * Finds all shared walls between rooms on a floor. Only overlaps with positive
+	 * length are reported.
+	 * @param floor the floor
+	 * @return the shared walls, ordered by supporting line
+	 */
+	public static List<SharedWall> findAll( FloorInterface floor ) {
+		final ArrayList<Line> lines = new ArrayList<>();
+		for( Room room : floor.getRooms() )
+			for( RoomEdge e : room.getPolygon().getEdges() )
+				if( !e.getSource().matches( e.getTarget() ) )
+					lines.add( new Line( e ) );
+		final Line[] sorted = lines.toArray( new Line[lines.size()] );
+		Arrays.sort( sorted, new Comparator<Line>() {
+			@Override
+			public int compare( Line a, Line b ) {
+				int c = Long.compare( a.dx, b.dx );
+				if( c == 0 )
+					c = Long.compare( a.dy, b.dy );
+				if( c == 0 )
+					c = Long.compare( a.offset, b.offset );
+				return c != 0 ? c : Long.compare( a.from, b.from );
+			}
+		} );
+
+		final List<SharedWall> walls = new ArrayList<>();
+		final ArrayList<Line> active = new ArrayList<>();
+		for( int i = 0; i < sorted.length; ++i ) {
+			final Line current = sorted[i];
+			if( i == 0 || !current.sameLine( sorted[i - 1] ) )
+				active.clear();
+			// Drop the edges ending before the current one starts, compare with the others
+			for( int j = active.size() - 1; j >= 0; --j ) {
+				final Line other = active.get( j );
+				if( other.to <= current.from )
+					active.remove( j );
+				else if( other.edge.getRoom() != current.edge.getRoom() ) {
+					final Line last = other.to < current.to ? other : current;
+					walls.add( new SharedWall( other.edge, current.edge, current.point( current.from ), last.point( last.to ) ) );
+				}
+			}
+			active.add( current );
+		}
+		return walls;
+	}
+
+	/**
+	 * Splits the edges of shared walls such that the shared parts are edges of
+	 * their own, and links these as passable edges. Shared walls of which one of
+	 * the edges is passable already are skipped. No events are sent.
+	 * @param walls the shared walls, see {@link #findAll(FloorInterface)}
+	 * @param affectedRooms the set to which the changed rooms are added
+	 * @param history the history in which the changes are recorded
+	 * @return the number of created doors
+	 */
+	static int link( List<SharedWall> walls, Set<Room> affectedRooms, EditLog history ) {
+		// Collect the points at which each edge must be split
+		final Map<RoomEdge, List<PlanPoint>> splits = new IdentityHashMap<>();
+		final List<SharedWall> linked = new ArrayList<>();
+		final List<Room> rooms = new ArrayList<>();
+		for( SharedWall wall : walls )
+			if( !wall.first.isPassable() && !wall.second.isPassable() ) {
+				linked.add( wall );
+				rooms.add( wall.first.getRoom() );
+				rooms.add( wall.second.getRoom() );
+				for( RoomEdge e : new RoomEdge[]{wall.first, wall.second} ) {
+					List<PlanPoint> points = splits.get( e );
+					if( points == null ) {
+						points = new ArrayList<>();
+						splits.put( e, points );
+					}
+					points.add( wall.start );
+					points.add( wall.end );
+				}
+			}
+
+		for( Map.Entry<RoomEdge, List<PlanPoint>> entry : splits.entrySet() ) {
+			final RoomEdge e = entry.getKey();
+			final PlanPoint source = e.getSource();
+			final PlanPoint target = e.getTarget();
+			final List<PlanPoint> inner = entry.getValue();
+			Collections.sort( inner, new Comparator<PlanPoint>() {
+				@Override
+				public int compare( PlanPoint a, PlanPoint b ) {
+					return Double.compare( source.distanceSq( a ), source.distanceSq( b ) );
+				}
+			} );
+			final List<PlanPoint> points = new ArrayList<>( inner.size() + 2 );
+			points.add( source );
+			for( PlanPoint p : inner )
+				if( !p.matches( source ) && !p.matches( target ) && !p.matches( points.get( points.size() - 1 ) ) )
+					points.add( new PlanPoint( p ) );
+			points.add( target );
+			if( points.size() > 2 )
+				split( e.getRoom().getPolygon(), e, points, history );
+		}
+
+		// Link the new edges on the shared parts, the old edges are deleted now
+		int doors = 0;
+		for( int i = 0; i < linked.size(); ++i ) {
+			final SharedWall wall = linked.get( i );
+			final Room r1 = rooms.get( 2 * i );
+			final Room r2 = rooms.get( 2 * i + 1 );
+			final RoomEdge e1 = r1.getPolygon().getEdge( wall.start, wall.end );
+			final RoomEdge e2 = r2.getPolygon().getEdge( wall.start, wall.end );
+			if( e1.isPassable() || e2.isPassable() )
+				continue;
+			history.setLinkTarget( e1, e2 );
+			history.setLinkTarget( e2, e1 );
+			affectedRooms.add( r1 );
+			affectedRooms.add( r2 );
+			doors++;
+		}
+		return doors;
+	}
+
+	/**
+	 * Replaces an edge of a room by a chain of edges. The type of the edges of
+	 * the polygon is captured, the edge is checked to have this type.
+	 * @param <T> the type of the edges of the polygon
+	 * @param polygon the polygon of the room
+	 * @param edge the edge
+	 * @param points the points of the chain
+	 * @param history the history in which the change is recorded
+	 */
+	private static <T extends RoomEdge> void split( PlanPolygon<T> polygon, RoomEdge edge, List<PlanPoint> points, EditLog history ) {
+		history.replaceEdge( polygon, polygon.edgeOf( edge ), points );
+	}
+
+	/**
+	 * An edge with its supporting line. The line is given by the reduced
+	 * direction and the offset, the position of the end points along the line by
+	 * the projections on the direction.
+	 */
+	static class Line {
+		final RoomEdge edge;
+		final long dx, dy, offset, from, to;
+
+		Line( RoomEdge edge ) {
+			this.edge = edge;
+			long x = edge.getTarget().getXInt() - (long)edge.getSource().getXInt();
+			long y = edge.getTarget().getYInt() - (long)edge.getSource().getYInt();
+			final long gcd = gcd( Math.abs( x ), Math.abs( y ) );
+			x /= gcd;
+			y /= gcd;
+			if( x < 0 || x == 0 && y < 0 ) {
+				x = -x;
+				y = -y;
+			}
+			dx = x;
+			dy = y;
+			offset = dx * edge.getSource().getYInt() - dy * edge.getSource().getXInt();
+			final long t1 = project( edge.getSource() );
+			final long t2 = project( edge.getTarget() );
+			from = Math.min( t1, t2 );
+			to = Math.max( t1, t2 );
+		}
+
+		private long project( PlanPoint p ) {
+			return dx * p.getXInt() + dy * p.getYInt();
+		}
+
+		boolean sameLine( Line other ) {
+			return dx == other.dx && dy == other.dy && offset == other.offset;
+		}
+
+		/**
+		 * Returns a hash value of the supporting line. Edges on the same line have
+		 * the same hash value.
+		 */
+		long lineHash() {
+			return 31 * (31 * dx + dy) + offset;
+		}
+
+		/**
+		 * Returns the end point of the edge with the given projection.
+		 */
+		PlanPoint point( long t ) {
+			return project( edge.getSource() ) == t ? edge.getSource() : edge.getTarget();
+		}
+
+		private static long gcd( long a, long b ) {
+			while( b != 0 ) {
+				final long t = a % b;
+				a = b;
+				b = t;
+			}
+			return a;
+		}
+	}
+}
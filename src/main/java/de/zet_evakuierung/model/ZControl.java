@@ -30,11 +30,22 @@ import de.zet_evakuierung.model.exception.UnknownZModelError;
 import event.EventServer;
 import java.awt.Rectangle;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 import javax.swing.JOptionPane;
 import org.zetool.common.debug.Debug;
@@ -46,11 +57,37 @@ import org.zetool.common.debug.Debug;
  * model description.
  *
  * Thus, no action-changed methods inside the model should be needed.
+ *
+ * Several modifications can be combined to a transaction, see {@link #begin()}.
  * @author Jan-Philipp Kappmeier
  */
 public class ZControl {
 	/** The project that is root of the controlled model. */
 	private Project project;
+	/** Guards the model against reads during modifications. */
+	private final ModelLock lock = new ModelLock();
+	/** The modifications that can be undone. */
+	private final EditLog history = new EditLog();
+	/** The nesting depth of transactions. */
+	private int transactions;
+	/** The polygons whose bounds are recomputed at the end of the transaction. */
+	private final Set<PlanPolygon<?>> touched = Collections.newSetFromMap( new IdentityHashMap<PlanPolygon<?>, Boolean>() );
+	/** The rooms changed during the transaction. */
+	private final HashSet<Room> pendingRooms = new HashSet<>();
+	/** The area events of the transaction, sent separately to keep their areas. */
+	private final ArrayList<ZModelAreaEvent> pendingAreaEvents = new ArrayList<>();
+	/** Whether the model has been changed during the transaction without affecting specific rooms. */
+	private boolean pendingChange;
+	/** Delivers the events asynchronously, {@code null} if they are sent on the editing thread. */
+	private ModelEventDispatcher dispatcher;
+	/** The journal of the modifications since the last full save, {@code null} if journaling is disabled. */
+	private EditJournal journal;
+	/** Saves the project in the background, created on demand. */
+	private ThreadPoolExecutor saver;
+	/** The number of saves started so far, orders the saves of project files. */
+	private long saveGeneration;
+	/** The generation of the latest save written to each project file. Writing a project file synchronizes on this map. */
+	private final HashMap<File, Long> savedGenerations = new HashMap<>();
 
 	public ZControl() {
 		newProject();
@@ -89,6 +126,424 @@ public class ZControl {
 		return project;
 	}
 
+	/**
+	 * Returns the lock that is held while the model is modified. Threads other
+	 * than the editing thread have to read the model using the lock.
+	 * @return the lock guarding the model
+	 */
+	public ModelLock getLock() {
+		return lock;
+	}
+
+	/**
+	 * Returns the history of the modifications of the building plan.
+	 * @return the history
+	 */
+	public EditLog getHistory() {
+		return history;
+	}
+
+	/**
+	 * Returns the journal of the modifications since the last full save.
+	 * @return the journal, {@code null} if journaling is disabled
+	 */
+	public EditJournal getJournal() {
+		return journal;
+	}
+
+	/**
+	 * Enables or disables journaling. If enabled, {@link #save()} appends the
+	 * modifications since the previous save to an {@link EditJournal} instead of
+	 * writing the whole project, whenever possible. If the project has been
+	 * loaded from a file, the journal of the file is continued.
+	 * @param enabled whether journaling is enabled
+	 */
+	public void setJournaling( boolean enabled ) {
+		lock.lockWrite();
+		try {
+			if( !enabled ) {
+				journal = null;
+				history.setJournal( null );
+			} else if( journal == null )
+				resetJournal();
+		} finally {
+			lock.unlockWrite();
+		}
+	}
+
+	private void resetJournal() {
+		journal = new EditJournal( project.getBuildingPlan() );
+		history.setJournal( journal );
+		if( project.getProjectFile() != null )
+			journal.attach( project.getProjectFile() );
+	}
+
+	/**
+	 * Saves the project to its project file.
+	 * @throws IOException if the project cannot be written
+	 * @throws IllegalStateException if the project has no file
+	 * @see #save(File)
+	 */
+	public void save() throws IOException, IllegalStateException {
+		final File file = project.getProjectFile();
+		if( file == null )
+			throw new IllegalStateException( "The project has no file." );
+		save( file );
+	}
+
+	/**
+	 * Saves the project to a file. If journaling is enabled, only the
+	 * modifications since the previous save are appended to the journal of the
+	 * file, unless the whole project has to be written.
+	 * @param file the project file
+	 * @throws IOException if the project cannot be written
+	 */
+	public void save( File file ) throws IOException {
+		lock.lockWrite();
+		try {
+			final long generation = ++saveGeneration;
+			synchronized( savedGenerations ) {
+				if( journal == null )
+					ProjectLoader.save( project, file );
+				else
+					journal.save( project, file );
+				savedGenerations.put( file.getAbsoluteFile(), generation );
+			}
+		} finally {
+			lock.unlockWrite();
+		}
+	}
+
+	/**
+	 * Saves the project to its project file in the background.
+	 * @return a future that is completed with the file after it has been saved, or
+	 * with the error if saving failed
+	 * @throws IllegalStateException if the project has no file
+	 * @see #saveAsync(File)
+	 */
+	public CompletableFuture<File> saveAsync() throws IllegalStateException {
+		final File file = project.getProjectFile();
+		if( file == null )
+			throw new IllegalStateException( "The project has no file." );
+		return saveAsync( file );
+	}
+
+	/**
+	 * <p>Saves the project to a file in the background. The project is written to
+	 * a temporary file next to the file on a separate thread, which then replaces
+	 * the file atomically. Thus, the file is never partially written. Saves are
+	 * performed in the order of the calls.</p>
+	 * <p>The project is converted in memory while holding the read lock, thus
+	 * modifications wait only for the conversion and not for the file system.
+	 * If the file has been saved by a later call of {@link #save(File)} before
+	 * the background save is complete, the file is not replaced, as it already
+	 * contains a newer state. If journaling is enabled, the next call of
+	 * {@link #save(File)} writes the whole project.</p>
+	 * @param file the project file
+	 * @return a future that is completed with the file after it has been saved, or
+	 * with the error if saving failed
+	 */
+	public CompletableFuture<File> saveAsync( final File file ) {
+		final Project saved;
+		final long generation;
+		lock.lockWrite();
+		try {
+			generation = ++saveGeneration;
+			saved = project;
+			saved.setProjectFile( file );
+			unjournaled();
+			if( saver == null ) {
+				saver = new ThreadPoolExecutor( 1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					@Override
+					public Thread newThread( Runnable r ) {
+						return new Thread( r, "Project saver" );
+					}
+				} );
+				saver.allowCoreThreadTimeOut( true );
+			}
+		} finally {
+			lock.unlockWrite();
+		}
+		final CompletableFuture<File> result = new CompletableFuture<>();
+		saver.execute( new Runnable() {
+			@Override
+			public void run() {
+				try {
+					writeAndReplace( saved, file, generation );
+					result.complete( file );
+				} catch( Throwable ex ) {
+					result.completeExceptionally( ex );
+				}
+			}
+		} );
+		return result;
+	}
+
+	/**
+	 * Writes a project to a temporary file and replaces the project file, unless
+	 * a later save has already written the file.
+	 */
+	private void writeAndReplace( final Project saved, final File file, long generation ) throws IOException {
+		final byte[] xml = lock.read( new ModelLock.Reader<byte[]>() {
+			@Override
+			public byte[] read() {
+				return ProjectLoader.toXML( saved );
+			}
+		} );
+		final File temporary = Files.createTempFile( file.getAbsoluteFile().getParentFile().toPath(), file.getName(), ".tmp" ).toFile();
+		try {
+			ProjectLoader.write( xml, file, temporary );
+			synchronized( savedGenerations ) {
+				final Long latest = savedGenerations.get( file.getAbsoluteFile() );
+				if( latest == null || latest < generation ) {
+					ProjectLoader.replace( temporary, file );
+					savedGenerations.put( file.getAbsoluteFile(), generation );
+				}
+			}
+		} finally {
+			temporary.delete();
+		}
+	}
+
+	/**
+	 * Returns the dispatcher delivering the model events asynchronously.
+	 * @return the dispatcher, {@code null} if events are sent on the editing thread
+	 */
+	public ModelEventDispatcher getEventDispatcher() {
+		return dispatcher;
+	}
+
+	/**
+	 * Sets a dispatcher that delivers the model events asynchronously. Listeners
+	 * are then called on the thread of the dispatcher and have to read the model
+	 * using the {@link #getLock() lock}. The previous dispatcher is not shut down.
+	 * @param dispatcher the dispatcher, {@code null} to send the events on the editing thread
+	 */
+	public void setEventDispatcher( ModelEventDispatcher dispatcher ) {
+		lock.lockWrite();
+		try {
+			this.dispatcher = dispatcher;
+		} finally {
+			lock.unlockWrite();
+		}
+	}
+
+	/**
+	 * Reverts the latest modification of the building plan. An event is sent for
+	 * the changed rooms.
+	 * @return {@code true} if a modification has been reverted, {@code false} if
+	 * there is nothing to undo
+	 * @throws IllegalStateException if called during a transaction
+	 */
+	public boolean undo() throws IllegalStateException {
+		lock.lockWrite();
+		try {
+			if( !history.canUndo() )
+				return false;
+			fire( history.undo() );
+			return true;
+		} finally {
+			lock.unlockWrite();
+		}
+	}
+
+	/**
+	 * Performs the latest reverted modification of the building plan again. An
+	 * event is sent for the changed rooms.
+	 * @return {@code true} if a modification has been performed, {@code false} if
+	 * there is nothing to redo
+	 * @throws IllegalStateException if called during a transaction
+	 */
+	public boolean redo() throws IllegalStateException {
+		lock.lockWrite();
+		try {
+			if( !history.canRedo() )
+				return false;
+			fire( history.redo() );
+			return true;
+		} finally {
+			lock.unlockWrite();
+		}
+	}
+
+	/**
+	 * <p>Starts a transaction. All modifications until the matching call of
+	 * {@link #commit()} are performed while holding the write lock and form a
+	 * single step in the history. The bounds of polygons with moved points are
+	 * recomputed once when they are read during the transaction or at its end,
+	 * and a single event for all changed rooms is sent at the end.</p>
+	 * <p>Transactions may be nested, only the outermost transaction defers the
+	 * updates. Each call has to be followed by a call of {@link #commit()} or
+	 * {@link #rollback()} in the same thread.</p>
+	 */
+	public void begin() {
+		lock.lockWrite();
+		history.begin();
+		transactions++;
+	}
+
+	/**
+	 * Ends a transaction. If the outermost transaction is ended, the bounds of
+	 * changed polygons are recomputed and one event is sent.
+	 * @throws IllegalStateException if the current thread has not started a transaction
+	 */
+	public void commit() throws IllegalStateException {
+		if( transactions == 0 || !lock.isWriteLockedByCurrentThread() )
+			throw new IllegalStateException( "No transaction started." );
+		try {
+			if( --transactions == 0 ) {
+				recomputeTouchedBounds();
+				firePending();
+			}
+		} finally {
+			history.end();
+			lock.unlockWrite();
+		}
+	}
+
+	/**
+	 * Ends the outermost transaction and reverts all modifications performed
+	 * during the transaction. No event is sent, as the model is unchanged. If a
+	 * modification cannot be reverted, see {@link EditLog}, the transaction is
+	 * committed instead.
+	 * @throws IllegalStateException if the current thread has not started a
+	 * transaction, if a nested transaction is started, or if the modifications
+	 * cannot be reverted
+	 */
+	public void rollback() throws IllegalStateException {
+		if( transactions != 1 || !lock.isWriteLockedByCurrentThread() )
+			throw new IllegalStateException( "No outermost transaction started." );
+		transactions = 0;
+		try {
+			history.rollback();
+			pendingRooms.clear();
+			pendingAreaEvents.clear();
+			pendingChange = false;
+		} finally {
+			recomputeTouchedBounds();
+			firePending();
+			lock.unlockWrite();
+		}
+	}
+
+	/**
+	 * Ends the transaction of an operation that failed and reverts the
+	 * modifications of the operation. An enclosing transaction stays open. If
+	 * the modifications cannot be reverted, the exception is added to the cause
+	 * as suppressed exception.
+	 * @param cause the exception thrown by the operation
+	 */
+	private void abort( Throwable cause ) {
+		if( transactions == 1 ) {
+			try {
+				rollback();
+			} catch( IllegalStateException ex ) {
+				cause.addSuppressed( ex );
+			}
+			return;
+		}
+		transactions--;
+		try {
+			history.rollback();
+		} catch( IllegalStateException ex ) {
+			cause.addSuppressed( ex );
+		} finally {
+			lock.unlockWrite();
+		}
+	}
+
+	/**
+	 * Decides whether the current thread performs a transaction.
+	 * @return {@code true} if the current thread has started a transaction
+	 */
+	public boolean inTransaction() {
+		return transactions > 0 && lock.isWriteLockedByCurrentThread();
+	}
+
+	/**
+	 * Marks the bounds of a polygon as changed. The bounds are recomputed
+	 * immediately, or when they are read or at the end of the transaction.
+	 */
+	private void boundsChanged( PlanPolygon<?> polygon ) {
+		polygon.invalidateBounds();
+		touched.add( polygon );
+		if( transactions == 0 )
+			recomputeTouchedBounds();
+	}
+
+	/**
+	 * Marks a modification that is not recorded in the journal. The next save
+	 * writes the whole project.
+	 */
+	private void unjournaled() {
+		if( journal != null )
+			journal.invalidate();
+	}
+
+	private void recomputeTouchedBounds() {
+		for( PlanPolygon<?> polygon : touched )
+			polygon.recomputeBounds();
+		touched.clear();
+	}
+
+	/**
+	 * Sends an event or collects its rooms until the end of the transaction.
+	 */
+	private void fire( ZModelChangedEvent event ) {
+		if( transactions == 0 )
+			dispatch( event );
+		else if( event instanceof ZModelAreaEvent )
+			pendingAreaEvents.add( (ZModelAreaEvent)event );
+		else if( event instanceof ZModelRoomEvent )
+			pendingRooms.addAll( ((ZModelRoomEvent)event).getAffectedRooms() );
+		else
+			pendingChange = true;
+	}
+
+	private void fire( Set<Room> affectedRooms ) {
+		if( affectedRooms.isEmpty() )
+			fire( new ZModelChangedEvent() {} );
+		else
+			fire( new ZModelRoomEvent( affectedRooms ) );
+	}
+
+	/**
+	 * Sends one event for the changes collected during the transaction and the
+	 * area events of the transaction.
+	 */
+	private void firePending() {
+		if( !pendingRooms.isEmpty() )
+			dispatch( new ZModelRoomEvent( new ArrayList<>( pendingRooms ) ) );
+		else if( pendingChange )
+			dispatch( new ZModelChangedEvent() {} );
+		for( ZModelAreaEvent event : pendingAreaEvents )
+			dispatch( event );
+		pendingRooms.clear();
+		pendingAreaEvents.clear();
+		pendingChange = false;
+	}
+
+	private void dispatch( ZModelChangedEvent event ) {
+		if( dispatcher == null )
+			EventServer.getInstance().dispatchEvent( event );
+		else
+			dispatcher.post( event );
+	}
+
+	/**
+	 * Creates an immutable snapshot of the building plan. The snapshot is created
+	 * while holding the read lock, so it may be called from any thread.
+	 * @return the snapshot of the building plan
+	 */
+	public FrozenBuildingPlan freeze() {
+		return lock.read( new ModelLock.Reader<FrozenBuildingPlan>() {
+			@Override
+			public FrozenBuildingPlan read() {
+				return project.getBuildingPlan().freeze();
+			}
+		} );
+	}
+
 	public void loadProject( String projectFile ) {
 		loadProject( new File( projectFile ) );
 	}
@@ -99,10 +554,22 @@ public class ZControl {
 	 * @return returns true, if the project loaded correctly
 	 */
 	final public boolean loadProject( File projectFile ) {
+		lock.lockWrite();
+		try {
+			return loadProjectLocked( projectFile );
+		} finally {
+			lock.unlockWrite();
+		}
+	}
+
+	private boolean loadProjectLocked( File projectFile ) {
 		try {
 			//p = Project.load( projectFile );
 			project = ProjectLoader.load( projectFile );
 			project.setProjectFile( projectFile );
+			history.clear();
+			if( journal != null )
+				resetJournal();
 			// Update the graphical user interface
 			//ZETMain.sendMessage( loc.getString( "gui.editor.JEditor.message.loaded" ) );	// TODO output changed, use listener
 		} catch( Exception ex ) {
@@ -124,7 +591,19 @@ public class ZControl {
 	 * @return the newly created project
 	 */
 	final public Project newProject() {
+		lock.lockWrite();
+		try {
+			return newProjectLocked();
+		} finally {
+			lock.unlockWrite();
+		}
+	}
+
+	private Project newProjectLocked() {
 		project = new Project();
+		history.clear();
+		if( journal != null )
+			resetJournal();
 		Floor fl = new Floor( ZLocalization.loc.getString( "ds.z.DefaultName.Floor" ) + " 1" );
 		fl.setMinimumSize( 0, 0, 10000, 8000 );
 		project.getBuildingPlan().addFloor( fl );
@@ -167,13 +646,39 @@ public class ZControl {
 	}
 
 	public boolean deleteFloor( FloorInterface currentFloor ) {
+		lock.lockWrite();
+		history.begin();
+		try {
+			return deleteFloorLocked( currentFloor );
+		} finally {
+			history.end();
+			lock.unlockWrite();
+		}
+	}
+
+	private boolean deleteFloorLocked( FloorInterface currentFloor ) {
 		if( currentFloor instanceof DefaultEvacuationFloor )
 			return false;
-		getProject().getBuildingPlan().removeFloor( currentFloor );
+		history.delete( project, currentFloor );
+		if( project.getBuildingPlan().floorCount() == 1 ) {
+			// The plan always contains a floor besides the default floor
+			final Floor f = new Floor( ZLocalization.loc.getString( "ds.z.DefaultName.Floor" ) + " " + 1 );
+			project.getBuildingPlan().addFloor( f );
+			history.created( project, f );
+		}
 		return true;
 	}
 
 	public void deletePolygon( PlanPolygon p ) {
+		lock.lockWrite();
+		try {
+			deletePolygonLocked( p );
+		} finally {
+			lock.unlockWrite();
+		}
+	}
+
+	private void deletePolygonLocked( PlanPolygon p ) {
 		if( p instanceof Area )
 			delete( (Area)p );
 		else if( p instanceof Room )
@@ -183,20 +688,31 @@ public class ZControl {
 	}
 
 	public void deletePolygon( Room r ) {
-		((RoomImpl)r).delete();
+		lock.lockWrite();
+		try {
+			deletePolygonLocked( r );
+		} finally {
+			lock.unlockWrite();
+		}
+	}
+
+	private void deletePolygonLocked( Room r ) {
+		history.delete( project, r );
 	}
 
 	// Delete Stuff
 	public void delete( Area area ) {
-		if( area instanceof EvacuationArea ) {
-			for( Assignment a : project.getAssignments() )
-				for( AssignmentType t : a.getAssignmentTypes() )
-					for( AssignmentArea aa : t.getAssignmentAreas() )
-						if( aa.getExitArea() != null && aa.getExitArea().equals( (EvacuationArea)area ) )
-							aa.setExitArea( null );
-			((AreaImpl)area).delete();
-		} else
-			((AreaImpl)area).delete();
+		lock.lockWrite();
+		try {
+			deleteLocked( area );
+		} finally {
+			lock.unlockWrite();
+		}
+	}
+
+	private void deleteLocked( Area area ) {
+		// Removes the references of assignment areas to evacuation areas, too
+		history.delete( project, area );
 	}
 
 	PlanPolygon newPolygon = null;
@@ -220,6 +736,15 @@ public class ZControl {
 	 * @throws IllegalArgumentException if object creation is already started or an invalid class was submitted
 	 */
 	   public void createNewPolygon(Class<?> polygonClass, Object parent) throws AssignmentException, IllegalArgumentException {
+        lock.lockWrite();
+        try {
+            createNewPolygonLocked(polygonClass, parent);
+        } finally {
+            lock.unlockWrite();
+        }
+    }
+
+	   private void createNewPolygonLocked(Class<?> polygonClass, Object parent) throws AssignmentException, IllegalArgumentException {
         if (newPolygon != null) {
             throw new IllegalArgumentException("Creation already started.");
         }
@@ -262,6 +787,15 @@ public class ZControl {
     }
 
 	public boolean addPoints( List<PlanPoint> points ) {
+		lock.lockWrite();
+		try {
+			return addPointsLocked( points );
+		} finally {
+			lock.unlockWrite();
+		}
+	}
+
+	private boolean addPointsLocked( List<PlanPoint> points ) {
 		if( newPolygon == null )
 			throw new IllegalStateException( "No polygon creation started." );
 
@@ -279,6 +813,15 @@ public class ZControl {
 	private static PlanPoint temp = null;
 
 	public boolean addPoint( PlanPoint point ) {
+		lock.lockWrite();
+		try {
+			return addPointLocked( point );
+		} finally {
+			lock.unlockWrite();
+		}
+	}
+
+	private boolean addPointLocked( PlanPoint point ) {
 		return addPoint( point, true );
 	}
 
@@ -298,6 +841,7 @@ public class ZControl {
 		if( newPolygon.isClosed() ) {
 			if( newPolygon instanceof AssignmentArea )
 				((AssignmentArea)newPolygon).setEvacuees( Math.min( newPolygon.getMaxEvacuees(), ((AssignmentArea)newPolygon).getAssignmentType().getDefaultEvacuees() ) );
+			history.created( project, newPolygon );
 			if( sendEvent )
 				throwEvent();
 			newPolygon = null;
@@ -311,12 +855,21 @@ public class ZControl {
 
 	private void throwEvent() {
 		if( newPolygon instanceof Area ) {
-			EventServer.getInstance().dispatchEvent( new ZModelAreaEvent( ((AreaImpl)newPolygon).getAssociatedRoom(), (AreaImpl)newPolygon ) );
+			fire( new ZModelAreaEvent( ((AreaImpl)newPolygon).getAssociatedRoom(), (AreaImpl)newPolygon ) );
 		} else
-			EventServer.getInstance().dispatchEvent( new ZModelRoomEvent( new LinkedList<Room>(){{ add((Room)newPolygon); }} ) );
+			fire( new ZModelRoomEvent( new LinkedList<Room>(){{ add((Room)newPolygon); }} ) );
 	}
 
 	public PlanPolygon<?> closePolygon() {
+		lock.lockWrite();
+		try {
+			return closePolygonLocked();
+		} finally {
+			lock.unlockWrite();
+		}
+	}
+
+	private PlanPolygon<?> closePolygonLocked() {
 		if( newPolygon.isClosed() )
 			throw new IllegalStateException( "Polygon closed." );
 
@@ -327,6 +880,7 @@ public class ZControl {
 				throw new IllegalStateException( "Area zero" );
 			else if( newPolygon.getNumberOfEdges() >= ((newPolygon instanceof Barrier) ? 1 : 2) ) { // The new edge would be the third
 				newPolygon.close();
+				history.created( project, newPolygon );
 				throwEvent();
 				newPolygon = null;
 				temp = null;
@@ -356,8 +910,18 @@ public class ZControl {
 	 * @return the newly created floor
 	 */
 	public Floor createFloor( String name ) {
+		lock.lockWrite();
+		try {
+			return createFloorLocked( name );
+		} finally {
+			lock.unlockWrite();
+		}
+	}
+
+	private Floor createFloorLocked( String name ) {
 		final Floor f = new Floor( name );
 		project.getBuildingPlan().addFloor( f );
+		history.created( project, f );
 		return f;
 	}
 
@@ -371,7 +935,7 @@ public class ZControl {
 					translateAndHash( e.getLinkTarget().getTarget(), x, y );
 				else
 					throw new AssertionError( "Two passable edges have no matching points!" );
-				e.getLinkTarget().getAssociatedPolygon().recomputeBounds();
+				boundsChanged( e.getLinkTarget().getAssociatedPolygon() );
 			}
 		}
 	}
@@ -410,6 +974,17 @@ public class ZControl {
 	 * @param target
 	 */
 	public void moveAreas( List<Area> areas, int x, int y, Room target ) {
+		begin();
+		try {
+			moveAreasLocked( areas, x, y, target );
+		} catch( RuntimeException | Error ex ) {
+			abort( ex );
+			throw ex;
+		}
+		commit();
+	}
+
+	private void moveAreasLocked( List<Area> areas, int x, int y, Room target ) {
 		// check first,
 		for( Area a : areas ) {
 			for( PlanPoint p : ((AreaImpl)a).getPlanPoints() ) {
@@ -426,45 +1001,60 @@ public class ZControl {
 
 		movePoints( draggedPlanPoints, x, y );
 		for( Area a : areas)
-			((AreaImpl)a).setAssociatedRoom( (RoomImpl)target );
+			history.setAssociatedRoom( (AreaImpl)a, (RoomImpl)target );
 
 		HashSet<Room> affectedRooms = new HashSet<>();
 		affectedRooms.add( target );
 
 		ZModelRoomEvent zmr = new ZModelRoomEvent( affectedRooms );
-		EventServer.getInstance().dispatchEvent( zmr );
+		fire( zmr );
 	}
 
 	public void movePoints( List<? extends PlanPoint> points, int x, int y ) {
+		begin();
+		try {
+			movePointsLocked( points, x, y );
+		} catch( RuntimeException | Error ex ) {
+			abort( ex );
+			throw ex;
+		}
+		commit();
+	}
+
+	private void movePointsLocked( List<? extends PlanPoint> points, int x, int y ) {
 		Iterator<? extends PlanPoint> itPP = points.iterator();
 
 		HashSet<Room> affectedRooms = new HashSet<>();
 		PlanPoint planPoint;
-		while( itPP.hasNext() && itPP.hasNext() ) {
-			// The drag targets are already rasterized, if neccessary
-			planPoint = itPP.next();
-
-			translatePoint( planPoint.getNextEdge(), planPoint, x, y );
-			translatePoint( planPoint.getPreviousEdge(), planPoint, x, y );
-
-			translateAndHash( planPoint, x, y);
-
-			// Keep track of the areas that we move
-			PlanPolygon<?> currentPolygon = planPoint.getNextEdge() != null ? planPoint.getNextEdge().getAssociatedPolygon() : planPoint.getPreviousEdge() != null ? planPoint.getPreviousEdge().getAssociatedPolygon() : null;
-			currentPolygon.recomputeBounds();
-
-			// save the affected rooms for the update
-			if( currentPolygon instanceof Room ) {
-				affectedRooms.add( (Room)currentPolygon );
-			} else if( currentPolygon instanceof Area ) {
-				affectedRooms.add( ((AreaImpl)currentPolygon).getAssociatedRoom() );
-			} else
-				throw new AssertionError( "Not supported type of PlanPolygon. Only 'Room' and 'Area<?>' are supported. Was: " + currentPolygon.getClass() );
+		try {
+			while( itPP.hasNext() && itPP.hasNext() ) {
+				// The drag targets are already rasterized, if neccessary
+				planPoint = itPP.next();
+
+				translatePoint( planPoint.getNextEdge(), planPoint, x, y );
+				translatePoint( planPoint.getPreviousEdge(), planPoint, x, y );
+
+				translateAndHash( planPoint, x, y);
+
+				// Keep track of the areas that we move
+				PlanPolygon<?> currentPolygon = planPoint.getNextEdge() != null ? planPoint.getNextEdge().getAssociatedPolygon() : planPoint.getPreviousEdge() != null ? planPoint.getPreviousEdge().getAssociatedPolygon() : null;
+				boundsChanged( currentPolygon );
+
+				// save the affected rooms for the update
+				if( currentPolygon instanceof Room ) {
+					affectedRooms.add( (Room)currentPolygon );
+				} else if( currentPolygon instanceof Area ) {
+					affectedRooms.add( ((AreaImpl)currentPolygon).getAssociatedRoom() );
+				} else
+					throw new AssertionError( "Not supported type of PlanPolygon. Only 'Room' and 'Area<?>' are supported. Was: " + currentPolygon.getClass() );
+			}
+		} finally {
+			// Points moved before a failure are recorded, too, such that they are reverted
+			history.moved( moved, x, y );
+			moved.clear();
 		}
-
-		moved.clear();
 		ZModelRoomEvent zmr = new ZModelRoomEvent( affectedRooms );
-		EventServer.getInstance().dispatchEvent( zmr );
+		fire( zmr );
 	}
 
 	/**
@@ -476,6 +1066,15 @@ public class ZControl {
 	 * @param f the floor that is copied
 	 */
 	public void copyFloor( Floor f ) {
+		lock.lockWrite();
+		try {
+			copyFloorLocked( f );
+		} finally {
+			lock.unlockWrite();
+		}
+	}
+
+	private void copyFloorLocked( Floor f ) {
 		Floor fc = null;
 		try {
 			 fc = f.clone();
@@ -500,44 +1099,115 @@ public class ZControl {
 			number = Integer.parseInt( f.getName().substring( f.getName().length()-2, f.getName().length()-0 ) ) + 1;
 			newName = f.getName().substring( 0, f.getName().length()-2 );
 		}
+		boolean added;
 		do {
 			fc.setName( newName + Formatter.fillLeadingZeros( number++, 2 ) );
-		} while( !project.getBuildingPlan().addFloor( fc ) && number <= 99 );
+			added = project.getBuildingPlan().addFloor( fc );
+		} while( !added && number <= 99 );
+		if( added )
+			history.created( project, fc );
 	}
 
 	public void moveFloorUp(FloorInterface floor ) {
+		lock.lockWrite();
+		try {
+			moveFloorUpLocked(floor);
+		} finally {
+			lock.unlockWrite();
+		}
+	}
+
+	private void moveFloorUpLocked(FloorInterface floor ) {
             if (project.getBuildingPlan().canMoveDown(floor)) {
-		project.getBuildingPlan().moveFloorUp( floor );
+		history.moveFloor( project.getBuildingPlan(), floor, true );
             } else {
                 System.out.println("Could not move floor up!");
             }
 	}
 
 	public void moveFloorDown( FloorInterface floor ) {
+		lock.lockWrite();
+		try {
+			moveFloorDownLocked( floor );
+		} finally {
+			lock.unlockWrite();
+		}
+	}
+
+	private void moveFloorDownLocked( FloorInterface floor ) {
             if(project.getBuildingPlan().canMoveDown(floor) ) {
-                project.getBuildingPlan().moveFloorDown(floor);
+                history.moveFloor( project.getBuildingPlan(), floor, false );
             } else {
                 System.out.println("Floor is bottom!");
             }
 	}
 
 	public void deletePoint( PlanPolygon poly, PlanPoint currentPoint ) {
-		PlanEdge currentEdge = currentPoint.getNextEdge();
-		poly.combineEdges( currentEdge, currentPoint.getOtherEdge( currentEdge ), true );
-		EventServer.getInstance().dispatchEvent( new ZModelChangedEvent() {} );
+		lock.lockWrite();
+		history.begin();
+		try {
+			deletePointLocked( poly, currentPoint );
+		} finally {
+			history.end();
+			lock.unlockWrite();
+		}
+	}
+
+	private void deletePointLocked( PlanPolygon poly, PlanPoint currentPoint ) {
+		history.combineEdges( poly, currentPoint, true );
+		fire( new ZModelChangedEvent() {} );
 	}
 
 	public ArrayList<PlanEdge> insertPoint( PlanEdge onEdge, PlanPoint newPoint ) {
+		lock.lockWrite();
+		history.begin();
+		try {
+			return insertPointLocked( onEdge, newPoint );
+		} finally {
+			history.end();
+			lock.unlockWrite();
+		}
+	}
+
+	private ArrayList<PlanEdge> insertPointLocked( PlanEdge onEdge, PlanPoint newPoint ) {
 		// Replace the old edge
 		ArrayList<PlanPoint> pointList = new ArrayList<>( 3 );
 		pointList.add( onEdge.getSource() );
 		pointList.add( newPoint );
 		pointList.add( onEdge.getTarget() );
-		ArrayList<PlanEdge> ret = onEdge.getAssociatedPolygon().replaceEdge( onEdge, pointList );
-		EventServer.getInstance().dispatchEvent( new ZModelChangedEvent() {} );
+		ArrayList<PlanEdge> ret = history.replaceEdge( (PlanPolygon<PlanEdge>)onEdge.getAssociatedPolygon(), onEdge, pointList );
+		fire( new ZModelChangedEvent() {} );
 		return ret;
 	}
 
+	/**
+	 * Finds all walls that are shared by two rooms of a floor and turns the
+	 * shared parts into passable edges. The edges are split where necessary. Walls
+	 * that are already passable are not changed. Only one event is sent for all
+	 * changed rooms.
+	 * @param floor the floor
+	 * @return the number of created doors
+	 * @see SharedWall#findAll(FloorInterface)
+	 */
+	public int linkSharedWalls( FloorInterface floor ) {
+		lock.lockWrite();
+		history.begin();
+		try {
+			return linkSharedWallsLocked( floor );
+		} finally {
+			history.end();
+			lock.unlockWrite();
+		}
+	}
+
+	private int linkSharedWallsLocked( FloorInterface floor ) {
+		final HashSet<Room> affectedRooms = new HashSet<>();
+		final int doors = SharedWall.link( SharedWall.findAll( floor ), affectedRooms, history );
+		if( !affectedRooms.isEmpty() )
+			fire( new ZModelRoomEvent( affectedRooms ) );
+		return doors;
+	}
+
 	/**
 	 * Connect two rooms by a new quadrangular room defined by two edges.
 	 * @param firstEdge an edge of the first room
@@ -545,6 +1215,15 @@ public class ZControl {
 	 * @throws IllegalArgumentException if the two edges belong to the same room
 	 */
 	public void connectRooms( RoomEdge firstEdge, RoomEdge secondEdge ) throws IllegalArgumentException{
+		lock.lockWrite();
+		try {
+			connectRoomsLocked( firstEdge, secondEdge );
+		} finally {
+			lock.unlockWrite();
+		}
+	}
+
+	private void connectRoomsLocked( RoomEdge firstEdge, RoomEdge secondEdge ) throws IllegalArgumentException{
 		if( firstEdge.getRoom().equals( secondEdge.getRoom() ) )
 			throw new IllegalArgumentException( "Edges must lie in different rooms." );
 
@@ -570,7 +1249,7 @@ public class ZControl {
 		final RoomImpl room = (RoomImpl) latestPolygon;
 		room.connectTo( (RoomImpl)firstEdge.getRoom(), firstEdge.getSource(), firstEdge.getTarget() );
 		room.connectTo( (RoomImpl)secondEdge.getRoom(), secondEdge.getSource(), secondEdge.getTarget() );
-		EventServer.getInstance().dispatchEvent( new ZModelChangedEvent() {} );
+		fire( new ZModelChangedEvent() {} );
 	}
 
 	private int check( RoomEdge ed ) {
@@ -601,9 +1280,21 @@ public class ZControl {
    * @param roomEdge
    */
   public void disconnectAtEdge( RoomEdge roomEdge ) {
+    lock.lockWrite();
+    history.begin();
+    try {
+      disconnectAtEdgeLocked( roomEdge );
+    } finally {
+      history.end();
+      lock.unlockWrite();
+    }
+  }
+
+  private void disconnectAtEdgeLocked( RoomEdge roomEdge ) {
     switch( check( roomEdge ) ) {
       case 0:	// no error found
-        roomEdge.makeImpassable();
+        history.setLinkTarget( roomEdge.getLinkTarget(), null );
+        history.setLinkTarget( roomEdge, null );
         break;
       case 1: // not passable
         break;	// do nothing
@@ -612,7 +1303,7 @@ public class ZControl {
       case 4: // target edge is part of another door
       case 5: // target edge is connected somehow else
       case 6: // cycle of 3 doors
-        roomEdge.setLinkTarget( null );
+        history.setLinkTarget( roomEdge, null );
         break;
       default:
         throw new AssertionError( "Error code not implemented" );
@@ -620,6 +1311,17 @@ public class ZControl {
   }
 
   public void autoCorrectEdges() {
+    lock.lockWrite();
+    history.begin();
+    try {
+      autoCorrectEdgesLocked();
+    } finally {
+      history.end();
+      lock.unlockWrite();
+    }
+  }
+
+  private void autoCorrectEdgesLocked() {
     for( FloorInterface floor : project.getBuildingPlan() ) {
       for( Room room : floor ) {
         boolean printed = false;
@@ -629,7 +1331,7 @@ public class ZControl {
               System.out.println( "Correct " + room.getName() );
               printed = true;
             }
-            ed.setLinkTarget( null );
+            history.setLinkTarget( ed, null );
           }
         }
       }
@@ -660,9 +1362,28 @@ public class ZControl {
 	 * @param rasterSizeSnap the raster size
 	 */
 	public void refineRoomCoordinates( PlanPolygon<?> currentRoom, int rasterSizeSnap ) {
-		for( PlanPoint p : currentRoom.getPlanPoints() ) {
-			p.setLocation( coordinate( p.x, rasterSizeSnap), coordinate( p.y, rasterSizeSnap ) );
+		lock.lockWrite();
+		history.begin();
+		try {
+			refineRoomCoordinatesLocked( currentRoom, rasterSizeSnap );
+		} finally {
+			history.end();
+			lock.unlockWrite();
+		}
+	}
+
+	private void refineRoomCoordinatesLocked( PlanPolygon<?> currentRoom, int rasterSizeSnap ) {
+		final List<PlanPoint> points = currentRoom.getPlanPoints();
+		final PlanPoint[] corners = points.toArray( new PlanPoint[points.size()] );
+		final int[] dx = new int[corners.length];
+		final int[] dy = new int[corners.length];
+		for( int i = 0; i < corners.length; ++i ) {
+			final PlanPoint p = corners[i];
+			dx[i] = coordinate( p.x, rasterSizeSnap ) - p.x;
+			dy[i] = coordinate( p.y, rasterSizeSnap ) - p.y;
+			p.setLocation( p.x + dx[i], p.y + dy[i] );
 		}
+		history.moved( corners, dx, dy );
 	}
 
     /**
@@ -673,6 +1394,17 @@ public class ZControl {
      * @return {@code true} if the floor could be renamed, {@code false} otherwise
      */
     public boolean renameFloor(FloorInterface floor, String name) {
+        lock.lockWrite();
+        history.begin();
+        try {
+            return renameFloorLocked(floor, name);
+        } finally {
+            history.end();
+            lock.unlockWrite();
+        }
+    }
+
+    private boolean renameFloorLocked(FloorInterface floor, String name) {
         // try to find out if the name is already used
         if (floor.getName().equals(name)) {
             return true;
@@ -682,7 +1414,7 @@ public class ZControl {
                 return false;
             }
         }
-        ((Floor) floor).setName(name);
+        history.setName((Floor) floor, name);
         return true;
     }
 
@@ -693,16 +1425,27 @@ public class ZControl {
 	 * @return {@code true} if the room could be renamed, {@code false} otherwise
 	 */
 	public boolean renameRoom( Room room, String name ) {
+		lock.lockWrite();
+		history.begin();
+		try {
+			return renameRoomLocked( room, name );
+		} finally {
+			history.end();
+			lock.unlockWrite();
+		}
+	}
+
+	private boolean renameRoomLocked( Room room, String name ) {
 		if( room.getName().equals( name ) )
 			return true;
 		if( room.getAssociatedFloor() == null ) {
-			((RoomImpl)room).setName( name );
+			history.setName( (RoomImpl)room, name );
 			return true;
 		}
 		for( Room r : room.getAssociatedFloor() )
 			if( r.getName().equals( name ) )
 				return false;
-		((RoomImpl)room).setName( name );
+		history.setName( (RoomImpl)room, name );
 		return true;
 	}
 
@@ -779,6 +1522,17 @@ public class ZControl {
 	}
 
 	public void createDoor( RoomEdge edge, PlanPoint newPoint, double doorSize ) {
+		begin();
+		try {
+			createDoorLocked( edge, newPoint, doorSize );
+		} catch( RuntimeException | Error ex ) {
+			abort( ex );
+			throw ex;
+		}
+		commit();
+	}
+
+	private void createDoorLocked( RoomEdge edge, PlanPoint newPoint, double doorSize ) {
 		Room anchorRoom = edge.getRoom(); // store here, the edge will be destroyed and the room will be invalid afterwards
 
 		System.out.println( "Zeichne Tür um " + newPoint + " herum." );
@@ -833,13 +1587,24 @@ public class ZControl {
 
 
 		if( door1 != null ) {
-			((RoomEdge) door2).setLinkTarget( door1 );
-			door1.setLinkTarget( (RoomEdge) door2 );
+			history.setLinkTarget( door2, door1 );
+			history.setLinkTarget( door1, door2 );
 		} else
 			throw new IllegalStateException( "something went wrong" );
 	}
 
 	public void createExitDoor( RoomEdge edge, PlanPoint newPoint, int doorSize ) {
+		lock.lockWrite();
+		history.begin();
+		try {
+			createExitDoorLocked( edge, newPoint, doorSize );
+		} finally {
+			history.end();
+			lock.unlockWrite();
+		}
+	}
+
+	private void createExitDoorLocked( RoomEdge edge, PlanPoint newPoint, int doorSize ) {
 		Room anchorRoom = edge.getRoom(); // store here, the edge will be destroyed and the room will be invalid afterwards
 
 		System.out.println( "Zeichne Tür um " + newPoint + " herum." );
@@ -857,50 +1622,153 @@ public class ZControl {
 		insertPoint( newEdges.get( 1 ), p2 ); // has to be point 1, due to internal implementation of replaceEdges in PlanPolygon.java
 		RoomEdge door1 = ((PlanPolygon<RoomEdge>)anchorRoom.getPolygon()).getEdge( p1, p2 );
 
-		getProject().getBuildingPlan().getDefaultFloor().addEvacuationRoom( door1 );
+		history.addEvacuationRoom( project, door1 );
 	}
 	
 	public void addAssignment( Assignment a ) {
+		lock.lockWrite();
+		try {
+			addAssignmentLocked( a );
+		} finally {
+			lock.unlockWrite();
+		}
+	}
+
+	private void addAssignmentLocked( Assignment a ) {
 		project.addAssignment( a );
+		unjournaled();
 	}
 	
 	public void deleteAssignment( Assignment a ) {
+		lock.lockWrite();
+		try {
+			deleteAssignmentLocked( a );
+		} finally {
+			lock.unlockWrite();
+		}
+	}
+
+	private void deleteAssignmentLocked( Assignment a ) {
 		project.deleteAssignment( a );
+		unjournaled();
 	}
 
 	public void setCurrentAssignment( Assignment currentAssignment ) {
+		lock.lockWrite();
+		try {
+			setCurrentAssignmentLocked( currentAssignment );
+		} finally {
+			lock.unlockWrite();
+		}
+	}
+
+	private void setCurrentAssignmentLocked( Assignment currentAssignment ) {
 		project.setCurrentAssignment( currentAssignment );
+		unjournaled();
 	}
 
 	public void connectToWithTeleportEdge( RoomEdge firstEdge, RoomEdge secondEdge ) {
-		RoomImpl.connectToWithTeleportEdge( firstEdge, secondEdge );
+		lock.lockWrite();
+		try {
+			connectToWithTeleportEdgeLocked( firstEdge, secondEdge );
+		} finally {
+			lock.unlockWrite();
+		}
+	}
+
+	private void connectToWithTeleportEdgeLocked( RoomEdge firstEdge, RoomEdge secondEdge ) {
+		history.connectToWithTeleportEdge( firstEdge, secondEdge );
 	}
 
 	public AssignmentArea createNewArea( Room room, AssignmentType myType, ArrayList<PlanPoint> newPoints ) {
+		lock.lockWrite();
+		try {
+			return createNewAreaLocked( room, myType, newPoints );
+		} finally {
+			lock.unlockWrite();
+		}
+	}
+
+	private AssignmentArea createNewAreaLocked( Room room, AssignmentType myType, ArrayList<PlanPoint> newPoints ) {
 		AssignmentArea aa = new AssignmentArea( (RoomImpl)room, myType );
 		aa.replace( newPoints );
+		history.created( project, aa );
 		return aa;
 	}
 
     public void setFloorSize(FloorInterface model, Rectangle floorSize) {
+        lock.lockWrite();
+        try {
+            setFloorSizeLocked(model, floorSize);
+        } finally {
+            lock.unlockWrite();
+        }
+    }
+
+    private void setFloorSizeLocked(FloorInterface model, Rectangle floorSize) {
         Floor f = (Floor) model;
         f.setMinimumSize(floorSize.x, floorSize.y, floorSize.width, floorSize.height);
+        unjournaled();
     }
 
     public void setDelaySpeedFactor(DelayArea model, double defaultSpeed) {
-        model.setSpeedFactor(defaultSpeed);
+        lock.lockWrite();
+        history.begin();
+        try {
+            setDelaySpeedFactorLocked(model, defaultSpeed);
+        } finally {
+            history.end();
+            lock.unlockWrite();
+        }
+    }
+
+    private void setDelaySpeedFactorLocked(DelayArea model, double defaultSpeed) {
+        history.setSpeedFactor(model, defaultSpeed);
     }
 
     public void setDelayType(DelayArea model, DelayArea.DelayType type) {
-        model.setDelayType(type);
+        lock.lockWrite();
+        history.begin();
+        try {
+            setDelayTypeLocked(model, type);
+        } finally {
+            history.end();
+            lock.unlockWrite();
+        }
+    }
+
+    private void setDelayTypeLocked(DelayArea model, DelayArea.DelayType type) {
+        history.setDelayType(model, type);
     }
 
     public void setRoomName(Room room, String name) {
+        lock.lockWrite();
+        history.begin();
+        try {
+            setRoomNameLocked(room, name);
+        } finally {
+            history.end();
+            lock.unlockWrite();
+        }
+    }
+
+    private void setRoomNameLocked(Room room, String name) {
         RoomImpl r = (RoomImpl)room;
-        r.setName(name);
+        history.setName(r, name);
     }
 
     public boolean makePassable(RoomEdge edge) {
+        lock.lockWrite();
+        history.begin();
+        try {
+            return makePassableLocked(edge);
+        } finally {
+            history.end();
+            lock.unlockWrite();
+        }
+    }
+
+    private boolean makePassableLocked(RoomEdge edge) {
         Room room = edge.getRoom();
         RoomEdge partner = null;
         for (Room r : room.getAssociatedFloor().getRooms()) {
@@ -913,8 +1781,8 @@ public class ZControl {
             }
         }
         if (partner != null) {
-            edge.setLinkTarget(partner);
-            partner.setLinkTarget(edge);
+            history.setLinkTarget(edge, partner);
+            history.setLinkTarget(partner, edge);
             return true;
         }
         return false;
@@ -0,0 +1,413 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package de.zet_evakuierung.model.graph;
+
+import de.zet_evakuierung.model.BuildingPlan;
+import de.zet_evakuierung.model.EvacuationArea;
+import de.zet_evakuierung.model.Floor;
+import de.zet_evakuierung.model.PlanPoint;
+import de.zet_evakuierung.model.Room;
+import de.zet_evakuierung.model.RoomEdge;
+import de.zet_evakuierung.model.RoomImpl;
+import de.zet_evakuierung.model.StairArea;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * <p>A static, compact representation of the door graph of a {@link BuildingPlan}.
+ * Each physical door, that is a pair of linked passable {@link RoomEdge}s, is
+ * represented by one node. Each {@link EvacuationArea} is represented by one
+ * additional sink node. Two nodes are connected by an arc if they are located
+ * in the same room. Arcs leaving sinks are not created.</p>
+ * <p>The graph is stored in compressed sparse row format: the outgoing arcs of
+ * a node {@code v} are the arcs with indices {@code firstArc[v]} up to (but
+ * not including) {@code firstArc[v+1]}. The travel time of an arc is the
+ * walking distance between the two node positions divided by the walking speed.
+ * For instances of {@link RoomImpl} the distance is taken from the cached
+ * {@link RoomVisibilityGraph} and thus avoids obstacles. If the
+ * way crosses a {@link StairArea}, the speed is reduced by the speed factor of
+ * the stair in the respective direction.</p>
+ * <p>The graph is a snapshot. Changes to the building plan after the creation
+ * are not reflected.</p>
+ * @author Jan-Philipp Kappmeier
+ */
+public class DoorGraph {
+	/** The default walking speed in meters per second. */
+	public static final double DEFAULT_SPEED = 1.25;
+	/** The number of nodes in the graph. */
+	private final int nodeCount;
+	/** The index of the first outgoing arc for each node, contains one additional sentinel entry. */
+	private final int[] firstArc;
+	/** The head node of each arc. */
+	private final int[] head;
+	/** The travel time of each arc in seconds. */
+	private final double[] travelTime;
+	/** The x-coordinate of the node positions in millimeter. */
+	private final int[] x;
+	/** The y-coordinate of the node positions in millimeter. */
+	private final int[] y;
+	/** One of the room edges for each door node, {@code null} for sinks. */
+	private final RoomEdge[] doors;
+	/** The evacuation area for each sink node, {@code null} for doors. */
+	private final EvacuationArea[] sinks;
+	/** The walking speed in meters per second. */
+	private final double speed;
+	/** The rooms of the building, in the order of the floors. */
+	private final Room[] rooms;
+	/** The visibility graphs of the rooms, {@code null} if a room is no {@link RoomImpl}. */
+	private final RoomVisibilityGraph[] visibility;
+	/** The nodes of the terminals of each room, in the order of the terminals of the visibility graph. */
+	private final int[][] roomNodes;
+	/** The room containing each arc. */
+	private final int[] arcRoom;
+	/** The terminal of the tail node of each arc within its room. */
+	private final int[] arcTailTerminal;
+	/** The terminal of the head node of each arc within its room. */
+	private final int[] arcHeadTerminal;
+
+	/**
+	 * Creates the door graph for a building plan using the default walking speed.
+	 * @param plan the building plan
+	 */
+	public DoorGraph( BuildingPlan plan ) {
+		this( plan, DEFAULT_SPEED );
+	}
+
+	/**
+	 * Creates the door graph for a building plan.
+	 * @param plan the building plan
+	 * @param speed the walking speed in meters per second
+	 * @throws IllegalArgumentException if the speed is not positive
+	 */
+	public DoorGraph( BuildingPlan plan, double speed ) throws IllegalArgumentException {
+		if( !(speed > 0) )
+			throw new IllegalArgumentException( "Speed must be positive: " + speed );
+		this.speed = speed;
+
+		// Collect nodes. The linked edges of a door share the same node.
+		final IdentityHashMap<RoomEdge, Integer> doorIndex = new IdentityHashMap<>();
+		final ArrayList<RoomEdge> doorList = new ArrayList<>();
+		final ArrayList<EvacuationArea> sinkList = new ArrayList<>();
+		final ArrayList<Room> roomList = new ArrayList<>();
+		final ArrayList<int[]> roomNodeList = new ArrayList<>();
+		for( Floor floor : plan.getFloors() )
+			for( Room room : floor.getRooms() ) {
+				final List<? extends RoomEdge> edges = room.getPolygon().getEdges();
+				final int[] nodes = new int[edges.size() + room.getEvacuationAreas().size()];
+				int count = 0;
+				for( RoomEdge edge : edges ) {
+					if( !edge.isPassable() )
+						continue;
+					Integer index = doorIndex.get( edge );
+					if( index == null ) {
+						index = doorList.size();
+						doorList.add( edge );
+						doorIndex.put( edge, index );
+						doorIndex.put( edge.getLinkTarget(), index );
+					}
+					nodes[count++] = index;
+				}
+				for( EvacuationArea area : room.getEvacuationAreas() ) {
+					sinkList.add( area );
+					nodes[count++] = -sinkList.size();
+				}
+				roomList.add( room );
+				roomNodeList.add( Arrays.copyOf( nodes, count ) );
+			}
+
+		nodeCount = doorList.size() + sinkList.size();
+		rooms = roomList.toArray( new Room[roomList.size()] );
+		roomNodes = roomNodeList.toArray( new int[roomNodeList.size()][] );
+		visibility = new RoomVisibilityGraph[rooms.length];
+		doors = new RoomEdge[nodeCount];
+		sinks = new EvacuationArea[nodeCount];
+		x = new int[nodeCount];
+		y = new int[nodeCount];
+		for( int v = 0; v < doorList.size(); ++v ) {
+			final RoomEdge door = doorList.get( v );
+			doors[v] = door;
+			x[v] = (door.getSource().getXInt() + door.getTarget().getXInt()) / 2;
+			y[v] = (door.getSource().getYInt() + door.getTarget().getYInt()) / 2;
+		}
+		for( int i = 0; i < sinkList.size(); ++i ) {
+			final int v = doorList.size() + i;
+			final EvacuationArea area = sinkList.get( i );
+			sinks[v] = area;
+			x[v] = (area.boundLeft() + area.boundRight()) / 2;
+			y[v] = (area.boundUpper() + area.boundLower()) / 2;
+		}
+		// Resolve the sink placeholders
+		for( int[] nodes : roomNodeList )
+			for( int i = 0; i < nodes.length; ++i )
+				if( nodes[i] < 0 )
+					nodes[i] = doorList.size() - nodes[i] - 1;
+
+		// Count the out degree of each node, then fill the arrays
+		firstArc = new int[nodeCount + 1];
+		for( int[] nodes : roomNodeList )
+			for( int u : nodes )
+				if( sinks[u] == null )
+					firstArc[u + 1] += nodes.length - 1;
+		for( int v = 0; v < nodeCount; ++v )
+			firstArc[v + 1] += firstArc[v];
+		head = new int[firstArc[nodeCount]];
+		travelTime = new double[firstArc[nodeCount]];
+		arcRoom = new int[firstArc[nodeCount]];
+		arcTailTerminal = new int[firstArc[nodeCount]];
+		arcHeadTerminal = new int[firstArc[nodeCount]];
+		final int[] next = Arrays.copyOf( firstArc, nodeCount );
+		for( int r = 0; r < rooms.length; ++r ) {
+			final int[] nodes = roomNodes[r];
+			final Room room = rooms[r];
+			if( room instanceof RoomImpl )
+				visibility[r] = ((RoomImpl)room).getVisibilityGraph();
+			for( int i = 0; i < nodes.length; ++i ) {
+				final int u = nodes[i];
+				if( sinks[u] != null )
+					continue;
+				for( int j = 0; j < nodes.length; ++j ) {
+					if( i == j )
+						continue;
+					final int v = nodes[j];
+					final int arc = next[u]++;
+					head[arc] = v;
+					arcRoom[arc] = r;
+					arcTailTerminal[arc] = i;
+					arcHeadTerminal[arc] = j;
+					final double distance = visibility[r] == null ? Math.hypot( x[u] - x[v], y[u] - y[v] ) / 1000.0 : visibility[r].distance( i, j );
+					travelTime[arc] = distance / (speed * stairFactor( room, u, v ));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Computes the factor by which the speed is reduced when walking from one
+	 * node to another inside a room. If the middle of the way is located on a
+	 * stair, the up or down speed factor is used depending on which level of the
+	 * stair is closer to the start node.
+	 * @param room the room containing both nodes
+	 * @param u the start node
+	 * @param v the end node
+	 * @return the speed factor, 1 if no stair is used
+	 */
+	private double stairFactor( Room room, int u, int v ) {
+		if( room.getStairAreas().isEmpty() )
+			return 1;
+		final PlanPoint middle = new PlanPoint( (x[u] + x[v]) / 2, (y[u] + y[v]) / 2 );
+		for( StairArea stair : room.getStairAreas() ) {
+			if( !stair.contains( middle ) )
+				continue;
+			final PlanPoint lowerStart = stair.getLowerLevelStart();
+			final PlanPoint upperStart = stair.getUpperLevelStart();
+			if( lowerStart == null || upperStart == null )
+				return stair.getSpeedFactorUp();
+			final double toLower = levelDistance( lowerStart, stair.getLowerLevelEnd(), u );
+			final double toUpper = levelDistance( upperStart, stair.getUpperLevelEnd(), u );
+			return toLower <= toUpper ? stair.getSpeedFactorUp() : stair.getSpeedFactorDown();
+		}
+		return 1;
+	}
+
+	private double levelDistance( PlanPoint start, PlanPoint end, int u ) {
+		final double mx = end == null ? start.getX() : (start.getX() + end.getX()) / 2;
+		final double my = end == null ? start.getY() : (start.getY() + end.getY()) / 2;
+		return Math.hypot( mx - x[u], my - y[u] );
+	}
+
+	/**
+	 * Returns the number of nodes.
+	 * @return the number of nodes
+	 */
+	public int nodeCount() {
+		return nodeCount;
+	}
+
+	/**
+	 * Returns the number of arcs.
+	 * @return the number of arcs
+	 */
+	public int arcCount() {
+		return head.length;
+	}
+
+	/**
+	 * Returns the index of the first outgoing arc of a node.
+	 * @param v the node
+	 * @return the index of the first outgoing arc
+	 */
+	public int firstArc( int v ) {
+		return firstArc[v];
+	}
+
+	/**
+	 * Returns the index after the last outgoing arc of a node.
+	 * @param v the node
+	 * @return the index after the last outgoing arc
+	 */
+	public int lastArc( int v ) {
+		return firstArc[v + 1];
+	}
+
+	/**
+	 * Returns the head node of an arc.
+	 * @param arc the arc
+	 * @return the head node
+	 */
+	public int head( int arc ) {
+		return head[arc];
+	}
+
+	/**
+	 * Returns the travel time of an arc.
+	 * @param arc the arc
+	 * @return the travel time in seconds
+	 */
+	public double travelTime( int arc ) {
+		return travelTime[arc];
+	}
+
+	/**
+	 * Returns the walking speed used to compute the travel times.
+	 * @return the walking speed in meters per second
+	 */
+	public double getSpeed() {
+		return speed;
+	}
+
+	/**
+	 * Returns the number of rooms in the building.
+	 * @return the number of rooms
+	 */
+	public int roomCount() {
+		return rooms.length;
+	}
+
+	/**
+	 * Returns a room of the building. The rooms are numbered in the order of the
+	 * floors and the order of the rooms on each floor.
+	 * @param r the index of the room
+	 * @return the room
+	 */
+	public Room getRoom( int r ) {
+		return rooms[r];
+	}
+
+	/**
+	 * Returns the visibility graph of a room as it was when the door graph was
+	 * created.
+	 * @param r the index of the room
+	 * @return the visibility graph or {@code null} if the room is no {@link RoomImpl}
+	 */
+	public RoomVisibilityGraph getVisibilityGraph( int r ) {
+		return visibility[r];
+	}
+
+	/**
+	 * Returns the node of a terminal of a room. The terminals are numbered as in
+	 * {@link RoomVisibilityGraph}, first the doors, then the evacuation areas.
+	 * @param r the index of the room
+	 * @param i the terminal within the room
+	 * @return the node
+	 */
+	public int roomNode( int r, int i ) {
+		return roomNodes[r][i];
+	}
+
+	/**
+	 * Returns the number of terminals of a room.
+	 * @param r the index of the room
+	 * @return the number of doors and evacuation areas of the room
+	 */
+	public int terminalCount( int r ) {
+		return roomNodes[r].length;
+	}
+
+	/**
+	 * Returns the index of the room containing an arc.
+	 * @param arc the arc
+	 * @return the index of the room
+	 */
+	public int arcRoom( int arc ) {
+		return arcRoom[arc];
+	}
+
+	/**
+	 * Returns the terminal of the tail of an arc within the room containing the arc.
+	 * @param arc the arc
+	 * @return the terminal of the tail
+	 */
+	public int arcTailTerminal( int arc ) {
+		return arcTailTerminal[arc];
+	}
+
+	/**
+	 * Returns the terminal of the head of an arc within the room containing the arc.
+	 * @param arc the arc
+	 * @return the terminal of the head
+	 */
+	public int arcHeadTerminal( int arc ) {
+		return arcHeadTerminal[arc];
+	}
+
+	/**
+	 * Decides whether a node represents an {@link EvacuationArea}.
+	 * @param v the node
+	 * @return {@code true} if the node is a sink
+	 */
+	public boolean isSink( int v ) {
+		return sinks[v] != null;
+	}
+
+	/**
+	 * Returns one of the two linked room edges forming the door represented by
+	 * a node.
+	 * @param v the node
+	 * @return the room edge or {@code null} if the node is a sink
+	 */
+	public RoomEdge getDoor( int v ) {
+		return doors[v];
+	}
+
+	/**
+	 * Returns the evacuation area represented by a node.
+	 * @param v the node
+	 * @return the evacuation area or {@code null} if the node is a door
+	 */
+	public EvacuationArea getEvacuationArea( int v ) {
+		return sinks[v];
+	}
+
+	/**
+	 * Returns the x-coordinate of the position of a node in millimeter.
+	 * @param v the node
+	 * @return the x-coordinate
+	 */
+	public int getX( int v ) {
+		return x[v];
+	}
+
+	/**
+	 * Returns the y-coordinate of the position of a node in millimeter.
+	 * @param v the node
+	 * @return the y-coordinate
+	 */
+	public int getY( int v ) {
+		return y[v];
+	}
+}
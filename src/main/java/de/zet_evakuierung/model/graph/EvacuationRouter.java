@@ -0,0 +1,453 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package de.zet_evakuierung.model.graph;
+
+import de.zet_evakuierung.model.BuildingPlan;
+import de.zet_evakuierung.model.EvacuationArea;
+import de.zet_evakuierung.model.Floor;
+import de.zet_evakuierung.model.FloorInterface;
+import de.zet_evakuierung.model.PlanPoint;
+import de.zet_evakuierung.model.TeleportEdge;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+/**
+ * <p>Answers routing queries from arbitrary points of a building to the
+ * evacuation areas. The start room is located using a uniform grid over the
+ * rooms of each floor. Inside the start room the ways to the doors are
+ * computed on the visibility graph of the room, then an A* search runs on the
+ * {@link DoorGraph}. The resulting sequence of doors is expanded to a polyline
+ * using the cached shortest paths of the {@link RoomVisibilityGraph}s.</p>
+ * <p>For queries to the nearest exit the exact remaining travel time of each
+ * door is precomputed by a backwards search from all exits and used as
+ * heuristic, so the search only visits the doors on the route. For queries to
+ * a given evacuation area the straight line travel time is used.</p>
+ * <p>The router works on a snapshot of the building plan and is immutable.
+ * Queries may be issued concurrently from several threads, each thread uses
+ * its own work space.</p>
+ * @author Jan-Philipp Kappmeier
+ */
+public class EvacuationRouter {
+	/** The door graph of the building. */
+	private final DoorGraph graph;
+	/** The spatial index of the rooms for each floor. */
+	private final IdentityHashMap<FloorInterface, RoomGrid> grids = new IdentityHashMap<>();
+	/** The node of each evacuation area. */
+	private final IdentityHashMap<EvacuationArea, Integer> sinkNodes = new IdentityHashMap<>();
+	/** The floor of each node, {@code null} for doors that connect floors. */
+	private final FloorInterface[] nodeFloor;
+	/** The travel time from each node to the nearest exit. */
+	private final double[] toExit;
+	/** The work space of the queries, one for each thread. */
+	private final ThreadLocal<Workspace> workspace = new ThreadLocal<Workspace>() {
+		@Override
+		protected Workspace initialValue() {
+			return new Workspace( graph.nodeCount() );
+		}
+	};
+
+	/**
+	 * Creates a router for a building plan using the default walking speed.
+	 * @param plan the building plan
+	 */
+	public EvacuationRouter( BuildingPlan plan ) {
+		this( new DoorGraph( plan ) );
+	}
+
+	/**
+	 * Creates a router working on a door graph.
+	 * @param graph the door graph
+	 */
+	public EvacuationRouter( DoorGraph graph ) {
+		this.graph = graph;
+		final int n = graph.nodeCount();
+
+		// Spatial index
+		final IdentityHashMap<FloorInterface, ArrayList<Integer>> floorRooms = new IdentityHashMap<>();
+		for( int r = 0; r < graph.roomCount(); ++r ) {
+			final FloorInterface floor = graph.getRoom( r ).getAssociatedFloor();
+			if( !floorRooms.containsKey( floor ) )
+				floorRooms.put( floor, new ArrayList<Integer>() );
+			floorRooms.get( floor ).add( r );
+		}
+		for( FloorInterface floor : floorRooms.keySet() )
+			grids.put( floor, new RoomGrid( graph, floorRooms.get( floor ) ) );
+
+		// Node properties
+		nodeFloor = new FloorInterface[n];
+		for( int v = 0; v < n; ++v )
+			if( graph.isSink( v ) ) {
+				sinkNodes.put( graph.getEvacuationArea( v ), v );
+				nodeFloor[v] = graph.getEvacuationArea( v ).getAssociatedRoom().getAssociatedFloor();
+			} else if( !(graph.getDoor( v ) instanceof TeleportEdge) )
+				nodeFloor[v] = graph.getDoor( v ).getRoom().getAssociatedFloor();
+
+		// Backwards search from all exits on the reversed graph
+		final int[] firstIn = new int[n + 1];
+		for( int a = 0; a < graph.arcCount(); ++a )
+			firstIn[graph.head( a ) + 1]++;
+		for( int v = 0; v < n; ++v )
+			firstIn[v + 1] += firstIn[v];
+		final int[] inArcs = new int[graph.arcCount()];
+		final int[] next = Arrays.copyOf( firstIn, n );
+		for( int u = 0; u < n; ++u )
+			for( int a = graph.firstArc( u ); a < graph.lastArc( u ); ++a )
+				inArcs[next[graph.head( a )]++] = a;
+		final int[] tail = new int[graph.arcCount()];
+		for( int u = 0; u < n; ++u )
+			for( int a = graph.firstArc( u ); a < graph.lastArc( u ); ++a )
+				tail[a] = u;
+		toExit = new double[n];
+		Arrays.fill( toExit, Double.POSITIVE_INFINITY );
+		final Heap heap = new Heap();
+		for( int v = 0; v < n; ++v )
+			if( graph.isSink( v ) ) {
+				toExit[v] = 0;
+				heap.push( v, 0 );
+			}
+		while( heap.size > 0 ) {
+			final double key = heap.minKey();
+			final int v = heap.pop();
+			if( key > toExit[v] )
+				continue;
+			for( int i = firstIn[v]; i < firstIn[v + 1]; ++i ) {
+				final int a = inArcs[i];
+				final double d = toExit[v] + graph.travelTime( a );
+				if( d < toExit[tail[a]] ) {
+					toExit[tail[a]] = d;
+					heap.push( tail[a], d );
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the door graph used by the router.
+	 * @return the door graph
+	 */
+	public DoorGraph getGraph() {
+		return graph;
+	}
+
+	/**
+	 * Computes the fastest route from a point to the nearest exit.
+	 * @param from the start point
+	 * @param floor the floor containing the start point
+	 * @return the route or {@code null} if no exit is reachable
+	 * @throws IllegalArgumentException if the point is not inside a room of the floor
+	 */
+	public Route route( PlanPoint from, Floor floor ) throws IllegalArgumentException {
+		return route( from, floor, null );
+	}
+
+	/**
+	 * Computes the fastest route from a point to a given evacuation area. If no
+	 * evacuation area is given, the route to the nearest exit is computed.
+	 * @param from the start point
+	 * @param floor the floor containing the start point
+	 * @param target the evacuation area or {@code null}
+	 * @return the route or {@code null} if the target is not reachable
+	 * @throws IllegalArgumentException if the point is not inside a room of the
+	 * floor or the evacuation area is not part of the building
+	 */
+	public Route route( PlanPoint from, Floor floor, EvacuationArea target ) throws IllegalArgumentException {
+		final int px = from.getXInt();
+		final int py = from.getYInt();
+		final RoomGrid grid = grids.get( floor );
+		final int r = grid == null ? -1 : grid.locate( graph, px, py );
+		if( r < 0 )
+			throw new IllegalArgumentException( "Point " + from + " is not inside a room of floor " + floor.getName() );
+		final int targetNode;
+		if( target == null )
+			targetNode = -1;
+		else if( sinkNodes.containsKey( target ) )
+			targetNode = sinkNodes.get( target );
+		else
+			throw new IllegalArgumentException( "Evacuation area is not part of the building: " + target );
+		final double speed = graph.getSpeed();
+
+		// Ways inside the start room
+		final RoomVisibilityGraph start = graph.getVisibilityGraph( r );
+		final int k = start.vertexCount();
+		final double[] startDist = new double[k];
+		final int[] startPred = new int[k];
+		Arrays.fill( startPred, -1 );
+		for( int v = 0; v < k; ++v )
+			startDist[v] = start.isVisible( px, py, start.getX( v ), start.getY( v ) )
+							? Math.hypot( px - start.getX( v ), py - start.getY( v ) ) : Double.POSITIVE_INFINITY;
+		start.shortestPaths( startDist, startPred );
+
+		// A* search on the door graph
+		final Workspace ws = workspace.get();
+		ws.reset();
+		for( int i = 0; i < graph.terminalCount( r ); ++i ) {
+			final int v = graph.roomNode( r, i );
+			final double g = startDist[i] / 1000.0 / speed;
+			final double h = heuristic( v, targetNode );
+			if( g < ws.g( v ) && h < Double.POSITIVE_INFINITY ) {
+				ws.set( v, g, -1 - i );
+				ws.heap.push( v, g + h );
+			}
+		}
+		while( ws.heap.size > 0 ) {
+			final double key = ws.heap.minKey();
+			final int u = ws.heap.pop();
+			final double h = heuristic( u, targetNode );
+			if( key > ws.g( u ) + h )
+				continue;
+			if( targetNode == -1 ? graph.isSink( u ) : u == targetNode )
+				return createRoute( from, r, startPred, u, ws );
+			for( int a = graph.firstArc( u ); a < graph.lastArc( u ); ++a ) {
+				final int v = graph.head( a );
+				final double g = ws.g( u ) + graph.travelTime( a );
+				if( g < ws.g( v ) ) {
+					final double hv = heuristic( v, targetNode );
+					if( hv < Double.POSITIVE_INFINITY ) {
+						ws.set( v, g, a );
+						ws.heap.push( v, g + hv );
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns a lower bound for the travel time from a node to the target.
+	 * @param v the node
+	 * @param target the target node or -1 for the nearest exit
+	 * @return the lower bound in seconds
+	 */
+	private double heuristic( int v, int target ) {
+		if( target == -1 )
+			return toExit[v];
+		if( nodeFloor[v] == null || nodeFloor[v] != nodeFloor[target] )
+			return 0;
+		return Math.hypot( graph.getX( v ) - graph.getX( target ), graph.getY( v ) - graph.getY( target ) ) / 1000.0 / graph.getSpeed();
+	}
+
+	/**
+	 * Expands the result of the search to a polyline.
+	 * @param from the start point
+	 * @param r the start room
+	 * @param startPred the predecessors of the shortest paths inside the start room
+	 * @param goal the reached sink
+	 * @param ws the work space containing the search result
+	 * @return the route
+	 */
+	private Route createRoute( PlanPoint from, int r, int[] startPred, int goal, Workspace ws ) {
+		final ArrayList<Integer> arcs = new ArrayList<>();
+		int v = goal;
+		while( ws.pred( v ) >= 0 ) {
+			final int a = ws.pred( v );
+			arcs.add( a );
+			v = graph.roomNode( graph.arcRoom( a ), graph.arcTailTerminal( a ) );
+		}
+		final int startTerminal = -1 - ws.pred( v );
+
+		final ArrayList<PlanPoint> points = new ArrayList<>();
+		final ArrayList<FloorInterface> floors = new ArrayList<>();
+		final FloorInterface startFloor = graph.getRoom( r ).getAssociatedFloor();
+		points.add( new PlanPoint( from.getXInt(), from.getYInt() ) );
+		floors.add( startFloor );
+		final RoomVisibilityGraph start = graph.getVisibilityGraph( r );
+		int count = 0;
+		for( int w = startTerminal; w != -1; w = startPred[w] )
+			count++;
+		final int[] startPath = new int[count];
+		for( int w = startTerminal; w != -1; w = startPred[w] )
+			startPath[--count] = w;
+		append( points, floors, start, startPath, startFloor );
+		for( int i = arcs.size() - 1; i >= 0; --i ) {
+			final int a = arcs.get( i );
+			final RoomVisibilityGraph room = graph.getVisibilityGraph( graph.arcRoom( a ) );
+			append( points, floors, room, room.path( graph.arcTailTerminal( a ), graph.arcHeadTerminal( a ) ),
+							graph.getRoom( graph.arcRoom( a ) ).getAssociatedFloor() );
+		}
+		return new Route( points, floors, graph.getEvacuationArea( goal ), ws.g( goal ) );
+	}
+
+	private void append( ArrayList<PlanPoint> points, ArrayList<FloorInterface> floors, RoomVisibilityGraph room, int[] path, FloorInterface floor ) {
+		for( int w : path ) {
+			final PlanPoint last = points.get( points.size() - 1 );
+			if( floors.get( floors.size() - 1 ) == floor && last.getXInt() == room.getX( w ) && last.getYInt() == room.getY( w ) )
+				continue;
+			points.add( new PlanPoint( room.getX( w ), room.getY( w ) ) );
+			floors.add( floor );
+		}
+	}
+
+	/**
+	 * A uniform grid over the bounding boxes of the rooms of a floor.
+	 */
+	private static class RoomGrid {
+		private final int minX;
+		private final int minY;
+		private final int cellSize;
+		private final int columns;
+		private final int rows;
+		/** The first entry of each cell in {@link #cellRooms}. */
+		private final int[] cellStart;
+		/** The rooms intersecting the cells. */
+		private final int[] cellRooms;
+
+		RoomGrid( DoorGraph graph, ArrayList<Integer> rooms ) {
+			final Rectangle[] bounds = new Rectangle[rooms.size()];
+			Rectangle all = null;
+			for( int i = 0; i < bounds.length; ++i ) {
+				bounds[i] = graph.getRoom( rooms.get( i ) ).getPolygon().bounds();
+				all = all == null ? new Rectangle( bounds[i] ) : all.union( bounds[i] );
+			}
+			minX = all == null ? 0 : all.x;
+			minY = all == null ? 0 : all.y;
+			final long width = all == null ? 1 : Math.max( 1, all.width );
+			final long height = all == null ? 1 : Math.max( 1, all.height );
+			cellSize = (int)Math.max( 1, Math.ceil( Math.sqrt( (double)width * height / Math.max( 1, bounds.length ) ) ) );
+			columns = (int)(width / cellSize) + 1;
+			rows = (int)(height / cellSize) + 1;
+			cellStart = new int[columns * rows + 1];
+			for( Rectangle b : bounds )
+				for( int cy = cell( b.y, minY ); cy <= cell( b.y + b.height, minY ); ++cy )
+					for( int cx = cell( b.x, minX ); cx <= cell( b.x + b.width, minX ); ++cx )
+						cellStart[cy * columns + cx + 1]++;
+			for( int c = 0; c < columns * rows; ++c )
+				cellStart[c + 1] += cellStart[c];
+			cellRooms = new int[cellStart[columns * rows]];
+			final int[] next = Arrays.copyOf( cellStart, columns * rows );
+			for( int i = 0; i < bounds.length; ++i ) {
+				final Rectangle b = bounds[i];
+				for( int cy = cell( b.y, minY ); cy <= cell( b.y + b.height, minY ); ++cy )
+					for( int cx = cell( b.x, minX ); cx <= cell( b.x + b.width, minX ); ++cx )
+						cellRooms[next[cy * columns + cx]++] = rooms.get( i );
+			}
+		}
+
+		private int cell( int coordinate, int min ) {
+			return (coordinate - min) / cellSize;
+		}
+
+		/**
+		 * Returns the room containing a point.
+		 * @return the index of the room or -1 if the point is not inside a room
+		 */
+		int locate( DoorGraph graph, int px, int py ) {
+			if( px < minX || py < minY )
+				return -1;
+			final int cx = cell( px, minX );
+			final int cy = cell( py, minY );
+			if( cx >= columns || cy >= rows )
+				return -1;
+			final int c = cy * columns + cx;
+			for( int i = cellStart[c]; i < cellStart[c + 1]; ++i ) {
+				final RoomVisibilityGraph room = graph.getVisibilityGraph( cellRooms[i] );
+				if( room != null && room.contains( px, py ) )
+					return cellRooms[i];
+			}
+			return -1;
+		}
+	}
+
+	/**
+	 * The data of a search. Entries are valid only if their stamp equals the
+	 * current round, which avoids clearing the arrays for each query.
+	 */
+	private static class Workspace {
+		private final double[] g;
+		private final int[] pred;
+		private final int[] stamp;
+		private int round;
+		private final Heap heap = new Heap();
+
+		Workspace( int n ) {
+			g = new double[n];
+			pred = new int[n];
+			stamp = new int[n];
+		}
+
+		void reset() {
+			heap.size = 0;
+			if( ++round == Integer.MAX_VALUE ) {
+				Arrays.fill( stamp, 0 );
+				round = 1;
+			}
+		}
+
+		double g( int v ) {
+			return stamp[v] == round ? g[v] : Double.POSITIVE_INFINITY;
+		}
+
+		int pred( int v ) {
+			return pred[v];
+		}
+
+		void set( int v, double value, int predecessor ) {
+			stamp[v] = round;
+			g[v] = value;
+			pred[v] = predecessor;
+		}
+	}
+
+	/**
+	 * A binary min heap of nodes with lazy deletion, that is, a node may be
+	 * contained several times with different keys.
+	 */
+	private static class Heap {
+		private int[] nodes = new int[16];
+		private double[] keys = new double[16];
+		private int size;
+
+		void push( int node, double key ) {
+			if( size == nodes.length ) {
+				nodes = Arrays.copyOf( nodes, 2 * size );
+				keys = Arrays.copyOf( keys, 2 * size );
+			}
+			int i = size++;
+			while( i > 0 && keys[(i - 1) / 2] > key ) {
+				nodes[i] = nodes[(i - 1) / 2];
+				keys[i] = keys[(i - 1) / 2];
+				i = (i - 1) / 2;
+			}
+			nodes[i] = node;
+			keys[i] = key;
+		}
+
+		double minKey() {
+			return keys[0];
+		}
+
+		int pop() {
+			final int result = nodes[0];
+			final int node = nodes[--size];
+			final double key = keys[size];
+			int i = 0;
+			while( 2 * i + 1 < size ) {
+				int child = 2 * i + 1;
+				if( child + 1 < size && keys[child + 1] < keys[child] )
+					child++;
+				if( keys[child] >= key )
+					break;
+				nodes[i] = nodes[child];
+				keys[i] = keys[child];
+				i = child;
+			}
+			nodes[i] = node;
+			keys[i] = key;
+			return result;
+		}
+	}
+}
@@ -0,0 +1,895 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package de.zet_evakuierung.model.graph;
+
+import de.zet_evakuierung.model.Barrier;
+import de.zet_evakuierung.model.InaccessibleArea;
+import de.zet_evakuierung.model.PlanPoint;
+import de.zet_evakuierung.model.PlanPolygon;
+import de.zet_evakuierung.model.Room;
+import de.zet_evakuierung.model.RoomEdge;
+import de.zet_evakuierung.model.StairArea;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * <p>A navigation mesh of the walkable area of a {@link Room}. The walkable
+ * area is the room polygon without its {@link InaccessibleArea}s and
+ * {@link Barrier}s and, optionally, without its {@link StairArea}s. It is
+ * decomposed into convex cells.</p>
+ * <p>The mesh is stored in index buffers. The vertices are stored as
+ * alternating x- and y-coordinates. The corners of cell {@code c} are the
+ * vertices {@code cellVertices[cellStart[c]]} up to (but not including)
+ * {@code cellVertices[cellStart[c+1]]} in counter clockwise order. For each
+ * corner the array {@code neighbors} contains the cell on the other side of
+ * the edge from this corner to the next one, or {@link #WALL}, or for edges on
+ * a door the value {@code -2 - d} where {@code d} is the index of the door in
+ * {@link #getDoors()}. The doors are numbered like the door terminals of
+ * the {@link RoomVisibilityGraph}, the cells on both sides of a door are
+ * found using {@link RoomEdge#getLinkTarget()}.</p>
+ * <p>The decomposition is computed by connecting the obstacles to the room
+ * boundary, triangulating the resulting polygon by ear clipping and merging
+ * triangles as long as the cells stay convex (Hertel-Mehlhorn). Barriers are
+ * handled as holes of width zero. Obstacles may touch the walls and each
+ * other, obstacles overlapping each other or the walls are rejected. The mesh
+ * is immutable.</p>
+ * @author Jan-Philipp Kappmeier
+ */
+public class NavigationMesh {
+	/** The neighbor value of edges on walls. */
+	public static final int WALL = -1;
+	/** The modification stamp of the room at creation time. */
+	private final long modificationStamp;
+	/** Whether stair areas are excluded from the walkable area. */
+	private final boolean excludeStairs;
+	/** The passable edges of the room. */
+	private final List<RoomEdge> doors;
+	/** The vertex coordinates, alternating x and y. */
+	private final int[] vertices;
+	/** The index of the first corner of each cell, contains one additional sentinel entry. */
+	private final int[] cellStart;
+	/** The vertex indices of the corners of all cells. */
+	private final int[] cellVertices;
+	/** The neighbor across the edge starting at each corner. */
+	private final int[] neighbors;
+
+	/**
+	 * Creates the navigation mesh for a room.
+	 * @param room the room
+	 * @param excludeStairs whether stair areas are excluded from the walkable area
+	 * @throws IllegalStateException if obstacles overlap each other or the walls
+	 */
+	public NavigationMesh( Room room, boolean excludeStairs ) throws IllegalStateException {
+		this.modificationStamp = room.getPolygon().getModificationStamp();
+		this.excludeStairs = excludeStairs;
+		final PlanPolygon<? extends RoomEdge> polygon = room.getPolygon();
+
+		final ArrayList<RoomEdge> doorList = new ArrayList<>();
+		for( RoomEdge edge : polygon.getEdges() )
+			if( edge.isPassable() )
+				doorList.add( edge );
+		doors = Collections.unmodifiableList( doorList );
+
+		if( !polygon.isClosed() || polygon.getNumberOfEdges() < 3 ) {
+			vertices = new int[0];
+			cellStart = new int[1];
+			cellVertices = new int[0];
+			neighbors = new int[0];
+			return;
+		}
+
+		// Collect the vertices of the room and the obstacles
+		final ArrayList<List<PlanPoint>> rings = new ArrayList<>();
+		rings.add( polygon.getPolygonPoints() );
+		for( InaccessibleArea area : room.getInaccessibleAreas() )
+			if( area.isClosed() && area.getNumberOfPoints() >= 3 )
+				rings.add( area.getPolygonPoints() );
+		if( excludeStairs )
+			for( StairArea area : room.getStairAreas() )
+				if( area.isClosed() && area.getNumberOfPoints() >= 3 )
+					rings.add( area.getPolygonPoints() );
+		for( Barrier barrier : room.getBarriers() )
+			if( barrier.getNumberOfPoints() >= 2 )
+				rings.add( barrierRing( barrier.getPolygonPoints() ) );
+		final int[] origin = splitTouchingEdges( rings );
+		int count = 0;
+		for( List<PlanPoint> ring : rings )
+			count += ring.size();
+		vertices = new int[2 * count];
+		final int[][] ringIds = new int[rings.size()][];
+		count = 0;
+		for( int r = 0; r < rings.size(); ++r ) {
+			final List<PlanPoint> ring = rings.get( r );
+			ringIds[r] = new int[ring.size()];
+			for( int i = 0; i < ring.size(); ++i ) {
+				vertices[2 * count] = ring.get( i ).getXInt();
+				vertices[2 * count + 1] = ring.get( i ).getYInt();
+				ringIds[r][i] = count++;
+			}
+		}
+
+		// The doors on the room boundary, keyed by the positions of their end points,
+		// as the triangulation may keep a vertex of an obstacle touching the door
+		final int[] canonical = new int[count];
+		final HashMap<Long, Integer> positions = new HashMap<>();
+		for( int v = 0; v < count; ++v ) {
+			final Integer first = positions.get( position( v ) );
+			canonical[v] = first != null ? first : v;
+			if( first == null )
+				positions.put( position( v ), v );
+		}
+		final int outerSize = ringIds[0].length;
+		final HashMap<Long, Integer> doorKeys = new HashMap<>();
+		final List<? extends RoomEdge> edges = polygon.getEdges();
+		for( int i = 0; i < outerSize; ++i )
+			if( edges.get( origin[i] ).isPassable() )
+				doorKeys.put( key( canonical[ringIds[0][i]], canonical[ringIds[0][(i + 1) % outerSize]], count ), doorList.indexOf( edges.get( origin[i] ) ) );
+
+		// Outer ring counter clockwise, holes clockwise
+		if( signedArea( ringIds[0] ) < 0 )
+			reverse( ringIds[0] );
+		for( int r = 1; r < ringIds.length; ++r )
+			if( signedArea( ringIds[r] ) > 0 )
+				reverse( ringIds[r] );
+
+		final ArrayList<Integer> ring = bridgeHoles( ringIds );
+		final ArrayList<int[]> cells = triangulate( ring, ringIds );
+		merge( cells );
+
+		// Create the buffers
+		int corners = 0;
+		for( int[] cell : cells )
+			if( cell != null )
+				corners += cell.length;
+		final HashMap<Long, Integer> edgeCells = new HashMap<>();
+		final ArrayList<int[]> alive = new ArrayList<>();
+		for( int[] cell : cells )
+			if( cell != null )
+				alive.add( cell );
+		cellStart = new int[alive.size() + 1];
+		cellVertices = new int[corners];
+		neighbors = new int[corners];
+		for( int c = 0; c < alive.size(); ++c ) {
+			final int[] cell = alive.get( c );
+			cellStart[c + 1] = cellStart[c] + cell.length;
+			for( int i = 0; i < cell.length; ++i ) {
+				cellVertices[cellStart[c] + i] = cell[i];
+				edgeCells.put( (long)cell[i] * count + cell[(i + 1) % cell.length], c );
+			}
+		}
+		for( int c = 0; c < alive.size(); ++c ) {
+			final int[] cell = alive.get( c );
+			for( int i = 0; i < cell.length; ++i ) {
+				final int u = cell[i];
+				final int v = cell[(i + 1) % cell.length];
+				final Integer neighbor = edgeCells.get( (long)v * count + u );
+				final Integer door = doorKeys.get( key( canonical[u], canonical[v], count ) );
+				neighbors[cellStart[c] + i] = neighbor != null ? neighbor : door != null ? -2 - door : WALL;
+			}
+		}
+	}
+
+	/**
+	 * Returns the modification stamp of the room at the time of creation. The
+	 * mesh is outdated if the stamp of the room has changed since.
+	 * @return the modification stamp
+	 * @see PlanPolygon#getModificationStamp()
+	 */
+	public long getModificationStamp() {
+		return modificationStamp;
+	}
+
+	/**
+	 * Returns whether the stair areas are excluded from the walkable area.
+	 * @return {@code true} if the stair areas are excluded
+	 */
+	public boolean isExcludeStairs() {
+		return excludeStairs;
+	}
+
+	/**
+	 * Returns the passable edges of the room.
+	 * @return the doors of the room
+	 */
+	public List<RoomEdge> getDoors() {
+		return doors;
+	}
+
+	/**
+	 * Returns the number of vertices.
+	 * @return the number of vertices
+	 */
+	public int vertexCount() {
+		return vertices.length / 2;
+	}
+
+	/**
+	 * Returns the number of cells.
+	 * @return the number of cells
+	 */
+	public int cellCount() {
+		return cellStart.length - 1;
+	}
+
+	/**
+	 * Returns a copy of the vertex buffer containing alternating x- and y-coordinates.
+	 * @return the vertex coordinates
+	 */
+	public int[] getVertices() {
+		return vertices.clone();
+	}
+
+	/**
+	 * Returns a copy of the buffer of the first corner of each cell.
+	 * @return the cell start buffer
+	 */
+	public int[] getCellStart() {
+		return cellStart.clone();
+	}
+
+	/**
+	 * Returns a copy of the buffer of the vertex indices of the corners.
+	 * @return the corner buffer
+	 */
+	public int[] getCellVertices() {
+		return cellVertices.clone();
+	}
+
+	/**
+	 * Returns a copy of the buffer of the neighbors across the cell edges.
+	 * @return the neighbor buffer
+	 */
+	public int[] getNeighbors() {
+		return neighbors.clone();
+	}
+
+	/**
+	 * Returns the x-coordinate of a vertex.
+	 * @param v the vertex
+	 * @return the x-coordinate in millimeter
+	 */
+	public int getX( int v ) {
+		return vertices[2 * v];
+	}
+
+	/**
+	 * Returns the y-coordinate of a vertex.
+	 * @param v the vertex
+	 * @return the y-coordinate in millimeter
+	 */
+	public int getY( int v ) {
+		return vertices[2 * v + 1];
+	}
+
+	/**
+	 * Returns the number of corners of a cell.
+	 * @param c the cell
+	 * @return the number of corners
+	 */
+	public int cornerCount( int c ) {
+		return cellStart[c + 1] - cellStart[c];
+	}
+
+	/**
+	 * Returns a corner of a cell.
+	 * @param c the cell
+	 * @param i the index of the corner within the cell
+	 * @return the vertex
+	 */
+	public int corner( int c, int i ) {
+		return cellVertices[cellStart[c] + i];
+	}
+
+	/**
+	 * Returns the neighbor across the edge from the {@code i}-th corner of a cell
+	 * to the next corner.
+	 * @param c the cell
+	 * @param i the index of the corner within the cell
+	 * @return the neighbor cell, {@link #WALL} or {@code -2 - d} for the door {@code d}
+	 */
+	public int neighbor( int c, int i ) {
+		return neighbors[cellStart[c] + i];
+	}
+
+	/**
+	 * Returns the cell having an edge on a door.
+	 * @param d the index of the door
+	 * @return the cell or -1 if the door is not on the boundary of a cell
+	 */
+	public int doorCell( int d ) {
+		for( int i = 0; i < neighbors.length; ++i )
+			if( neighbors[i] == -2 - d ) {
+				int c = Arrays.binarySearch( cellStart, i );
+				if( c < 0 )
+					c = -c - 2;
+				while( cellStart[c + 1] <= i )
+					c++;
+				return c;
+			}
+		return -1;
+	}
+
+	/**
+	 * Converts the points of a barrier to a closed ring of width zero, that
+	 * runs along the barrier and back. Closed barriers already have this form.
+	 */
+	private static List<PlanPoint> barrierRing( List<PlanPoint> points ) {
+		final int n = points.size();
+		if( n > 2 && points.get( 1 ).matches( points.get( n - 1 ) ) )
+			return points;
+		final ArrayList<PlanPoint> ring = new ArrayList<>( points );
+		for( int i = n - 2; i > 0; --i )
+			ring.add( points.get( i ) );
+		return ring;
+	}
+
+	/**
+	 * Inserts the vertices of the rings that lie in the interior of an edge of
+	 * another ring into that edge, for example where an obstacle touches a wall.
+	 * Afterwards touching rings share the positions of their vertices.
+	 * @param rings the rings, which are replaced by the split rings
+	 * @return for each edge of the first ring the index of the edge of the first
+	 * ring before the split
+	 */
+	private static int[] splitTouchingEdges( ArrayList<List<PlanPoint>> rings ) {
+		final int[][] bounds = new int[rings.size()][];
+		for( int r = 0; r < rings.size(); ++r ) {
+			bounds[r] = new int[]{Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE};
+			for( PlanPoint p : rings.get( r ) ) {
+				bounds[r][0] = Math.min( bounds[r][0], p.getXInt() );
+				bounds[r][1] = Math.min( bounds[r][1], p.getYInt() );
+				bounds[r][2] = Math.max( bounds[r][2], p.getXInt() );
+				bounds[r][3] = Math.max( bounds[r][3], p.getYInt() );
+			}
+		}
+		int[] origin = null;
+		for( int r = 0; r < rings.size(); ++r ) {
+			final List<PlanPoint> ring = rings.get( r );
+			final ArrayList<PlanPoint> split = new ArrayList<>( ring.size() );
+			final ArrayList<Integer> edges = new ArrayList<>( ring.size() );
+			for( int i = 0; i < ring.size(); ++i ) {
+				final PlanPoint a = ring.get( i );
+				final PlanPoint b = ring.get( (i + 1) % ring.size() );
+				split.add( a );
+				edges.add( i );
+				final ArrayList<PlanPoint> touching = new ArrayList<>( 0 );
+				for( int s = 0; s < rings.size(); ++s )
+					if( s != r && Math.min( a.getXInt(), b.getXInt() ) <= bounds[s][2] && Math.max( a.getXInt(), b.getXInt() ) >= bounds[s][0]
+									&& Math.min( a.getYInt(), b.getYInt() ) <= bounds[s][3] && Math.max( a.getYInt(), b.getYInt() ) >= bounds[s][1] )
+						for( PlanPoint p : rings.get( s ) )
+							if( inside( a, b, p ) )
+								touching.add( p );
+				Collections.sort( touching, new Comparator<PlanPoint>() {
+					@Override
+					public int compare( PlanPoint p, PlanPoint q ) {
+						return Long.compare( distance( a, p ), distance( a, q ) );
+					}
+				} );
+				for( PlanPoint p : touching )
+					if( !p.matches( split.get( split.size() - 1 ) ) ) {
+						split.add( p );
+						edges.add( i );
+					}
+			}
+			rings.set( r, split );
+			if( r == 0 ) {
+				origin = new int[edges.size()];
+				for( int i = 0; i < origin.length; ++i )
+					origin[i] = edges.get( i );
+			}
+		}
+		return origin;
+	}
+
+	/**
+	 * Decides whether a point lies in the interior of a segment.
+	 */
+	private static boolean inside( PlanPoint a, PlanPoint b, PlanPoint p ) {
+		if( p.matches( a ) || p.matches( b ) || RoomVisibilityGraph.cross( a.getXInt(), a.getYInt(), b.getXInt(), b.getYInt(), p.getXInt(), p.getYInt() ) != 0 )
+			return false;
+		return (long)(p.getXInt() - a.getXInt()) * (p.getXInt() - b.getXInt()) + (long)(p.getYInt() - a.getYInt()) * (p.getYInt() - b.getYInt()) < 0;
+	}
+
+	private static long distance( PlanPoint a, PlanPoint b ) {
+		final long dx = b.getXInt() - a.getXInt();
+		final long dy = b.getYInt() - a.getYInt();
+		return dx * dx + dy * dy;
+	}
+
+	private static long key( int u, int v, int n ) {
+		return (long)Math.min( u, v ) * n + Math.max( u, v );
+	}
+
+	private long signedArea( int[] ring ) {
+		long area = 0;
+		for( int i = 0; i < ring.length; ++i ) {
+			final int j = ring[(i + 1) % ring.length];
+			area += (long)getX( ring[i] ) * getY( j ) - (long)getX( j ) * getY( ring[i] );
+		}
+		return area;
+	}
+
+	private static void reverse( int[] ring ) {
+		for( int i = 0, j = ring.length - 1; i < j; ++i, --j ) {
+			final int t = ring[i];
+			ring[i] = ring[j];
+			ring[j] = t;
+		}
+	}
+
+	private long cross( int a, int b, int c ) {
+		return RoomVisibilityGraph.cross( getX( a ), getY( a ), getX( b ), getY( b ), getX( c ), getY( c ) );
+	}
+
+	private boolean samePosition( int a, int b ) {
+		return getX( a ) == getX( b ) && getY( a ) == getY( b );
+	}
+
+	/**
+	 * Connects all holes to the outer ring, starting with the hole having the
+	 * rightmost vertex. Each hole is connected from its rightmost vertex to the
+	 * nearest visible vertex of the current ring by a pair of bridge edges.
+	 * @param rings the outer ring followed by the holes
+	 * @return a single ring containing all vertices
+	 */
+	private ArrayList<Integer> bridgeHoles( int[][] rings ) {
+		final ArrayList<Integer> ring = new ArrayList<>();
+		for( int v : rings[0] )
+			ring.add( v );
+		final Integer[] holes = new Integer[rings.length - 1];
+		final int[] rightmost = new int[rings.length];
+		for( int r = 1; r < rings.length; ++r ) {
+			holes[r - 1] = r;
+			for( int i = 1; i < rings[r].length; ++i )
+				if( getX( rings[r][i] ) > getX( rings[r][rightmost[r]] ) )
+					rightmost[r] = i;
+		}
+		Arrays.sort( holes, new Comparator<Integer>() {
+			@Override
+			public int compare( Integer a, Integer b ) {
+				return Integer.compare( getX( rings[b][rightmost[b]] ), getX( rings[a][rightmost[a]] ) );
+			}
+		} );
+
+		final int[] outer = new int[2 * rings[0].length];
+		for( int i = 0; i < rings[0].length; ++i ) {
+			outer[2 * i] = getX( rings[0][i] );
+			outer[2 * i + 1] = getY( rings[0][i] );
+		}
+		for( int hole : holes ) {
+			final int[] h = rings[hole];
+			int start = rightmost[hole];
+			int best = -1;
+			final int[] touching = touchingVertex( ring, h );
+			if( touching != null ) {
+				best = touching[0];
+				start = touching[1];
+			} else {
+				best = nearestVisible( ring, rings, h, start );
+				// obstacles and barriers nearby may hide the rightmost vertex
+				for( int j = 0; best == -1 && j < h.length; ++j )
+					if( j != start && (best = nearestVisible( ring, rings, h, j )) != -1 )
+						start = j;
+			}
+			if( best == -1 ) {
+				for( int v : h )
+					if( RoomVisibilityGraph.inside( outer, getX( v ), getY( v ), false ) )
+						throw new IllegalStateException( "The obstacle at (" + getX( v ) + "," + getY( v ) + ") cannot be connected to the walls, it may overlap another obstacle or a wall" );
+				continue; // the hole is not inside of the room
+			}
+			final ArrayList<Integer> insert = new ArrayList<>( h.length + 2 );
+			for( int i = 0; i <= h.length; ++i )
+				insert.add( h[(start + i) % h.length] );
+			insert.add( ring.get( best ) );
+			ring.addAll( best + 1, insert );
+			// collapse zero-width corridors along touching obstacles, which would
+			// widen the sectors at the vertices where the next holes are connected
+			removeDegenerate( ring );
+		}
+		return ring;
+	}
+
+	/**
+	 * Finds the nearest vertex of the ring that can be connected to a vertex of a
+	 * hole by a bridge.
+	 * @return the index of the vertex in the ring, or -1 if no vertex is visible
+	 */
+	private int nearestVisible( ArrayList<Integer> ring, int[][] rings, int[] h, int start ) {
+		final int m = h[start];
+		int best = -1;
+		double bestDistance = Double.POSITIVE_INFINITY;
+		for( int i = 0; i < ring.size(); ++i ) {
+			final int v = ring.get( i );
+			final double d = Math.hypot( getX( v ) - getX( m ), getY( v ) - getY( m ) );
+			if( d < bestDistance && inSector( ring, i, m ) && inSector( h, start, v ) && bridgeValid( ring, rings, v, m ) ) {
+				best = i;
+				bestDistance = d;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Finds a vertex of a hole at the same position as a vertex of the ring, such
+	 * that both edges of the hole at the vertex lie inside of the polygon locally.
+	 * The hole can be connected to the ring by a bridge of length zero there.
+	 * @return the index of the vertex in the ring and in the hole, or
+	 * {@code null} if the hole does not touch the ring
+	 */
+	private int[] touchingVertex( ArrayList<Integer> ring, int[] hole ) {
+		final HashMap<Long, Integer> positions = new HashMap<>();
+		for( int j = 0; j < hole.length; ++j )
+			positions.put( position( hole[j] ), j );
+		for( int i = 0; i < ring.size(); ++i ) {
+			final Integer j = positions.get( position( ring.get( i ) ) );
+			if( j == null )
+				continue;
+			final int p = ring.get( (i + ring.size() - 1) % ring.size() );
+			final int v = ring.get( i );
+			final int n = ring.get( (i + 1) % ring.size() );
+			if( inClosedSector( p, v, n, hole[(j + hole.length - 1) % hole.length] ) && inClosedSector( p, v, n, hole[(j + 1) % hole.length] ) )
+				return new int[]{i, j};
+		}
+		return null;
+	}
+
+	private long position( int v ) {
+		return (long)getX( v ) << 32 | getY( v ) & 0xffffffffL;
+	}
+
+	/**
+	 * Decides whether the direction from a vertex to a point lies inside of the
+	 * angle on the left side of the path from {@code p} over {@code v} to
+	 * {@code n} or on one of its legs.
+	 */
+	private boolean inClosedSector( int p, int v, int n, int m ) {
+		if( cross( v, n, p ) > 0 )
+			return cross( v, n, m ) >= 0 && cross( v, m, p ) >= 0;
+		return !(cross( v, p, m ) > 0 && cross( v, m, n ) > 0);
+	}
+
+	/**
+	 * Decides whether the direction from the {@code i}-th vertex of the ring to
+	 * a point lies inside the polygon locally at the vertex.
+	 */
+	private boolean inSector( ArrayList<Integer> ring, int i, int m ) {
+		return inSector( ring.get( (i + ring.size() - 1) % ring.size() ), ring.get( i ), ring.get( (i + 1) % ring.size() ), m );
+	}
+
+	/**
+	 * Decides whether the direction from the {@code i}-th vertex of a hole to a
+	 * point lies outside of the hole locally at the vertex.
+	 */
+	private boolean inSector( int[] hole, int i, int m ) {
+		return inSector( hole[(i + hole.length - 1) % hole.length], hole[i], hole[(i + 1) % hole.length], m );
+	}
+
+	/**
+	 * Decides whether the direction from a vertex to a point lies inside of the
+	 * angle on the left side of the path from the predecessor {@code p} over the
+	 * vertex {@code v} to the successor {@code n}.
+	 */
+	private boolean inSector( int p, int v, int n, int m ) {
+		if( cross( v, n, p ) > 0 )
+			return cross( v, n, m ) > 0 && cross( v, m, p ) > 0;
+		return !(cross( v, p, m ) >= 0 && cross( v, m, n ) >= 0);
+	}
+
+	/**
+	 * Decides whether a bridge does not cross the current ring or any hole and
+	 * does not pass through any of their vertices. At the end points of the
+	 * bridge it must not enter an obstacle touching the end point.
+	 */
+	private boolean bridgeValid( ArrayList<Integer> ring, int[][] rings, int v, int m ) {
+		if( samePosition( v, m ) )
+			return false;
+		for( int i = 0; i < ring.size(); ++i )
+			if( crosses( v, m, ring.get( i ), ring.get( (i + 1) % ring.size() ) ) || inside( v, m, ring.get( i ) ) )
+				return false;
+		for( int r = 1; r < rings.length; ++r )
+			for( int i = 0; i < rings[r].length; ++i )
+				if( crosses( v, m, rings[r][i], rings[r][(i + 1) % rings[r].length] ) || inside( v, m, rings[r][i] ) )
+					return false;
+		for( int[] r : rings )
+			if( !leaves( r, v, m ) || !leaves( r, m, v ) )
+				return false;
+		return true;
+	}
+
+	/**
+	 * Decides whether the direction from a point to another point does not enter
+	 * the outside of a ring, if the ring has vertices at the position of the
+	 * point. Barriers pass their vertices twice, here one of the sides suffices.
+	 */
+	private boolean leaves( int[] ring, int from, int to ) {
+		boolean touched = false;
+		for( int i = 0; i < ring.length; ++i )
+			if( samePosition( ring[i], from ) ) {
+				if( inClosedSector( ring[(i + ring.length - 1) % ring.length], ring[i], ring[(i + 1) % ring.length], to ) )
+					return true;
+				touched = true;
+			}
+		return !touched;
+	}
+
+	/**
+	 * Decides whether a vertex lies in the interior of a segment.
+	 */
+	private boolean inside( int a, int b, int p ) {
+		if( cross( a, b, p ) != 0 || samePosition( a, p ) || samePosition( b, p ) )
+			return false;
+		return (long)(getX( p ) - getX( a )) * (getX( p ) - getX( b )) + (long)(getY( p ) - getY( a )) * (getY( p ) - getY( b )) < 0;
+	}
+
+	private boolean crosses( int a, int b, int c, int d ) {
+		return RoomVisibilityGraph.properlyCross( getX( a ), getY( a ), getX( b ), getY( b ), getX( c ), getY( c ), getX( d ), getY( d ) );
+	}
+
+	/**
+	 * Triangulates a counter clockwise ring by ear clipping. Vertices in the
+	 * middle of straight lines are kept, as they may be end points of doors.
+	 * Vertices that enclose no area, that is duplicates at the ends of the
+	 * bridges and the tips of barriers and obstacles along walls, are removed
+	 * without a triangle.
+	 * @param ring the ring
+	 * @param rings the outer ring and the holes the ring is built of
+	 * @return the triangles
+	 * @throws IllegalStateException if the ring is not simple, for example
+	 * because obstacles overlap each other or the walls of the room
+	 */
+	private ArrayList<int[]> triangulate( ArrayList<Integer> ring, int[][] rings ) throws IllegalStateException {
+		final ArrayList<int[]> triangles = new ArrayList<>();
+		final int[][] coordinates = new int[rings.length][];
+		for( int k = 0; k < rings.length; ++k ) {
+			coordinates[k] = new int[2 * rings[k].length];
+			for( int j = 0; j < rings[k].length; ++j ) {
+				coordinates[k][2 * j] = getX( rings[k][j] );
+				coordinates[k][2 * j + 1] = getY( rings[k][j] );
+			}
+		}
+		final ArrayList<Integer> r = new ArrayList<>( ring );
+		long area = 0;
+		// the ring is kept free of degenerate vertices, otherwise an ear next to a
+		// zero-width corridor between touching obstacles could cover an obstacle
+		removeDegenerate( r );
+		int i = 0;
+		int misses = 0;
+		while( r.size() > 3 ) {
+			final int n = r.size();
+			final int a = r.get( (i + n - 1) % n );
+			final int b = r.get( i % n );
+			final int c = r.get( (i + 1) % n );
+			final long turn = cross( a, b, c );
+			if( turn > 0 && isEar( r, i % n, coordinates ) ) {
+				triangles.add( new int[]{a, b, c} );
+				area += turn;
+				r.remove( i % n );
+				i = Math.max( 0, removeDegenerate( r, i % r.size() ) - 1 );
+				misses = 0;
+			} else {
+				i = (i + 1) % n;
+				if( ++misses > n )
+					throw new IllegalStateException( "The walkable area of the room cannot be triangulated, no ear in " + ring( r ) );
+			}
+		}
+		if( r.size() == 3 ) {
+			final long turn = cross( r.get( 0 ), r.get( 1 ), r.get( 2 ) );
+			if( turn > 0 ) {
+				triangles.add( new int[]{r.get( 0 ), r.get( 1 ), r.get( 2 )} );
+				area += turn;
+			}
+		}
+		if( area != signedArea( ring ) )
+			throw new IllegalStateException( "The walkable area of the room cannot be triangulated, the boundary overlaps itself: " + ring( ring ) );
+		return triangles;
+	}
+
+	private long signedArea( List<Integer> ring ) {
+		long area = 0;
+		for( int i = 0; i < ring.size(); ++i ) {
+			final int u = ring.get( i );
+			final int v = ring.get( (i + 1) % ring.size() );
+			area += (long)getX( u ) * getY( v ) - (long)getX( v ) * getY( u );
+		}
+		return area;
+	}
+
+	private String ring( List<Integer> ring ) {
+		final StringBuilder sb = new StringBuilder();
+		for( int v : ring )
+			sb.append( '(' ).append( getX( v ) ).append( ',' ).append( getY( v ) ).append( ')' );
+		return sb.toString();
+	}
+
+	/**
+	 * Removes all degenerate vertices of a ring.
+	 * @param r the ring
+	 */
+	private void removeDegenerate( ArrayList<Integer> r ) {
+		for( int k = 0; k < r.size() && r.size() > 3; )
+			if( isDegenerate( r, k ) ) {
+				r.remove( k );
+				k = Math.max( 0, k - 1 );
+			} else
+				k++;
+		removeDegenerate( r, 0 );
+	}
+
+	/**
+	 * Removes degenerate vertices next to a position of the ring, until the
+	 * neighborhood of the position is free of them.
+	 * @param r the ring
+	 * @param i the position
+	 * @return the position of the vertex that followed the removed vertices
+	 */
+	private int removeDegenerate( ArrayList<Integer> r, int i ) {
+		boolean removed = true;
+		while( removed && r.size() > 3 ) {
+			removed = false;
+			for( int k = i - 1; k <= i + 1 && !removed; ++k ) {
+				final int j = (k + r.size()) % r.size();
+				if( isDegenerate( r, j ) ) {
+					r.remove( j );
+					i = j % r.size();
+					removed = true;
+				}
+			}
+		}
+		return i;
+	}
+
+	private boolean isDegenerate( ArrayList<Integer> r, int i ) {
+		final int n = r.size();
+		return isDegenerate( r.get( (i + n - 1) % n ), r.get( i ), r.get( (i + 1) % n ) );
+	}
+
+	/**
+	 * Decides whether a vertex encloses no area, because it is at the position of
+	 * a neighbor or the ring turns back at the vertex.
+	 */
+	private boolean isDegenerate( int a, int b, int c ) {
+		if( samePosition( a, b ) || samePosition( b, c ) )
+			return true;
+		return cross( a, b, c ) == 0 && (long)(getX( b ) - getX( a )) * (getX( c ) - getX( b )) + (long)(getY( b ) - getY( a )) * (getY( c ) - getY( b )) < 0;
+	}
+
+	/**
+	 * Decides whether no other vertex of the ring lies inside or on the border
+	 * of the triangle at the {@code i}-th vertex of the ring. Vertices at the
+	 * same position as a corner, where touching obstacles or bridges meet, are
+	 * allowed if their edges do not enter the triangle. As the ring runs along
+	 * both sides of zero-width corridors between touching obstacles, such a
+	 * triangle is checked against the outer ring and the holes, given by
+	 * {@code coordinates}.
+	 */
+	private boolean isEar( ArrayList<Integer> ring, int i, int[][] coordinates ) {
+		final int n = ring.size();
+		final int a = ring.get( (i + n - 1) % n );
+		final int b = ring.get( i );
+		final int c = ring.get( (i + 1) % n );
+		boolean touching = false;
+		for( int k = 0; k < n; ++k ) {
+			if( k == i || k == (i + n - 1) % n || k == (i + 1) % n )
+				continue;
+			final int p = ring.get( k );
+			if( samePosition( p, a ) || samePosition( p, b ) || samePosition( p, c ) ) {
+				final int x = samePosition( p, a ) ? a : samePosition( p, b ) ? b : c;
+				final int y = x == a ? b : x == b ? c : a;
+				final int z = x == a ? c : x == b ? a : b;
+				if( entersAngle( x, y, z, ring.get( (k + n - 1) % n ) ) || entersAngle( x, y, z, ring.get( (k + 1) % n ) ) )
+					return false;
+				touching = true;
+				continue;
+			}
+			if( cross( a, b, p ) >= 0 && cross( b, c, p ) >= 0 && cross( c, a, p ) >= 0 )
+				return false;
+		}
+		return !touching || walkable( coordinates, (getX( a ) + getX( b ) + getX( c )) / 3.0, (getY( a ) + getY( b ) + getY( c )) / 3.0 );
+	}
+
+	/**
+	 * Decides whether a point lies strictly inside of the outer ring and outside
+	 * of the holes. The interior of a triangle without any vertex of the ring is
+	 * either completely walkable or not, thus testing one point suffices.
+	 */
+	private static boolean walkable( int[][] coordinates, double x, double y ) {
+		if( !RoomVisibilityGraph.inside( coordinates[0], x, y, false ) )
+			return false;
+		for( int k = 1; k < coordinates.length; ++k )
+			if( RoomVisibilityGraph.inside( coordinates[k], x, y, true ) )
+				return false;
+		return true;
+	}
+
+	/**
+	 * Decides whether the direction from the corner {@code x} of a counter
+	 * clockwise triangle {@code x, y, z} to a point lies strictly inside of the
+	 * angle of the triangle at the corner.
+	 */
+	private boolean entersAngle( int x, int y, int z, int q ) {
+		return cross( x, y, q ) > 0 && cross( x, q, z ) > 0;
+	}
+
+	/**
+	 * Merges neighboring cells as long as the result is convex. A diagonal is
+	 * removed if both of its end points stay convex corners.
+	 * @param cells the cells, merged cells are set to {@code null}
+	 */
+	private void merge( ArrayList<int[]> cells ) {
+		final int n = vertexCount();
+		final HashMap<Long, Integer> edgeCells = new HashMap<>();
+		for( int c = 0; c < cells.size(); ++c ) {
+			final int[] cell = cells.get( c );
+			for( int i = 0; i < cell.length; ++i )
+				edgeCells.put( (long)cell[i] * n + cell[(i + 1) % cell.length], c );
+		}
+		for( int c = 0; c < cells.size(); ++c ) {
+			boolean merged = true;
+			while( merged && cells.get( c ) != null ) {
+				merged = false;
+				final int[] cell = cells.get( c );
+				for( int i = 0; i < cell.length && !merged; ++i ) {
+					final int u = cell[i];
+					final int v = cell[(i + 1) % cell.length];
+					final Integer other = edgeCells.get( (long)v * n + u );
+					if( other == null || other == c || cells.get( other ) == null )
+						continue;
+					final int[] combined = combine( cell, i, cells.get( other ) );
+					if( combined == null )
+						continue;
+					for( int j = 0; j < combined.length; ++j )
+						edgeCells.put( (long)combined[j] * n + combined[(j + 1) % combined.length], c );
+					cells.set( c, combined );
+					cells.set( other, null );
+					merged = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Combines two cells sharing the edge starting at the {@code i}-th corner of
+	 * the first cell.
+	 * @return the combined cell or {@code null} if it would not be convex
+	 */
+	private int[] combine( int[] cell, int i, int[] other ) {
+		final int u = cell[i];
+		final int v = cell[(i + 1) % cell.length];
+		int j = 0;
+		while( other[j] != v || other[(j + 1) % other.length] != u )
+			j++;
+		final int[] combined = new int[cell.length + other.length - 2];
+		int k = 0;
+		// the first cell from v around to u, then the other cell from u to v excluding the end points
+		for( int s = 0; s < cell.length; ++s )
+			combined[k++] = cell[(i + 1 + s) % cell.length];
+		for( int s = 2; s < other.length; ++s )
+			combined[k++] = other[(j + s) % other.length];
+		// check convexity at u and v
+		final int pu = cell.length - 1;
+		final int pv = 0;
+		final int len = combined.length;
+		if( cross( combined[(pu + len - 1) % len], combined[pu], combined[(pu + 1) % len] ) < 0 )
+			return null;
+		if( cross( combined[(pv + len - 1) % len], combined[pv], combined[(pv + 1) % len] ) < 0 )
+			return null;
+		return combined;
+	}
+}
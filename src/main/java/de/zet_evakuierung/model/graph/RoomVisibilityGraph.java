@@ -0,0 +1,517 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package de.zet_evakuierung.model.graph;
+
+import de.zet_evakuierung.model.Barrier;
+import de.zet_evakuierung.model.EvacuationArea;
+import de.zet_evakuierung.model.InaccessibleArea;
+import de.zet_evakuierung.model.PlanEdge;
+import de.zet_evakuierung.model.PlanPoint;
+import de.zet_evakuierung.model.PlanPolygon;
+import de.zet_evakuierung.model.Room;
+import de.zet_evakuierung.model.RoomEdge;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>The visibility graph of a single {@link Room}. The vertices of the graph
+ * are the terminals of the room, that are the midpoints of the doors and the
+ * centers of the {@link EvacuationArea}s, together with the reflex vertices of
+ * the room and the vertices of all {@link InaccessibleArea}s and
+ * {@link Barrier}s. Two vertices are connected if the straight line between
+ * them does not cross a wall or an obstacle.</p>
+ * <p>From the graph the shortest walking distances between all pairs of
+ * terminals are computed. The terminals are numbered such that the doors, in
+ * the order of the passable edges of the room, come first and the evacuation
+ * areas, in the order of {@link Room#getEvacuationAreas()}, follow. The
+ * terminal with index {@code i} is also vertex {@code i} of the graph.</p>
+ * <p>The graph is immutable and can be shared between threads. It stores the
+ * modification stamp of the room it was created for, which allows the room to
+ * decide whether a cached instance is still valid, see
+ * {@link #getModificationStamp()}.</p>
+ * @author Jan-Philipp Kappmeier
+ */
+public class RoomVisibilityGraph {
+	/** The modification stamp of the room at creation time. */
+	private final long modificationStamp;
+	/** The passable edges of the room, one for each door terminal. */
+	private final List<RoomEdge> doors;
+	/** The evacuation areas of the room, one for each exit terminal. */
+	private final List<EvacuationArea> exits;
+	/** The x-coordinates of the vertices in millimeter. */
+	private final int[] x;
+	/** The y-coordinates of the vertices in millimeter. */
+	private final int[] y;
+	/** The index of the first arc of each vertex, contains one additional sentinel entry. */
+	private final int[] firstArc;
+	/** The head vertex of each arc. */
+	private final int[] head;
+	/** The length of each arc in millimeter. */
+	private final double[] length;
+	/** The segments blocking the sight, stored as quadruples {@code x1, y1, x2, y2}. */
+	private final int[] walls;
+	/** The boundary of the room as alternating coordinates. */
+	private final int[] boundary;
+	/** The boundaries of the inaccessible areas as alternating coordinates. */
+	private final int[][] obstacles;
+	/** The shortest path distances between the terminals in meter. */
+	private final double[][] distances;
+	/** The predecessor vertices in the shortest path trees rooted at the terminals. */
+	private final int[][] predecessors;
+
+	/**
+	 * Creates the visibility graph for a room and computes the terminal distances.
+	 * @param room the room
+	 */
+	public RoomVisibilityGraph( Room room ) {
+		modificationStamp = room.getPolygon().getModificationStamp();
+		final PlanPolygon<? extends RoomEdge> polygon = room.getPolygon();
+
+		final ArrayList<RoomEdge> doorList = new ArrayList<>();
+		for( RoomEdge edge : polygon.getEdges() )
+			if( edge.isPassable() )
+				doorList.add( edge );
+		doors = Collections.unmodifiableList( doorList );
+		exits = Collections.unmodifiableList( new ArrayList<>( room.getEvacuationAreas() ) );
+
+		// Collect the blocking segments and polygons
+		final ArrayList<PlanEdge> wallEdges = new ArrayList<>( polygon.getEdges() );
+		for( Barrier barrier : room.getBarriers() )
+			wallEdges.addAll( barrier.getEdges() );
+		final List<InaccessibleArea> inaccessible = room.getInaccessibleAreas();
+		for( InaccessibleArea area : inaccessible )
+			wallEdges.addAll( area.getEdges() );
+		walls = new int[4 * wallEdges.size()];
+		for( int i = 0; i < wallEdges.size(); ++i ) {
+			final PlanEdge e = wallEdges.get( i );
+			walls[4 * i] = e.getSource().getXInt();
+			walls[4 * i + 1] = e.getSource().getYInt();
+			walls[4 * i + 2] = e.getTarget().getXInt();
+			walls[4 * i + 3] = e.getTarget().getYInt();
+		}
+		boundary = polygon.isClosed() ? coordinates( polygon.getPolygonPoints() ) : null;
+		obstacles = new int[inaccessible.size()][];
+		for( int i = 0; i < obstacles.length; ++i )
+			obstacles[i] = inaccessible.get( i ).isClosed() ? coordinates( inaccessible.get( i ).getPolygonPoints() ) : new int[0];
+
+		// Collect the vertices: terminals first, then reflex room vertices and obstacle vertices
+		final int terminals = doors.size() + exits.size();
+		int[] vx = new int[terminals + 16];
+		int[] vy = new int[terminals + 16];
+		int n = 0;
+		for( RoomEdge door : doors ) {
+			vx[n] = (door.getSource().getXInt() + door.getTarget().getXInt()) / 2;
+			vy[n++] = (door.getSource().getYInt() + door.getTarget().getYInt()) / 2;
+		}
+		for( EvacuationArea exit : exits ) {
+			vx[n] = (exit.boundLeft() + exit.boundRight()) / 2;
+			vy[n++] = (exit.boundUpper() + exit.boundLower()) / 2;
+		}
+		final ArrayList<int[]> corners = new ArrayList<>();
+		if( boundary != null )
+			corners.add( reflexVertices( boundary ) );
+		for( Barrier barrier : room.getBarriers() )
+			corners.add( coordinates( barrier.getPlanPoints() ) );
+		for( int[] obstacle : obstacles )
+			corners.add( obstacle );
+		for( int[] c : corners )
+			for( int i = 0; i < c.length; i += 2 ) {
+				if( n == vx.length ) {
+					vx = Arrays.copyOf( vx, 2 * n );
+					vy = Arrays.copyOf( vy, 2 * n );
+				}
+				vx[n] = c[i];
+				vy[n++] = c[i + 1];
+			}
+		x = Arrays.copyOf( vx, n );
+		y = Arrays.copyOf( vy, n );
+
+		// Compute visibility for all pairs
+		final boolean[][] visible = new boolean[n][n];
+		final int[] degree = new int[n];
+		int arcs = 0;
+		for( int u = 0; u < n; ++u )
+			for( int v = u + 1; v < n; ++v )
+				if( isVisible( x[u], y[u], x[v], y[v] ) ) {
+					visible[u][v] = true;
+					visible[v][u] = true;
+					degree[u]++;
+					degree[v]++;
+					arcs += 2;
+				}
+		firstArc = new int[n + 1];
+		for( int u = 0; u < n; ++u )
+			firstArc[u + 1] = firstArc[u] + degree[u];
+		head = new int[arcs];
+		length = new double[arcs];
+		for( int u = 0; u < n; ++u ) {
+			int arc = firstArc[u];
+			for( int v = 0; v < n; ++v )
+				if( visible[u][v] ) {
+					head[arc] = v;
+					length[arc++] = Math.hypot( x[u] - x[v], y[u] - y[v] );
+				}
+		}
+
+		// Shortest paths from each terminal
+		distances = new double[terminals][];
+		predecessors = new int[terminals][n];
+		for( int s = 0; s < terminals; ++s ) {
+			final double[] dist = new double[n];
+			Arrays.fill( dist, Double.POSITIVE_INFINITY );
+			dist[s] = 0;
+			shortestPaths( dist, predecessors[s] );
+			distances[s] = new double[terminals];
+			for( int t = 0; t < terminals; ++t )
+				distances[s][t] = dist[t] / 1000.0;
+		}
+	}
+
+	/**
+	 * Returns the modification stamp of the room at the time of creation. The
+	 * graph is outdated if the stamp of the room has changed since.
+	 * @return the modification stamp
+	 * @see PlanPolygon#getModificationStamp()
+	 */
+	public long getModificationStamp() {
+		return modificationStamp;
+	}
+
+	/**
+	 * Returns the number of vertices.
+	 * @return the number of vertices
+	 */
+	public int vertexCount() {
+		return x.length;
+	}
+
+	/**
+	 * Returns the number of terminals, that is the number of doors plus the
+	 * number of exits.
+	 * @return the number of terminals
+	 */
+	public int terminalCount() {
+		return distances.length;
+	}
+
+	/**
+	 * Returns the passable edges of the room in the order of the door terminals.
+	 * @return the doors of the room
+	 */
+	public List<RoomEdge> getDoors() {
+		return doors;
+	}
+
+	/**
+	 * Returns the evacuation areas of the room in the order of the exit terminals.
+	 * The first exit terminal has the index {@code getDoors().size()}.
+	 * @return the evacuation areas of the room
+	 */
+	public List<EvacuationArea> getExits() {
+		return exits;
+	}
+
+	/**
+	 * Returns the shortest walking distance between two terminals.
+	 * @param s the start terminal
+	 * @param t the target terminal
+	 * @return the distance in meter, {@link Double#POSITIVE_INFINITY} if the target is not reachable
+	 */
+	public double distance( int s, int t ) {
+		return distances[s][t];
+	}
+
+	/**
+	 * Returns the vertices on a shortest path between two terminals.
+	 * @param s the start terminal
+	 * @param t the target terminal
+	 * @return the vertices of the path, starting with {@code s} and ending with
+	 * {@code t}, or an empty array if the target is not reachable
+	 */
+	public int[] path( int s, int t ) {
+		if( distances[s][t] == Double.POSITIVE_INFINITY )
+			return new int[0];
+		final int[] pred = predecessors[s];
+		int count = 1;
+		for( int v = t; v != s; v = pred[v] )
+			count++;
+		final int[] path = new int[count];
+		for( int v = t; count > 0; v = pred[v] )
+			path[--count] = v;
+		return path;
+	}
+
+	/**
+	 * Returns the x-coordinate of a vertex in millimeter.
+	 * @param v the vertex
+	 * @return the x-coordinate
+	 */
+	public int getX( int v ) {
+		return x[v];
+	}
+
+	/**
+	 * Returns the y-coordinate of a vertex in millimeter.
+	 * @param v the vertex
+	 * @return the y-coordinate
+	 */
+	public int getY( int v ) {
+		return y[v];
+	}
+
+	/**
+	 * Returns the index of the first arc of a vertex.
+	 * @param v the vertex
+	 * @return the index of the first arc
+	 */
+	public int firstArc( int v ) {
+		return firstArc[v];
+	}
+
+	/**
+	 * Returns the index after the last arc of a vertex.
+	 * @param v the vertex
+	 * @return the index after the last arc
+	 */
+	public int lastArc( int v ) {
+		return firstArc[v + 1];
+	}
+
+	/**
+	 * Returns the head vertex of an arc.
+	 * @param arc the arc
+	 * @return the head vertex
+	 */
+	public int head( int arc ) {
+		return head[arc];
+	}
+
+	/**
+	 * Returns the length of an arc.
+	 * @param arc the arc
+	 * @return the length in millimeter
+	 */
+	public double length( int arc ) {
+		return length[arc];
+	}
+
+	/**
+	 * Decides whether the straight line between two points inside the room does
+	 * neither cross a wall nor pass through an inaccessible area. Lines running
+	 * along walls are considered as visible. The line is split at all vertices
+	 * of walls and obstacles that it touches, and each part has to be inside the
+	 * room and outside of the obstacles. Thus, lines passing through an obstacle
+	 * from one of its vertices to another one are not visible.
+	 * @param x1 the x-coordinate of the first point
+	 * @param y1 the y-coordinate of the first point
+	 * @param x2 the x-coordinate of the second point
+	 * @param y2 the y-coordinate of the second point
+	 * @return {@code true} if the points see each other
+	 */
+	public boolean isVisible( int x1, int y1, int x2, int y2 ) {
+		int touching = 0;
+		for( int i = 0; i < walls.length; i += 4 ) {
+			if( properlyCross( x1, y1, x2, y2, walls[i], walls[i + 1], walls[i + 2], walls[i + 3] ) )
+				return false;
+			if( position( x1, y1, x2, y2, walls[i], walls[i + 1] ) > 0 )
+				touching++;
+		}
+		if( touching == 0 )
+			return isAccessiblePart( x1, y1, x2, y2, 0, 1 );
+
+		// Check the parts between the touched vertices
+		final double[] split = new double[touching + 2];
+		int count = 0;
+		split[count++] = 0;
+		split[count++] = 1;
+		for( int i = 0; i < walls.length; i += 4 ) {
+			final double t = position( x1, y1, x2, y2, walls[i], walls[i + 1] );
+			if( t > 0 )
+				split[count++] = t;
+		}
+		Arrays.sort( split, 0, count );
+		for( int i = 1; i < count; ++i )
+			if( split[i] > split[i - 1] && !isAccessiblePart( x1, y1, x2, y2, split[i - 1], split[i] ) )
+				return false;
+		return true;
+	}
+
+	/**
+	 * Returns the position of a point on the interior of a segment.
+	 * @return the position between 0 and 1 exclusively, or 0 if the point is not
+	 * in the interior of the segment
+	 */
+	private static double position( int x1, int y1, int x2, int y2, int px, int py ) {
+		if( cross( x1, y1, x2, y2, px, py ) != 0 )
+			return 0;
+		final long dot = (long)(px - x1) * (x2 - x1) + (long)(py - y1) * (y2 - y1);
+		final long squared = (long)(x2 - x1) * (x2 - x1) + (long)(y2 - y1) * (y2 - y1);
+		return dot > 0 && dot < squared ? (double)dot / squared : 0;
+	}
+
+	/**
+	 * Decides whether the midpoint of a part of a segment is inside the room and
+	 * outside of all obstacles.
+	 * @param from the start of the part on the segment
+	 * @param to the end of the part on the segment
+	 */
+	private boolean isAccessiblePart( int x1, int y1, int x2, int y2, double from, double to ) {
+		final double t = (from + to) / 2;
+		final double mx = x1 + t * (x2 - x1);
+		final double my = y1 + t * (y2 - y1);
+		if( boundary != null && !inside( boundary, mx, my, true ) )
+			return false;
+		for( int[] obstacle : obstacles )
+			if( obstacle.length > 0 && inside( obstacle, mx, my, false ) )
+				return false;
+		return true;
+	}
+
+	/**
+	 * Decides whether a point is located inside the room or on its boundary. For
+	 * rooms that are not closed the result is always {@code false}.
+	 * @param px the x-coordinate
+	 * @param py the y-coordinate
+	 * @return {@code true} if the point is inside the room
+	 */
+	public boolean contains( int px, int py ) {
+		return boundary != null && inside( boundary, px, py, true );
+	}
+
+	/**
+	 * Decides whether a point is located inside the room and outside of all
+	 * inaccessible areas. Points on the boundary of the room are inside.
+	 * @param px the x-coordinate
+	 * @param py the y-coordinate
+	 * @return {@code true} if the point is accessible
+	 */
+	public boolean isAccessible( int px, int py ) {
+		if( boundary != null && !inside( boundary, px, py, true ) )
+			return false;
+		for( int[] obstacle : obstacles )
+			if( obstacle.length > 0 && inside( obstacle, px, py, false ) )
+				return false;
+		return true;
+	}
+
+	/**
+	 * Computes the shortest path lengths to all vertices using the quadratic
+	 * version of Dijkstra's algorithm, which is suitable for the dense visibility
+	 * graphs. The start distances have to be initialized, which allows multiple
+	 * start vertices. Vertices reached directly from the start keep their
+	 * predecessor value.
+	 * @param dist the start distances, contains the distances in millimeter afterwards
+	 * @param pred the array that is filled with the predecessor vertices
+	 */
+	void shortestPaths( double[] dist, int[] pred ) {
+		final int n = x.length;
+		final boolean[] done = new boolean[n];
+		for( int round = 0; round < n; ++round ) {
+			int u = -1;
+			for( int v = 0; v < n; ++v )
+				if( !done[v] && (u == -1 || dist[v] < dist[u]) )
+					u = v;
+			if( u == -1 || dist[u] == Double.POSITIVE_INFINITY )
+				break;
+			done[u] = true;
+			for( int arc = firstArc[u]; arc < firstArc[u + 1]; ++arc )
+				if( dist[u] + length[arc] < dist[head[arc]] ) {
+					dist[head[arc]] = dist[u] + length[arc];
+					pred[head[arc]] = u;
+				}
+		}
+	}
+
+	private static int[] coordinates( List<PlanPoint> points ) {
+		final int[] c = new int[2 * points.size()];
+		for( int i = 0; i < points.size(); ++i ) {
+			c[2 * i] = points.get( i ).getXInt();
+			c[2 * i + 1] = points.get( i ).getYInt();
+		}
+		return c;
+	}
+
+	/**
+	 * Returns the reflex vertices of a closed polygon. Only these vertices can be
+	 * part of a shortest path inside the polygon.
+	 * @param polygon the polygon as alternating coordinates
+	 * @return the reflex vertices as alternating coordinates
+	 */
+	private static int[] reflexVertices( int[] polygon ) {
+		final int n = polygon.length / 2;
+		long area = 0;
+		for( int i = 0; i < n; ++i ) {
+			final int j = (i + 1) % n;
+			area += (long)polygon[2 * i] * polygon[2 * j + 1] - (long)polygon[2 * j] * polygon[2 * i + 1];
+		}
+		final int[] reflex = new int[polygon.length];
+		int count = 0;
+		for( int i = 0; i < n; ++i ) {
+			final int p = (i + n - 1) % n;
+			final int q = (i + 1) % n;
+			final long turn = cross( polygon[2 * p], polygon[2 * p + 1], polygon[2 * i], polygon[2 * i + 1], polygon[2 * q], polygon[2 * q + 1] );
+			if( turn != 0 && (turn > 0) != (area > 0) ) {
+				reflex[count++] = polygon[2 * i];
+				reflex[count++] = polygon[2 * i + 1];
+			}
+		}
+		return Arrays.copyOf( reflex, count );
+	}
+
+	static long cross( long ax, long ay, long bx, long by, long cx, long cy ) {
+		return (bx - ax) * (cy - ay) - (by - ay) * (cx - ax);
+	}
+
+	/**
+	 * Decides whether two segments cross in a point that is interior to both of
+	 * them. Touching and overlapping segments do not cross properly.
+	 */
+	static boolean properlyCross( int ax, int ay, int bx, int by, int cx, int cy, int dx, int dy ) {
+		final long d1 = Long.signum( cross( ax, ay, bx, by, cx, cy ) );
+		final long d2 = Long.signum( cross( ax, ay, bx, by, dx, dy ) );
+		final long d3 = Long.signum( cross( cx, cy, dx, dy, ax, ay ) );
+		final long d4 = Long.signum( cross( cx, cy, dx, dy, bx, by ) );
+		return d1 * d2 < 0 && d3 * d4 < 0;
+	}
+
+	/**
+	 * Point in polygon test by ray casting.
+	 * @param polygon the polygon as alternating coordinates
+	 * @param px the x-coordinate of the point
+	 * @param py the y-coordinate of the point
+	 * @param boundaryInside the result for points on the boundary
+	 * @return {@code true} if the point is inside
+	 */
+	static boolean inside( int[] polygon, double px, double py, boolean boundaryInside ) {
+		final int n = polygon.length / 2;
+		boolean in = false;
+		for( int i = 0, j = n - 1; i < n; j = i++ ) {
+			final double xi = polygon[2 * i];
+			final double yi = polygon[2 * i + 1];
+			final double xj = polygon[2 * j];
+			final double yj = polygon[2 * j + 1];
+			if( (xj - xi) * (py - yi) - (yj - yi) * (px - xi) == 0
+							&& Math.min( xi, xj ) <= px && px <= Math.max( xi, xj )
+							&& Math.min( yi, yj ) <= py && py <= Math.max( yi, yj ) )
+				return boundaryInside;
+			if( (yi > py) != (yj > py) && px < (xj - xi) * (py - yi) / (yj - yi) + xi )
+				in = !in;
+		}
+		return in;
+	}
+}
@@ -0,0 +1,96 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package de.zet_evakuierung.model.graph;
+
+import de.zet_evakuierung.model.EvacuationArea;
+import de.zet_evakuierung.model.FloorInterface;
+import de.zet_evakuierung.model.PlanPoint;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A route computed by {@link EvacuationRouter}. The route is a polyline that
+ * may span several floors. For each point the floor it is located on is
+ * stored, a change of the floor happens at stairs modelled by teleport edges.
+ * @author Jan-Philipp Kappmeier
+ */
+public class Route {
+	/** The points of the polyline. */
+	private final List<PlanPoint> points;
+	/** The floor of each point. */
+	private final List<FloorInterface> floors;
+	/** The evacuation area at the end of the route. */
+	private final EvacuationArea target;
+	/** The travel time along the route in seconds. */
+	private final double travelTime;
+
+	Route( List<PlanPoint> points, List<FloorInterface> floors, EvacuationArea target, double travelTime ) {
+		this.points = Collections.unmodifiableList( points );
+		this.floors = Collections.unmodifiableList( floors );
+		this.target = target;
+		this.travelTime = travelTime;
+	}
+
+	/**
+	 * Returns the points of the polyline, starting with the start point of the query.
+	 * @return the points of the route
+	 */
+	public List<PlanPoint> getPoints() {
+		return points;
+	}
+
+	/**
+	 * Returns the floors of the points, the floor of the {@code i}-th point is at
+	 * position {@code i}.
+	 * @return the floors of the points
+	 */
+	public List<FloorInterface> getFloors() {
+		return floors;
+	}
+
+	/**
+	 * Returns the evacuation area that is reached by the route.
+	 * @return the evacuation area
+	 */
+	public EvacuationArea getTarget() {
+		return target;
+	}
+
+	/**
+	 * Returns the travel time along the route.
+	 * @return the travel time in seconds
+	 */
+	public double getTravelTime() {
+		return travelTime;
+	}
+
+	/**
+	 * Returns the length of the route. Jumps between floors are not counted.
+	 * @return the length in meter
+	 */
+	public double getLength() {
+		double length = 0;
+		for( int i = 1; i < points.size(); ++i )
+			if( floors.get( i ) == floors.get( i - 1 ) )
+				length += points.get( i ).distance( points.get( i - 1 ) );
+		return length / 1000.0;
+	}
+
+	@Override
+	public String toString() {
+		return "Route to " + target + " (" + points.size() + " points, " + travelTime + "s)";
+	}
+}
@@ -0,0 +1,242 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package de.zet_evakuierung.model.graph;
+
+/**
+ * <p>A time expanded view of a {@link DoorGraph}. The network contains a copy
+ * of each node for each time step {@code 0, ..., horizon-1}. The copy of node
+ * {@code v} at time {@code t} has the index {@code t * n + v}, where {@code n}
+ * is the number of nodes of the static graph.</p>
+ * <p>The arcs are not stored. Each time layer contains the copies of the
+ * {@code m} static arcs followed by {@code n} holdover arcs, thus arc {@code a}
+ * of the static graph starting at time {@code t} has the index
+ * {@code t * (m + n) + a} and the holdover arc of node {@code v} at time
+ * {@code t} has the index {@code t * (m + n) + m + v}. Arc copies whose head
+ * would lie beyond the time horizon do not exist.</p>
+ * <p>Only the transit times in time steps are computed on creation, so the
+ * memory consumption is independent of the time horizon.</p>
+ * @author Jan-Philipp Kappmeier
+ */
+public class TimeExpandedNetwork {
+	/** The static graph. */
+	private final DoorGraph graph;
+	/** The number of time layers. */
+	private final int horizon;
+	/** The number of static nodes. */
+	private final int n;
+	/** The number of static arcs. */
+	private final int m;
+	/** The transit time of each static arc in time steps. */
+	private final int[] transit;
+
+	/**
+	 * Visitor called for each existing outgoing arc of a node in the time expanded
+	 * network.
+	 */
+	public interface ArcVisitor {
+		/**
+		 * Called for an arc.
+		 * @param arc the index of the arc in the time expanded network
+		 * @param head the index of the head node in the time expanded network
+		 */
+		void visit( int arc, int head );
+	}
+
+	/**
+	 * Creates the time expanded view of a door graph.
+	 * @param graph the static graph
+	 * @param stepLength the length of a time step in seconds
+	 * @param horizon the number of time steps
+	 * @throws IllegalArgumentException if the step length or the horizon are not positive,
+	 * or if the network has more than {@link Integer#MAX_VALUE} nodes or arcs
+	 */
+	public TimeExpandedNetwork( DoorGraph graph, double stepLength, int horizon ) throws IllegalArgumentException {
+		if( !(stepLength > 0) )
+			throw new IllegalArgumentException( "Step length must be positive: " + stepLength );
+		if( horizon <= 0 )
+			throw new IllegalArgumentException( "Time horizon must be positive: " + horizon );
+		this.graph = graph;
+		this.horizon = horizon;
+		this.n = graph.nodeCount();
+		this.m = graph.arcCount();
+		if( (long)horizon * (m + n) > Integer.MAX_VALUE )
+			throw new IllegalArgumentException( "Time expanded network too large for time horizon " + horizon );
+		// Transit times beyond the horizon, including unreachable arcs, are capped
+		transit = new int[m];
+		for( int a = 0; a < m; ++a )
+			transit[a] = (int)Math.max( 1, Math.min( horizon, Math.ceil( graph.travelTime( a ) / stepLength ) ) );
+	}
+
+	/**
+	 * Returns the static graph.
+	 * @return the static graph
+	 */
+	public DoorGraph getGraph() {
+		return graph;
+	}
+
+	/**
+	 * Returns the number of time layers.
+	 * @return the time horizon
+	 */
+	public int getHorizon() {
+		return horizon;
+	}
+
+	/**
+	 * Returns the number of nodes in the time expanded network.
+	 * @return the number of nodes
+	 */
+	public int nodeCount() {
+		return horizon * n;
+	}
+
+	/**
+	 * Returns the size of the arc index range. Not all indices in the range belong
+	 * to existing arcs, see {@link #exists( int )}.
+	 * @return the number of possible arc indices
+	 */
+	public int arcIndexCount() {
+		return horizon * (m + n);
+	}
+
+	/**
+	 * Returns the index of the copy of a static node at a given time.
+	 * @param v the static node
+	 * @param t the time step
+	 * @return the index of the node in the time expanded network
+	 */
+	public int node( int v, int t ) {
+		return t * n + v;
+	}
+
+	/**
+	 * Returns the static node of which a node is a copy.
+	 * @param node the node in the time expanded network
+	 * @return the static node
+	 */
+	public int staticNode( int node ) {
+		return node % n;
+	}
+
+	/**
+	 * Returns the time step of a node.
+	 * @param node the node in the time expanded network
+	 * @return the time step
+	 */
+	public int time( int node ) {
+		return node / n;
+	}
+
+	/**
+	 * Decides whether an arc is a holdover arc, that is an arc waiting in a node
+	 * for one time step.
+	 * @param arc the arc in the time expanded network
+	 * @return {@code true} if the arc is a holdover arc
+	 */
+	public boolean isHoldover( int arc ) {
+		return arc % (m + n) >= m;
+	}
+
+	/**
+	 * Returns the static arc of which an arc is a copy.
+	 * @param arc the arc in the time expanded network
+	 * @return the static arc or -1 if the arc is a holdover arc
+	 */
+	public int staticArc( int arc ) {
+		final int a = arc % (m + n);
+		return a < m ? a : -1;
+	}
+
+	/**
+	 * Returns the transit time of an arc in time steps.
+	 * @param arc the arc in the time expanded network
+	 * @return the transit time
+	 */
+	public int transit( int arc ) {
+		final int a = arc % (m + n);
+		return a < m ? transit[a] : 1;
+	}
+
+	/**
+	 * Returns the tail node of an arc.
+	 * @param arc the arc in the time expanded network
+	 * @return the tail node in the time expanded network
+	 */
+	public int tail( int arc ) {
+		final int t = arc / (m + n);
+		final int a = arc % (m + n);
+		return node( a < m ? tailOfStatic( a ) : a - m, t );
+	}
+
+	/**
+	 * Returns the head node of an arc.
+	 * @param arc the arc in the time expanded network
+	 * @return the head node in the time expanded network
+	 */
+	public int head( int arc ) {
+		final int t = arc / (m + n);
+		final int a = arc % (m + n);
+		return a < m ? node( graph.head( a ), t + transit[a] ) : node( a - m, t + 1 );
+	}
+
+	/**
+	 * Decides whether an arc index belongs to an existing arc. An arc exists if it
+	 * arrives within the time horizon.
+	 * @param arc the arc index
+	 * @return {@code true} if the arc exists
+	 */
+	public boolean exists( int arc ) {
+		if( arc < 0 || arc >= arcIndexCount() )
+			return false;
+		return arc / (m + n) + transit( arc ) < horizon;
+	}
+
+	/**
+	 * Calls the visitor for each existing outgoing arc of a node. The holdover arc
+	 * is visited last.
+	 * @param node the node in the time expanded network
+	 * @param visitor the visitor
+	 */
+	public void forEachOutArc( int node, ArcVisitor visitor ) {
+		final int v = node % n;
+		final int t = node / n;
+		final int offset = t * (m + n);
+		for( int a = graph.firstArc( v ); a < graph.lastArc( v ); ++a )
+			if( t + transit[a] < horizon )
+				visitor.visit( offset + a, node( graph.head( a ), t + transit[a] ) );
+		if( t + 1 < horizon )
+			visitor.visit( offset + m + v, node + n );
+	}
+
+	/**
+	 * Finds the tail of a static arc by binary search over the compressed rows.
+	 * @param a the static arc
+	 * @return the tail node of the arc
+	 */
+	private int tailOfStatic( int a ) {
+		int lo = 0;
+		int hi = n - 1;
+		while( lo < hi ) {
+			final int mid = (lo + hi + 1) >>> 1;
+			if( graph.firstArc( mid ) <= a )
+				lo = mid;
+			else
+				hi = mid - 1;
+		}
+		return lo;
+	}
+}
@@ -0,0 +1,292 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package de.zet_evakuierung.model.replica;
+
+import de.zet_evakuierung.model.AssignmentArea;
+import de.zet_evakuierung.model.ConcreteAssignment;
+import de.zet_evakuierung.model.PlanPoint;
+import de.zet_evakuierung.model.Person;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * <p>A file containing replicas of the population of an assignment, written by
+ * the {@link ReplicaGenerator}. Replicas are read on demand by mapping their
+ * part of the file into memory.</p>
+ * <p>The file starts with a header, containing the magic number, the version,
+ * the flags, the number of replicas, the number of persons per replica, the
+ * number of persons per chunk and the position of the index. The index at the
+ * end of the file contains the position and length of each replica. A replica
+ * consists of chunks. Each chunk stores the {@link Column}s of its persons one
+ * after another, each preceded by its length in bytes. If the file is
+ * compressed, each column of a chunk is deflated separately.</p>
+ * @author Jan-Philipp Kappmeier
+ */
+public class ReplicaFile implements Closeable {
+	/** The magic number at the beginning of a replica file. */
+	static final int MAGIC = 0x5a524550;
+	/** The version of the file format. */
+	static final int VERSION = 1;
+	/** The flag that marks compressed files. */
+	static final int COMPRESSED = 1;
+	/** The size of the header in bytes. */
+	static final int HEADER_SIZE = 32;
+
+	/** The columns stored for each person. */
+	public enum Column {
+		/** The x coordinate of the position in millimeters. */
+		X( 4 ),
+		/** The y coordinate of the position in millimeters. */
+		Y( 4 ),
+		/** The index of the assignment area containing the person. */
+		AREA( 4 ),
+		/** The diameter of the person. */
+		DIAMETER( 8 ),
+		/** The age of the person. */
+		AGE( 8 ),
+		/** The familiarity of the person. */
+		FAMILIARITY( 8 ),
+		/** The panic of the person. */
+		PANIC( 8 ),
+		/** The decisiveness of the person. */
+		DECISIVENESS( 8 ),
+		/** The reaction time of the person. */
+		REACTION( 8 );
+		/** The size of one value in bytes. */
+		final int width;
+
+		private Column( int width ) {
+			this.width = width;
+		}
+	}
+
+	/** The channel of the file. */
+	private final FileChannel channel;
+	/** Whether the columns are compressed. */
+	private final boolean compressed;
+	/** The number of persons in each replica. */
+	private final int personCount;
+	/** The number of persons in each chunk. */
+	private final int chunkSize;
+	/** The position of each replica in the file. */
+	private final long[] offsets;
+	/** The length of each replica in bytes. */
+	private final long[] lengths;
+
+	/**
+	 * Opens a replica file for reading.
+	 * @param file the file
+	 * @throws IOException if the file cannot be read or is no replica file
+	 */
+	public ReplicaFile( Path file ) throws IOException {
+		channel = FileChannel.open( file, StandardOpenOption.READ );
+		try {
+			final ByteBuffer header = read( 0, HEADER_SIZE );
+			if( header.getInt( 0 ) != MAGIC || header.getInt( 4 ) != VERSION )
+				throw new IOException( "No replica file of version " + VERSION + ": " + file );
+			compressed = (header.getInt( 8 ) & COMPRESSED) != 0;
+			final int replicas = header.getInt( 12 );
+			personCount = header.getInt( 16 );
+			chunkSize = header.getInt( 20 );
+			final ByteBuffer index = read( header.getLong( 24 ), 16 * replicas );
+			offsets = new long[replicas];
+			lengths = new long[replicas];
+			for( int r = 0; r < replicas; ++r ) {
+				offsets[r] = index.getLong( 16 * r );
+				lengths[r] = index.getLong( 16 * r + 8 );
+			}
+		} catch( IOException | RuntimeException ex ) {
+			channel.close();
+			throw ex;
+		}
+	}
+
+	private ByteBuffer read( long position, int length ) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate( length );
+		while( buffer.hasRemaining() )
+			if( channel.read( buffer, position + buffer.position() ) < 0 )
+				throw new IOException( "Unexpected end of replica file" );
+		return buffer;
+	}
+
+	/**
+	 * Returns the number of replicas in the file.
+	 * @return the number of replicas
+	 */
+	public int getReplicaCount() {
+		return offsets.length;
+	}
+
+	/**
+	 * Returns the number of persons in each replica.
+	 * @return the number of persons
+	 */
+	public int getPersonCount() {
+		return personCount;
+	}
+
+	/**
+	 * Returns whether the columns are compressed.
+	 * @return whether the columns are compressed
+	 */
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	/**
+	 * Maps a replica into memory. Compressed columns are inflated immediately.
+	 * @param index the index of the replica
+	 * @return the replica
+	 * @throws IOException if the replica cannot be read
+	 * @throws IndexOutOfBoundsException if there is no replica with the index
+	 */
+	public Replica getReplica( int index ) throws IOException {
+		final MappedByteBuffer data = channel.map( FileChannel.MapMode.READ_ONLY, offsets[index], lengths[index] );
+		final int chunks = (personCount + chunkSize - 1) / chunkSize;
+		final Column[] columns = Column.values();
+		final ByteBuffer[][] buffers = new ByteBuffer[chunks][columns.length];
+		final int[][] bases = new int[chunks][columns.length];
+		final Inflater inflater = compressed ? new Inflater() : null;
+		int position = 0;
+		try {
+			for( int c = 0; c < chunks; ++c ) {
+				final int persons = Math.min( chunkSize, personCount - c * chunkSize );
+				for( Column column : columns ) {
+					final int length = data.getInt( position );
+					position += 4;
+					if( compressed ) {
+						final byte[] input = new byte[length];
+						for( int k = 0; k < length; ++k )
+							input[k] = data.get( position + k );
+						final byte[] output = new byte[persons * column.width];
+						inflater.reset();
+						inflater.setInput( input );
+						if( inflater.inflate( output ) != output.length )
+							throw new IOException( "Corrupt column " + column + " in replica " + index );
+						buffers[c][column.ordinal()] = ByteBuffer.wrap( output );
+					} else {
+						buffers[c][column.ordinal()] = data;
+						bases[c][column.ordinal()] = position;
+					}
+					position += length;
+				}
+			}
+		} catch( DataFormatException ex ) {
+			throw new IOException( "Corrupt replica " + index, ex );
+		} finally {
+			if( inflater != null )
+				inflater.end();
+		}
+		return new Replica( buffers, bases, chunkSize, personCount );
+	}
+
+	/**
+	 * Closes the file. Replicas that have been mapped stay valid.
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * A single replica of a population. The values are read directly from the
+	 * mapped file, or from the inflated columns if the file is compressed.
+	 */
+	public static class Replica {
+		/** The buffers containing the columns of each chunk. */
+		private final ByteBuffer[][] chunks;
+		/** The position of the columns of each chunk in their buffers. */
+		private final int[][] bases;
+		/** The number of persons per chunk. */
+		private final int chunkSize;
+		/** The number of persons. */
+		private final int size;
+
+		Replica( ByteBuffer[][] chunks, int[][] bases, int chunkSize, int size ) {
+			this.chunks = chunks;
+			this.bases = bases;
+			this.chunkSize = chunkSize;
+			this.size = size;
+		}
+
+		/**
+		 * Returns the number of persons in the replica.
+		 * @return the number of persons
+		 */
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * Returns an integer value of a person.
+		 * @param column the column, one of {@link Column#X}, {@link Column#Y} and {@link Column#AREA}
+		 * @param person the index of the person
+		 * @return the value
+		 * @throws IllegalArgumentException if the column does not contain integer values
+		 */
+		public int getInt( Column column, int person ) throws IllegalArgumentException {
+			if( column.width != 4 )
+				throw new IllegalArgumentException( "Column " + column + " does not contain integers." );
+			final int c = person / chunkSize;
+			return chunks[c][column.ordinal()].getInt( bases[c][column.ordinal()] + 4 * (person % chunkSize) );
+		}
+
+		/**
+		 * Returns a floating point value of a person.
+		 * @param column the column, one of the person attribute columns
+		 * @param person the index of the person
+		 * @return the value
+		 * @throws IllegalArgumentException if the column does not contain floating point values
+		 */
+		public double getDouble( Column column, int person ) throws IllegalArgumentException {
+			if( column.width != 8 )
+				throw new IllegalArgumentException( "Column " + column + " does not contain floating point values." );
+			final int c = person / chunkSize;
+			return chunks[c][column.ordinal()].getDouble( bases[c][column.ordinal()] + 8 * (person % chunkSize) );
+		}
+
+		/**
+		 * Creates the persons of the replica.
+		 * @param areas the assignment areas in the order of the generator, see {@link ReplicaGenerator#getAreas()}
+		 * @return a concrete assignment containing the persons
+		 */
+		public ConcreteAssignment toConcreteAssignment( List<AssignmentArea> areas ) {
+			final ConcreteAssignment assignment = new ConcreteAssignment();
+			for( int i = 0; i < size; ++i ) {
+				final AssignmentArea area = areas.get( getInt( Column.AREA, i ) );
+				final Person person = new Person( new PlanPoint( getInt( Column.X, i ), getInt( Column.Y, i ) ), area.getAssociatedRoom() );
+				person.setDiameter( getDouble( Column.DIAMETER, i ) );
+				person.setAge( getDouble( Column.AGE, i ) );
+				person.setFamiliarity( getDouble( Column.FAMILIARITY, i ) );
+				person.setPanic( getDouble( Column.PANIC, i ) );
+				person.setDecisiveness( getDouble( Column.DECISIVENESS, i ) );
+				person.setReaction( getDouble( Column.REACTION, i ) );
+				assignment.addPerson( person );
+			}
+			return assignment;
+		}
+	}
+}
@@ -0,0 +1,407 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package de.zet_evakuierung.model.replica;
+
+import de.zet_evakuierung.model.Assignment;
+import de.zet_evakuierung.model.AssignmentArea;
+import de.zet_evakuierung.model.AssignmentType;
+import de.zet_evakuierung.model.DistributionSampler;
+import de.zet_evakuierung.model.InaccessibleArea;
+import de.zet_evakuierung.model.PlanPoint;
+import de.zet_evakuierung.model.RandomSource;
+import de.zet_evakuierung.model.replica.ReplicaFile.Column;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import org.zetool.rndutils.distribution.Distribution;
+
+/**
+ * <p>Generates replicas of the population of an {@link Assignment} and writes
+ * them to a {@link ReplicaFile}. Each replica contains as many persons in each
+ * {@link AssignmentArea} as the area has evacuees. The positions are uniformly
+ * distributed in the area outside of the inaccessible areas of the room, the
+ * attributes are sampled from the distributions of the {@link AssignmentType}s
+ * using the {@link DistributionSampler}.</p>
+ * <p>The replicas are generated in parallel. Each replica uses its own random
+ * stream which only depends on the seed and the index of the replica. The
+ * replicas are written in the order of their indices, thus the file content is
+ * independent of the number of threads. At most two replicas per thread are
+ * generated ahead of the next replica to be written.</p>
+ * <p>The geometry and the number of evacuees are copied when the generator is
+ * created. The distributions are shared and must not be changed during the
+ * generation.</p>
+ * @author Jan-Philipp Kappmeier
+ */
+public class ReplicaGenerator {
+	/** The default number of persons in a chunk. */
+	public static final int DEFAULT_CHUNK_SIZE = 4096;
+	/** The number of attempts to place a person before the area is considered to be full. */
+	private static final int MAX_ATTEMPTS = 100000;
+	/** The attribute columns, in the order of {@link #distributions(AssignmentType)}. */
+	private static final Column[] ATTRIBUTES = {Column.DIAMETER, Column.AGE, Column.FAMILIARITY, Column.PANIC, Column.DECISIVENESS, Column.REACTION};
+
+	/** The seed from which the seeds of the replicas are derived. */
+	private final long seed;
+	/** The assignment areas containing evacuees. */
+	private final List<AssignmentArea> areas = new ArrayList<>();
+	/** The sampled geometry of the areas. */
+	private final List<AreaGeometry> geometries = new ArrayList<>();
+	/** The number of persons in a replica. */
+	private final int personCount;
+	/** The number of persons in a chunk. */
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+	/** Whether the columns are compressed. */
+	private boolean compressed = true;
+
+	/**
+	 * Creates a new generator for the areas of all types of an assignment.
+	 * @param assignment the assignment
+	 * @param seed the seed
+	 * @throws IllegalArgumentException if an area with evacuees is not closed
+	 */
+	public ReplicaGenerator( Assignment assignment, long seed ) throws IllegalArgumentException {
+		this.seed = seed;
+		int persons = 0;
+		for( AssignmentType type : assignment.getAssignmentTypes() )
+			for( AssignmentArea area : type.getAssignmentAreas() )
+				if( area.getEvacuees() > 0 ) {
+					if( !area.isClosed() )
+						throw new IllegalArgumentException( "Assignment area is not closed." );
+					areas.add( area );
+					geometries.add( new AreaGeometry( area, persons ) );
+					persons += area.getEvacuees();
+				}
+		personCount = persons;
+	}
+
+	/**
+	 * Returns the assignment areas in the order used in the replica files. The
+	 * {@link Column#AREA} of a person is an index in this list.
+	 * @return the assignment areas
+	 */
+	public List<AssignmentArea> getAreas() {
+		return Collections.unmodifiableList( areas );
+	}
+
+	/**
+	 * Returns the number of persons in each replica.
+	 * @return the number of persons
+	 */
+	public int getPersonCount() {
+		return personCount;
+	}
+
+	/**
+	 * Sets the number of persons that are stored together in a chunk.
+	 * @param chunkSize the number of persons
+	 * @throws IllegalArgumentException if the chunk size is not positive
+	 */
+	public void setChunkSize( int chunkSize ) throws IllegalArgumentException {
+		if( chunkSize <= 0 )
+			throw new IllegalArgumentException( "Chunk size must be positive: " + chunkSize );
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Sets whether the columns are compressed. Compression is enabled by default.
+	 * @param compressed whether the columns are deflated
+	 */
+	public void setCompressed( boolean compressed ) {
+		this.compressed = compressed;
+	}
+
+	/**
+	 * Generates replicas and writes them to a file. An existing file is replaced.
+	 * @param file the file
+	 * @param replicas the number of replicas
+	 * @param threads the number of threads generating replicas
+	 * @throws IOException if the file cannot be written
+	 * @throws InterruptedException if the thread is interrupted while waiting for a replica
+	 * @throws IllegalArgumentException if the number of replicas or threads is invalid
+	 * @throws IllegalStateException if no position can be found in an area
+	 */
+	public void generate( Path file, int replicas, int threads ) throws IOException, InterruptedException, IllegalArgumentException, IllegalStateException {
+		if( replicas < 0 || threads <= 0 )
+			throw new IllegalArgumentException( "Invalid number of replicas or threads: " + replicas + ", " + threads );
+		final ExecutorService executor = Executors.newFixedThreadPool( threads );
+		try( FileChannel channel = FileChannel.open( file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE ) ) {
+			final Deque<Future<byte[]>> pending = new ArrayDeque<>( 2 * threads );
+			final long[] offsets = new long[replicas];
+			final long[] lengths = new long[replicas];
+			long position = ReplicaFile.HEADER_SIZE;
+			int submitted = 0;
+			for( int written = 0; written < replicas; ++written ) {
+				while( submitted < replicas && submitted - written < 2 * threads )
+					pending.add( executor.submit( task( submitted++ ) ) );
+				final byte[] data = get( pending.remove() );
+				offsets[written] = position;
+				lengths[written] = data.length;
+				position += write( channel, ByteBuffer.wrap( data ), position );
+			}
+
+			final ByteBuffer index = ByteBuffer.allocate( 16 * replicas );
+			for( int r = 0; r < replicas; ++r ) {
+				index.putLong( 16 * r, offsets[r] );
+				index.putLong( 16 * r + 8, lengths[r] );
+			}
+			write( channel, index, position );
+			final ByteBuffer header = ByteBuffer.allocate( ReplicaFile.HEADER_SIZE );
+			header.putInt( 0, ReplicaFile.MAGIC );
+			header.putInt( 4, ReplicaFile.VERSION );
+			header.putInt( 8, compressed ? ReplicaFile.COMPRESSED : 0 );
+			header.putInt( 12, replicas );
+			header.putInt( 16, personCount );
+			header.putInt( 20, chunkSize );
+			header.putLong( 24, position );
+			write( channel, header, 0 );
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private Callable<byte[]> task( final int replica ) {
+		return new Callable<byte[]>() {
+			@Override
+			public byte[] call() throws Exception {
+				return encode( generate( replica ) );
+			}
+		};
+	}
+
+	private static byte[] get( Future<byte[]> future ) throws IOException, InterruptedException {
+		try {
+			return future.get();
+		} catch( ExecutionException ex ) {
+			if( ex.getCause() instanceof RuntimeException )
+				throw (RuntimeException)ex.getCause();
+			if( ex.getCause() instanceof IOException )
+				throw (IOException)ex.getCause();
+			throw new IOException( ex.getCause() );
+		}
+	}
+
+	private static int write( FileChannel channel, ByteBuffer buffer, long position ) throws IOException {
+		final int length = buffer.remaining();
+		while( buffer.hasRemaining() )
+			channel.write( buffer, position + length - buffer.remaining() );
+		return length;
+	}
+
+	/**
+	 * Generates the columns of a replica.
+	 * @param replica the index of the replica
+	 * @return the values of the columns, integer columns are stored as {@code int[]}, the others as {@code double[]}
+	 */
+	Object[] generate( int replica ) {
+		final RandomSource random = DistributionSampler.randomSource( seed( replica ) );
+		final int[] x = new int[personCount];
+		final int[] y = new int[personCount];
+		final int[] area = new int[personCount];
+		final double[][] attributes = new double[ATTRIBUTES.length][personCount];
+		for( int a = 0; a < geometries.size(); ++a ) {
+			final AreaGeometry geometry = geometries.get( a );
+			final int end = geometry.start + geometry.evacuees;
+			for( int i = geometry.start; i < end; ++i ) {
+				geometry.sample( random, x, y, i );
+				area[i] = a;
+			}
+			final List<Distribution<Double>> distributions = distributions( areas.get( a ).getAssignmentType() );
+			for( int c = 0; c < ATTRIBUTES.length; ++c )
+				DistributionSampler.fill( distributions.get( c ), attributes[c], geometry.start, end, random );
+		}
+		final Object[] columns = new Object[Column.values().length];
+		columns[Column.X.ordinal()] = x;
+		columns[Column.Y.ordinal()] = y;
+		columns[Column.AREA.ordinal()] = area;
+		for( int c = 0; c < ATTRIBUTES.length; ++c )
+			columns[ATTRIBUTES[c].ordinal()] = attributes[c];
+		return columns;
+	}
+
+	private static List<Distribution<Double>> distributions( AssignmentType type ) {
+		final List<Distribution<Double>> distributions = new ArrayList<>( ATTRIBUTES.length );
+		distributions.add( type.getDiameter() );
+		distributions.add( type.getAge() );
+		distributions.add( type.getFamiliarity() );
+		distributions.add( type.getPanic() );
+		distributions.add( type.getDecisiveness() );
+		distributions.add( type.getReaction() );
+		return distributions;
+	}
+
+	/**
+	 * Encodes the columns of a replica in chunks.
+	 * @param columns the values of the columns
+	 * @return the encoded replica
+	 * @throws IOException never, the data is written to memory
+	 */
+	private byte[] encode( Object[] columns ) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream( bytes );
+		final Deflater deflater = compressed ? new Deflater( Deflater.BEST_SPEED ) : null;
+		final byte[] compressedBuffer = new byte[64 * 1024];
+		try {
+			for( int from = 0; from < personCount; from += chunkSize ) {
+				final int to = Math.min( personCount, from + chunkSize );
+				for( Column column : Column.values() ) {
+					final ByteBuffer raw = ByteBuffer.allocate( (to - from) * column.width );
+					if( column.width == 4 ) {
+						final int[] values = (int[])columns[column.ordinal()];
+						for( int i = from; i < to; ++i )
+							raw.putInt( 4 * (i - from), values[i] );
+					} else {
+						final double[] values = (double[])columns[column.ordinal()];
+						for( int i = from; i < to; ++i )
+							raw.putDouble( 8 * (i - from), values[i] );
+					}
+					if( compressed ) {
+						deflater.reset();
+						deflater.setInput( raw.array() );
+						deflater.finish();
+						final ByteArrayOutputStream deflated = new ByteArrayOutputStream( raw.capacity() / 2 );
+						while( !deflater.finished() )
+							deflated.write( compressedBuffer, 0, deflater.deflate( compressedBuffer ) );
+						out.writeInt( deflated.size() );
+						deflated.writeTo( out );
+					} else {
+						out.writeInt( raw.capacity() );
+						out.write( raw.array() );
+					}
+				}
+			}
+		} finally {
+			if( deflater != null )
+				deflater.end();
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Derives the seed of a replica from the seed of the generator.
+	 * @param replica the index of the replica
+	 * @return the seed of the replica
+	 */
+	private long seed( int replica ) {
+		long z = seed + (replica + 1) * 0x9e3779b97f4a7c15L;
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * The geometry of an assignment area and the inaccessible areas of its room
+	 * overlapping it, used to sample positions.
+	 */
+	private static class AreaGeometry {
+		/** The index of the first person in the area. */
+		final int start;
+		/** The number of persons in the area. */
+		final int evacuees;
+		/** The bounding box of the area. */
+		final int minX, minY, maxX, maxY;
+		/** The coordinates of the area and of the obstacles, alternating x and y. */
+		final List<int[]> polygons = new ArrayList<>();
+
+		AreaGeometry( AssignmentArea area, int start ) {
+			this.start = start;
+			this.evacuees = area.getEvacuees();
+			final int[] ring = ring( area.getPolygonPoints() );
+			polygons.add( ring );
+			int x1 = Integer.MAX_VALUE, y1 = Integer.MAX_VALUE, x2 = Integer.MIN_VALUE, y2 = Integer.MIN_VALUE;
+			for( int i = 0; i < ring.length; i += 2 ) {
+				x1 = Math.min( x1, ring[i] );
+				y1 = Math.min( y1, ring[i + 1] );
+				x2 = Math.max( x2, ring[i] );
+				y2 = Math.max( y2, ring[i + 1] );
+			}
+			minX = x1;
+			minY = y1;
+			maxX = x2;
+			maxY = y2;
+			for( InaccessibleArea obstacle : area.getAssociatedRoom().getInaccessibleAreas() ) {
+				final int[] hole = ring( obstacle.getPolygonPoints() );
+				boolean left = true, right = true, below = true, above = true;
+				for( int i = 0; i < hole.length; i += 2 ) {
+					left &= hole[i] < minX;
+					right &= hole[i] > maxX;
+					below &= hole[i + 1] < minY;
+					above &= hole[i + 1] > maxY;
+				}
+				if( !(left || right || below || above) )
+					polygons.add( hole );
+			}
+		}
+
+		private static int[] ring( List<PlanPoint> points ) {
+			final int[] ring = new int[2 * points.size()];
+			for( int i = 0; i < points.size(); ++i ) {
+				ring[2 * i] = points.get( i ).getXInt();
+				ring[2 * i + 1] = points.get( i ).getYInt();
+			}
+			return ring;
+		}
+
+		/**
+		 * Samples a position inside of the area and outside of the obstacles.
+		 */
+		void sample( RandomSource random, int[] x, int[] y, int index ) throws IllegalStateException {
+			for( int attempt = 0; attempt < MAX_ATTEMPTS; ++attempt ) {
+				final int px = minX + (int)(random.nextDouble() * (maxX - minX + 1L));
+				final int py = minY + (int)(random.nextDouble() * (maxY - minY + 1L));
+				boolean valid = inside( polygons.get( 0 ), px, py );
+				for( int p = 1; p < polygons.size() && valid; ++p )
+					valid = !inside( polygons.get( p ), px, py );
+				if( valid ) {
+					x[index] = px;
+					y[index] = py;
+					return;
+				}
+			}
+			throw new IllegalStateException( "No free position found in assignment area." );
+		}
+
+		/**
+		 * Decides whether a point lies strictly inside a polygon by counting the
+		 * crossings of a horizontal ray.
+		 */
+		private static boolean inside( int[] ring, int px, int py ) {
+			boolean inside = false;
+			for( int i = 0, j = ring.length - 2; i < ring.length; j = i, i += 2 ) {
+				final int xi = ring[i], yi = ring[i + 1], xj = ring[j], yj = ring[j + 1];
+				if( (yi > py) != (yj > py) && px < xi + (double)(xj - xi) * (py - yi) / (yj - yi) )
+					inside = !inside;
+			}
+			return inside;
+		}
+	}
+}
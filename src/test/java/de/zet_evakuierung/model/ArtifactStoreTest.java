@@ -0,0 +1,60 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package de.zet_evakuierung.model;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Test;
+
+/**
+ * Tests the names of kinds accepted by an {@link ArtifactStore}.
+ *
+ * @author Jan-Philipp Kappmeier
+ */
+public class ArtifactStoreTest {
+
+    private ArtifactStore store() throws IOException {
+        Path directory = Files.createTempDirectory("artifacts");
+        directory.toFile().deleteOnExit();
+        return new ArtifactStore(directory.toFile());
+    }
+
+    @Test
+    public void testDottedKind() throws IOException {
+        ArtifactStore store = store();
+        store.write("graph.v2", 1, new byte[]{1, 2, 3});
+        assertThat(Arrays.equals(store.read("graph.v2", 1), new byte[]{1, 2, 3}), is(true));
+        assertThat(store.delete("graph.v2", 1), is(true));
+    }
+
+    @Test
+    public void testPathLikeKindsRejected() throws IOException {
+        ArtifactStore store = store();
+        for (String kind : new String[]{".", "..", ".hidden", "graph.", "a..b", "a/b", "", null}) {
+            try {
+                store.read(kind, 1);
+                fail("Kind accepted: " + kind);
+            } catch (IllegalArgumentException ex) {
+            }
+        }
+    }
+}
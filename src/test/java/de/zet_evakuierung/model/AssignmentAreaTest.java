@@ -0,0 +1,69 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package de.zet_evakuierung.model;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import org.junit.Test;
+
+/**
+ * Tests the cached free area of an {@link AssignmentArea}.
+ *
+ * @author Jan-Philipp Kappmeier
+ */
+public class AssignmentAreaTest {
+
+    private final ZControl control = new ZControl();
+
+    private PlanPolygon<?> polygon(Class<?> type, Object parent, int... coordinates) {
+        control.createNewPolygon(type, parent);
+        for (int i = 0; i < coordinates.length; i += 2) {
+            control.addPoint(new PlanPoint(coordinates[i], coordinates[i + 1]));
+        }
+        control.addPoint(new PlanPoint(coordinates[0], coordinates[1]));
+        return control.latestPolygon();
+    }
+
+    private static PlanPoint point(PlanPolygon<?> polygon, int x, int y) {
+        for (PlanPoint point : polygon.getPolygonPoints()) {
+            if (point.getXInt() == x && point.getYInt() == y) {
+                return point;
+            }
+        }
+        throw new IllegalArgumentException("No point at " + x + "," + y);
+    }
+
+    @Test
+    public void testNetAreaFollowsObstacles() {
+        Floor floor = control.getProject().getBuildingPlan().getFloors().get(1);
+        Room room = (Room) polygon(Room.class, floor, 0, 0, 4000, 0, 4000, 4000, 0, 4000);
+        AssignmentArea area = (AssignmentArea) polygon(AssignmentArea.class, room, 0, 0, 2000, 0, 2000, 2000, 0, 2000);
+        assertThat(area.getNetArea(), is(equalTo(2000L * 2000)));
+
+        PlanPolygon<?> obstacle = polygon(InaccessibleArea.class, room, 1000, 1000, 3000, 1000, 3000, 3000, 1000, 3000);
+        assertThat(area.getNetArea(), is(equalTo(2000L * 2000 - 1000 * 1000)));
+
+        control.movePoints(obstacle.getPolygonPoints(), 1, -31);
+        assertThat(area.getNetArea(), is(equalTo(2000L * 2000 - 999 * 1031)));
+
+        // the area no longer overlaps the obstacle
+        control.movePoints(Arrays.asList(point(area, 2000, 0), point(area, 2000, 2000)), -1000, 0);
+        assertThat(area.getNetArea(), is(equalTo(1000L * 2000)));
+    }
+}
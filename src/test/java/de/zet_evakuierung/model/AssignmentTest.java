@@ -0,0 +1,178 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package de.zet_evakuierung.model;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Tests adding and deleting {@link AssignmentType}s and {@link AssignmentArea}s.
+ *
+ * @author Jan-Philipp Kappmeier
+ */
+public class AssignmentTest {
+
+    private final ZControl control = new ZControl();
+
+    private AssignmentType type(String name) {
+        AssignmentType standard = control.getProject().getCurrentAssignment().getAssignmentTypes().get(0);
+        return new AssignmentType(name, standard.getDiameter(), standard.getAge(), standard.getFamiliarity(),
+                standard.getPanic(), standard.getDecisiveness(), standard.getReaction());
+    }
+
+    private AssignmentArea area(Room room, int x, int y) {
+        control.createNewPolygon(AssignmentArea.class, room);
+        control.addPoint(new PlanPoint(x, y));
+        control.addPoint(new PlanPoint(x + 400, y));
+        control.addPoint(new PlanPoint(x + 400, y + 400));
+        control.addPoint(new PlanPoint(x, y + 400));
+        control.addPoint(new PlanPoint(x, y));
+        return (AssignmentArea) control.latestPolygon();
+    }
+
+    private Room room() {
+        control.createNewPolygon(Room.class, control.getProject().getBuildingPlan().getFloors().get(1));
+        control.addPoint(new PlanPoint(0, 0));
+        control.addPoint(new PlanPoint(4000, 0));
+        control.addPoint(new PlanPoint(4000, 4000));
+        control.addPoint(new PlanPoint(0, 4000));
+        control.addPoint(new PlanPoint(0, 0));
+        return (Room) control.latestPolygon();
+    }
+
+    @Test
+    public void testDeleteAssignmentType() {
+        Assignment assignment = new Assignment("Test");
+        AssignmentType a = type("a");
+        AssignmentType b = type("b");
+        AssignmentType c = type("c");
+        assignment.addAssignmentType(a);
+        assignment.addAssignmentType(b);
+        assignment.addAssignmentType(c);
+
+        assignment.deleteAssignmentType(b);
+        assertThat(assignment.getAssignmentTypes(), is(equalTo(Arrays.asList(a, c))));
+        assignment.deleteAssignmentType(c);
+        assertThat(assignment.getAssignmentTypes(), is(equalTo(Arrays.asList(a))));
+        assignment.deleteAssignmentType(a);
+        assignment.addAssignmentType(b);
+        assignment.addAssignmentType(a);
+        assertThat(assignment.getAssignmentTypes(), is(equalTo(Arrays.asList(b, a))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDeleteMissingAssignmentType() {
+        Assignment assignment = new Assignment("Test");
+        AssignmentType a = type("a");
+        assignment.addAssignmentType(a);
+        assignment.deleteAssignmentType(a);
+        assignment.deleteAssignmentType(a);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddAssignmentTypeTwice() {
+        Assignment assignment = new Assignment("Test");
+        AssignmentType a = type("a");
+        assignment.addAssignmentType(a);
+        assignment.addAssignmentType(type("b"));
+        assignment.deleteAssignmentType(a);
+        assignment.addAssignmentType(a);
+        assignment.addAssignmentType(a);
+    }
+
+    @Test
+    public void testDeleteAssignmentAreas() {
+        Room room = room();
+        AssignmentType type = control.getProject().getCurrentAssignment().getAssignmentTypes().get(0);
+        AssignmentArea first = area(room, 0, 0);
+        AssignmentArea second = area(room, 1000, 0);
+        AssignmentArea third = area(room, 2000, 0);
+        AssignmentArea fourth = area(room, 3000, 0);
+
+        second.delete();
+        assertThat(type.getAssignmentAreas(), is(equalTo(Arrays.asList(first, third, fourth))));
+        first.delete();
+        assertThat(type.getAssignmentAreas(), is(equalTo(Arrays.asList(third, fourth))));
+        AssignmentArea fifth = area(room, 0, 1000);
+        assertThat(type.getAssignmentAreas(), is(equalTo(Arrays.asList(third, fourth, fifth))));
+
+        type.delete();
+        assertThat(type.getAssignmentAreas().isEmpty(), is(true));
+    }
+
+    @Test
+    public void testDeleteAssignment() {
+        Room room = room();
+        Assignment assignment = control.getProject().getCurrentAssignment();
+        AssignmentType type = assignment.getAssignmentTypes().get(0);
+        for (int i = 0; i < 100; ++i) {
+            area(room, 40 * (i % 10), 400 * (i / 10));
+        }
+        assertThat(type.getAssignmentAreas().size(), is(equalTo(100)));
+        assignment.delete();
+        assertThat(type.getAssignmentAreas().isEmpty(), is(true));
+    }
+
+    @Test
+    public void testOrderAfterManyDeletions() {
+        Room room = room();
+        AssignmentType type = control.getProject().getCurrentAssignment().getAssignmentTypes().get(0);
+        List<AssignmentArea> areas = new ArrayList<>();
+        for (int i = 0; i < 30; ++i) {
+            areas.add(area(room, 400 * (i % 10), 400 * (i / 10)));
+        }
+        List<AssignmentArea> expected = new ArrayList<>();
+        for (int i = 0; i < areas.size(); ++i) {
+            if (i % 3 == 0) {
+                expected.add(areas.get(i));
+            } else {
+                areas.get(i).delete();
+            }
+        }
+        assertThat(type.getAssignmentAreas(), is(equalTo(expected)));
+    }
+
+    @Test
+    public void testSaveAfterDeletion() throws IOException {
+        Room room = room();
+        AssignmentType type = control.getProject().getCurrentAssignment().getAssignmentTypes().get(0);
+        AssignmentArea first = area(room, 0, 0);
+        area(room, 1000, 0).delete();
+        AssignmentArea third = area(room, 2000, 0);
+
+        String xml = new String(ProjectLoader.toXML(control.getProject()), StandardCharsets.UTF_8);
+        assertThat(xml.contains("<null/>"), is(false));
+        assertThat(type.getAssignmentAreas(), is(equalTo(Arrays.asList(first, third))));
+
+        File file = File.createTempFile("assignment", ".zet");
+        try {
+            control.save(file);
+            Project loaded = ProjectLoader.load(file);
+            assertThat(loaded.getCurrentAssignment().getAssignmentTypes().get(0).getAssignmentAreas().size(), is(equalTo(2)));
+        } finally {
+            file.delete();
+        }
+    }
+}
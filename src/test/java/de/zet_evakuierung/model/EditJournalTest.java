@@ -0,0 +1,207 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package de.zet_evakuierung.model;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the {@link EditJournal} written by incremental saves restores the
+ * building plan when the project is loaded.
+ *
+ * @author Jan-Philipp Kappmeier
+ */
+public class EditJournalTest {
+
+    private ZControl control;
+    private File file;
+    private File journal;
+
+    @Before
+    public void setUp() throws IOException {
+        control = new ZControl();
+        control.setJournaling(true);
+        file = File.createTempFile("journal", ".zet");
+        journal = EditJournal.getJournalFile(file);
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        journal.delete();
+    }
+
+    private Room room(int... coordinates) {
+        control.createNewPolygon(Room.class, control.getProject().getBuildingPlan().getFloors().get(1));
+        for (int i = 0; i < coordinates.length; i += 2) {
+            control.addPoint(new PlanPoint(coordinates[i], coordinates[i + 1]));
+        }
+        control.addPoint(new PlanPoint(coordinates[0], coordinates[1]));
+        return (Room) control.latestPolygon();
+    }
+
+    private static PlanPoint point(Room room, int x, int y) {
+        for (PlanPoint point : room.getPolygon().getPolygonPoints()) {
+            if (point.getXInt() == x && point.getYInt() == y) {
+                return point;
+            }
+        }
+        throw new IllegalArgumentException("No point at " + x + "," + y);
+    }
+
+    private long loadedHash() throws IOException {
+        return ContentHash.hash(ProjectLoader.load(file).getBuildingPlan());
+    }
+
+    private long currentHash() {
+        return ContentHash.hash(control.getProject().getBuildingPlan());
+    }
+
+    @Test
+    public void testReplay() throws IOException {
+        Room room = room(0, 0, 1000, 0, 1000, 1000, 0, 1000);
+        control.save(file);
+        long saved = file.lastModified();
+
+        control.movePoints(Collections.singletonList(point(room, 1000, 1000)), 200, 100);
+        control.insertPoint(room.getPolygon().getEdge(point(room, 0, 0), point(room, 1000, 0)), new PlanPoint(500, 0));
+        control.renameRoom(room, "Office");
+        control.save(file);
+
+        assertThat(control.getJournal().getRecordCount(), is(equalTo(3)));
+        assertThat(file.lastModified(), is(equalTo(saved)));
+        assertThat(loadedHash(), is(equalTo(currentHash())));
+
+        control.deletePoint((PlanPolygon) room.getPolygon(), point(room, 500, 0));
+        control.save(file);
+        assertThat(control.getJournal().getRecordCount(), is(equalTo(4)));
+        assertThat(loadedHash(), is(equalTo(currentHash())));
+    }
+
+    @Test
+    public void testRejectedEditIsNotJournaled() throws IOException {
+        Room triangle = room(0, 0, 1000, 0, 0, 1000);
+        Room square = room(2000, 0, 3000, 0, 3000, 1000, 2000, 1000);
+        control.save(file);
+
+        try {
+            control.deletePoint((PlanPolygon) triangle.getPolygon(), point(triangle, 1000, 0));
+            fail("A triangle must keep its points");
+        } catch (IllegalStateException expected) {
+        }
+        control.movePoints(Collections.singletonList(point(square, 3000, 1000)), 100, 100);
+        control.save(file);
+
+        assertThat(control.getJournal().getRecordCount(), is(equalTo(1)));
+        assertThat(triangle.getPolygon().getNumberOfEdges(), is(equalTo(3)));
+        assertThat(loadedHash(), is(equalTo(currentHash())));
+    }
+
+    @Test
+    public void testTornTail() throws IOException {
+        Room room = room(0, 0, 1000, 0, 1000, 1000, 0, 1000);
+        control.save(file);
+        control.movePoints(Collections.singletonList(point(room, 1000, 1000)), 200, 100);
+        control.save(file);
+        long expected = currentHash();
+
+        // a batch that was interrupted while it was written
+        try (FileOutputStream out = new FileOutputStream(journal, true)) {
+            out.write(new byte[]{0, 0, 0, 1, 0, 0, 0, 64, 1, 2});
+        }
+        assertThat(loadedHash(), is(equalTo(expected)));
+
+        control.renameRoom(room, "Hall");
+        control.save(file);
+        assertThat(loadedHash(), is(equalTo(currentHash())));
+    }
+
+    @Test
+    public void testUndoWritesCheckpoint() throws IOException {
+        Room room = room(0, 0, 1000, 0, 1000, 1000, 0, 1000);
+        control.save(file);
+        control.movePoints(Collections.singletonList(point(room, 1000, 1000)), 200, 100);
+        control.undo();
+        assertThat(control.getJournal().isCheckpointRequired(), is(true));
+        control.save(file);
+        assertThat(control.getJournal().getRecordCount(), is(equalTo(0)));
+        assertThat(loadedHash(), is(equalTo(currentHash())));
+    }
+
+    @Test
+    public void testFullSaveRemovesJournal() throws IOException {
+        Room room = room(0, 0, 1000, 0, 1000, 1000, 0, 1000);
+        control.save(file);
+        control.renameRoom(room, "Hall");
+        control.save(file);
+        assertThat(journal.exists(), is(true));
+
+        control.setJournaling(false);
+        control.save(file);
+        assertThat(journal.exists(), is(false));
+        assertThat(loadedHash(), is(equalTo(currentHash())));
+    }
+
+    @Test
+    public void testAsyncSave() throws Exception {
+        Room room = room(0, 0, 1000, 0, 1000, 1000, 0, 1000);
+        control.save(file);
+        control.renameRoom(room, "Hall");
+        assertThat(control.saveAsync(file).get(10, TimeUnit.SECONDS), is(equalTo(file)));
+        assertThat(journal.exists(), is(false));
+        assertThat(loadedHash(), is(equalTo(currentHash())));
+
+        // the background save is not journaled, the next save writes the whole project
+        control.movePoints(Collections.singletonList(point(room, 1000, 1000)), 200, 100);
+        control.save(file);
+        assertThat(control.getJournal().getRecordCount(), is(equalTo(0)));
+        assertThat(loadedHash(), is(equalTo(currentHash())));
+    }
+
+    @Test
+    public void testAsyncSaveDoesNotReplaceLaterSave() throws Exception {
+        Room room = room(0, 0, 1000, 0, 1000, 1000, 0, 1000);
+        Future<File> background;
+        // the transaction holds the write lock, so the background save waits
+        control.begin();
+        try {
+            background = control.saveAsync(file);
+            control.renameRoom(room, "Office");
+            control.save(file);
+        } finally {
+            control.commit();
+        }
+        background.get(10, TimeUnit.SECONDS);
+        assertThat(journal.exists(), is(true));
+
+        control.renameRoom(room, "Storage");
+        control.save(file);
+        assertThat(control.getJournal().getRecordCount(), is(equalTo(1)));
+        assertThat(loadedHash(), is(equalTo(currentHash())));
+    }
+}
@@ -0,0 +1,317 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package de.zet_evakuierung.model;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.Collections;
+import org.junit.Test;
+
+/**
+ * Tests undoing and redoing modifications recorded in the {@link EditLog} of
+ * the {@link ZControl}.
+ *
+ * @author Jan-Philipp Kappmeier
+ */
+public class EditLogTest {
+
+    private final ZControl control = new ZControl();
+
+    private PlanPolygon<?> polygon(Class<?> type, Object parent, int... coordinates) {
+        control.createNewPolygon(type, parent);
+        for (int i = 0; i < coordinates.length; i += 2) {
+            control.addPoint(new PlanPoint(coordinates[i], coordinates[i + 1]));
+        }
+        control.addPoint(new PlanPoint(coordinates[0], coordinates[1]));
+        return control.latestPolygon();
+    }
+
+    private Room room(int... coordinates) {
+        return (Room) polygon(Room.class, control.getProject().getBuildingPlan().getFloors().get(1), coordinates);
+    }
+
+    private static PlanPoint point(PlanPolygon<?> polygon, int x, int y) {
+        for (PlanPoint point : polygon.getPolygonPoints()) {
+            if (point.getXInt() == x && point.getYInt() == y) {
+                return point;
+            }
+        }
+        throw new IllegalArgumentException("No point at " + x + "," + y);
+    }
+
+    private long hash() {
+        return ContentHash.hash(control.getProject().getBuildingPlan());
+    }
+
+    @Test
+    public void testUndoRedoMove() {
+        Room room = room(0, 0, 1000, 0, 1000, 1000, 0, 1000);
+        PlanPolygon<?> walls = room.getPolygon();
+        PlanPoint corner = point(walls, 1000, 1000);
+        long before = hash();
+
+        control.movePoints(Collections.singletonList(corner), 500, 200);
+        long after = hash();
+        assertThat(walls.boundRight(), is(equalTo(1500)));
+
+        assertThat(control.undo(), is(true));
+        assertThat(hash(), is(equalTo(before)));
+        assertThat(corner.getXInt(), is(equalTo(1000)));
+        assertThat(walls.boundRight(), is(equalTo(1000)));
+        assertThat(walls.boundLower(), is(equalTo(1000)));
+
+        assertThat(control.redo(), is(true));
+        assertThat(hash(), is(equalTo(after)));
+        assertThat(walls.boundRight(), is(equalTo(1500)));
+        assertThat(walls.boundLower(), is(equalTo(1200)));
+    }
+
+    @Test
+    public void testUndoRedoSequence() {
+        Room room = room(0, 0, 1000, 0, 1000, 1000, 0, 1000);
+        PlanPolygon<?> walls = room.getPolygon();
+        long initial = hash();
+
+        control.insertPoint(walls.getEdge(point(walls, 0, 0), point(walls, 1000, 0)), new PlanPoint(500, 0));
+        long inserted = hash();
+        control.renameRoom(room, "Storage");
+        long renamed = hash();
+        control.deletePoint(walls, point(walls, 500, 0));
+        // The creation of the room is the first step
+        assertThat(control.getHistory().getUndoCount(), is(equalTo(4)));
+
+        assertThat(control.undo(), is(true));
+        assertThat(hash(), is(equalTo(renamed)));
+        assertThat(walls.getNumberOfEdges(), is(equalTo(5)));
+        assertThat(control.undo(), is(true));
+        assertThat(hash(), is(equalTo(inserted)));
+        assertThat(room.getName().equals("Storage"), is(false));
+        assertThat(control.undo(), is(true));
+        assertThat(hash(), is(equalTo(initial)));
+        assertThat(walls.getNumberOfEdges(), is(equalTo(4)));
+        assertThat(control.undo(), is(true));
+        assertThat(room.getAssociatedFloor().getRooms().contains(room), is(false));
+        assertThat(control.undo(), is(false));
+
+        assertThat(control.redo(), is(true));
+        assertThat(hash(), is(equalTo(initial)));
+        assertThat(control.redo(), is(true));
+        assertThat(control.redo(), is(true));
+        assertThat(hash(), is(equalTo(renamed)));
+        assertThat(room.getName(), is(equalTo("Storage")));
+        assertThat(control.getHistory().getRedoCount(), is(equalTo(1)));
+    }
+
+    @Test
+    public void testNewModificationClearsRedo() {
+        Room room = room(0, 0, 1000, 0, 1000, 1000, 0, 1000);
+        control.renameRoom(room, "Storage");
+        control.undo();
+        assertThat(control.getHistory().canRedo(), is(true));
+
+        control.renameRoom(room, "Office");
+        assertThat(control.getHistory().canRedo(), is(false));
+        assertThat(control.redo(), is(false));
+        assertThat(room.getName(), is(equalTo("Office")));
+    }
+
+    @Test
+    public void testTransactionIsOneStep() {
+        Room room = room(0, 0, 1000, 0, 1000, 1000, 0, 1000);
+        PlanPolygon<?> walls = room.getPolygon();
+        long before = hash();
+
+        control.begin();
+        control.movePoints(Collections.singletonList(point(walls, 1000, 1000)), 100, 100);
+        control.movePoints(Collections.singletonList(point(walls, 0, 1000)), -100, 100);
+        control.renameRoom(room, "Storage");
+        control.commit();
+        assertThat(control.getHistory().getUndoCount(), is(equalTo(2)));
+
+        control.undo();
+        assertThat(hash(), is(equalTo(before)));
+    }
+
+    @Test
+    public void testCapacity() {
+        Room room = room(0, 0, 1000, 0, 1000, 1000, 0, 1000);
+        control.getHistory().setCapacity(2);
+        control.renameRoom(room, "First");
+        control.renameRoom(room, "Second");
+        control.renameRoom(room, "Third");
+        assertThat(control.getHistory().getUndoCount(), is(equalTo(2)));
+
+        control.undo();
+        control.undo();
+        assertThat(control.undo(), is(false));
+        assertThat(room.getName(), is(equalTo("First")));
+    }
+
+    @Test
+    public void testUndoRedoCreateRoom() {
+        Room room = room(0, 0, 1000, 0, 1000, 1000, 0, 1000);
+        Floor floor = control.getProject().getBuildingPlan().getFloors().get(1);
+        control.renameRoom(room, "Storage");
+        long renamed = hash();
+
+        Room created = room(2000, 0, 3000, 0, 3000, 1000, 2000, 1000);
+        long after = hash();
+        assertThat(control.getHistory().getUndoCount(), is(equalTo(3)));
+
+        assertThat(control.undo(), is(true));
+        assertThat(floor.getRooms().contains(created), is(false));
+        assertThat(hash(), is(equalTo(renamed)));
+        assertThat(control.undo(), is(true));
+        assertThat(room.getName().equals("Storage"), is(false));
+
+        assertThat(control.redo(), is(true));
+        assertThat(control.redo(), is(true));
+        assertThat(floor.getRooms().contains(created), is(true));
+        assertThat(hash(), is(equalTo(after)));
+    }
+
+    @Test
+    public void testUndoRedoDeleteLinkedRoom() {
+        Room left = room(0, 0, 1000, 0, 1000, 1000, 0, 1000);
+        Room right = room(1000, 0, 2000, 0, 2000, 1000, 1000, 1000);
+        RoomEdge wall = left.getPolygon().getEdge(point(left.getPolygon(), 1000, 0), point(left.getPolygon(), 1000, 1000));
+        control.createDoor(wall, new PlanPoint(1000, 500), 400);
+        RoomEdge door = left.getPolygon().getEdge(new PlanPoint(1000, 300), new PlanPoint(1000, 700));
+        long before = hash();
+
+        control.deletePolygon(right);
+        long after = hash();
+        assertThat(left.getAssociatedFloor().getRooms().contains(right), is(false));
+        assertThat(door.isPassable(), is(false));
+
+        assertThat(control.undo(), is(true));
+        assertThat(hash(), is(equalTo(before)));
+        assertThat(left.getAssociatedFloor().getRooms().contains(right), is(true));
+        assertThat(door.getLinkTarget().getRoom(), is(equalTo(right)));
+        assertThat(door.getLinkTarget().getLinkTarget(), is(equalTo(door)));
+
+        assertThat(control.redo(), is(true));
+        assertThat(hash(), is(equalTo(after)));
+        assertThat(door.isPassable(), is(false));
+
+        // The steps before the deletion are still recorded
+        control.undo();
+        assertThat(control.undo(), is(true));
+        assertThat(left.getPolygon().getNumberOfEdges(), is(equalTo(4)));
+    }
+
+    @Test
+    public void testUndoDeleteAreas() {
+        Room room = room(0, 0, 4000, 0, 4000, 4000, 0, 4000);
+        EvacuationArea exit = (EvacuationArea) polygon(EvacuationArea.class, room, 0, 0, 1000, 0, 1000, 1000, 0, 1000);
+        AssignmentArea area = (AssignmentArea) polygon(AssignmentArea.class, room, 2000, 2000, 3000, 2000, 3000, 3000, 2000, 3000);
+        AssignmentType type = area.getAssignmentType();
+        area.setExitArea(exit);
+
+        control.delete(exit);
+        control.delete(area);
+        assertThat(area.getExitArea(), is(nullValue()));
+        assertThat(room.getAssignmentAreas().contains(area), is(false));
+        assertThat(type.getAssignmentAreas().contains(area), is(false));
+
+        assertThat(control.undo(), is(true));
+        assertThat(room.getAssignmentAreas().contains(area), is(true));
+        assertThat(type.getAssignmentAreas().contains(area), is(true));
+        assertThat(room.getEvacuationAreas().contains(exit), is(false));
+        assertThat(control.undo(), is(true));
+        assertThat(room.getEvacuationAreas().contains(exit), is(true));
+        assertThat(area.getExitArea(), is(sameInstance(exit)));
+
+        assertThat(control.redo(), is(true));
+        assertThat(area.getExitArea(), is(nullValue()));
+        assertThat(room.getEvacuationAreas().contains(exit), is(false));
+    }
+
+    @Test
+    public void testUndoRedoFloors() {
+        BuildingPlan plan = control.getProject().getBuildingPlan();
+        Floor first = plan.getFloors().get(1);
+        room(0, 0, 1000, 0, 1000, 1000, 0, 1000);
+        Floor second = control.createFloor("Second");
+        control.moveFloorDown(second);
+        assertThat(plan.getFloors().get(1), is(sameInstance(second)));
+        control.deleteFloor(first);
+        assertThat(plan.getFloors().contains(first), is(false));
+
+        assertThat(control.undo(), is(true));
+        assertThat(plan.getFloors().get(2), is(sameInstance(first)));
+        assertThat(first.getRooms().size(), is(equalTo(1)));
+        assertThat(control.undo(), is(true));
+        assertThat(plan.getFloors().get(1), is(sameInstance(first)));
+        assertThat(control.undo(), is(true));
+        assertThat(plan.getFloors().contains(second), is(false));
+
+        assertThat(control.redo(), is(true));
+        assertThat(control.redo(), is(true));
+        assertThat(control.redo(), is(true));
+        assertThat(plan.getFloors().contains(first), is(false));
+        assertThat(plan.getFloors().get(1), is(sameInstance(second)));
+    }
+
+    @Test
+    public void testDeleteLastFloorAddsEmptyFloor() {
+        BuildingPlan plan = control.getProject().getBuildingPlan();
+        Floor floor = plan.getFloors().get(1);
+        control.deleteFloor(floor);
+        assertThat(plan.floorCount(), is(equalTo(2)));
+        assertThat(plan.getFloors().get(1), is(not(sameInstance(floor))));
+
+        assertThat(control.undo(), is(true));
+        assertThat(plan.floorCount(), is(equalTo(2)));
+        assertThat(plan.getFloors().get(1), is(sameInstance(floor)));
+    }
+
+    @Test
+    public void testUndoRedoExitDoor() {
+        Room room = room(0, 0, 1000, 0, 1000, 1000, 0, 1000);
+        DefaultEvacuationFloor evacuationFloor = control.getProject().getBuildingPlan().getDefaultFloor();
+        int rooms = evacuationFloor.getRooms().size();
+        RoomEdge wall = room.getPolygon().getEdge(point(room.getPolygon(), 1000, 0), point(room.getPolygon(), 1000, 1000));
+        long before = hash();
+
+        control.createExitDoor(wall, new PlanPoint(1000, 500), 400);
+        RoomEdge door = room.getPolygon().getEdge(new PlanPoint(1000, 300), new PlanPoint(1000, 700));
+        assertThat(door, is(instanceOf(TeleportEdge.class)));
+        assertThat(control.getHistory().getUndoCount(), is(equalTo(2)));
+
+        assertThat(control.undo(), is(true));
+        assertThat(hash(), is(equalTo(before)));
+        assertThat(evacuationFloor.getRooms().size(), is(equalTo(rooms)));
+        assertThat(room.getPolygon().getNumberOfEdges(), is(equalTo(4)));
+
+        assertThat(control.redo(), is(true));
+        door = room.getPolygon().getEdge(new PlanPoint(1000, 300), new PlanPoint(1000, 700));
+        assertThat(door, is(instanceOf(TeleportEdge.class)));
+        assertThat(door.getLinkTarget().getRoom().getAssociatedFloor(), is(sameInstance((Floor) evacuationFloor)));
+        assertThat(evacuationFloor.getRooms().size(), is(equalTo(rooms + 1)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCapacity() {
+        control.getHistory().setCapacity(-1);
+    }
+}
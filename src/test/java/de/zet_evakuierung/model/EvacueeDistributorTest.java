@@ -0,0 +1,164 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package de.zet_evakuierung.model;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import de.zet_evakuierung.model.exception.TooManyPeopleException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+
+/**
+ * Tests the seeded distribution of evacuees by the {@link EvacueeDistributor}.
+ *
+ * @author Jan-Philipp Kappmeier
+ */
+public class EvacueeDistributorTest {
+
+    private final ZControl control = new ZControl();
+    private final Room room;
+
+    public EvacueeDistributorTest() {
+        control.createNewPolygon(Room.class, control.getProject().getBuildingPlan().getFloors().get(1));
+        control.addPoint(new PlanPoint(0, 0));
+        control.addPoint(new PlanPoint(10000, 0));
+        control.addPoint(new PlanPoint(10000, 10000));
+        control.addPoint(new PlanPoint(0, 10000));
+        control.addPoint(new PlanPoint(0, 0));
+        room = (Room) control.latestPolygon();
+    }
+
+    private AssignmentArea area(int x, int y, int width, int height) {
+        control.createNewPolygon(AssignmentArea.class, room);
+        control.addPoint(new PlanPoint(x, y));
+        control.addPoint(new PlanPoint(x + width, y));
+        control.addPoint(new PlanPoint(x + width, y + height));
+        control.addPoint(new PlanPoint(x, y + height));
+        control.addPoint(new PlanPoint(x, y));
+        return (AssignmentArea) control.latestPolygon();
+    }
+
+    private List<AssignmentArea> equalAreas(int count) {
+        List<AssignmentArea> areas = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            areas.add(area(2000 * i, 0, 2000, 2000));
+        }
+        return areas;
+    }
+
+    private static int sum(int[] values) {
+        int sum = 0;
+        for (int value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    @Test
+    public void testReproducible() throws TooManyPeopleException {
+        List<AssignmentArea> areas = equalAreas(3);
+        int[] first = new EvacueeDistributor(42).distribute(areas, 10);
+        int[] second = new EvacueeDistributor(42).distribute(areas, 10);
+        assertThat(Arrays.equals(first, second), is(true));
+        assertThat(sum(first), is(equalTo(10)));
+    }
+
+    @Test
+    public void testSeedBreaksTies() throws TooManyPeopleException {
+        List<AssignmentArea> areas = equalAreas(3);
+        Set<Integer> favoured = new HashSet<>();
+        for (long seed = 0; seed < 30; ++seed) {
+            int[] evacuees = new EvacueeDistributor(seed).distribute(areas, 7);
+            assertThat(sum(evacuees), is(equalTo(7)));
+            for (int i = 0; i < evacuees.length; ++i) {
+                assertThat(evacuees[i] == 2 || evacuees[i] == 3, is(true));
+                if (evacuees[i] == 3) {
+                    favoured.add(i);
+                }
+            }
+        }
+        // every area, including the last one, gets the additional evacuee for some seed
+        assertThat(favoured.size(), is(equalTo(3)));
+    }
+
+    @Test
+    public void testLargestRemainder() throws TooManyPeopleException {
+        List<AssignmentArea> areas = Arrays.asList(area(0, 0, 2000, 2000), area(0, 3000, 4000, 2000), area(0, 6000, 6000, 2000));
+        int total = 0;
+        for (AssignmentArea area : areas) {
+            total += area.getMaxEvacuees();
+        }
+        int nrOfEvacuees = total / 2 + 1;
+        int[] evacuees = new EvacueeDistributor(7).distribute(areas, nrOfEvacuees);
+
+        assertThat(sum(evacuees), is(equalTo(nrOfEvacuees)));
+        for (int i = 0; i < evacuees.length; ++i) {
+            double share = (double) areas.get(i).getMaxEvacuees() * nrOfEvacuees / total;
+            assertThat(evacuees[i] >= Math.floor(share) && evacuees[i] <= Math.ceil(share), is(true));
+        }
+    }
+
+    @Test
+    public void testWeights() throws TooManyPeopleException {
+        AssignmentArea standard = area(0, 0, 2000, 2000);
+        AssignmentArea other = area(3000, 0, 2000, 2000);
+        AssignmentType defaultType = standard.getAssignmentType();
+        AssignmentType otherType = new AssignmentType("Other", defaultType.getDiameter(), defaultType.getAge(),
+                defaultType.getFamiliarity(), defaultType.getPanic(), defaultType.getDecisiveness(), defaultType.getReaction());
+        control.getProject().getCurrentAssignment().addAssignmentType(otherType);
+        other.setAssignmentType(otherType);
+
+        EvacueeDistributor distributor = new EvacueeDistributor(1);
+        distributor.setWeight(otherType, 0);
+        int[] evacuees = distributor.distribute(Arrays.asList(standard, other), 3);
+        assertThat(evacuees[0], is(equalTo(3)));
+        assertThat(evacuees[1], is(equalTo(0)));
+
+        // the surplus beyond the capacity of the heavier type goes to the other areas
+        distributor.setWeight(otherType, 100);
+        int capacity = other.getMaxEvacuees();
+        evacuees = distributor.distribute(Arrays.asList(standard, other), capacity + 2);
+        assertThat(evacuees[1], is(equalTo(capacity)));
+        assertThat(evacuees[0], is(equalTo(2)));
+    }
+
+    @Test
+    public void testBuildingPlan() throws TooManyPeopleException {
+        List<AssignmentArea> areas = equalAreas(4);
+        control.getProject().getBuildingPlan().distributeEvacuees(13, 5);
+        int[] expected = new EvacueeDistributor(5).distribute(areas, 13);
+        for (int i = 0; i < expected.length; ++i) {
+            assertThat(areas.get(i).getEvacuees(), is(equalTo(expected[i])));
+        }
+    }
+
+    @Test(expected = TooManyPeopleException.class)
+    public void testTooManyPeople() throws TooManyPeopleException {
+        AssignmentArea area = area(0, 0, 2000, 2000);
+        new EvacueeDistributor(0).distribute(Arrays.asList(area), area.getMaxEvacuees() + 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeNumber() throws TooManyPeopleException {
+        new EvacueeDistributor(0).distribute(equalAreas(1), -1);
+    }
+}
@@ -0,0 +1,58 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package de.zet_evakuierung.model;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Collections;
+import org.junit.Test;
+
+/**
+ * Tests the incremental update of a {@link FloorArrangement}.
+ *
+ * @author Jan-Philipp Kappmeier
+ */
+public class FloorArrangementTest {
+
+    private final ZControl control = new ZControl();
+    private final Floor floor = control.getProject().getBuildingPlan().getFloors().get(1);
+
+    private Room room(int... coordinates) {
+        control.createNewPolygon(Room.class, floor);
+        for (int i = 0; i < coordinates.length; i += 2) {
+            control.addPoint(new PlanPoint(coordinates[i], coordinates[i + 1]));
+        }
+        control.addPoint(new PlanPoint(coordinates[0], coordinates[1]));
+        return (Room) control.latestPolygon();
+    }
+
+    @Test
+    public void testRefresh() {
+        Room left = room(0, 0, 1000, 0, 1000, 1000, 0, 1000);
+        Room right = room(1000, 0, 2000, 0, 2000, 1000, 1000, 1000);
+        FloorArrangement arrangement = new FloorArrangement(floor);
+        assertThat(arrangement.refresh(), is(equalTo(0)));
+        assertThat(arrangement.getAdjacentRooms(left), is(equalTo(Collections.singletonList(right))));
+
+        // a move that leaves a linear combination of the coordinates unchanged
+        control.movePoints(right.getPolygon().getPolygonPoints(), 1, -31);
+        assertThat(arrangement.refresh(), is(equalTo(1)));
+        assertThat(arrangement.getAdjacentRooms(left).isEmpty(), is(true));
+        assertThat(arrangement.refresh(), is(equalTo(0)));
+    }
+}
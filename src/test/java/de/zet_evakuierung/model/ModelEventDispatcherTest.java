@@ -0,0 +1,149 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package de.zet_evakuierung.model;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import event.EventListener;
+import event.EventServer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests that the {@link ModelEventDispatcher} combines room events and keeps
+ * area events intact.
+ *
+ * @author Jan-Philipp Kappmeier
+ */
+public class ModelEventDispatcherTest {
+
+    private final ZControl control = new ZControl();
+    private final ModelEventDispatcher dispatcher = new ModelEventDispatcher(1000, 100);
+    private final List<ZModelAreaEvent> areaEvents = Collections.synchronizedList(new ArrayList<ZModelAreaEvent>());
+    private final List<ZModelRoomEvent> roomEvents = Collections.synchronizedList(new ArrayList<ZModelRoomEvent>());
+    private final EventListener<ZModelAreaEvent> areaListener = new EventListener<ZModelAreaEvent>() {
+        @Override
+        public void handleEvent(ZModelAreaEvent event) {
+            areaEvents.add(event);
+        }
+    };
+    private final EventListener<ZModelRoomEvent> roomListener = new EventListener<ZModelRoomEvent>() {
+        @Override
+        public void handleEvent(ZModelRoomEvent event) {
+            if (!(event instanceof ZModelAreaEvent)) {
+                roomEvents.add(event);
+            }
+        }
+    };
+
+    public ModelEventDispatcherTest() {
+        EventServer.getInstance().registerListener(areaListener, ZModelAreaEvent.class);
+        EventServer.getInstance().registerListener(roomListener, ZModelRoomEvent.class);
+    }
+
+    @After
+    public void shutdown() {
+        EventServer.getInstance().unregisterListener(areaListener);
+        EventServer.getInstance().unregisterListener(roomListener);
+        dispatcher.shutdown();
+    }
+
+    /**
+     * Removes the events sent synchronously while the plan is built.
+     */
+    private void clearEvents() {
+        areaEvents.clear();
+        roomEvents.clear();
+    }
+
+    private PlanPolygon<?> polygon(Class<?> type, Object parent, int... coordinates) {
+        control.createNewPolygon(type, parent);
+        for (int i = 0; i < coordinates.length; i += 2) {
+            control.addPoint(new PlanPoint(coordinates[i], coordinates[i + 1]));
+        }
+        control.addPoint(new PlanPoint(coordinates[0], coordinates[1]));
+        return control.latestPolygon();
+    }
+
+    @Test
+    public void testAreaEventKeepsArea() throws InterruptedException {
+        Room room = (Room) polygon(Room.class, control.getProject().getBuildingPlan().getFloors().get(1),
+                0, 0, 4000, 0, 4000, 4000, 0, 4000);
+        Room other = (Room) polygon(Room.class, control.getProject().getBuildingPlan().getFloors().get(1),
+                4000, 0, 8000, 0, 8000, 4000, 4000, 4000);
+        control.setEventDispatcher(dispatcher);
+        clearEvents();
+
+        control.movePoints(other.getPolygon().getPolygonPoints().subList(0, 1), 0, 100);
+        Area area = (Area) polygon(DelayArea.class, room, 0, 0, 1000, 0, 1000, 1000, 0, 1000);
+        assertThat(dispatcher.awaitDelivery(10, TimeUnit.SECONDS), is(true));
+
+        assertThat(areaEvents.size(), is(equalTo(1)));
+        assertThat(areaEvents.get(0).getAffectedArea(), is(sameInstance(area)));
+        assertThat(areaEvents.get(0).getAffectedRoom(), is(sameInstance(room)));
+        assertThat(roomEvents.size(), is(equalTo(1)));
+        assertThat(roomEvents.get(0).getAffectedRooms().contains(other), is(true));
+    }
+
+    @Test
+    public void testLatestEventPerArea() throws InterruptedException {
+        Room room = (Room) polygon(Room.class, control.getProject().getBuildingPlan().getFloors().get(1),
+                0, 0, 4000, 0, 4000, 4000, 0, 4000);
+        Area first = (Area) polygon(DelayArea.class, room, 0, 0, 1000, 0, 1000, 1000, 0, 1000);
+        Area second = (Area) polygon(DelayArea.class, room, 2000, 0, 3000, 0, 3000, 1000, 2000, 1000);
+        ZModelAreaEvent latest = new ZModelAreaEvent(room, first);
+        clearEvents();
+
+        dispatcher.post(new ZModelAreaEvent(room, first));
+        dispatcher.post(new ZModelAreaEvent(room, second));
+        dispatcher.post(latest);
+        assertThat(dispatcher.awaitDelivery(10, TimeUnit.SECONDS), is(true));
+
+        assertThat(areaEvents.size(), is(equalTo(2)));
+        assertThat(areaEvents.get(0), is(sameInstance(latest)));
+        assertThat(areaEvents.get(1).getAffectedArea(), is(sameInstance(second)));
+        assertThat(dispatcher.getDeliveredCount(), is(equalTo(2L)));
+    }
+
+    @Test
+    public void testCapacityExceededByAreas() throws InterruptedException {
+        ModelEventDispatcher small = new ModelEventDispatcher(1000, 1);
+        try {
+            Room room = (Room) polygon(Room.class, control.getProject().getBuildingPlan().getFloors().get(1),
+                    0, 0, 4000, 0, 4000, 4000, 0, 4000);
+            Area first = (Area) polygon(DelayArea.class, room, 0, 0, 1000, 0, 1000, 1000, 0, 1000);
+            Area second = (Area) polygon(DelayArea.class, room, 2000, 0, 3000, 0, 3000, 1000, 2000, 1000);
+            clearEvents();
+
+            small.post(new ZModelAreaEvent(room, first));
+            small.post(new ZModelAreaEvent(room, second));
+            assertThat(small.awaitDelivery(10, TimeUnit.SECONDS), is(true));
+
+            // Replaced by a generic event
+            assertThat(areaEvents.isEmpty(), is(true));
+            assertThat(small.getDeliveredCount(), is(equalTo(1L)));
+        } finally {
+            small.shutdown();
+        }
+    }
+}
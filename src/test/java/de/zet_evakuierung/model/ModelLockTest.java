@@ -0,0 +1,138 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package de.zet_evakuierung.model;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests that the {@link ModelLock} excludes readers during modifications and
+ * that the write lock is reentrant.
+ *
+ * @author Jan-Philipp Kappmeier
+ */
+public class ModelLockTest {
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private Future<Integer> readInBackground(final ModelLock lock, final int[] value) {
+        return executor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return lock.read(new ModelLock.Reader<Integer>() {
+                    @Override
+                    public Integer read() {
+                        return value[0];
+                    }
+                });
+            }
+        });
+    }
+
+    private static void assertBlocked(Future<?> future) throws Exception {
+        try {
+            future.get(200, TimeUnit.MILLISECONDS);
+            throw new AssertionError("Reader has not been blocked by the write lock.");
+        } catch (TimeoutException ex) {
+            // expected, the reader waits for the writer
+        }
+    }
+
+    @Test
+    public void testReaderExcluded() throws Exception {
+        ModelLock lock = new ModelLock();
+        int[] value = {1};
+        lock.lockWrite();
+        Future<Integer> reader;
+        try {
+            reader = readInBackground(lock, value);
+            assertBlocked(reader);
+            value[0] = 2;
+        } finally {
+            lock.unlockWrite();
+        }
+        assertThat(reader.get(5, TimeUnit.SECONDS), is(equalTo(2)));
+    }
+
+    @Test
+    public void testReentrant() throws Exception {
+        ModelLock lock = new ModelLock();
+        final int[] value = {1};
+        lock.lockWrite();
+        lock.lockWrite();
+        Future<Integer> reader = readInBackground(lock, value);
+        lock.unlockWrite();
+        assertThat(lock.isWriteLockedByCurrentThread(), is(true));
+        assertBlocked(reader);
+
+        // Reads of the writer itself do not block
+        assertThat(lock.read(new ModelLock.Reader<Integer>() {
+            @Override
+            public Integer read() {
+                return value[0];
+            }
+        }), is(equalTo(1)));
+
+        value[0] = 3;
+        lock.unlockWrite();
+        assertThat(lock.isWriteLockedByCurrentThread(), is(false));
+        assertThat(reader.get(5, TimeUnit.SECONDS), is(equalTo(3)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUnlockWithoutLock() {
+        ModelLock lock = new ModelLock();
+        lock.lockWrite();
+        lock.unlockWrite();
+        lock.unlockWrite();
+    }
+
+    @Test
+    public void testTransactionExcludesReaders() throws Exception {
+        final ZControl control = new ZControl();
+        control.begin();
+        Future<FrozenBuildingPlan> snapshot;
+        try {
+            control.createFloor("Second");
+            snapshot = executor.submit(new Callable<FrozenBuildingPlan>() {
+                @Override
+                public FrozenBuildingPlan call() {
+                    return control.freeze();
+                }
+            });
+            assertBlocked(snapshot);
+        } finally {
+            control.commit();
+        }
+        assertThat(snapshot.get(5, TimeUnit.SECONDS).floorCount(),
+                is(equalTo(control.getProject().getBuildingPlan().getFloors().size())));
+    }
+}
@@ -0,0 +1,159 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package de.zet_evakuierung.model;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Compares the queries of a {@link PersonIndex} with a linear scan over the
+ * persons.
+ *
+ * @author Jan-Philipp Kappmeier
+ */
+public class PersonIndexTest {
+
+    private static final double[] RADII = {0, 500, 2500, 10000};
+    private static final int[] NEIGHBORS = {1, 5, 20, 1000};
+
+    private final Random random = new Random(42);
+    private final Room room;
+
+    public PersonIndexTest() {
+        ZControl control = new ZControl();
+        control.createNewPolygon(Room.class, control.getProject().getBuildingPlan().getFloors().get(1));
+        control.addPoint(new PlanPoint(0, 0));
+        control.addPoint(new PlanPoint(100000, 0));
+        control.addPoint(new PlanPoint(100000, 100000));
+        control.addPoint(new PlanPoint(0, 100000));
+        control.addPoint(new PlanPoint(0, 0));
+        room = (Room) control.latestPolygon();
+    }
+
+    private List<Person> persons(int count) {
+        List<Person> persons = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            // every fourth person stands on the position of another one
+            PlanPoint position = i % 4 == 3
+                    ? new PlanPoint(persons.get(random.nextInt(i)).getPosition())
+                    : new PlanPoint(10000 + random.nextInt(80000), 10000 + random.nextInt(80000));
+            persons.add(new Person(position, room));
+        }
+        return persons;
+    }
+
+    private static int[][] positions(List<Person> persons) {
+        int[][] positions = new int[persons.size()][];
+        for (int i = 0; i < persons.size(); ++i) {
+            positions[i] = new int[]{persons.get(i).getPosition().getXInt(), persons.get(i).getPosition().getYInt()};
+        }
+        return positions;
+    }
+
+    private static double distanceSq(int[] position, int px, int py) {
+        double dx = position[0] - (double) px;
+        double dy = position[1] - (double) py;
+        return dx * dx + dy * dy;
+    }
+
+    private static int[] linearWithin(int[][] positions, int px, int py, double radius) {
+        int[] result = new int[positions.length];
+        int count = 0;
+        for (int i = 0; i < positions.length; ++i) {
+            if (distanceSq(positions[i], px, py) <= radius * radius) {
+                result[count++] = i;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static double[] linearNearest(int[][] positions, int px, int py, int k) {
+        double[] distances = new double[positions.length];
+        for (int i = 0; i < positions.length; ++i) {
+            distances[i] = distanceSq(positions[i], px, py);
+        }
+        Arrays.sort(distances);
+        return Arrays.copyOf(distances, Math.min(k, positions.length));
+    }
+
+    /**
+     * Compares the queries of the index at random points, some of them outside
+     * of the indexed area, with a linear scan over the given positions.
+     */
+    private void assertMatchesScan(PersonIndex index, int[][] positions) {
+        assertThat(index.size(), is(equalTo(positions.length)));
+        for (int q = 0; q < 200; ++q) {
+            int px = random.nextInt(120000) - 10000;
+            int py = random.nextInt(120000) - 10000;
+            for (double radius : RADII) {
+                int[] expected = linearWithin(positions, px, py, radius);
+                int[] within = index.within(px, py, radius);
+                Arrays.sort(within);
+                assertThat(Arrays.equals(within, expected), is(true));
+                assertThat(index.count(px, py, radius), is(equalTo(expected.length)));
+            }
+            for (int k : NEIGHBORS) {
+                int[] nearest = index.nearest(px, py, k);
+                double[] distances = new double[nearest.length];
+                for (int i = 0; i < nearest.length; ++i) {
+                    distances[i] = distanceSq(positions[nearest[i]], px, py);
+                }
+                assertThat(Arrays.equals(distances, linearNearest(positions, px, py, k)), is(true));
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesLinearScan() {
+        List<Person> persons = persons(500);
+        assertMatchesScan(new PersonIndex(persons), positions(persons));
+        assertMatchesScan(new PersonIndex(persons, 300), positions(persons));
+    }
+
+    @Test
+    public void testMovedAndRemovedPersons() {
+        List<Person> persons = persons(500);
+        int[][] before = positions(persons);
+        PersonIndex old = new PersonIndex(persons);
+
+        List<Person> remaining = new ArrayList<>(persons);
+        for (int i = 0; i < 100; ++i) {
+            remaining.remove(random.nextInt(remaining.size()));
+        }
+        for (int i = 0; i < remaining.size(); i += 3) {
+            remaining.get(i).getPosition().translate(random.nextInt(20001) - 10000, random.nextInt(20001) - 10000);
+        }
+
+        // the positions have been copied, the old index does not see the moves
+        assertMatchesScan(old, before);
+        assertMatchesScan(new PersonIndex(remaining), positions(remaining));
+    }
+
+    @Test
+    public void testEmpty() {
+        PersonIndex index = new PersonIndex(new ArrayList<Person>());
+        assertThat(index.count(0, 0, 1000), is(equalTo(0)));
+        assertThat(index.within(0, 0, 1000).length, is(equalTo(0)));
+        assertThat(index.nearest(0, 0, 3).length, is(equalTo(0)));
+    }
+}
@@ -0,0 +1,73 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package de.zet_evakuierung.model;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import de.zet_evakuierung.model.PolygonClipper.Operation;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Tests the boolean operations of {@link PolygonClipper}.
+ *
+ * @author Jan-Philipp Kappmeier
+ */
+public class PolygonClipperTest {
+
+    private static List<List<PlanPoint>> ring(int... coordinates) {
+        List<PlanPoint> ring = new ArrayList<>();
+        for (int i = 0; i < coordinates.length; i += 2) {
+            ring.add(new PlanPoint(coordinates[i], coordinates[i + 1]));
+        }
+        return Collections.singletonList(ring);
+    }
+
+    @Test
+    public void testOverlappingSquares() {
+        List<List<PlanPoint>> a = ring(0, 0, 600, 0, 600, 600, 0, 600);
+        List<List<PlanPoint>> b = ring(300, 300, 900, 300, 900, 900, 300, 900);
+        assertThat(PolygonClipper.area(PolygonClipper.clip(a, b, Operation.UNION)), is(equalTo(630000L)));
+        assertThat(PolygonClipper.area(PolygonClipper.clip(a, b, Operation.INTERSECTION)), is(equalTo(90000L)));
+        assertThat(PolygonClipper.area(PolygonClipper.clip(a, b, Operation.DIFFERENCE)), is(equalTo(270000L)));
+        assertThat(PolygonClipper.area(PolygonClipper.clip(a, b, Operation.XOR)), is(equalTo(540000L)));
+    }
+
+    @Test
+    public void testSharedEdge() {
+        List<List<PlanPoint>> a = ring(0, 0, 500, 0, 500, 500, 0, 500);
+        List<List<PlanPoint>> b = ring(500, 0, 1000, 0, 1000, 500, 500, 500);
+        List<List<PlanPoint>> union = PolygonClipper.clip(a, b, Operation.UNION);
+        assertThat(union.size(), is(equalTo(1)));
+        assertThat(union.get(0).size(), is(equalTo(4)));
+        assertThat(PolygonClipper.clip(a, b, Operation.INTERSECTION).isEmpty(), is(true));
+    }
+
+    @Test
+    public void testHole() {
+        List<List<PlanPoint>> room = ring(0, 0, 1000, 0, 1000, 1000, 0, 1000);
+        List<List<PlanPoint>> obstacles = new ArrayList<>();
+        obstacles.addAll(ring(100, 100, 400, 100, 400, 400, 100, 400));
+        obstacles.addAll(ring(300, 300, 600, 300, 600, 600, 300, 600));
+        List<List<PlanPoint>> free = PolygonClipper.clip(room, obstacles, Operation.DIFFERENCE);
+        assertThat(free.size(), is(equalTo(2)));
+        assertThat(PolygonClipper.area(free), is(equalTo(830000L)));
+    }
+}
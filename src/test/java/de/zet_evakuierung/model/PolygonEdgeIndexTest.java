@@ -0,0 +1,127 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package de.zet_evakuierung.model;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+/**
+ * Tests the {@link PolygonEdgeIndex} of the edges of a {@link PlanPolygon}.
+ *
+ * @author Jan-Philipp Kappmeier
+ */
+public class PolygonEdgeIndexTest {
+
+    private final ZControl control = new ZControl();
+
+    private Room room(int... coordinates) {
+        control.createNewPolygon(Room.class, control.getProject().getBuildingPlan().getFloors().get(1));
+        for (int i = 0; i < coordinates.length; i += 2) {
+            control.addPoint(new PlanPoint(coordinates[i], coordinates[i + 1]));
+        }
+        control.addPoint(new PlanPoint(coordinates[0], coordinates[1]));
+        return (Room) control.latestPolygon();
+    }
+
+    private static PlanPoint point(Room room, int x, int y) {
+        for (PlanPoint point : room.getPolygon().getPolygonPoints()) {
+            if (point.getXInt() == x && point.getYInt() == y) {
+                return point;
+            }
+        }
+        throw new IllegalArgumentException("No point at " + x + "," + y);
+    }
+
+    @Test
+    public void testLookup() {
+        Room room = room(0, 0, 1000, 0, 1000, 1000, 0, 1000);
+        RoomEdge edge = room.getPolygon().getEdge(new PlanPoint(1000, 0), new PlanPoint(1000, 1000));
+        assertThat(edge, is(notNullValue()));
+        assertThat(room.getPolygon().getEdge(new PlanPoint(1000, 400)), is(sameInstance(edge)));
+        assertThat(room.getPolygon().getEdge(new PlanPoint(500, 500)), is(nullValue()));
+    }
+
+    @Test
+    public void testMovedPoint() {
+        Room room = room(0, 0, 1000, 0, 1000, 1000, 0, 1000);
+        RoomEdge edge = room.getPolygon().getEdge(new PlanPoint(1000, 0), new PlanPoint(1000, 1000));
+        assertThat(room.getPolygon().getEdge(new PlanPoint(1000, 400)), is(sameInstance(edge)));
+
+        control.movePoints(Collections.singletonList(point(room, 1000, 1000)), 500, 0);
+        assertThat(room.getPolygon().getEdge(new PlanPoint(1000, 400)), is(nullValue()));
+        assertThat(room.getPolygon().getEdge(new PlanPoint(1250, 500)), is(sameInstance(edge)));
+        assertThat(room.getPolygon().getEdge(new PlanPoint(1000, 0), new PlanPoint(1500, 1000)), is(sameInstance(edge)));
+    }
+
+    @Test
+    public void testOtherRoomMoved() {
+        Room room = room(0, 0, 1000, 0, 1000, 1000, 0, 1000);
+        Room other = room(2000, 0, 3000, 0, 3000, 1000, 2000, 1000);
+        RoomEdge edge = room.getPolygon().getEdge(new PlanPoint(1000, 400));
+        control.movePoints(Collections.singletonList(point(other, 3000, 1000)), 10, 10);
+        assertThat(room.getPolygon().getEdge(new PlanPoint(1000, 400)), is(sameInstance(edge)));
+        assertThat(other.getPolygon().getEdge(new PlanPoint(3000, 0), new PlanPoint(3010, 1010)), is(notNullValue()));
+    }
+
+    @Test
+    public void testConcurrentReaders() throws InterruptedException {
+        int[] coordinates = new int[2 * 400];
+        for (int i = 0; i < 100; ++i) {
+            coordinates[2 * i] = 10 * i;
+            coordinates[2 * (100 + i)] = 1000;
+            coordinates[2 * (100 + i) + 1] = 10 * i;
+            coordinates[2 * (200 + i)] = 1000 - 10 * i;
+            coordinates[2 * (200 + i) + 1] = 1000;
+            coordinates[2 * (300 + i) + 1] = 1000 - 10 * i;
+        }
+        final RoomImpl room = (RoomImpl) room(coordinates);
+        final PolygonEdgeIndex<RoomEdge> index = new PolygonEdgeIndex<>(room.getEdges(), 0);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger misses = new AtomicInteger();
+        Thread[] readers = new Thread[8];
+        for (int t = 0; t < readers.length; ++t) {
+            readers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                    for (int y = 5; y < 1000; y += 10) {
+                        if (index.getOnEdge(new PlanPoint(1000, y), room, 0.01) == null) {
+                            misses.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            readers[t].start();
+        }
+        start.countDown();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertThat(misses.get(), is(0));
+    }
+}
@@ -0,0 +1,126 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package de.zet_evakuierung.model;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Tests finding and linking the {@link SharedWall}s of a floor.
+ *
+ * @author Jan-Philipp Kappmeier
+ */
+public class SharedWallTest {
+
+    private final ZControl control = new ZControl();
+    private final Floor floor = control.getProject().getBuildingPlan().getFloors().get(1);
+    private final Room left;
+    private final Room right;
+
+    public SharedWallTest() {
+        left = room(0, 0, 1000, 0, 1000, 1000, 0, 1000);
+        right = room(1000, 200, 2000, 200, 2000, 800, 1000, 800);
+    }
+
+    private Room room(int... coordinates) {
+        control.createNewPolygon(Room.class, floor);
+        for (int i = 0; i < coordinates.length; i += 2) {
+            control.addPoint(new PlanPoint(coordinates[i], coordinates[i + 1]));
+        }
+        control.addPoint(new PlanPoint(coordinates[0], coordinates[1]));
+        return (Room) control.latestPolygon();
+    }
+
+    private static PlanPoint point(Room room, int x, int y) {
+        for (PlanPoint point : room.getPolygon().getPolygonPoints()) {
+            if (point.getXInt() == x && point.getYInt() == y) {
+                return point;
+            }
+        }
+        throw new IllegalArgumentException("No point at " + x + "," + y);
+    }
+
+    private static RoomEdge door(Room room) {
+        return room.getPolygon().getEdge(point(room, 1000, 200), point(room, 1000, 800));
+    }
+
+    private static int passableEdges(Room room) {
+        int count = 0;
+        for (RoomEdge edge : room.getPolygon().getEdges()) {
+            if (edge.isPassable()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private long hash() {
+        return ContentHash.hash(control.getProject().getBuildingPlan());
+    }
+
+    private void assertLinked() {
+        assertThat(left.getPolygon().getNumberOfEdges(), is(equalTo(6)));
+        assertThat(right.getPolygon().getNumberOfEdges(), is(equalTo(4)));
+        assertThat(passableEdges(left), is(equalTo(1)));
+        assertThat(passableEdges(right), is(equalTo(1)));
+        assertThat(door(left).getLinkTarget(), is(sameInstance(door(right))));
+        assertThat(door(right).getLinkTarget(), is(sameInstance(door(left))));
+    }
+
+    @Test
+    public void testFindAll() {
+        List<SharedWall> walls = SharedWall.findAll(floor);
+        assertThat(walls.size(), is(equalTo(1)));
+        assertThat(walls.get(0).length(), is(equalTo(600.0)));
+    }
+
+    @Test
+    public void testLink() {
+        assertThat(control.linkSharedWalls(floor), is(equalTo(1)));
+        assertLinked();
+    }
+
+    @Test
+    public void testLinkTwice() {
+        control.linkSharedWalls(floor);
+        long linked = hash();
+        assertThat(control.linkSharedWalls(floor), is(equalTo(0)));
+        assertThat(hash(), is(equalTo(linked)));
+        assertLinked();
+    }
+
+    @Test
+    public void testUndoRedoLink() {
+        long before = hash();
+        control.linkSharedWalls(floor);
+        long after = hash();
+
+        assertThat(control.undo(), is(true));
+        assertThat(hash(), is(equalTo(before)));
+        assertThat(left.getPolygon().getNumberOfEdges(), is(equalTo(4)));
+        assertThat(passableEdges(left), is(equalTo(0)));
+        assertThat(passableEdges(right), is(equalTo(0)));
+
+        assertThat(control.redo(), is(true));
+        assertThat(hash(), is(equalTo(after)));
+        assertLinked();
+    }
+}
@@ -0,0 +1,233 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package de.zet_evakuierung.model;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+/**
+ * Tests transactions of the {@link ZControl}, that is modifications between
+ * {@link ZControl#begin()} and {@link ZControl#commit()} or
+ * {@link ZControl#rollback()}.
+ *
+ * @author Jan-Philipp Kappmeier
+ */
+public class TransactionTest {
+
+    private final ZControl control = new ZControl();
+
+    private PlanPolygon<?> polygon(Class<?> type, Object parent, int... coordinates) {
+        control.createNewPolygon(type, parent);
+        for (int i = 0; i < coordinates.length; i += 2) {
+            control.addPoint(new PlanPoint(coordinates[i], coordinates[i + 1]));
+        }
+        control.addPoint(new PlanPoint(coordinates[0], coordinates[1]));
+        return control.latestPolygon();
+    }
+
+    private Room room(int... coordinates) {
+        return (Room) polygon(Room.class, control.getProject().getBuildingPlan().getFloors().get(1), coordinates);
+    }
+
+    private static PlanPoint point(PlanPolygon<?> polygon, int x, int y) {
+        for (PlanPoint point : polygon.getPolygonPoints()) {
+            if (point.getXInt() == x && point.getYInt() == y) {
+                return point;
+            }
+        }
+        throw new IllegalArgumentException("No point at " + x + "," + y);
+    }
+
+    private static boolean hasPoint(PlanPolygon<?> polygon, int x, int y) {
+        for (PlanPoint point : polygon.getPolygonPoints()) {
+            if (point.getXInt() == x && point.getYInt() == y) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long hash() {
+        return ContentHash.hash(control.getProject().getBuildingPlan());
+    }
+
+    @Test
+    public void testMoveAreasAfterMovingWall() {
+        Room room = room(0, 0, 4000, 0, 4000, 4000, 0, 4000);
+        PlanPolygon<?> walls = room.getPolygon();
+        Area area = (Area) polygon(InaccessibleArea.class, room, 3000, 1000, 3500, 1000, 3500, 1500, 3000, 1500);
+
+        control.begin();
+        control.movePoints(Arrays.asList(point(walls, 4000, 0), point(walls, 4000, 4000)), 2000, 0);
+        // the area only fits into the room with the moved east wall
+        control.moveAreas(Collections.singletonList(area), 1500, 0, room);
+        control.commit();
+
+        assertThat(walls.boundRight(), is(equalTo(6000)));
+        assertThat(hasPoint((PlanPolygon<?>) area, 4500, 1000), is(true));
+        assertThat(((PlanPolygon<?>) area).boundRight(), is(equalTo(5000)));
+    }
+
+    @Test
+    public void testBoundsDuringTransaction() {
+        Room room = room(0, 0, 4000, 0, 4000, 4000, 0, 4000);
+        PlanPolygon<?> walls = room.getPolygon();
+
+        control.begin();
+        control.movePoints(Collections.singletonList(point(walls, 4000, 4000)), 1000, 500);
+        assertThat(walls.boundRight(), is(equalTo(5000)));
+        assertThat(walls.boundLower(), is(equalTo(4500)));
+        assertThat(walls.contains(new PlanPoint(4500, 4000)), is(true));
+        control.commit();
+    }
+
+    @Test
+    public void testCreateDoorAfterMovingWall() {
+        Room left = room(0, 0, 1000, 0, 1000, 1000, 0, 1000);
+        Room right = room(2000, 0, 3000, 0, 3000, 1000, 2000, 1000);
+        PlanPolygon<?> walls = right.getPolygon();
+
+        control.begin();
+        control.movePoints(Arrays.asList(point(walls, 2000, 0), point(walls, 2000, 1000)), -1000, 0);
+        RoomEdge wall = left.getPolygon().getEdge(point(left.getPolygon(), 1000, 0), point(left.getPolygon(), 1000, 1000));
+        control.createDoor(wall, new PlanPoint(1000, 500), 400);
+        control.commit();
+
+        RoomEdge door = left.getPolygon().getEdge(new PlanPoint(1000, 300), new PlanPoint(1000, 700));
+        assertThat(door.isPassable(), is(true));
+        assertThat(door.getLinkTarget().getRoom(), is(equalTo(right)));
+    }
+
+    @Test
+    public void testRollback() {
+        Room room = room(0, 0, 1000, 0, 1000, 1000, 0, 1000);
+        PlanPolygon<?> walls = room.getPolygon();
+        long before = hash();
+
+        control.begin();
+        control.movePoints(Collections.singletonList(point(walls, 1000, 1000)), 500, 200);
+        control.insertPoint(walls.getEdge(point(walls, 0, 0), point(walls, 1000, 0)), new PlanPoint(500, 0));
+        control.renameRoom(room, "Storage");
+        assertThat(walls.boundRight(), is(equalTo(1500)));
+        control.rollback();
+
+        assertThat(hash(), is(equalTo(before)));
+        assertThat(walls.getNumberOfEdges(), is(equalTo(4)));
+        assertThat(walls.boundRight(), is(equalTo(1000)));
+        assertThat(walls.boundLower(), is(equalTo(1000)));
+        assertThat(control.inTransaction(), is(false));
+    }
+
+    @Test
+    public void testFailedMoveIsReverted() {
+        Room room = room(0, 0, 1000, 0, 1000, 1000, 0, 1000);
+        PlanPolygon<?> walls = room.getPolygon();
+        PlanPoint corner = point(walls, 1000, 1000);
+        long before = hash();
+        int steps = control.getHistory().getUndoCount();
+
+        try {
+            control.movePoints(Arrays.asList(corner, new PlanPoint(5000, 5000)), 500, 200);
+            fail("A point without polygon cannot be moved");
+        } catch (RuntimeException ex) {
+            // expected
+        }
+        assertThat(hash(), is(equalTo(before)));
+        assertThat(corner.getXInt(), is(equalTo(1000)));
+        assertThat(walls.boundRight(), is(equalTo(1000)));
+        assertThat(control.getHistory().getUndoCount(), is(equalTo(steps)));
+        assertThat(control.inTransaction(), is(false));
+
+        control.movePoints(Collections.singletonList(corner), 500, 200);
+        assertThat(walls.boundRight(), is(equalTo(1500)));
+    }
+
+    @Test
+    public void testFailedOperationInTransaction() {
+        Room room = room(0, 0, 1000, 0, 1000, 1000, 0, 1000);
+        PlanPolygon<?> walls = room.getPolygon();
+        PlanPoint corner = point(walls, 1000, 1000);
+        RoomEdge outerWall = room.getPolygon().getEdge(point(walls, 0, 0), point(walls, 1000, 0));
+        int steps = control.getHistory().getUndoCount();
+
+        control.begin();
+        control.movePoints(Collections.singletonList(corner), 500, 200);
+        try {
+            control.createDoor(outerWall, new PlanPoint(500, 0), 400);
+            fail("A door needs a neighbouring room");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+        assertThat(control.inTransaction(), is(true));
+        assertThat(walls.getNumberOfEdges(), is(equalTo(4)));
+        control.commit();
+
+        assertThat(control.getHistory().getUndoCount(), is(equalTo(steps + 1)));
+        assertThat(corner.getXInt(), is(equalTo(1500)));
+        control.undo();
+        assertThat(corner.getXInt(), is(equalTo(1000)));
+    }
+
+    @Test
+    public void testFailedDoorIsReverted() {
+        Room room = room(0, 0, 1000, 0, 1000, 1000, 0, 1000);
+        PlanPolygon<?> walls = room.getPolygon();
+        RoomEdge outerWall = room.getPolygon().getEdge(point(walls, 0, 0), point(walls, 1000, 0));
+        long before = hash();
+        int steps = control.getHistory().getUndoCount();
+
+        try {
+            control.createDoor(outerWall, new PlanPoint(500, 0), 400);
+            fail("A door needs a neighbouring room");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+        assertThat(hash(), is(equalTo(before)));
+        assertThat(walls.getNumberOfEdges(), is(equalTo(4)));
+        assertThat(control.getHistory().getUndoCount(), is(equalTo(steps)));
+        assertThat(control.inTransaction(), is(false));
+    }
+
+    @Test
+    public void testReadingOutdatedBoundsDoesNotStoreThem() {
+        Room room = room(0, 0, 1000, 0, 1000, 1000, 0, 1000);
+        PlanPolygon<?> walls = room.getPolygon();
+        PlanPoint corner = point(walls, 1000, 1000);
+
+        corner.translate(500, 0);
+        walls.invalidateBounds();
+        assertThat(walls.boundRight(), is(equalTo(1500)));
+        // Still outdated, the read has not marked the bounds as valid
+        corner.translate(500, 0);
+        assertThat(walls.boundRight(), is(equalTo(2000)));
+        assertThat(walls.bounds().width, is(equalTo(2000)));
+
+        walls.recomputeBounds();
+        corner.translate(-1000, 0);
+        assertThat(walls.boundRight(), is(equalTo(2000)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCommitWithoutTransaction() {
+        control.commit();
+    }
+}
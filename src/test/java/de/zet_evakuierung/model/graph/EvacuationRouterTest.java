@@ -0,0 +1,172 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package de.zet_evakuierung.model.graph;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import de.zet_evakuierung.model.EvacuationArea;
+import de.zet_evakuierung.model.Floor;
+import de.zet_evakuierung.model.InaccessibleArea;
+import de.zet_evakuierung.model.PlanPoint;
+import de.zet_evakuierung.model.PlanPolygon;
+import de.zet_evakuierung.model.Room;
+import de.zet_evakuierung.model.RoomEdge;
+import de.zet_evakuierung.model.ZControl;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Tests the routes computed by the {@link EvacuationRouter} on a floor with
+ * two rooms connected by a door.
+ *
+ * @author Jan-Philipp Kappmeier
+ */
+public class EvacuationRouterTest {
+
+    private static final double EPSILON = 1e-9;
+
+    private final ZControl control = new ZControl();
+    private final Floor floor = control.getProject().getBuildingPlan().getFloors().get(1);
+    private final Room left = room(0, 0, 2000, 0, 2000, 2000, 0, 2000);
+    private final Room right = room(2000, 0, 4000, 0, 4000, 2000, 2000, 2000);
+    private final EvacuationArea rightExit;
+
+    public EvacuationRouterTest() {
+        RoomEdge wall = left.getPolygon().getEdge(point(left.getPolygon(), 2000, 0), point(left.getPolygon(), 2000, 2000));
+        control.createDoor(wall, new PlanPoint(2000, 1000), 400);
+        rightExit = (EvacuationArea) polygon(EvacuationArea.class, right, 3400, 800, 3800, 800, 3800, 1200, 3400, 1200);
+    }
+
+    private Object polygon(Class<?> type, Object parent, int... coordinates) {
+        control.createNewPolygon(type, parent);
+        for (int i = 0; i < coordinates.length; i += 2) {
+            control.addPoint(new PlanPoint(coordinates[i], coordinates[i + 1]));
+        }
+        control.addPoint(new PlanPoint(coordinates[0], coordinates[1]));
+        return control.latestPolygon();
+    }
+
+    private Room room(int... coordinates) {
+        return (Room) polygon(Room.class, floor, coordinates);
+    }
+
+    private static PlanPoint point(PlanPolygon<?> polygon, int x, int y) {
+        for (PlanPoint point : polygon.getPolygonPoints()) {
+            if (point.getXInt() == x && point.getYInt() == y) {
+                return point;
+            }
+        }
+        throw new IllegalArgumentException("No point at " + x + "," + y);
+    }
+
+    private static void assertPoints(Route route, int... coordinates) {
+        List<PlanPoint> points = route.getPoints();
+        assertThat(points.size(), is(equalTo(coordinates.length / 2)));
+        for (int i = 0; i < points.size(); ++i) {
+            assertThat(points.get(i).getXInt(), is(equalTo(coordinates[2 * i])));
+            assertThat(points.get(i).getYInt(), is(equalTo(coordinates[2 * i + 1])));
+        }
+    }
+
+    private static void assertLength(Route route, double length) {
+        assertThat(Math.abs(route.getLength() - length) < EPSILON, is(true));
+        assertThat(Math.abs(route.getTravelTime() - length / DoorGraph.DEFAULT_SPEED) < EPSILON, is(true));
+    }
+
+    @Test
+    public void testRouteThroughDoor() {
+        Route route = new EvacuationRouter(control.getProject().getBuildingPlan()).route(new PlanPoint(1000, 1000), floor);
+
+        assertThat(route.getTarget(), is(sameInstance(rightExit)));
+        assertPoints(route, 1000, 1000, 2000, 1000, 3600, 1000);
+        assertLength(route, 2.6);
+        for (Object f : route.getFloors()) {
+            assertThat(f, is(sameInstance((Object) floor)));
+        }
+    }
+
+    @Test
+    public void testRouteAroundObstacle() {
+        polygon(InaccessibleArea.class, left, 1400, 600, 1600, 600, 1600, 1400, 1400, 1400);
+        Route route = new EvacuationRouter(control.getProject().getBuildingPlan()).route(new PlanPoint(1000, 1000), floor);
+
+        assertThat(route.getTarget(), is(sameInstance(rightExit)));
+        assertThat(route.getPoints().size(), is(equalTo(5)));
+        assertLength(route, (2 * Math.hypot(400, 400) + 200 + 1600) / 1000);
+    }
+
+    @Test
+    public void testNearestAndChosenExit() {
+        EvacuationArea leftExit = (EvacuationArea) polygon(EvacuationArea.class, left, 200, 800, 600, 800, 600, 1200, 200, 1200);
+        EvacuationRouter router = new EvacuationRouter(control.getProject().getBuildingPlan());
+
+        Route nearest = router.route(new PlanPoint(1000, 1000), floor);
+        assertThat(nearest.getTarget(), is(sameInstance(leftExit)));
+        assertPoints(nearest, 1000, 1000, 400, 1000);
+        assertLength(nearest, 0.6);
+
+        Route chosen = router.route(new PlanPoint(1000, 1000), floor, rightExit);
+        assertThat(chosen.getTarget(), is(sameInstance(rightExit)));
+        assertLength(chosen, 2.6);
+
+        Route back = router.route(new PlanPoint(3000, 1000), floor, leftExit);
+        assertPoints(back, 3000, 1000, 2000, 1000, 400, 1000);
+    }
+
+    @Test
+    public void testUnreachableExit() {
+        room(5000, 0, 6000, 0, 6000, 1000, 5000, 1000);
+        Route route = new EvacuationRouter(control.getProject().getBuildingPlan()).route(new PlanPoint(5500, 500), floor);
+        assertThat(route, is(nullValue()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPointOutsideRooms() {
+        new EvacuationRouter(control.getProject().getBuildingPlan()).route(new PlanPoint(1000, 3000), floor);
+    }
+
+    @Test
+    public void testConcurrentQueries() throws InterruptedException {
+        polygon(InaccessibleArea.class, left, 1400, 600, 1600, 600, 1600, 1400, 1400, 1400);
+        final EvacuationRouter router = new EvacuationRouter(control.getProject().getBuildingPlan());
+        final double expected = router.route(new PlanPoint(200, 200), floor).getLength();
+        final boolean[] failed = new boolean[1];
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; ++t) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 200; ++i) {
+                        Route route = router.route(new PlanPoint(200, 200), floor);
+                        Route other = router.route(new PlanPoint(3000, 1500), floor);
+                        if (route.getLength() != expected || other.getTarget() == null) {
+                            failed[0] = true;
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(failed[0], is(false));
+    }
+}
@@ -0,0 +1,150 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package de.zet_evakuierung.model.graph;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import de.zet_evakuierung.model.InaccessibleArea;
+import de.zet_evakuierung.model.PlanPoint;
+import de.zet_evakuierung.model.Room;
+import de.zet_evakuierung.model.RoomEdge;
+import de.zet_evakuierung.model.RoomImpl;
+import de.zet_evakuierung.model.ZControl;
+import java.util.Collections;
+import org.junit.Test;
+
+/**
+ * Tests the decomposition of rooms into convex cells by {@link NavigationMesh}.
+ *
+ * @author Jan-Philipp Kappmeier
+ */
+public class NavigationMeshTest {
+
+    private final ZControl control = new ZControl();
+
+    private Object polygon(Class<?> type, Object parent, int... coordinates) {
+        control.createNewPolygon(type, parent);
+        for (int i = 0; i < coordinates.length; i += 2) {
+            control.addPoint(new PlanPoint(coordinates[i], coordinates[i + 1]));
+        }
+        control.addPoint(new PlanPoint(coordinates[0], coordinates[1]));
+        return control.latestPolygon();
+    }
+
+    private RoomImpl room(int... coordinates) {
+        return (RoomImpl) polygon(Room.class, control.getProject().getBuildingPlan().getFloors().get(1), coordinates);
+    }
+
+    private static PlanPoint point(Room room, int x, int y) {
+        for (PlanPoint point : room.getPolygon().getPolygonPoints()) {
+            if (point.getXInt() == x && point.getYInt() == y) {
+                return point;
+            }
+        }
+        throw new IllegalArgumentException("No point at " + x + "," + y);
+    }
+
+    private static boolean hasVertex(NavigationMesh mesh, int x, int y) {
+        for (int v = 0; v < mesh.vertexCount(); ++v) {
+            if (mesh.getX(v) == x && mesh.getY(v) == y) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long area(NavigationMesh mesh) {
+        long area = 0;
+        for (int c = 0; c < mesh.cellCount(); ++c) {
+            for (int i = 0; i < mesh.cornerCount(c); ++i) {
+                int u = mesh.corner(c, i);
+                int v = mesh.corner(c, (i + 1) % mesh.cornerCount(c));
+                area += (long) mesh.getX(u) * mesh.getY(v) - (long) mesh.getX(v) * mesh.getY(u);
+            }
+        }
+        return Math.abs(area) / 2;
+    }
+
+    @Test
+    public void testCache() {
+        RoomImpl room = room(0, 0, 1000, 0, 1000, 1000, 0, 1000);
+        NavigationMesh mesh = room.getNavigationMesh(false);
+        assertThat(room.getNavigationMesh(false), is(sameInstance(mesh)));
+
+        // a move that leaves a linear combination of the coordinates unchanged
+        control.movePoints(Collections.singletonList(point(room, 1000, 1000)), 1, -31);
+        NavigationMesh moved = room.getNavigationMesh(false);
+        assertThat(moved, is(not(sameInstance(mesh))));
+        assertThat(hasVertex(moved, 1001, 969), is(true));
+
+        polygon(InaccessibleArea.class, room, 200, 200, 400, 200, 400, 400, 200, 400);
+        NavigationMesh withObstacle = room.getNavigationMesh(false);
+        assertThat(withObstacle, is(not(sameInstance(moved))));
+        assertThat(hasVertex(withObstacle, 400, 400), is(true));
+    }
+
+    @Test
+    public void testCellsCoverWalkableArea() {
+        RoomImpl room = room(0, 0, 1000, 0, 1000, 1000, 0, 1000);
+        polygon(InaccessibleArea.class, room, 200, 200, 400, 200, 400, 400, 200, 400);
+        assertThat(area(room.getNavigationMesh(false)), is(equalTo(1000L * 1000 - 200 * 200)));
+    }
+
+    @Test
+    public void testObstacleTouchingWall() {
+        RoomImpl room = room(0, 0, 1000, 0, 1000, 1000, 0, 1000);
+        polygon(InaccessibleArea.class, room, 800, 400, 1000, 400, 1000, 600, 800, 600);
+        assertThat(area(room.getNavigationMesh(false)), is(equalTo(1000L * 1000 - 200 * 200)));
+    }
+
+    @Test
+    public void testTouchingObstacles() {
+        // three obstacles cut off a walkable pocket in the corner of the room
+        RoomImpl room = room(0, 0, 4000, 0, 4000, 4000, 0, 4000);
+        polygon(InaccessibleArea.class, room, 3500, 500, 4000, 500, 4000, 1000, 3500, 1000);
+        polygon(InaccessibleArea.class, room, 3500, 0, 3900, 0, 3900, 500, 3500, 500);
+        polygon(InaccessibleArea.class, room, 3100, 500, 3500, 500, 3500, 1000, 3100, 1000);
+        assertThat(area(room.getNavigationMesh(false)), is(equalTo(4000L * 4000 - 500 * 500 - 400 * 500 - 400 * 500)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testOverlappingObstacles() {
+        RoomImpl room = room(0, 0, 1000, 0, 1000, 1000, 0, 1000);
+        polygon(InaccessibleArea.class, room, 200, 200, 500, 200, 500, 500, 200, 500);
+        polygon(InaccessibleArea.class, room, 400, 400, 700, 400, 700, 700, 400, 700);
+        room.getNavigationMesh(false);
+    }
+
+    @Test
+    public void testDoorNextToObstacle() {
+        RoomImpl room = room(0, 0, 4000, 0, 4000, 1000, 4000, 2000, 4000, 4000, 0, 4000);
+        RoomImpl other = room(4000, 0, 8000, 0, 8000, 4000, 4000, 4000, 4000, 2000, 4000, 1000);
+        RoomEdge door = room.getPolygon().getEdge(point(room, 4000, 1000), point(room, 4000, 2000));
+        RoomEdge partner = other.getPolygon().getEdge(point(other, 4000, 1000), point(other, 4000, 2000));
+        door.setLinkTarget(partner);
+        partner.setLinkTarget(door);
+        // the obstacle touches the wall at the end of the door
+        polygon(InaccessibleArea.class, room, 3600, 2000, 4000, 2000, 4000, 2400, 3600, 2400);
+        NavigationMesh mesh = room.getNavigationMesh(false);
+        assertThat(mesh.getDoors().size(), is(equalTo(1)));
+        assertThat(mesh.doorCell(0) >= 0, is(true));
+        assertThat(area(mesh), is(equalTo(4000L * 4000 - 400 * 400)));
+    }
+}
@@ -0,0 +1,144 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package de.zet_evakuierung.model.graph;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import de.zet_evakuierung.model.EvacuationArea;
+import de.zet_evakuierung.model.InaccessibleArea;
+import de.zet_evakuierung.model.PlanPoint;
+import de.zet_evakuierung.model.PlanPolygon;
+import de.zet_evakuierung.model.Room;
+import de.zet_evakuierung.model.RoomImpl;
+import de.zet_evakuierung.model.ZControl;
+import java.util.Collections;
+import org.junit.Test;
+
+/**
+ * Tests the caching of the {@link RoomVisibilityGraph} of a room.
+ *
+ * @author Jan-Philipp Kappmeier
+ */
+public class RoomVisibilityGraphTest {
+
+    private final ZControl control = new ZControl();
+
+    private Object polygon(Class<?> type, Object parent, int... coordinates) {
+        control.createNewPolygon(type, parent);
+        for (int i = 0; i < coordinates.length; i += 2) {
+            control.addPoint(new PlanPoint(coordinates[i], coordinates[i + 1]));
+        }
+        control.addPoint(new PlanPoint(coordinates[0], coordinates[1]));
+        return control.latestPolygon();
+    }
+
+    private RoomImpl room(int... coordinates) {
+        return (RoomImpl) polygon(Room.class, control.getProject().getBuildingPlan().getFloors().get(1), coordinates);
+    }
+
+    private static PlanPoint point(PlanPolygon<?> polygon, int x, int y) {
+        for (PlanPoint point : polygon.getPolygonPoints()) {
+            if (point.getXInt() == x && point.getYInt() == y) {
+                return point;
+            }
+        }
+        throw new IllegalArgumentException("No point at " + x + "," + y);
+    }
+
+    private static boolean hasVertex(RoomVisibilityGraph graph, int x, int y) {
+        for (int v = 0; v < graph.vertexCount(); ++v) {
+            if (graph.getX(v) == x && graph.getY(v) == y) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testCache() {
+        RoomImpl room = room(0, 0, 1000, 0, 1000, 1000, 0, 1000);
+        RoomVisibilityGraph graph = room.getVisibilityGraph();
+        assertThat(room.getVisibilityGraph(), is(sameInstance(graph)));
+
+        // a move that leaves a linear combination of the coordinates unchanged
+        control.movePoints(Collections.singletonList(point(room.getPolygon(), 1000, 1000)), 1, -31);
+        RoomVisibilityGraph moved = room.getVisibilityGraph();
+        assertThat(moved, is(not(sameInstance(graph))));
+        assertThat(room.getVisibilityGraph(), is(sameInstance(moved)));
+
+        InaccessibleArea obstacle = (InaccessibleArea) polygon(InaccessibleArea.class, room, 200, 200, 400, 200, 400, 400, 200, 400);
+        RoomVisibilityGraph withObstacle = room.getVisibilityGraph();
+        assertThat(withObstacle, is(not(sameInstance(moved))));
+        assertThat(hasVertex(withObstacle, 400, 400), is(true));
+
+        control.movePoints(Collections.singletonList(point(obstacle, 400, 400)), 1, -31);
+        RoomVisibilityGraph obstacleMoved = room.getVisibilityGraph();
+        assertThat(obstacleMoved, is(not(sameInstance(withObstacle))));
+        assertThat(hasVertex(obstacleMoved, 401, 369), is(true));
+    }
+
+    @Test
+    public void testExitChangesGraph() {
+        RoomImpl room = room(0, 0, 1000, 0, 1000, 1000, 0, 1000);
+        RoomVisibilityGraph graph = room.getVisibilityGraph();
+        polygon(EvacuationArea.class, room, 600, 600, 800, 600, 800, 800, 600, 800);
+        RoomVisibilityGraph withExit = room.getVisibilityGraph();
+        assertThat(withExit, is(not(sameInstance(graph))));
+        assertThat(withExit.terminalCount(), is(1));
+    }
+
+    @Test
+    public void testLinesThroughObstacleCorners() {
+        RoomImpl room = room(-2000, -2000, 3000, -2000, 3000, 3000, -2000, 3000);
+        polygon(InaccessibleArea.class, room, 0, 0, 400, 0, 400, 400, 0, 400);
+        polygon(InaccessibleArea.class, room, 1000, 1000, 1400, 1000, 1400, 1400, 1000, 1400);
+        RoomVisibilityGraph graph = room.getVisibilityGraph();
+
+        // diagonals entering and leaving the pillars at their corners
+        assertThat(graph.isVisible(-1000, -1000, 1000, 1000), is(false));
+        assertThat(graph.isVisible(0, 0, 1400, 1400), is(false));
+        assertThat(graph.isVisible(0, 0, 400, 400), is(false));
+        assertThat(graph.isVisible(-1000, -1000, 200, 200), is(false));
+        assertThat(graph.isVisible(400, 400, 1000, 1000), is(true));
+        assertThat(graph.isVisible(-1000, -1000, 0, 0), is(true));
+
+        // lines touching a corner from outside and running along the sides
+        assertThat(graph.isVisible(-400, 400, 400, -400), is(true));
+        assertThat(graph.isVisible(0, -1000, 0, 2000), is(true));
+        assertThat(graph.isVisible(-1000, 400, 2000, 400), is(true));
+        assertThat(graph.isVisible(-1000, 200, 2000, 200), is(false));
+    }
+
+    @Test
+    public void testPathAroundObstacleCorners() {
+        RoomImpl room = room(-2000, -2000, 3000, -2000, 3000, 3000, -2000, 3000);
+        polygon(InaccessibleArea.class, room, 0, 0, 400, 0, 400, 400, 0, 400);
+        polygon(EvacuationArea.class, room, -1200, -1200, -800, -1200, -800, -800, -1200, -800);
+        polygon(EvacuationArea.class, room, 1000, 1000, 1400, 1000, 1400, 1400, 1000, 1400);
+        RoomVisibilityGraph graph = room.getVisibilityGraph();
+
+        // the straight line between the exits runs through the pillar, the path
+        // passes one of its corners
+        double straight = Math.hypot(2200, 2200) / 1000;
+        double around = (Math.hypot(1400, 1000) + Math.hypot(800, 1200)) / 1000;
+        assertThat(Math.abs(graph.distance(0, 1) - around) < 1e-9, is(true));
+        assertThat(graph.distance(0, 1) > straight, is(true));
+        assertThat(graph.path(0, 1).length, is(3));
+    }
+}
@@ -0,0 +1,117 @@
+/* zet evacuation tool copyright (c) 2007-20 zet evacuation team
+ *
+ * This program is free software; you can redistribute it and/or
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package de.zet_evakuierung.model.replica;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import de.zet_evakuierung.model.AssignmentArea;
+import de.zet_evakuierung.model.PlanPoint;
+import de.zet_evakuierung.model.Room;
+import de.zet_evakuierung.model.ZControl;
+import de.zet_evakuierung.model.replica.ReplicaFile.Column;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.Test;
+
+/**
+ * Tests the files written by the {@link ReplicaGenerator}.
+ *
+ * @author Jan-Philipp Kappmeier
+ */
+public class ReplicaGeneratorTest {
+
+    private final ZControl control = new ZControl();
+
+    public ReplicaGeneratorTest() {
+        Room room = polygon(Room.class, control.getProject().getBuildingPlan().getFloors().get(1), 0, 0, 10000, 0, 10000, 10000, 0, 10000);
+        ((AssignmentArea) polygon(AssignmentArea.class, room, 0, 0, 4000, 0, 4000, 4000, 0, 4000)).setEvacuees(30);
+        ((AssignmentArea) polygon(AssignmentArea.class, room, 5000, 5000, 9000, 5000, 9000, 9000, 5000, 9000)).setEvacuees(21);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T polygon(Class<T> type, Object parent, int... coordinates) {
+        control.createNewPolygon(type, parent);
+        for (int i = 0; i < coordinates.length; i += 2) {
+            control.addPoint(new PlanPoint(coordinates[i], coordinates[i + 1]));
+        }
+        control.addPoint(new PlanPoint(coordinates[0], coordinates[1]));
+        return (T) control.latestPolygon();
+    }
+
+    private ReplicaGenerator generator(boolean compressed) {
+        ReplicaGenerator generator = new ReplicaGenerator(control.getProject().getCurrentAssignment(), 42);
+        generator.setChunkSize(16);
+        generator.setCompressed(compressed);
+        return generator;
+    }
+
+    private static Path file() throws IOException {
+        Path file = Files.createTempFile("replicas", ".bin");
+        file.toFile().deleteOnExit();
+        return file;
+    }
+
+    private void assertRoundTrip(boolean compressed) throws IOException, InterruptedException {
+        ReplicaGenerator generator = generator(compressed);
+        Path file = file();
+        generator.generate(file, 5, 2);
+        try (ReplicaFile replicas = new ReplicaFile(file)) {
+            assertThat(replicas.getReplicaCount(), is(equalTo(5)));
+            assertThat(replicas.getPersonCount(), is(equalTo(51)));
+            assertThat(replicas.isCompressed(), is(compressed));
+            for (int r = 0; r < 5; ++r) {
+                Object[] columns = generator.generate(r);
+                ReplicaFile.Replica replica = replicas.getReplica(r);
+                assertThat(replica.size(), is(equalTo(51)));
+                for (Column column : Column.values()) {
+                    for (int i = 0; i < 51; ++i) {
+                        if (columns[column.ordinal()] instanceof int[]) {
+                            assertThat(replica.getInt(column, i), is(equalTo(((int[]) columns[column.ordinal()])[i])));
+                        } else {
+                            assertThat(replica.getDouble(column, i), is(equalTo(((double[]) columns[column.ordinal()])[i])));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRoundTripCompressed() throws IOException, InterruptedException {
+        assertRoundTrip(true);
+    }
+
+    @Test
+    public void testRoundTripUncompressed() throws IOException, InterruptedException {
+        assertRoundTrip(false);
+    }
+
+    @Test
+    public void testIndependentOfThreads() throws IOException, InterruptedException {
+        Path single = file();
+        generator(true).generate(single, 12, 1);
+        byte[] expected = Files.readAllBytes(single);
+        for (int threads : new int[]{2, 3, 8}) {
+            Path parallel = file();
+            generator(true).generate(parallel, 12, threads);
+            assertThat(Arrays.equals(Files.readAllBytes(parallel), expected), is(true));
+        }
+    }
+}